@@ -0,0 +1,154 @@
+package nz.ac.canterbury.seng302.identityprovider.authentication;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of verified session tokens, so the same token arriving many times (e.g. during a single page
+ * render) only has its signature checked and claims parsed once. Entries are keyed on a SHA-256 digest of the token
+ * rather than the token itself, and are dropped once the token's 'exp' claim has passed. When full, the least
+ * recently used entry is evicted.
+ *
+ * Only authenticated states are cached; anything else is re-validated every time.
+ */
+public class AuthStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthStateCache.class);
+
+    private static final int STATS_LOG_INTERVAL = 10000;
+
+    private record Entry(AuthState authState, long expiresAtMillis) {}
+
+    private final Map<String, Entry> entries;
+
+    private final LongSupplier clock;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public AuthStateCache(int maxEntries) {
+        this(maxEntries, System::currentTimeMillis);
+    }
+
+    AuthStateCache(int maxEntries, LongSupplier clock) {
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks up the AuthState previously cached for a token
+     * @param token The raw session token
+     * @return The cached AuthState, or null if there isn't one (or it has expired)
+     */
+    public AuthState get(String token) {
+        String digest = digest(token);
+        AuthState authState = null;
+        synchronized (entries) {
+            Entry entry = entries.get(digest);
+            if (entry != null) {
+                if (entry.expiresAtMillis() > clock.getAsLong()) {
+                    authState = entry.authState();
+                } else {
+                    entries.remove(digest);
+                }
+            }
+        }
+
+        long lookups;
+        if (authState != null) {
+            lookups = hits.incrementAndGet() + misses.get();
+        } else {
+            lookups = misses.incrementAndGet() + hits.get();
+        }
+        if (lookups % STATS_LOG_INTERVAL == 0) {
+            logger.info("Auth state cache: {} hits, {} misses ({}% hit rate), {} entries",
+                    getHitCount(), getMissCount(), Math.round(getHitRate() * 100), size());
+        }
+        return authState;
+    }
+
+    /**
+     * Caches the AuthState for a token until the token expires. Unauthenticated states, and states without an 'exp'
+     * claim, are not cached.
+     * @param token The raw session token
+     * @param authState The AuthState the token was validated to
+     */
+    public void put(String token, AuthState authState) {
+        if (!authState.getIsAuthenticated()) {
+            return;
+        }
+        long expiresAtMillis = getExpiry(authState);
+        if (expiresAtMillis <= clock.getAsLong()) {
+            return;
+        }
+        String digest = digest(token);
+        synchronized (entries) {
+            entries.put(digest, new Entry(authState, expiresAtMillis));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The fraction of lookups that were answered from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Reads the 'exp' claim (seconds since epoch) of an AuthState, in milliseconds. Returns 0 if there isn't one.
+     */
+    private static long getExpiry(AuthState authState) {
+        for (ClaimDTO claim : authState.getClaimsList()) {
+            if (claim.getType().equals("exp")) {
+                try {
+                    return Long.parseLong(claim.getValue()) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
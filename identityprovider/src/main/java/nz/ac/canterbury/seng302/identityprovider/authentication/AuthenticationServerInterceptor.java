@@ -12,6 +12,9 @@ public class AuthenticationServerInterceptor implements ServerInterceptor {
     public static final Context.Key<String> SESSION_TOKEN = Context.key("lens-session-token");
     public static final Context.Key<AuthState> AUTH_STATE = Context.key("auth-state");
 
+    private static final int AUTH_STATE_CACHE_SIZE = 10000;
+
+    private final AuthStateCache authStateCache = new AuthStateCache(AUTH_STATE_CACHE_SIZE);
 
     @Override
     public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
@@ -21,7 +24,11 @@ public class AuthenticationServerInterceptor implements ServerInterceptor {
     ) {
         String sessionToken = headers.get(sessionTokenHeaderKey);
         String bearerStrippedSessionToken = sessionToken != null ? sessionToken.replaceFirst("Bearer ", "") : "";
-        AuthState authState = AuthenticationValidatorUtil.validateTokenForAuthState(bearerStrippedSessionToken);
+        AuthState authState = authStateCache.get(bearerStrippedSessionToken);
+        if (authState == null) {
+            authState = AuthenticationValidatorUtil.validateTokenForAuthState(bearerStrippedSessionToken);
+            authStateCache.put(bearerStrippedSessionToken, authState);
+        }
 
         Context context = Context.current()
                 .withValue(SESSION_TOKEN, sessionToken)
@@ -29,4 +36,11 @@ public class AuthenticationServerInterceptor implements ServerInterceptor {
 
         return Contexts.interceptCall(context, call, headers, next);
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The cache of validated tokens, e.g. for reading its hit rate
+     */
+    public AuthStateCache getAuthStateCache() {
+        return authStateCache;
+    }
+}
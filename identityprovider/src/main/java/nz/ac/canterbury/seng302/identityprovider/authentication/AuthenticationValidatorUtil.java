@@ -1,8 +1,8 @@
 package nz.ac.canterbury.seng302.identityprovider.authentication;
 
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.security.SignatureException;
+import io.jsonwebtoken.JwtException;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthStates;
 
 public class AuthenticationValidatorUtil {
 
@@ -20,32 +20,23 @@ public class AuthenticationValidatorUtil {
      * @return An AuthState derived from validating the token
      */
     public static AuthState validateTokenForAuthState(String sessionToken) {
-        AuthState.Builder reply = AuthState.newBuilder();
         JwtTokenUtil jwtTokenUtil = JwtTokenUtil.getInstance();
 
         boolean tokenIsValid;
         try {
             tokenIsValid = jwtTokenUtil.validateToken(sessionToken);
-        } catch (SignatureException | MalformedJwtException e) {
-            // A token is given, that was not valid jwt, has been tampered with, or was not signed with they key we are using.
+        } catch (JwtException | IllegalArgumentException e) {
+            // A token is given, that was not valid jwt, has been tampered with, has expired, or was not signed with they key we are using.
             // Currently, we generate a new signing key every time the IdP is started, so this exception can be expected if a browser
             // is still using a key that was generated by a previous instance of this application.
+            // An IllegalArgumentException is thrown when no token was given at all (e.g. calls made outside a user session)
             tokenIsValid = false;
         }
 
         if(!tokenIsValid) {
-            reply.setIsAuthenticated(false);
-        } else {
-            reply.addAllClaims(jwtTokenUtil.getClaimDTOsForAuthStateCheck(sessionToken));
-            reply
-                .setIsAuthenticated(true)
-                .setNameClaimType(JwtTokenUtil.NAME_CLAIM_TYPE)
-                .setRoleClaimType(JwtTokenUtil.ROLE_CLAIM_TYPE)
-                .setAuthenticationType(JwtTokenUtil.AUTHENTICATION_TYPE)
-                .setName(jwtTokenUtil.getNamedClaimFromToken(sessionToken, "name").toString());
+            return AuthStates.unauthenticated();
         }
-
-        return reply.build();
+        return AuthStates.authenticated(jwtTokenUtil.getAllClaimsFromToken(sessionToken));
     }
 
 }
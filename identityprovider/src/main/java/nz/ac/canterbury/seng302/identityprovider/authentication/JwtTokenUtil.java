@@ -3,16 +3,16 @@ package nz.ac.canterbury.seng302.identityprovider.authentication;
 import java.io.Serializable;
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthStates;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
-import javax.crypto.SecretKey;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
 
 public class JwtTokenUtil implements Serializable {
 
@@ -28,17 +28,17 @@ public class JwtTokenUtil implements Serializable {
 	private static final long serialVersionUID = -2550185165626007488L;
 	public static final long JWT_TOKEN_VALIDITY = 5 * 60 * 60;
 
-	public static final String ROLE_CLAIM_TYPE = "role";
-	public static final String NAME_CLAIM_TYPE = "name";
-	public static final String AUTHENTICATION_TYPE = "AuthenticationTypes.Federation";
+	public static final String ROLE_CLAIM_TYPE = AuthStates.ROLE_CLAIM_TYPE;
+	public static final String NAME_CLAIM_TYPE = AuthStates.NAME_CLAIM_TYPE;
+	public static final String AUTHENTICATION_TYPE = AuthStates.AUTHENTICATION_TYPE;
 
-	private static final Map<Class, String> jwtValueTypesForJavaClasses = Map.of(
-		String.class, "http://www.w3.org/2001/XMLSchema#string",
-		int.class, "http://www.w3.org/2001/XMLSchema#integer",
-		Integer.class, "http://www.w3.org/2001/XMLSchema#integer"
-	);
+	public static final SignatureAlgorithm SIGNATURE_ALGORITHM = SignatureAlgorithm.RS256;
 
-    SecretKey key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+	// Tokens are signed with an asymmetric key so that the public half can be handed out to other services
+	// (see getPublicKey) for them to verify tokens locally, without being able to issue tokens themselves.
+	// A new pair (and key id) is generated every time the IdP is started.
+	private final KeyPair keyPair = Keys.keyPairFor(SIGNATURE_ALGORITHM);
+	private final String keyId = UUID.randomUUID().toString();
 
 	// retrieve username from jwt token
 	public String getUsernameFromToken(String token) {
@@ -61,57 +61,28 @@ public class JwtTokenUtil implements Serializable {
 	}
 
     // for retrieveing any information from token we will need the secret key
-	private Claims getAllClaimsFromToken(String token) {
-		return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
-	}
-
-	// check if the token has expired
-	private Boolean isTokenExpired(String token) {
-		final Date expiration = getExpirationDateFromToken(token);
-		return expiration.before(new Date());
+	public Claims getAllClaimsFromToken(String token) {
+		return Jwts.parserBuilder().setSigningKey(keyPair.getPublic()).build().parseClaimsJws(token).getBody();
 	}
 
 	/**
-	 * From a Claims object, pull out a single claim and build it as a ClaimDTO.
-	 * @param type The type (or key) of the claim.
-	 * @param claims The claims object storing the claim
-	 * @return ClaimDTO representing some JWT claim
+	 * @return The public key that tokens issued by this IdP can be verified against
 	 */
-	private ClaimDTO getClaimAsDTO(String type, Claims claims) {
-		if (claims.get(type) == null) {
-			return null;
-		}
-		return ClaimDTO
-				.newBuilder()
-				.setIssuer(claims.getIssuer())
-				.setOriginalIssuer(claims.getIssuer())
-				.setType(type)
-				.setValue(claims.get(type).toString())
-				.setValueType(jwtValueTypesForJavaClasses.getOrDefault(claims.get(type).getClass(), ""))
-				.build();
+	public PublicKey getPublicKey() {
+		return keyPair.getPublic();
 	}
 
 	/**
-	 * Parses a token and pulls certain expected claims out to form a list of ClaimDTOs. These DTOs allow
-	 * for serializing a Java 'Claims' object for use in any other system. This format also corresponds with
-	 * the authentication scheme expected by LENS.
-	 *
-	 * @param token Session token containing user claims
-	 * @return List of ClaimDTOs generated from the session token
+	 * @return The id of the current signing key, included in the 'kid' header of every token we issue
 	 */
-	public Collection<ClaimDTO> getClaimDTOsForAuthStateCheck(String token) {
-		Claims claims = getAllClaimsFromToken(token);
-
-		return Stream.of(
-			getClaimAsDTO("unique_name", claims),
-			getClaimAsDTO("sub", claims),
-			getClaimAsDTO("nameid", claims),
-			getClaimAsDTO("name", claims),
-			getClaimAsDTO(ROLE_CLAIM_TYPE, claims),
-			getClaimAsDTO("nbf", claims),
-			getClaimAsDTO("exp", claims),
-			getClaimAsDTO("iat", claims)
-		).filter(Objects::nonNull).collect(Collectors.toList());
+	public String getKeyId() {
+		return keyId;
+	}
+
+	// check if the token has expired
+	private Boolean isTokenExpired(String token) {
+		final Date expiration = getExpirationDateFromToken(token);
+		return expiration.before(new Date());
 	}
 
 	/**
@@ -135,12 +106,13 @@ public class JwtTokenUtil implements Serializable {
         claims.put(ROLE_CLAIM_TYPE, roleOfUser);
 
 		return Jwts.builder()
+				.setHeaderParam("kid", keyId)
                 .setClaims(claims)
                 .setSubject(username)
 				.setIssuer("LOCAL AUTHORITY")
                 .setIssuedAt(new Date(System.currentTimeMillis()))
 				.setExpiration(new Date(System.currentTimeMillis() + JWT_TOKEN_VALIDITY * 1000))
-				.signWith(key).compact();
+				.signWith(keyPair.getPrivate(), SIGNATURE_ALGORITHM).compact();
     }
 
 	/**
@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.identityprovider.model;
 
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cascade;
 
 import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
@@ -9,6 +10,8 @@ import java.util.*;
 
 @Entity(name = "UserGroup")
 public class Group {
+    public static final int BATCH_SIZE = 20;
+
     @Id
     @Column(name = "group_id")
     @GeneratedValue(strategy = GenerationType.AUTO)
@@ -20,9 +23,13 @@ public class Group {
     @Column(name = "short_name", nullable = false)
     private String shortName;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // Only loaded when used, and then for up to a page of groups at once. Reads that need the members of many groups
+    // load them with the group through GroupRepository.findAllWithMembers instead
+    @ManyToMany
+    @BatchSize(size = Group.BATCH_SIZE)
     @Cascade({org.hibernate.annotations.CascadeType.SAVE_UPDATE})
-    @JoinTable(name = "grouped_users", joinColumns = @JoinColumn(name = "group_id"), inverseJoinColumns = @JoinColumn(name = "user_id"))
+    @JoinTable(name = "grouped_users", joinColumns = @JoinColumn(name = "group_id"), inverseJoinColumns = @JoinColumn(name = "user_id"),
+            indexes = @Index(name = "grouped_users_user_id", columnList = "user_id")) // For looking up a user's groups
     private Set<User> groupMembers;
 
     public Group(String s, String l) {
@@ -0,0 +1,6 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+/**
+ * A single row of the grouped_users join table
+ */
+public record GroupMembership(int groupId, int userId) {}
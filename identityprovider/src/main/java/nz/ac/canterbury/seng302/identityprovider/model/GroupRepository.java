@@ -1,12 +1,76 @@
 package nz.ac.canterbury.seng302.identityprovider.model;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 @Repository
 public interface GroupRepository extends JpaRepository<Group, Integer> {
+    String GROUP_SUMMARIES = "SELECT new nz.ac.canterbury.seng302.identityprovider.model.GroupSummary(" +
+            "g.groupId, g.shortName, g.longName, SIZE(g.groupMembers)) FROM UserGroup g";
+
     List<Group> findByLongName(String name);
     List<Group> findByShortName(String name);
     Group findById(int id);
+    @EntityGraph(attributePaths = "groupMembers")
+    @Query("SELECT DISTINCT g FROM UserGroup g ORDER BY g.groupId")
+    List<Group> findAllWithMembers();
+    @EntityGraph(attributePaths = "groupMembers")
+    @Query("SELECT DISTINCT g FROM UserGroup g WHERE g.groupId IN ?1 ORDER BY g.groupId")
+    List<Group> findWithMembersByIds(Collection<Integer> ids);
+    @Query("SELECT g.groupId FROM UserGroup g")
+    List<Integer> findIds(Pageable pageable);
+    @Query(GROUP_SUMMARIES + " WHERE g.groupId = ?1")
+    GroupSummary findSummaryById(int id);
+    @Query(value = GROUP_SUMMARIES, countQuery = "SELECT COUNT(g) FROM UserGroup g")
+    Page<GroupSummary> findAllSummaries(Pageable pageable);
+    @Query(GROUP_SUMMARIES + " WHERE g.shortName = ?1")
+    List<GroupSummary> findSummariesByShortName(String shortName);
+    @Query(GROUP_SUMMARIES + " JOIN g.groupMembers m WHERE m.userId = ?1 ORDER BY g.groupId")
+    List<GroupSummary> findSummariesByMember(int userId);
+    @Query("SELECT g.groupId FROM UserGroup g JOIN g.groupMembers u WHERE u.userId = ?1")
+    List<Integer> findGroupIdsByMember(int userId);
+    @Query("SELECT u.userId FROM UserGroup g JOIN g.groupMembers u WHERE g.groupId = ?1 ORDER BY u.userId")
+    List<Integer> findMemberIds(int groupId);
+    @Query("SELECT new nz.ac.canterbury.seng302.identityprovider.model.GroupMembership(g.groupId, u.userId) " +
+            "FROM UserGroup g JOIN g.groupMembers u")
+    List<GroupMembership> findAllMemberships();
+    @Query("SELECT CASE WHEN COUNT(u) > 0 THEN true ELSE false END FROM UserGroup g JOIN g.groupMembers u " +
+            "WHERE g.groupId = ?1 AND u.userId = ?2")
+    boolean isMember(int groupId, int userId);
+    @Query("SELECT g.groupId FROM UserGroup g WHERE g.longName = ?1 ORDER BY g.groupId")
+    List<Integer> findIdsByLongName(String longName);
+    @Query("SELECT g.groupId FROM UserGroup g WHERE g.groupId IN ?1")
+    List<Integer> findExistingIds(Collection<Integer> ids);
+
+    // Membership changes made straight on the join table, a statement per group however many users change. Groups
+    // already loaded in the same transaction won't see them
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO grouped_users (group_id, user_id) SELECT ?1, u.user_id FROM user u " +
+            "WHERE u.user_id IN ?2 AND NOT EXISTS " +
+            "(SELECT 1 FROM grouped_users m WHERE m.group_id = ?1 AND m.user_id = u.user_id)", nativeQuery = true)
+    int addMembers(int groupId, Collection<Integer> userIds);
+    // Only adds the users that aren't in any group
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO grouped_users (group_id, user_id) SELECT ?1, u.user_id FROM user u " +
+            "WHERE u.user_id IN ?2 AND NOT EXISTS " +
+            "(SELECT 1 FROM grouped_users m WHERE m.user_id = u.user_id)", nativeQuery = true)
+    int addUngroupedMembers(int groupId, Collection<Integer> userIds);
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM grouped_users WHERE group_id = ?1 AND user_id IN ?2", nativeQuery = true)
+    int removeMembers(int groupId, Collection<Integer> userIds);
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM grouped_users WHERE group_id = ?1", nativeQuery = true)
+    int removeAllMembers(int groupId);
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+/**
+ * Read-only view of a group's details and member count. Queried as a projection, so loading one doesn't pull in the
+ * group's members (or their groups) the way loading a Group entity does.
+ */
+public record GroupSummary(int groupId, String shortName, String longName, int memberCount) {}
@@ -0,0 +1,95 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.Objects;
+
+/**
+ * A Pageable that starts at an arbitrary offset rather than a multiple of the page size. Our PaginationRequestOptions
+ * describe a page as an offset and a limit, which PageRequest can't represent when the offset isn't page aligned.
+ */
+public class OffsetPageRequest implements Pageable {
+
+    private final long offset;
+    private final int limit;
+    private final Sort sort;
+
+    /**
+     * @param offset - Number of results to skip, must not be negative
+     * @param limit - Maximum number of results to return, must be at least 1
+     * @param sort - Sort to apply to the results
+     */
+    public OffsetPageRequest(long offset, int limit, Sort sort) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        this.offset = offset;
+        this.limit = limit;
+        this.sort = sort;
+    }
+
+    public OffsetPageRequest(long offset, int limit) {
+        this(offset, limit, Sort.unsorted());
+    }
+
+    @Override
+    public int getPageNumber() {
+        return (int) (offset / limit);
+    }
+
+    @Override
+    public int getPageSize() {
+        return limit;
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public Sort getSort() {
+        return sort;
+    }
+
+    @Override
+    public Pageable next() {
+        return new OffsetPageRequest(offset + limit, limit, sort);
+    }
+
+    @Override
+    public Pageable previousOrFirst() {
+        return hasPrevious() ? new OffsetPageRequest(Math.max(offset - limit, 0), limit, sort) : first();
+    }
+
+    @Override
+    public Pageable first() {
+        return new OffsetPageRequest(0, limit, sort);
+    }
+
+    @Override
+    public Pageable withPage(int pageNumber) {
+        return new OffsetPageRequest((long) pageNumber * limit, limit, sort);
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return offset > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof OffsetPageRequest that)) return false;
+        return offset == that.offset && limit == that.limit && Objects.equals(sort, that.sort);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, limit, sort);
+    }
+}
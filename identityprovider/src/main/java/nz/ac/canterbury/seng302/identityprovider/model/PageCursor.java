@@ -0,0 +1,63 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A position in a sorted list of users, given to clients as an opaque string so that they can ask for the page
+ * before or after it. Holds the sort keys and ID of the user at the position, so the page can be found by seeking
+ * straight to it rather than counting past every user before it.
+ * @param order Identifies the order the list was in, so a cursor can't be used with a different one
+ * @param keys The sort keys of the user at the position, empty if the order doesn't need them
+ * @param userId ID of the user at the position
+ * @param before True if the cursor is for the page before the position rather than after it
+ */
+public record PageCursor(String order, List<String> keys, int userId, boolean before) {
+
+    /**
+     * @return The cursor as an opaque string, safe to put in a URL
+     */
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(order);
+            output.writeShort(keys.size());
+            for (String key : keys) {
+                output.writeBoolean(key != null);
+                if (key != null) output.writeUTF(key);
+            }
+            output.writeInt(userId);
+            output.writeBoolean(before);
+        } catch (IOException e) {
+            // Can't happen when writing to a byte array
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param cursor A string made by encode
+     * @return The cursor it was made from
+     * @throws IllegalArgumentException If the string isn't a cursor
+     */
+    public static PageCursor decode(String cursor) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            String order = input.readUTF();
+            int keyCount = input.readShort();
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < keyCount; i++) {
+                keys.add(input.readBoolean() ? input.readUTF() : null);
+            }
+            return new PageCursor(order, keys, input.readInt(), input.readBoolean());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page cursor");
+        }
+    }
+}
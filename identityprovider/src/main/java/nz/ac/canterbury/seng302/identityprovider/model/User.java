@@ -1,12 +1,20 @@
 package nz.ac.canterbury.seng302.identityprovider.model;
 
 import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.util.*;
 
 @Entity(name = "User")
-@Table(name = "User")
+@Table(name = "User", indexes = {
+        // For reading (and seeking to) a page of the user list in each UserSort order
+        @Index(name = "user_name_index", columnList = "firstNameKey, middleNameKey, lastNameKey, userId"),
+        @Index(name = "user_username_index", columnList = "usernameKey, userId"),
+        @Index(name = "user_nickname_index", columnList = "nicknameKey, userId"),
+        // Also answers role filters, which look for roles IN (every mask with the role)
+        @Index(name = "user_roles_index", columnList = "roles, userId")
+})
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
@@ -21,10 +29,14 @@ public class User {
     @Column(name = "username", nullable = false, unique = true)
     private String username; //username for each user
 
-    @Column(name = "role", nullable = false)
-    private String role; //role that the user is, e.g Student, Teacher etc.
+    // Bitmask of the user's roles, see UserRoles. Existing rows get 0 when the column is added, until
+    // UserService.moveRolesToBitmask fills it in from the old role column
+    @Column(name = "roles", nullable = false, columnDefinition = "integer default 0")
+    private int roles;
 
-    @ManyToMany(mappedBy = "groupMembers", fetch = FetchType.EAGER)
+    // Only loaded when used, so loading a user doesn't load every member of every group they're in
+    @ManyToMany(mappedBy = "groupMembers")
+    @BatchSize(size = Group.BATCH_SIZE)
     private Set<Group> groups;
     private String firstName; //name of the user
     private String middleName;
@@ -33,8 +45,21 @@ public class User {
 
     private String bio;
     private String pronouns;
-    @Lob
-    private byte[] image;
+    private String imageHash; // Hash of the profile photo in the ImageStore. Empty if there isn't one, null if not moved yet
+
+    // The names the user list is sorted on, as UserSort.sortKey gives them (so never null), kept up to date whenever
+    // the user is saved. Sorting on these rather than e.g. LOWER(firstName) lets the sort use the indexes above.
+    // Existing rows get empty keys when the columns are added, until UserService.fillSortKeys fills them in
+    @Column(nullable = false, columnDefinition = "varchar(255) default ''")
+    private String usernameKey = "";
+    @Column(nullable = false, columnDefinition = "varchar(255) default ''")
+    private String firstNameKey = "";
+    @Column(nullable = false, columnDefinition = "varchar(255) default ''")
+    private String middleNameKey = "";
+    @Column(nullable = false, columnDefinition = "varchar(255) default ''")
+    private String lastNameKey = "";
+    @Column(nullable = false, columnDefinition = "varchar(255) default ''")
+    private String nicknameKey = "";
 
     /**
      * Minimum definition of a user
@@ -43,8 +68,9 @@ public class User {
         this.email = email;
         this.username = email;
         this.password = password;
-        this.role = String.valueOf(role.getNumber());
+        this.roles = UserRoles.bitOf(role);
         this.groups = new HashSet<>();
+        this.imageHash = "";
     }
 
     /**
@@ -56,7 +82,7 @@ public class User {
                 String lastName, String nickname,
                 String bio, String pronouns) {
         this.username = userName;
-        this.role = String.valueOf(role.getNumber());
+        this.roles = UserRoles.bitOf(role);
         this.firstName = firstName;
         this.middleName = middleName;
         this.lastName = lastName;
@@ -66,12 +92,26 @@ public class User {
         this.bio = bio;
         this.pronouns = pronouns;
         this.groups = new HashSet<>();
+        this.imageHash = "";
     }
 
     // For @Entity
     protected User() {}
 
-    public Boolean isTeacher () {return role.contains("1");}
+    /**
+     * Brings the keys the user list is sorted on up to date with the user's names
+     */
+    @PrePersist
+    @PreUpdate
+    public void updateSortKeys() {
+        usernameKey = UserSort.sortKey(username);
+        firstNameKey = UserSort.sortKey(firstName);
+        middleNameKey = UserSort.sortKey(middleName);
+        lastNameKey = UserSort.sortKey(lastName);
+        nicknameKey = UserSort.sortKey(nickname);
+    }
+
+    public Boolean isTeacher () {return hasRole(UserRole.TEACHER);}
 
     @Override
     public String toString() {
@@ -80,7 +120,7 @@ public class User {
                 ", email='" + email + '\'' +
                 ", password='" + password + '\'' +
                 ", username='" + username + '\'' +
-                ", role=" + role +
+                ", role=" + getRoleClaim() +
                 ", firstName='" + firstName + '\'' +
                 ", middleName='" + middleName + '\'' +
                 ", lastName='" + lastName + '\'' +
@@ -138,19 +178,27 @@ public class User {
         this.username = userName;
     }
 
-    public String getRoles() {
-        return this.role;
+    /**
+     * @return Bitmask of the user's roles, see UserRoles
+     */
+    public int getRoles() {
+        return this.roles;
     }
 
-    public void addRole(UserRole role) {
-        this.role += String.valueOf(role.getNumber());
-        //Sort by highest role
-        char[] arr = this.role.toCharArray();
-        Arrays.sort(arr);
-        this.role = new StringBuilder(String.valueOf(arr)).reverse().toString();
+    public boolean hasRole(UserRole role) {
+        return (this.roles & UserRoles.bitOf(role)) != 0;
     }
 
-    public void removeRole(UserRole role) {this.role = this.role.replace(String.valueOf(role.getNumber()), "");}
+    /**
+     * @return The user's role numbers as a string of digits, highest first, as put in their token
+     */
+    public String getRoleClaim() {
+        return UserRoles.claimOf(this.roles);
+    }
+
+    public void addRole(UserRole role) {this.roles |= UserRoles.bitOf(role);}
+
+    public void removeRole(UserRole role) {this.roles &= ~UserRoles.bitOf(role);}
 
     public String getFirstName() {
         return firstName;
@@ -210,7 +258,7 @@ public class User {
 
     public Set<Group> getGroups() { return Set.copyOf(this.groups); }
 
-    public byte[] getImage () {return this.image;}
+    public String getImageHash () {return this.imageHash;}
 
-    public void setImage (byte[] image) {this.image = image;}
+    public void setImageHash (String imageHash) {this.imageHash = imageHash;}
 }
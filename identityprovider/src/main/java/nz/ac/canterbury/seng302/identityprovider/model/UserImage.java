@@ -0,0 +1,34 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import javax.persistence.*;
+
+/**
+ * A profile photo saved in the database, from before photos were kept in the ImageStore. Kept in its own table, keyed
+ * by user ID, so neither loading a User nor reading the user table ever reads the photo. Only read when moving photos
+ * into the ImageStore.
+ */
+@Entity
+@Table(name = "user_image")
+public class UserImage {
+    @Id
+    private int userId;
+
+    @Lob
+    private byte[] image;
+
+    // For @Entity
+    protected UserImage() {}
+
+    public UserImage(int userId, byte[] image) {
+        this.userId = userId;
+        this.image = image;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public byte[] getImage () {return this.image;}
+
+    public void setImage (byte[] image) {this.image = image;}
+}
@@ -0,0 +1,25 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface UserImageRepository extends JpaRepository<UserImage, Integer> {
+    // Photos used to be kept in the user table's image column
+    @Query(value = "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = SCHEMA() " +
+            "AND LOWER(table_name) = 'user' AND LOWER(column_name) = 'image'", nativeQuery = true)
+    long countLegacyImageColumns ();
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO user_image (user_id, image) SELECT u.user_id, u.image FROM user u " +
+            "WHERE u.image IS NOT NULL AND NOT EXISTS (SELECT 1 FROM user_image i WHERE i.user_id = u.user_id)",
+            nativeQuery = true)
+    int moveLegacyImages ();
+    @Transactional
+    @Modifying
+    @Query(value = "ALTER TABLE user DROP COLUMN image", nativeQuery = true)
+    void dropLegacyImageColumn ();
+}
@@ -0,0 +1,11 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import java.util.List;
+
+/**
+ * A page of a sorted list of users, with cursors for the pages either side of it
+ * @param users The users on the page
+ * @param nextCursor Encoded cursor for the page after, empty if this is the last page
+ * @param previousCursor Encoded cursor for the page before, empty if this is the first page
+ */
+public record UserPage(List<UserSummary> users, String nextCursor, String previousCursor) {}
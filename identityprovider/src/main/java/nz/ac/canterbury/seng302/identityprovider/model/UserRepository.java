@@ -3,14 +3,70 @@ package nz.ac.canterbury.seng302.identityprovider.model;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Integer> {
+public interface UserRepository extends JpaRepository<User, Integer>, UserRepositoryCustom {
+    String USER_SUMMARY = "SELECT new nz.ac.canterbury.seng302.identityprovider.model.UserSummary(" +
+            "u.userId, u.username, u.firstName, u.middleName, u.lastName, u.nickname, u.bio, u.email, u.pronouns, u.roles, " +
+            "u.imageHash) ";
+    String GROUP_MEMBER_SUMMARIES = USER_SUMMARY + "FROM UserGroup g JOIN g.groupMembers u WHERE g.groupId = ?1 ORDER BY u.userId";
+
     User findById(int id);
     User findByEmail(String email);
     User findByUsername(String username);
-    @Query("SELECT u FROM User u WHERE CONCAT(LOWER(u.username), ' ', LOWER(u.firstName), ' ', LOWER(u.lastName)) LIKE %?1%")
-    Page<User> search (String query, Pageable pageable);
+    List<User> findByUsernameKey(String usernameKey);
+    @Query(value = USER_SUMMARY + "FROM User u", countQuery = "SELECT COUNT(u) FROM User u")
+    Page<UserSummary> findSummaries (Pageable pageable);
+    @Query(value = USER_SUMMARY + "FROM User u WHERE u.roles IN ?1", countQuery = "SELECT COUNT(u) FROM User u WHERE u.roles IN ?1")
+    Page<UserSummary> findSummariesWithRoles (Collection<Integer> roles, Pageable pageable);
+    long countByRolesIn (Collection<Integer> roles);
+    long countByRoles (int roles);
+    @Query(USER_SUMMARY + "FROM User u WHERE u.userId = ?1")
+    UserSummary findSummaryById (int id);
+    @Query(USER_SUMMARY + "FROM User u WHERE u.userId IN ?1")
+    List<UserSummary> findSummariesByIds (Collection<Integer> ids);
+    @Query(USER_SUMMARY + "FROM User u ORDER BY u.userId")
+    List<UserSummary> findAllSummaries ();
+    @Query(USER_SUMMARY + "FROM User u WHERE u.username IN ?1 OR u.email IN ?2")
+    List<UserSummary> findSummariesByUsernameOrEmail (Collection<String> usernames, Collection<String> emails);
+    @Query("SELECT u.userId FROM User u WHERE u.imageHash IS NULL")
+    List<Integer> findIdsWithoutImageHash ();
+    @Query(GROUP_MEMBER_SUMMARIES)
+    List<UserSummary> findGroupMembers (int groupId);
+    @Query(GROUP_MEMBER_SUMMARIES)
+    List<UserSummary> findGroupMembers (int groupId, Pageable pageable);
+    // Roles used to be a string of role numbers in the role column, e.g "10" for a teacher that is also a student
+    @Query(value = "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = SCHEMA() " +
+            "AND LOWER(table_name) = 'user' AND LOWER(column_name) = 'role'", nativeQuery = true)
+    long countLegacyRoleColumns ();
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE user SET roles = (CASE WHEN role LIKE '%0%' THEN 1 ELSE 0 END) " +
+            "+ (CASE WHEN role LIKE '%1%' THEN 2 ELSE 0 END) + (CASE WHEN role LIKE '%2%' THEN 4 ELSE 0 END) " +
+            "WHERE roles = 0", nativeQuery = true)
+    int moveLegacyRoles ();
+    @Transactional
+    @Modifying
+    @Query(value = "ALTER TABLE user DROP COLUMN role", nativeQuery = true)
+    void dropLegacyRoleColumn ();
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.password = ?3 WHERE u.userId = ?1 AND u.password = ?2")
+    int updatePassword (int userId, String oldHash, String newHash);
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.roles = ?2 WHERE u.userId IN ?1 AND u.roles <> ?2 AND u.username NOT IN ?3")
+    int setRoles (Collection<Integer> userIds, int roles, Collection<String> exceptUsernames);
+    // JPQL has no bitwise OR, so the bit is added to the users whose mask is one of those without it
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.roles = u.roles + ?2 WHERE u.userId IN ?1 AND u.roles IN ?3 AND u.username NOT IN ?4")
+    int addRoleBit (Collection<Integer> userIds, int bit, Collection<Integer> masksWithout, Collection<String> exceptUsernames);
 }
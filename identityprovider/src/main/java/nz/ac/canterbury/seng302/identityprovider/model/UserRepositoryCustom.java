@@ -0,0 +1,30 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Queries on users that are built at runtime, so can't be declared with @Query in UserRepository
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Reads the users either side of a position in a sorted list of users, by seeking to the position rather than
+     * skipping over the users before it. The composite indexes on User cover these queries
+     * @param sort Order of the list
+     * @param ascending If the list is in ascending order rather than descending
+     * @param cursor Position to read from, or null to read from the start of the list
+     * @param roles Only users with one of these role masks (see UserRoles.masksWithAny), or null for every user
+     * @param limit Maximum number of users to read
+     * @return Users after the cursor in list order, or if the cursor is for the page before, the users before it
+     * in reverse list order (nearest first)
+     */
+    List<UserSummary> findSummariesFrom(UserSort sort, boolean ascending, PageCursor cursor, Collection<Integer> roles, int limit);
+
+    /**
+     * findSummariesFrom over every user
+     */
+    default List<UserSummary> findSummariesFrom(UserSort sort, boolean ascending, PageCursor cursor, int limit) {
+        return findSummariesFrom(sort, ascending, cursor, null, limit);
+    }
+}
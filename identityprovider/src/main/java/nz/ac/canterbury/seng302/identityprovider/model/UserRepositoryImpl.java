@@ -0,0 +1,71 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Implementation of UserRepositoryCustom, which Spring Data adds to UserRepository
+ */
+public class UserRepositoryImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<UserSummary> findSummariesFrom(UserSort sort, boolean ascending, PageCursor cursor, Collection<Integer> roles, int limit) {
+        // The fields are compared as they are stored, so the query can be answered by seeking in the order's index
+        List<String> keys = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
+        for (int i = 0; i < sort.getFields().size(); i++) {
+            keys.add("u." + sort.getFields().get(i));
+            parameters.add(":k" + i);
+        }
+        keys.add("u.userId");
+        parameters.add(":k" + sort.getFields().size());
+        // Reading the page before a cursor reads backwards from it, so flips the order
+        boolean forwards = cursor == null || !cursor.before() ? ascending : !ascending;
+        String comparison = forwards ? ">" : "<";
+        String direction = forwards ? "ASC" : "DESC";
+
+        StringBuilder jpql = new StringBuilder(UserRepository.USER_SUMMARY).append("FROM User u WHERE 1 = 1");
+        if (roles != null) {
+            jpql.append(" AND u.roles IN :roles");
+        }
+        if (cursor != null) {
+            // (a, b, id) > (:a, :b, :id), written out since JPQL has no row value comparison. The leading a >= :a is
+            // implied by the rest, but is what lets the database start reading the index from the cursor
+            jpql.append(" AND ").append(keys.get(0)).append(" ").append(comparison).append("= ").append(parameters.get(0));
+            jpql.append(" AND (");
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) jpql.append(" OR ");
+                jpql.append("(");
+                for (int j = 0; j < i; j++) {
+                    jpql.append(keys.get(j)).append(" = ").append(parameters.get(j)).append(" AND ");
+                }
+                jpql.append(keys.get(i)).append(" ").append(comparison).append(" ").append(parameters.get(i)).append(")");
+            }
+            jpql.append(")");
+        }
+        jpql.append(" ORDER BY ");
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) jpql.append(", ");
+            jpql.append(keys.get(i)).append(" ").append(direction);
+        }
+
+        TypedQuery<UserSummary> query = entityManager.createQuery(jpql.toString(), UserSummary.class);
+        if (roles != null) {
+            query.setParameter("roles", roles);
+        }
+        if (cursor != null) {
+            for (int i = 0; i < sort.getFields().size(); i++) {
+                query.setParameter("k" + i, sort.toParameter(cursor.keys().get(i)));
+            }
+            query.setParameter("k" + sort.getFields().size(), cursor.userId());
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+}
@@ -0,0 +1,101 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A user's roles are stored as a bitmask, with bit n set if the user has the UserRole numbered n. There are only a
+ * few roles, so everything a UserResponse or token needs for each possible bitmask is worked out once here rather
+ * than for every user sent.
+ *
+ * Masks sort the same way the old role strings of digits (highest role first, e.g "210") did, so ordering users by
+ * role is unchanged.
+ */
+public final class UserRoles {
+
+    private static final int ROLE_COUNT = UserRole.values().length - 1; // Not UNRECOGNIZED
+
+    private static final int MASK_COUNT = 1 << ROLE_COUNT;
+
+    // Role numbers of each mask, highest first, as sent in a UserResponse
+    private static final List<List<Integer>> NUMBERS = new ArrayList<>(MASK_COUNT);
+
+    // Role numbers of each mask as a string of digits, highest first, as put in a token's role claim
+    private static final List<String> CLAIMS = new ArrayList<>(MASK_COUNT);
+
+    static {
+        for (int mask = 0; mask < MASK_COUNT; mask++) {
+            List<Integer> numbers = new ArrayList<>();
+            StringBuilder claim = new StringBuilder();
+            for (int number = ROLE_COUNT - 1; number >= 0; number--) {
+                if ((mask & (1 << number)) != 0) {
+                    numbers.add(number);
+                    claim.append(number);
+                }
+            }
+            NUMBERS.add(Collections.unmodifiableList(numbers));
+            CLAIMS.add(claim.toString());
+        }
+    }
+
+    private UserRoles() {}
+
+    /**
+     * @param role A role
+     * @return The bit set in a mask for the role
+     */
+    public static int bitOf(UserRole role) {
+        return 1 << role.getNumber();
+    }
+
+    /**
+     * @param roles A mask of roles
+     * @return The number of each role in the mask, highest first
+     */
+    public static List<Integer> numbersOf(int roles) {
+        return NUMBERS.get(roles & (MASK_COUNT - 1));
+    }
+
+    /**
+     * @param roles A mask of roles
+     * @return The number of each role in the mask as a string of digits, highest first, e.g "10" for a teacher that
+     * is also a student
+     */
+    public static String claimOf(int roles) {
+        return CLAIMS.get(roles & (MASK_COUNT - 1));
+    }
+
+    /**
+     * Every mask that includes any of some roles, so a query for users with those roles can be answered from the
+     * index on the roles column with roles IN (...)
+     * @param roles Roles to look for
+     * @return The masks that have at least one of the roles
+     */
+    public static List<Integer> masksWithAny(Iterable<UserRole> roles) {
+        int wanted = 0;
+        for (UserRole role : roles) {
+            if (role != UserRole.UNRECOGNIZED) wanted |= bitOf(role);
+        }
+        List<Integer> masks = new ArrayList<>();
+        for (int mask = 1; mask < MASK_COUNT; mask++) {
+            if ((mask & wanted) != 0) masks.add(mask);
+        }
+        return masks;
+    }
+
+    /**
+     * Every mask that doesn't include a role, for adding the role to many users in one update
+     * @param role Role to leave out
+     * @return The masks without the role
+     */
+    public static List<Integer> masksWithout(UserRole role) {
+        List<Integer> masks = new ArrayList<>();
+        for (int mask = 0; mask < MASK_COUNT; mask++) {
+            if ((mask & bitOf(role)) == 0) masks.add(mask);
+        }
+        return masks;
+    }
+}
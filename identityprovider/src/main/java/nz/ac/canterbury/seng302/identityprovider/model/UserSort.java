@@ -0,0 +1,90 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The orders a list of users can be read in, and the User fields each one sorts on. Ties are always broken by user
+ * ID, so every order is total and a page can be found by seeking past the last user of the one before it.
+ *
+ * Text is sorted on the user's sort keys (see sortKey), which ignore case and are never null, rather than the names
+ * themselves, so that each order can be read straight from an index.
+ */
+public enum UserSort {
+    NAME("firstNameKey", "middleNameKey", "lastNameKey"),
+    USERNAME("usernameKey"),
+    NICKNAME("nicknameKey"),
+    ROLE("roles");
+
+    private final List<String> fields;
+
+    UserSort(String... fields) {
+        this.fields = List.of(fields);
+    }
+
+    /**
+     * @param orderBy The OrderBy of a pagination request, e.g. "name" or "username"
+     * @return The matching order, or NAME if there isn't one
+     */
+    public static UserSort fromOrderBy(String orderBy) {
+        return switch (orderBy == null ? "" : orderBy.toLowerCase(Locale.ROOT)) {
+            case "username" -> USERNAME;
+            case "nickname" -> NICKNAME;
+            case "role" -> ROLE;
+            default -> NAME;
+        };
+    }
+
+    /**
+     * @return Names of the User fields sorted on, most significant first
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return true if the fields sorted on are text sort keys
+     */
+    public boolean isText() {
+        return this != ROLE;
+    }
+
+    /**
+     * @param text A name stored for a user, which may be null
+     * @return The name's key in the user list, which sorts the same way whatever the name's case, with a missing name
+     *         sorting before any other
+     */
+    public static String sortKey(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param user A user in a list in this order
+     * @return The values of the user's fields that are sorted on, in the same order as getFields
+     */
+    public List<String> keysOf(UserSummary user) {
+        return switch (this) {
+            case NAME -> Arrays.asList(sortKey(user.firstName()), sortKey(user.middleName()), sortKey(user.lastName()));
+            case USERNAME -> Arrays.asList(sortKey(user.username()));
+            case NICKNAME -> Arrays.asList(sortKey(user.nickname()));
+            case ROLE -> Arrays.asList(String.valueOf(user.roles()));
+        };
+    }
+
+    /**
+     * @param key One of the values from keysOf, e.g read back from a PageCursor
+     * @return The value as the type of the field it came from, to compare the field against in a query
+     * @throws IllegalArgumentException If the value can't be one of this order's keys
+     */
+    public Object toParameter(String key) {
+        if (!isText()) {
+            try {
+                return Integer.valueOf(key);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Page cursor has an invalid role");
+            }
+        }
+        return sortKey(key);
+    }
+}
@@ -0,0 +1,20 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+/**
+ * Read-only view of the user fields sent in a UserResponse. Queried as a projection, so loading one doesn't pull in
+ * the user's groups or profile image the way loading a User entity does. Roles are a bitmask, see UserRoles.
+ */
+public record UserSummary(int userId, String username, String firstName, String middleName, String lastName,
+                          String nickname, String bio, String email, String pronouns, int roles,
+                          String imageHash) {
+
+    /**
+     * @param user A loaded user
+     * @return The same fields of the user
+     */
+    public static UserSummary of(User user) {
+        return new UserSummary(user.getUserId(), user.getUsername(), user.getFirstName(), user.getMiddleName(),
+                user.getLastName(), user.getNickname(), user.getBio(), user.getEmail(), user.getPronouns(),
+                user.getRoles(), user.getImageHash());
+    }
+}
@@ -1,6 +1,8 @@
 package nz.ac.canterbury.seng302.identityprovider.service;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 
@@ -11,31 +13,68 @@ import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticateRequest;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticateResponse;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticationServiceGrpc.AuthenticationServiceImplBase;
+import nz.ac.canterbury.seng302.shared.identityprovider.GetSigningKeysResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.SigningKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
 @GrpcService
 public class AuthenticateServerService extends AuthenticationServiceImplBase{
+    private static final Logger logger = LoggerFactory.getLogger(AuthenticateServerService.class);
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PasswordHasher passwordHasher;
+
     private final UserGRPCService userGRPCService = new UserGRPCService();
 
     private final JwtTokenUtil jwtTokenService = JwtTokenUtil.getInstance();
 
     /**
-     * Attempts to authenticate a user with a given username and password. 
+     * Attempts to authenticate a user with a given username and password. The password is checked on the password
+     * hashing threads rather than the gRPC thread, and if too many are already waiting the login is turned away with
+     * RESOURCE_EXHAUSTED straight away so the client can try again
      */
     @Override
     public void authenticate(AuthenticateRequest request, StreamObserver<AuthenticateResponse> responseObserver) {
-        AuthenticateResponse.Builder reply = AuthenticateResponse.newBuilder();
         String username = request.getUsername();
         String password = request.getPassword();
 
         User currentUser = userService.getUserByUsername(username);
-        if (currentUser != null && userService.matchPassword(password, currentUser.getPassword())) {
+        if (currentUser == null) {
+            responseObserver.onNext(getFailedResponse());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        CompletableFuture<Boolean> matches;
+        try {
+            matches = passwordHasher.matchesAsync(password, currentUser.getPassword());
+        } catch (RejectedExecutionException e) {
+            logger.warn("Turned away a login for {}, password hashing is busy", username);
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(PasswordHasher.BUSY_MESSAGE).asRuntimeException());
+            return;
+        }
+        matches.whenComplete((correct, e) -> {
+            if (e != null) {
+                logger.error("Couldn't check the password of {}", username, e);
+                responseObserver.onError(Status.INTERNAL.withDescription("Couldn't check password").asRuntimeException());
+                return;
+            }
+            if (!correct) {
+                responseObserver.onNext(getFailedResponse());
+                responseObserver.onCompleted();
+                return;
+            }
             String token = jwtTokenService.generateTokenForUser(currentUser.getUsername(), currentUser.getUserId(),
-                    currentUser.getFirstName() + " " + currentUser.getLastName(), currentUser.getRoles());
-            reply
+                    currentUser.getFirstName() + " " + currentUser.getLastName(), currentUser.getRoleClaim());
+            responseObserver.onNext(AuthenticateResponse.newBuilder()
                     .setEmail(currentUser.getEmail())
                     .setFirstName(currentUser.getFirstName())
                     .setLastName(currentUser.getLastName())
@@ -43,16 +82,20 @@ public class AuthenticateServerService extends AuthenticationServiceImplBase{
                     .setSuccess(true)
                     .setToken(token)
                     .setUserId(currentUser.getUserId())
-                    .setUsername(currentUser.getUsername());
-        } else {
-            reply
-                    .setMessage("Log in attempt failed: username or password incorrect")
-                    .setSuccess(false)
-                    .setToken("");
-        }
+                    .setUsername(currentUser.getUsername())
+                    .build());
+            responseObserver.onCompleted();
+            // Only now is the password known, so this is when an old hash can be replaced
+            userService.upgradePasswordHash(currentUser, password);
+        });
+    }
 
-        responseObserver.onNext(reply.build());
-        responseObserver.onCompleted();
+    private static AuthenticateResponse getFailedResponse() {
+        return AuthenticateResponse.newBuilder()
+                .setMessage("Log in attempt failed: username or password incorrect")
+                .setSuccess(false)
+                .setToken("")
+                .build();
     }
 
     /**
@@ -64,4 +107,20 @@ public class AuthenticateServerService extends AuthenticationServiceImplBase{
         responseObserver.onNext(AuthenticationServerInterceptor.AUTH_STATE.get());
         responseObserver.onCompleted();
     }
+
+    /**
+     * Returns the public key material tokens are currently signed with, so that clients can verify session tokens
+     * themselves instead of calling checkAuthState for every request. Keys are X.509 encoded and identified by the
+     * same id that is put in the 'kid' header of each token.
+     */
+    @Override
+    public void getSigningKeys(Empty request, StreamObserver<GetSigningKeysResponse> responseObserver) {
+        SigningKey signingKey = SigningKey.newBuilder()
+                .setKeyId(jwtTokenService.getKeyId())
+                .setAlgorithm(JwtTokenUtil.SIGNATURE_ALGORITHM.getValue())
+                .setEncodedKey(ByteString.copyFrom(jwtTokenService.getPublicKey().getEncoded()))
+                .build();
+        responseObserver.onNext(GetSigningKeysResponse.newBuilder().addKeys(signingKey).build());
+        responseObserver.onCompleted();
+    }
 }
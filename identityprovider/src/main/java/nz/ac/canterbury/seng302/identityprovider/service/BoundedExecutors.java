@@ -0,0 +1,44 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools for CPU heavy work (e.g. hashing passwords, decoding images) that mustn't take over the identity
+ * provider. Each pool has a fixed number of threads and a bounded queue, and rejects anything more straight away
+ * with a RejectedExecutionException rather than letting work pile up.
+ */
+final class BoundedExecutors {
+
+    private BoundedExecutors() {}
+
+    /**
+     * @param name Prefix of the pool's thread names
+     * @param threads Number of tasks run at once
+     * @param queueCapacity Number of tasks that can wait to be run
+     * @return A new pool of daemon threads
+     */
+    static ThreadPoolExecutor newFixedThreadPool(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory(name), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
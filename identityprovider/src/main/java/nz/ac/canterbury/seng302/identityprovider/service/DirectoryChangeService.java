@@ -0,0 +1,256 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupMembership;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupSummary;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes changes to users, their roles and group memberships to clients watching the directory, so that they can
+ * keep a local copy instead of asking for the same data on every request. Each change gets the next version number.
+ * The most recent changes are kept so that a client that briefly loses its stream can resume where it left off;
+ * anyone further behind (or watching from before a restart, which the epoch detects) is told to take a new snapshot.
+ *
+ * Events carry the current state of whatever changed rather than a diff, so applying one more than once is harmless.
+ * That state is read under the same lock that hands out versions, so of two changes to the same user or group the one
+ * with the higher version always carries the newer state.
+ */
+@Service
+public class DirectoryChangeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryChangeService.class);
+
+    static final int MAX_RECENT_EVENTS = 1000;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private GroupRepository groups;
+
+    @Autowired
+    private UserService userService;
+
+    private final String epoch = UUID.randomUUID().toString();
+
+    private long version = 0;
+
+    private final Deque<DirectoryChangeEvent> recentEvents = new ArrayDeque<>();
+
+    private final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A client's open stream. If a client stops reading, events pile up in its stream's buffer, so a watcher that has
+     * had too many events sent while not ready is told to resync instead of buffering forever.
+     */
+    private static class Watcher {
+        private final ServerCallStreamObserver<DirectoryChangeEvent> observer;
+        private int eventsSentWhileNotReady = 0;
+
+        Watcher(ServerCallStreamObserver<DirectoryChangeEvent> observer) {
+            this.observer = observer;
+        }
+    }
+
+    /**
+     * Gets every user and group, along with the version of the latest change they include. Watching from that
+     * version afterwards gives every change made since.
+     * @return A snapshot of the directory
+     */
+    public DirectorySnapshotResponse getSnapshot() {
+        // Read the version first, so any change made while the snapshot is being read is sent again when watching
+        long snapshotVersion;
+        synchronized (this) {
+            snapshotVersion = version;
+        }
+
+        Map<Integer, DirectoryGroup.Builder> groupsById = new HashMap<>();
+        for (GroupSummary group : groups.findAllSummaries(Pageable.unpaged())) {
+            groupsById.put(group.groupId(), DirectoryGroup.newBuilder()
+                    .setGroupId(group.groupId())
+                    .setShortName(group.shortName())
+                    .setLongName(group.longName()));
+        }
+        for (GroupMembership membership : groups.findAllMemberships()) {
+            DirectoryGroup.Builder group = groupsById.get(membership.groupId());
+            if (group != null) {
+                group.addMemberIds(membership.userId());
+            }
+        }
+
+        DirectorySnapshotResponse.Builder snapshot = DirectorySnapshotResponse.newBuilder()
+                .setEpoch(epoch)
+                .setVersion(snapshotVersion)
+                .addAllUsers(userService.getSummaryResponses(users.findAllSummaries()));
+        groupsById.values().forEach(snapshot::addGroups);
+        return snapshot.build();
+    }
+
+    /**
+     * Starts sending changes to a client. Changes after the requested version are replayed first, unless they are no
+     * longer kept (or the version is from a different epoch), in which case the client is told to resync and the
+     * stream is closed.
+     * @param request The epoch and version the client is up to
+     * @param observer The client's stream
+     */
+    public synchronized void watch(WatchDirectoryChangesRequest request, ServerCallStreamObserver<DirectoryChangeEvent> observer) {
+        long oldestResumableVersion = recentEvents.isEmpty() ? version : recentEvents.peekFirst().getVersion() - 1;
+        if (!request.getEpoch().equals(epoch) || request.getSinceVersion() > version
+                || request.getSinceVersion() < oldestResumableVersion) {
+            observer.onNext(event(DirectoryChangeType.RESYNC_REQUIRED).setVersion(version).build());
+            observer.onCompleted();
+            return;
+        }
+
+        Watcher watcher = new Watcher(observer);
+        observer.setOnCancelHandler(() -> watchers.remove(watcher));
+        for (DirectoryChangeEvent event : recentEvents) {
+            if (event.getVersion() > request.getSinceVersion()) {
+                observer.onNext(event);
+            }
+        }
+        watchers.add(watcher);
+        logger.info("Directory watcher connected at version {}, {} watching", request.getSinceVersion(), watchers.size());
+    }
+
+    /**
+     * Publishes a change to a user's details
+     * @param userId - ID of the user that changed
+     */
+    public void publishUserChanged(int userId) {
+        publishUser(userId, DirectoryChangeType.USER_CHANGED);
+    }
+
+    /**
+     * Publishes a change to a user's roles
+     * @param userId - ID of the user whose roles changed
+     */
+    public void publishRolesChanged(int userId) {
+        publishUser(userId, DirectoryChangeType.ROLES_CHANGED);
+    }
+
+    /**
+     * Publishes a change to each user's roles
+     * @param userIds - IDs of the users whose roles may have changed
+     */
+    public void publishRolesChanged(Collection<Integer> userIds) {
+        for (int userId : userIds) {
+            publishRolesChanged(userId);
+        }
+    }
+
+    /**
+     * Publishes the current details and members of a group, or that it was deleted if it no longer exists
+     * @param groupId - ID of the group that changed
+     */
+    public synchronized void publishGroupChanged(int groupId) {
+        GroupSummary group = groups.findSummaryById(groupId);
+        if (group == null) {
+            publishGroupDeleted(groupId);
+            return;
+        }
+        publish(event(DirectoryChangeType.GROUP_CHANGED).setGroup(DirectoryGroup.newBuilder()
+                .setGroupId(group.groupId())
+                .setShortName(group.shortName())
+                .setLongName(group.longName())
+                .addAllMemberIds(groups.findMemberIds(groupId))));
+    }
+
+    /**
+     * Publishes the current state of the teaching staff and members without a group groups, which users are moved in
+     * and out of as a side effect of other changes
+     */
+    public synchronized void publishDefaultGroupsChanged() {
+        for (String shortName : List.of("TS", "MWAG")) {
+            for (GroupSummary group : groups.findSummariesByShortName(shortName)) {
+                publishGroupChanged(group.groupId());
+            }
+        }
+    }
+
+    /**
+     * Publishes that a group was deleted
+     * @param groupId - ID of the deleted group
+     */
+    public void publishGroupDeleted(int groupId) {
+        publish(event(DirectoryChangeType.GROUP_DELETED).setGroupId(groupId));
+    }
+
+    /**
+     * Lets watchers know the stream is still alive, so they can tell a quiet directory from a dead connection
+     */
+    @Scheduled(fixedDelayString = "${directory.heartbeat-interval-ms:10000}")
+    public synchronized void sendHeartbeat() {
+        send(event(DirectoryChangeType.HEARTBEAT).setVersion(version).build());
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    private synchronized void publishUser(int userId, DirectoryChangeType type) {
+        UserSummary user = users.findSummaryById(userId);
+        if (user == null) {
+            return;
+        }
+        publish(event(type).setUser(userService.getSummaryResponses(List.of(user)).get(0)));
+    }
+
+    private DirectoryChangeEvent.Builder event(DirectoryChangeType type) {
+        return DirectoryChangeEvent.newBuilder().setType(type);
+    }
+
+    private synchronized void publish(DirectoryChangeEvent.Builder builder) {
+        DirectoryChangeEvent event = builder.setVersion(++version).build();
+        recentEvents.addLast(event);
+        if (recentEvents.size() > MAX_RECENT_EVENTS) {
+            recentEvents.removeFirst();
+        }
+        send(event);
+    }
+
+    /**
+     * Sends an event to every watcher, dropping any whose stream has failed or who have fallen too far behind
+     */
+    private void send(DirectoryChangeEvent event) {
+        for (Watcher watcher : watchers) {
+            try {
+                if (watcher.observer.isReady()) {
+                    watcher.eventsSentWhileNotReady = 0;
+                } else if (++watcher.eventsSentWhileNotReady > MAX_RECENT_EVENTS) {
+                    watchers.remove(watcher);
+                    watcher.observer.onNext(event(DirectoryChangeType.RESYNC_REQUIRED).setVersion(version).build());
+                    watcher.observer.onCompleted();
+                    continue;
+                }
+                watcher.observer.onNext(event);
+            } catch (RuntimeException e) {
+                logger.warn("Dropping directory watcher: {}", e.getMessage());
+                watchers.remove(watcher);
+            }
+        }
+    }
+}
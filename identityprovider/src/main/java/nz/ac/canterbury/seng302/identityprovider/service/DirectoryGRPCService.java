@@ -0,0 +1,25 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import net.devh.boot.grpc.server.service.GrpcService;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import org.springframework.beans.factory.annotation.Autowired;
+
+@GrpcService
+public class DirectoryGRPCService extends DirectoryServiceGrpc.DirectoryServiceImplBase {
+    @Autowired
+    private DirectoryChangeService directoryChangeService;
+
+    @Override
+    public void getDirectorySnapshot(Empty request, StreamObserver<DirectorySnapshotResponse> responseObserver) {
+        responseObserver.onNext(directoryChangeService.getSnapshot());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void watchDirectoryChanges(WatchDirectoryChangesRequest request, StreamObserver<DirectoryChangeEvent> responseObserver) {
+        directoryChangeService.watch(request, (ServerCallStreamObserver<DirectoryChangeEvent>) responseObserver);
+    }
+}
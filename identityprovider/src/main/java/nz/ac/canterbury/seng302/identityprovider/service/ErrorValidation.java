@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.identityprovider.service;
 
+import java.util.List;
 import java.util.regex.Pattern;
 
 import nz.ac.canterbury.seng302.identityprovider.model.User;
@@ -129,6 +130,14 @@ public class ErrorValidation {
     }
 
     public ValidationError getUsernameError(String username) {
+        return getUsernameError(username, isUsernameValid(username) && isUsernameInUse(username));
+    }
+
+    /**
+     * Same as getUsernameError(username), for when whether the username is taken is already known, e.g from checking
+     * a whole batch of usernames in one query
+     */
+    public ValidationError getUsernameError(String username, boolean inUse) {
         ValidationError.Builder error = ValidationError.newBuilder();
         if (username.length() > 50) {
             return error.setFieldName("username").setErrorText("Username is too long").build();
@@ -139,7 +148,7 @@ public class ErrorValidation {
 
         if (!isUsernameValid(username)) {
             return error.setFieldName("username").setErrorText("Username can only contain letters and numbers").build();
-        } else if (isUsernameInUse(username)) {
+        } else if (inUse) {
             return error.setFieldName("username").setErrorText("This Username has been taken").build();
         }
 
@@ -163,6 +172,25 @@ public class ErrorValidation {
         return error.setFieldName("password").setErrorText("Password must contain atleast 1 uppercase letter, 1 lowercase letter and 1 digit").build();
     }
 
+    /**
+     * Gets the errors for every field of a registration, in the order Register sends them. The registration is valid
+     * if every error's text is empty
+     * @param request The registration
+     * @param usernameInUse If another user already has the username
+     * @param emailInUse If another user already has the email
+     * @return The errors
+     */
+    public List<ValidationError> getRegisterErrors(UserRegisterRequest request, boolean usernameInUse, boolean emailInUse) {
+        return List.of(getUsernameError(request.getUsername(), usernameInUse),
+                getPasswordError(request.getPassword()),
+                getFirstNameError(request.getFirstName()),
+                getMiddleNameError(request.getMiddleName()),
+                getLastNameError(request.getLastName()),
+                getNickNameError(request.getNickname()),
+                getBioError(request.getBio()),
+                getEmailError(request.getEmail(), emailInUse));
+    }
+
     public ValidationError getOldPasswordErrorCorrect() {
         ValidationError.Builder error = ValidationError.newBuilder();
         return error.setFieldName("oldPassword").setErrorText("").build();
@@ -253,6 +281,13 @@ public class ErrorValidation {
     }
     
     public ValidationError getEmailError(String email) {
+        return getEmailError(email, isEmailValid(email) && isEmailInUse(email));
+    }
+
+    /**
+     * Same as getEmailError(email), for when whether the email is taken is already known
+     */
+    public ValidationError getEmailError(String email, boolean inUse) {
         ValidationError.Builder error = ValidationError.newBuilder();
 
         if (email.length() > 50 ) {
@@ -265,7 +300,7 @@ public class ErrorValidation {
 
         if (!isEmailValid(email)) {
             return error.setFieldName("email").setErrorText("Email is invalid, must followed by the corect domain").build();
-        } else if (isEmailInUse(email)) {
+        } else if (inUse) {
             return error.setFieldName("email").setErrorText("An account with this email already exists").build();
         }
 
@@ -1,24 +1,37 @@
 package nz.ac.canterbury.seng302.identityprovider.service;
 
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 import nz.ac.canterbury.seng302.identityprovider.model.Group;
-import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupSummary;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import nz.ac.canterbury.seng302.shared.util.PaginationRequestOptions;
+import nz.ac.canterbury.seng302.shared.util.PaginationResponseOptions;
 import nz.ac.canterbury.seng302.shared.util.ValidationError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @GrpcService
 public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
     @Autowired
     private GroupService groupService;
     @Autowired
+    private UserService userService;
+    @Autowired
     private ErrorValidation errorValidation;
+    @Autowired
+    private DirectoryChangeService directoryChangeService;
 
     private static final Logger logger = LoggerFactory.getLogger(GroupGRPCService.class);
 
@@ -34,6 +47,7 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         if (shortNameError.getErrorText().equals("") && longNameError.getErrorText().equals("")) {
             //No Error
             Group newGroup = groupService.save(request.getShortName(), request.getLongName());
+            directoryChangeService.publishGroupChanged(newGroup.getGroupId());
 
             reply.setIsSuccess(true)
                     .setNewGroupId(newGroup.getGroupId())
@@ -53,41 +67,31 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
 
     @Override
     public void getGroupDetails(GetGroupDetailsRequest request, StreamObserver<GroupDetailsResponse> responseObserver) {
-        logger.info("Getting a group");
-
-        GroupDetailsResponse.Builder reply = GroupDetailsResponse.newBuilder();
-
-        logger.info(groupService.getGroups().toString());
-
-        Group group = groupService.getGroupById(request.getGroupId());
-
-        logger.info(String.valueOf(request.getGroupId()));
-        logger.info(group.toString());
-
-        reply.setGroupId(group.getGroupId())
-                .setLongName(group.getLongName())
-                .setShortName(group.getShortName());
-
-        for (User user : group.getGroupMembers()) {
-            List<Integer> roleInts = new ArrayList<>();
-            for (int i = 0; i < user.getRoles().length(); i++) {
-                roleInts.add(Integer.parseInt(user.getRoles().substring(i, i+1)));
-            }
-
-            UserResponse.Builder tempResponse = UserResponse.newBuilder()
-                    .setUsername(user.getUsername())
-                    .setFirstName(user.getFirstName())
-                    .setMiddleName(user.getMiddleName())
-                    .setLastName(user.getLastName())
-                    .setNickname(user.getNickname())
-                    .setBio(user.getBio())
-                    .setEmail(user.getEmail())
-                    .setPersonalPronouns(user.getPronouns())
-                    .addAllRolesValue(roleInts)
-                    .setId(user.getUserId());
+        logger.info("Getting group {}", request.getGroupId());
+
+        GroupSummary group = groupService.getGroupSummary(request.getGroupId());
+        if (group == null) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("No group with id " + request.getGroupId())
+                    .asRuntimeException());
+            return;
+        }
 
-            reply.addMembers(tempResponse);
+        GroupDetailsResponse.Builder reply = GroupDetailsResponse.newBuilder()
+                .setGroupId(group.groupId())
+                .setLongName(group.longName())
+                .setShortName(group.shortName())
+                .setMemberCount(group.memberCount());
+
+        List<UserSummary> members;
+        if (request.hasPaginationRequestOptions()) {
+            // Only send the requested page of members, ordered by the database
+            PaginationRequestOptions options = request.getPaginationRequestOptions();
+            members = userService.getGroupMembers(group.groupId(), options.getOffset(), options.getLimit());
+        } else {
+            members = userService.getGroupMembers(group.groupId());
         }
+        reply.addAllMembers(userService.getSummaryResponses(members, request.getView()));
 
         responseObserver.onNext(reply.build());
         responseObserver.onCompleted();
@@ -99,34 +103,23 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
 
         PaginatedGroupsResponse.Builder reply = PaginatedGroupsResponse.newBuilder();
 
-        List<Group> groups = groupService.getGroups();
+        // Members are loaded with their groups, without pagination options every group is returned
+        List<Group> groups;
+        if (request.hasPaginationRequestOptions()) {
+            PaginationRequestOptions options = request.getPaginationRequestOptions();
+            groups = groupService.getGroupsWithMembers(options.getOffset(), options.getLimit());
+        } else {
+            groups = groupService.getGroupsWithMembers();
+        }
 
         for (Group group : groups) {
             GroupDetailsResponse.Builder tempResponse = GroupDetailsResponse.newBuilder();
             tempResponse.setGroupId(group.getGroupId())
                     .setShortName(group.getShortName())
-                    .setLongName(group.getLongName());
-
-            for (User user : group.getGroupMembers()) {
-                List<Integer> roleInts = new ArrayList<>();
-                for (int i = 0; i < user.getRoles().length(); i++) {
-                    roleInts.add(Integer.parseInt(user.getRoles().substring(i, i+1)));
-                }
-
-                UserResponse.Builder userTempResponse = UserResponse.newBuilder()
-                        .setUsername(user.getUsername())
-                        .setFirstName(user.getFirstName())
-                        .setMiddleName(user.getMiddleName())
-                        .setLastName(user.getLastName())
-                        .setNickname(user.getNickname())
-                        .setBio(user.getBio())
-                        .setEmail(user.getEmail())
-                        .setPersonalPronouns(user.getPronouns())
-                        .addAllRolesValue(roleInts)
-                        .setId(user.getUserId());
-
-                tempResponse.addMembers(userTempResponse);
-            }
+                    .setLongName(group.getLongName())
+                    .setMemberCount(group.getGroupMembers().size());
+
+            tempResponse.addAllMembers(userService.getUserResponses(new ArrayList<>(group.getGroupMembers()), request.getView()));
             reply.addGroups(tempResponse);
         }
 
@@ -134,6 +127,59 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void getGroupSummaries(GetGroupSummariesRequest request, StreamObserver<GroupSummariesResponse> responseObserver) {
+        // Without pagination options, every group is returned in ID order
+        PaginationRequestOptions options = request.getPaginationRequestOptions();
+        Page<GroupSummary> groups = groupService.getGroupSummaries(options.getOffset(), options.getLimit(),
+                options.getOrderBy(), options.getIsAscendingOrder() || !request.hasPaginationRequestOptions());
+
+        Set<Integer> userGroupIds = request.getUserId() > 0
+                ? new HashSet<>(groupService.getGroupIdsForUser(request.getUserId()))
+                : Set.of();
+
+        GroupSummariesResponse.Builder reply = GroupSummariesResponse.newBuilder()
+                .setPaginationResponseOptions(PaginationResponseOptions.newBuilder()
+                        .setResultSetSize((int) groups.getTotalElements()));
+        for (GroupSummary group : groups) {
+            reply.addGroups(getSummaryResponse(group, userGroupIds.contains(group.groupId())));
+        }
+
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getGroupsForUser(GetGroupsForUserRequest request, StreamObserver<GroupsForUserResponse> responseObserver) {
+        GroupsForUserResponse.Builder reply = GroupsForUserResponse.newBuilder();
+        for (GroupSummary group : groupService.getGroupSummariesForUser(request.getUserId())) {
+            reply.addGroups(getSummaryResponse(group, true));
+        }
+
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    private GroupSummaryResponse getSummaryResponse(GroupSummary group, boolean containsUser) {
+        return GroupSummaryResponse.newBuilder()
+                .setGroupId(group.groupId())
+                .setShortName(group.shortName())
+                .setLongName(group.longName())
+                .setMemberCount(group.memberCount())
+                .setContainsUser(containsUser)
+                .build();
+    }
+
+    @Override
+    public void isUserInGroup(IsUserInGroupRequest request, StreamObserver<IsUserInGroupResponse> responseObserver) {
+        IsUserInGroupResponse reply = IsUserInGroupResponse.newBuilder()
+                .setIsMember(groupService.isUserInGroup(request.getUserId(), request.getGroupId()))
+                .build();
+
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void removeGroupMembers(RemoveGroupMembersRequest request, StreamObserver<RemoveGroupMembersResponse> responseObserver) {
         logger.info("Removing group members");
@@ -141,6 +187,11 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         RemoveGroupMembersResponse.Builder reply = RemoveGroupMembersResponse.newBuilder();
 
         reply.setIsSuccess(groupService.removeGroupUsers(request.getGroupId(), request.getUserIdsList()));
+        // Moving users in or out of the teaching staff group changes their roles, and everyone ends up in exactly one
+        // of a group or members without a group
+        directoryChangeService.publishGroupChanged(request.getGroupId());
+        directoryChangeService.publishDefaultGroupsChanged();
+        directoryChangeService.publishRolesChanged(request.getUserIdsList());
 
         responseObserver.onNext(reply.build());
         responseObserver.onCompleted();
@@ -153,6 +204,8 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         DeleteGroupResponse.Builder reply = DeleteGroupResponse.newBuilder();
 
         reply.setIsSuccess(groupService.deleteGroup(request.getGroupId()));
+        directoryChangeService.publishGroupChanged(request.getGroupId());
+        directoryChangeService.publishDefaultGroupsChanged();
 
         responseObserver.onNext(reply.build());
         responseObserver.onCompleted();
@@ -166,11 +219,49 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         AddGroupMembersResponse.Builder reply = AddGroupMembersResponse.newBuilder();
 
         reply.setIsSuccess(groupService.addGroupUsers(request.getGroupId(), request.getUserIdsList()));
+        directoryChangeService.publishGroupChanged(request.getGroupId());
+        directoryChangeService.publishDefaultGroupsChanged();
+        directoryChangeService.publishRolesChanged(request.getUserIdsList());
 
         responseObserver.onNext(reply.build());
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void moveGroupMembers(MoveGroupMembersRequest request, StreamObserver<MoveGroupMembersResponse> responseObserver) {
+        logger.info("Moving group members");
+
+        Map<Integer, Set<Integer>> removals = getUserIdsByGroup(request.getRemoveList());
+        Map<Integer, Set<Integer>> additions = getUserIdsByGroup(request.getAddList());
+        Set<Integer> changed = groupService.moveGroupUsers(removals, additions);
+
+        Set<Integer> userIds = new HashSet<>();
+        removals.values().forEach(userIds::addAll);
+        additions.values().forEach(userIds::addAll);
+        for (int groupId : changed) {
+            directoryChangeService.publishGroupChanged(groupId);
+        }
+        directoryChangeService.publishDefaultGroupsChanged();
+        directoryChangeService.publishRolesChanged(userIds);
+
+        Integer mwagId = groupService.getMembersWithoutAGroupId();
+        MoveGroupMembersResponse.Builder reply = MoveGroupMembersResponse.newBuilder()
+                .setIsSuccess(true)
+                .addAllChangedGroupIds(changed.stream().sorted().toList())
+                .setMembersWithoutAGroupId(mwagId == null ? -1 : mwagId);
+
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    private static Map<Integer, Set<Integer>> getUserIdsByGroup(List<GroupMember> members) {
+        Map<Integer, Set<Integer>> userIds = new HashMap<>();
+        for (GroupMember member : members) {
+            userIds.computeIfAbsent(member.getGroupId(), groupId -> new HashSet<>()).add(member.getUserId());
+        }
+        return userIds;
+    }
+
     @Override
     public void modifyGroupDetails(ModifyGroupDetailsRequest request, StreamObserver<ModifyGroupDetailsResponse> responseObserver) {
         logger.info("Modifying group details for group " + request.getGroupId());
@@ -178,6 +269,7 @@ public class GroupGRPCService extends GroupsServiceGrpc.GroupsServiceImplBase {
         if (groupService.updateGroupInfo(request.getGroupId(), request.getLongName(), request.getShortName())) {
             logger.info("Successfully changed details for group " + request.getGroupId());
             reply.setIsSuccess(true);
+            directoryChangeService.publishGroupChanged(request.getGroupId());
         } else {
             logger.info("Couldn't change details for group " + request.getGroupId());
             reply.setIsSuccess(false);
@@ -2,16 +2,26 @@ package nz.ac.canterbury.seng302.identityprovider.service;
 
 import nz.ac.canterbury.seng302.identityprovider.model.Group;
 import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupSummary;
+import nz.ac.canterbury.seng302.identityprovider.model.OffsetPageRequest;
 import nz.ac.canterbury.seng302.identityprovider.model.User;
 import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 
@@ -24,8 +34,17 @@ public class GroupService {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private final Logger logger = LoggerFactory.getLogger(GroupService.class);
 
+    private static final String TEACHING_STAFF = "Teaching Staff";
+    private static final String MEMBERS_WITHOUT_A_GROUP = "Members without a group";
+    private static final String DEFAULT_STUDENT = "student200";
+    // Default accounts that keep their roles when they leave teaching staff
+    private static final List<String> DEFAULT_ACCOUNTS = List.of("admin200", "teacher200", DEFAULT_STUDENT);
+
     /**
      * Get all groups
      * @return List of Groups
@@ -34,6 +53,28 @@ public class GroupService {
         return groups.findAll();
     }
 
+    /**
+     * Get all groups with their members, in one query
+     * @return List of Groups ordered by ID, with their members loaded
+     */
+    public List<Group> getGroupsWithMembers() {
+        return groups.findAllWithMembers();
+    }
+
+    /**
+     * Get a page of groups with their members, in two queries however many groups are on the page
+     * @param offset - Number of groups to skip
+     * @param limit - Maximum number of groups to return
+     * @return List of Groups ordered by ID, with their members loaded
+     */
+    public List<Group> getGroupsWithMembers(int offset, int limit) {
+        if (limit < 1) {
+            return new ArrayList<>();
+        }
+        List<Integer> ids = groups.findIds(new OffsetPageRequest(Math.max(offset, 0), limit, Sort.by("groupId")));
+        return ids.isEmpty() ? new ArrayList<>() : groups.findWithMembersByIds(ids);
+    }
+
     /**
      * Get the group with the specified ID
      * @param id - ID of the group being requested
@@ -43,6 +84,60 @@ public class GroupService {
         return groups.findById(id);
     }
 
+    /**
+     * Get the details and member count of the group with the specified ID, without loading the group's members
+     * @param id - ID of the group being requested
+     * @return Summary of the group, null if there is no group with the ID
+     */
+    public GroupSummary getGroupSummary(int id) {
+        return groups.findSummaryById(id);
+    }
+
+    /**
+     * Get the details and member counts of many groups in one query, without loading any members
+     * @param offset - Number of groups to skip
+     * @param limit - Maximum number of groups to return, or 0 for all of them
+     * @param orderBy - Field to sort by, one of "groupId", "shortName" or "longName". Defaults to groupId
+     * @param ascending - Whether to sort in ascending order
+     * @return A page of group summaries, which knows the total number of groups
+     */
+    public Page<GroupSummary> getGroupSummaries(int offset, int limit, String orderBy, boolean ascending) {
+        String property = List.of("shortName", "longName").contains(orderBy) ? orderBy : "groupId";
+        Sort sort = Sort.by(ascending ? Sort.Direction.ASC : Sort.Direction.DESC, property);
+        if (limit < 1) {
+            return groups.findAllSummaries(new OffsetPageRequest(Math.max(offset, 0), Integer.MAX_VALUE, sort));
+        }
+        return groups.findAllSummaries(new OffsetPageRequest(Math.max(offset, 0), limit, sort));
+    }
+
+    /**
+     * Get the IDs of every group a user is a member of
+     * @param userId - ID of the user
+     * @return IDs of the user's groups
+     */
+    public List<Integer> getGroupIdsForUser(int userId) {
+        return groups.findGroupIdsByMember(userId);
+    }
+
+    /**
+     * Get summaries of every group a user is a member of
+     * @param userId - ID of the user
+     * @return The user's groups, ordered by group ID
+     */
+    public List<GroupSummary> getGroupSummariesForUser(int userId) {
+        return groups.findSummariesByMember(userId);
+    }
+
+    /**
+     * Checks if a user is a member of a group, without loading the group
+     * @param userId - ID of the user
+     * @param groupId - ID of the group
+     * @return True if the user is in the group, false if not (or if the group doesn't exist)
+     */
+    public boolean isUserInGroup(int userId, int groupId) {
+        return groups.isMember(groupId, userId);
+    }
+
     /**
      * Saves a group
      * @param shortName - Short name of the group about to be saved or updated
@@ -75,74 +170,39 @@ public class GroupService {
 
     /**
      * Removes one or more users from a group
-     * @param groupId - ID of the group to remove users from
+     * @param groupId - ID of the group to remove users from, or -1 for teaching staff
      * @param userIds - List of the User ID's to be removed from the group
      * @return A boolean stating whether the removal worked or not
      */
+    @Transactional
     public boolean removeGroupUsers(int groupId, List<Integer> userIds) {
-        Group g;
         if (groupId == -1) {
-            g = getGroupByShortName("TS").get(0);
-        } else {
-            g = getGroupById(groupId);
+            Integer teachingStaffId = getIdByLongName(TEACHING_STAFF);
+            if (teachingStaffId == null) return false;
+            groupId = teachingStaffId;
         }
-
-        for (Integer i : userIds) {
-            // If user is being removed from TS remove Teacher role (same for add)
-            User u = userService.getUserById(i);
-            if (Objects.equals(g.getLongName(), "Teaching Staff")) {
-                if (!Arrays.asList(new String[]{"admin200", "teacher200", "student200"}).contains(u.getUsername())) {
-                    if (!u.getRoles().contains(Integer.toString(0))) {
-                        u.addRole(UserRole.STUDENT);
-                    }
-                    if (u.getRoles().contains(Integer.toString(1))) {
-                        u.removeRole(UserRole.TEACHER);
-                    }
-                    if (u.getRoles().contains(Integer.toString(2))) {
-                        u.removeRole(UserRole.COURSE_ADMINISTRATOR);
-                    }
-                }
-            }
-            if (u.getGroups().size() == 1) {
-                List<Group> mwag = getGroupByLongName("Members without a group");
-                if (!mwag.isEmpty()) {
-                    mwag.get(0).addGroupMember(u);
-                    groups.save(mwag.get(0));
-                    userService.flushAndUpdate(u);
-                }
-            }
-
-            g.removeGroupMember(i);
-            groups.save(g);
-            userService.flushAndUpdate(u);
-        }
-
-        return !g.getGroupMembers().contains(userService.getUserById(userIds.get(0))); // Checks for remove
+        moveGroupUsers(Map.of(groupId, Set.copyOf(userIds)), Map.of());
+        return true;
     }
 
     /**
-     * Removes all associates of given group from all its members, and deletes the group
+     * Removes all associates of given group from all its members, and deletes the group. Members that were in no
+     * other group join members without a group
      * @param groupId - ID of the group to delete users from
      * @return A boolean stating whether the removal worked or not
      */
+    @Transactional
     public boolean deleteGroup(int groupId) {
-        Group group = getGroupById(groupId);
-        List<Group> mwagList = getGroupByLongName("Members without a group");
-        Group mwag = mwagList.get(0);
-
-        for (User i : group.getGroupMembers()) { // Goes through all users in the group and removes that group
-            if (i.getGroups().size() == 1) {
-                mwag.addGroupMember(i);
-                mwag = groups.save(mwag);
-                userService.flushAndUpdate(i);
-            }
-
-            i.removeGroup(group);                // from the groups that user is in
-            userService.flushAndUpdate(i);
+        if (!groups.existsById(groupId)) return false;
+        List<Integer> memberIds = groups.findMemberIds(groupId);
+        groups.removeAllMembers(groupId);
+        Integer mwagId = getIdByLongName(MEMBERS_WITHOUT_A_GROUP);
+        if (mwagId != null && !memberIds.isEmpty()) {
+            groups.addUngroupedMembers(mwagId, memberIds);
         }
 
-        groups.delete(group); // Deletes the group
-        return !groups.findAll().contains(group);
+        groups.deleteById(groupId); // Deletes the group
+        return !groups.existsById(groupId);
     }
 
     /**
@@ -151,38 +211,82 @@ public class GroupService {
      * @param userIds - List of the User ID's to be added to the source group
      * @return A boolean stating whether the removal worked or not
      */
+    @Transactional
     public boolean addGroupUsers(int groupId, List<Integer> userIds) {
-        Group group = getGroupById(groupId);
-        Group mwag = groups.findByLongName("Members without a group").get(0);
-
-        for (int userId : userIds) {
-             User user = userService.getUserById(userId);
-
-             // Remove user from MWAG
-             if (mwag.getGroupMembers().contains(user)) {
-                 mwag.removeGroupMember(userId);
-                 user.removeGroup(mwag);
-
-                 mwag = groups.save(mwag);
-                 logger.info("Removing from MWAG: " + user.getUserId());
-             }
-             if (group.getShortName().equals("TS") && !Objects.equals(user.getUsername(), "student200")) { // If adding to Teaching Staff Group, need to add a teacher role to the user
-                if (!user.getRoles().contains(Integer.toString(1))) {
-                    user.addRole(UserRole.TEACHER);
-                }
-                userService.flushAndUpdate(user);
+        moveGroupUsers(Map.of(), Map.of(groupId, Set.copyOf(userIds)));
+        return true;
+    }
 
-                 group = groups.save(group);
+    /**
+     * Moves users between groups in one transaction, with a few statements for each group however many users move.
+     * Every removal is made before any addition, so a user is moved by removing them from one group and adding them
+     * to another.
+     *
+     * Members without a group is kept up to date rather than changed directly: users added to a group leave it, and
+     * users removed from their last group join it. Users removed from teaching staff become only students, and users
+     * added to it become teachers, except for the default accounts. Groups that don't exist are skipped.
+     * @param removals - ID of each group to remove users from, to the IDs of the users to remove from it
+     * @param additions - ID of each group to add users to, to the IDs of the users to add to it
+     * @return IDs of the groups whose members changed, including members without a group
+     */
+    @Transactional
+    public Set<Integer> moveGroupUsers(Map<Integer, Set<Integer>> removals, Map<Integer, Set<Integer>> additions) {
+        Set<Integer> requested = new HashSet<>(removals.keySet());
+        requested.addAll(additions.keySet());
+        Set<Integer> existing = requested.isEmpty() ? Set.of() : new HashSet<>(groups.findExistingIds(requested));
+        Integer teachingStaffId = getIdByLongName(TEACHING_STAFF);
+        Integer mwagId = getIdByLongName(MEMBERS_WITHOUT_A_GROUP);
+
+        Set<Integer> changed = new HashSet<>();
+        Set<Integer> removed = new HashSet<>();
+        for (Map.Entry<Integer, Set<Integer>> removal : removals.entrySet()) {
+            int groupId = removal.getKey();
+            Set<Integer> userIds = removal.getValue();
+            if (userIds.isEmpty() || !existing.contains(groupId) || Objects.equals(groupId, mwagId)) continue;
+
+            if (groups.removeMembers(groupId, userIds) > 0) changed.add(groupId);
+            removed.addAll(userIds);
+            if (Objects.equals(groupId, teachingStaffId)) {
+                userService.makeStudents(userIds, DEFAULT_ACCOUNTS);
+            }
+        }
+
+        Set<Integer> added = new HashSet<>();
+        for (Map.Entry<Integer, Set<Integer>> addition : additions.entrySet()) {
+            int groupId = addition.getKey();
+            Set<Integer> userIds = addition.getValue();
+            if (userIds.isEmpty() || !existing.contains(groupId) || Objects.equals(groupId, mwagId)) continue;
+
+            if (groups.addMembers(groupId, userIds) > 0) changed.add(groupId);
+            added.addAll(userIds);
+            if (Objects.equals(groupId, teachingStaffId)) {
+                userService.addRole(userIds, UserRole.TEACHER, List.of(DEFAULT_STUDENT));
             }
+        }
 
-             group.addGroupMember(user);
-             user.addGroup(group);
-             userService.save(user);
+        if (mwagId != null) {
+            if (!added.isEmpty() && groups.removeMembers(mwagId, added) > 0) {
+                changed.add(mwagId);
+            }
+            if (!removed.isEmpty() && groups.addUngroupedMembers(mwagId, removed) > 0) {
+                changed.add(mwagId);
+            }
         }
+        logger.info("Moved users in groups " + changed);
+        return changed;
+    }
 
-        groups.save(group);
+    /**
+     * Get the ID of members without a group
+     * @return The ID of the group, or null if it hasn't been made
+     */
+    public Integer getMembersWithoutAGroupId() {
+        return getIdByLongName(MEMBERS_WITHOUT_A_GROUP);
+    }
 
-        return true;
+    private Integer getIdByLongName(String longName) {
+        List<Integer> ids = groups.findIdsByLongName(longName);
+        return ids.isEmpty() ? null : ids.get(0);
     }
 
     /**
@@ -205,14 +309,19 @@ public class GroupService {
 
 
     /**
-     * Create a default group for teaching staff and members without group
+     * Create a default group for teaching staff and members without group. Done in a transaction since it reads
+     * users' groups, which aren't loaded with the user
      */
     @PostConstruct
     private void createDefaultGroups() {
-        List<Group> currentGroup = groups.findByLongName("Teaching Staff");
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> createDefaultGroupsInTransaction());
+    }
+
+    private void createDefaultGroupsInTransaction() {
+        List<Group> currentGroup = groups.findByLongName(TEACHING_STAFF);
         /* Adds all teachers and admins to TS */
         if (currentGroup.isEmpty()) {
-            Group teachingStaffGroup = new Group("TS", "Teaching Staff");
+            Group teachingStaffGroup = new Group("TS", TEACHING_STAFF);
             for (User u : userService.getAll()) {
                 if (u.isTeacher()) {
                     teachingStaffGroup.addGroupMember(u);
@@ -222,9 +331,9 @@ public class GroupService {
             groups.save(teachingStaffGroup);
         }
         /* Adds all users without groups to MWAG */
-        currentGroup = groups.findByLongName("Members without a group");
+        currentGroup = groups.findByLongName(MEMBERS_WITHOUT_A_GROUP);
         if (currentGroup.isEmpty()) {
-            Group specialMembers = new Group("MWAG", "Members without a group");
+            Group specialMembers = new Group("MWAG", MEMBERS_WITHOUT_A_GROUP);
             for (User u : userService.getAll()) {
                 if (u.getGroups().size() == 0) {
                     specialMembers.addGroupMember(u);
@@ -0,0 +1,258 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Stores images as files named by the SHA-256 hash of their content. An image never changes once stored, so the
+ * hash doubles as a version: anything keyed on it (e.g. a browser cache) never needs invalidating, and uploading the
+ * same image twice only stores it once.
+ *
+ * Files are spread over subdirectories named by the first two characters of their hash, to keep directories small.
+ * Stored images are never deleted, since several users may share one. Thumbnails of an image are stored next to it,
+ * named by its hash and their size, and are just as immutable.
+ */
+@Service
+public class ImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageStore.class);
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${image-store.directory:userProfilePics}")
+    private String directory;
+
+    /**
+     * Stores an image, unless an identical one is already stored
+     * @param content The image's bytes
+     * @return The image's hash, used to read it back
+     * @throws IOException If the image couldn't be written
+     */
+    public String save(byte[] content) throws IOException {
+        String hash = hash(content);
+        if (write(getPath(hash), content)) {
+            logger.info("Stored image {} ({} bytes)", hash, content.length);
+        }
+        return hash;
+    }
+
+    /**
+     * Starts storing an image whose bytes arrive in pieces, so it never needs to be held in memory whole. The bytes
+     * are written to a temporary file and hashed as they arrive, and the file is moved under its hash on commit
+     * @return The upload, which the caller must close
+     * @throws IOException If the temporary file couldn't be created
+     */
+    public Upload startUpload() throws IOException {
+        Path root = Paths.get(directory);
+        Files.createDirectories(root);
+        return new Upload(Files.createTempFile(root, "upload", ".tmp"));
+    }
+
+    /**
+     * An image being written to the store. Closing an upload that wasn't committed discards it
+     */
+    public class Upload implements Closeable {
+        private final Path temp;
+        private final MessageDigest digest = newDigest();
+        private final OutputStream output;
+        private long size = 0;
+        private boolean committed = false;
+
+        private Upload(Path temp) throws IOException {
+            this.temp = temp;
+            this.output = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), digest) {
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    super.write(bytes, offset, length);
+                    size += length;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    super.write(b);
+                    size++;
+                }
+            };
+        }
+
+        /**
+         * @return The stream to write the image's bytes to, in order
+         */
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        /**
+         * @return The number of bytes written so far
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Finishes writing the image and stores it under its hash, unless an identical one is already stored
+         * @return The image's hash, used to read it back
+         * @throws IOException If the image couldn't be written
+         */
+        public String commit() throws IOException {
+            output.close();
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path path = getPath(hash);
+            if (!Files.exists(path)) {
+                Files.createDirectories(path.getParent());
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+                    logger.info("Stored image {} ({} bytes)", hash, size);
+                } catch (FileAlreadyExistsException e) {
+                    // Stored concurrently by someone else, and identical by definition
+                }
+            }
+            committed = true;
+            Files.deleteIfExists(temp);
+            return hash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                output.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Stores a thumbnail of an image, unless one of the same size is already stored
+     * @param hash The hash of the image the thumbnail was made from
+     * @param size The thumbnail's width and height in pixels
+     * @param content The thumbnail's bytes
+     * @throws IOException If the thumbnail couldn't be written
+     */
+    public void saveThumbnail(String hash, int size, byte[] content) throws IOException {
+        write(getThumbnailPath(hash, size), content);
+    }
+
+    /**
+     * Opens a stored image for reading
+     * @param hash The image's hash
+     * @return A stream of the image's bytes, which the caller must close
+     * @throws IOException If there is no image with the hash, or it couldn't be read
+     */
+    public InputStream open(String hash) throws IOException {
+        return Files.newInputStream(getPath(hash));
+    }
+
+    /**
+     * @param hash The image's hash
+     * @return The size of the stored image in bytes
+     * @throws IOException If there is no image with the hash
+     */
+    public long size(String hash) throws IOException {
+        return Files.size(getPath(hash));
+    }
+
+    /**
+     * @param hash The image's hash
+     * @return True if an image with the hash is stored
+     */
+    public boolean contains(String hash) {
+        return HASH_PATTERN.matcher(hash).matches() && Files.exists(getPath(hash));
+    }
+
+    /**
+     * Opens a stored thumbnail for reading
+     * @param hash The hash of the image the thumbnail was made from
+     * @param size The thumbnail's width and height in pixels
+     * @return A stream of the thumbnail's bytes, which the caller must close
+     * @throws IOException If there is no such thumbnail, or it couldn't be read
+     */
+    public InputStream openThumbnail(String hash, int size) throws IOException {
+        return Files.newInputStream(getThumbnailPath(hash, size));
+    }
+
+    /**
+     * @param hash The hash of the image the thumbnail was made from
+     * @param size The thumbnail's width and height in pixels
+     * @return The size of the stored thumbnail in bytes
+     * @throws IOException If there is no such thumbnail
+     */
+    public long thumbnailSize(String hash, int size) throws IOException {
+        return Files.size(getThumbnailPath(hash, size));
+    }
+
+    /**
+     * @param hash The hash of the image the thumbnail was made from
+     * @param size The thumbnail's width and height in pixels
+     * @return True if a thumbnail of the image is stored at the size
+     */
+    public boolean containsThumbnail(String hash, int size) {
+        return HASH_PATTERN.matcher(hash).matches() && Files.exists(getThumbnailPath(hash, size));
+    }
+
+    /**
+     * Writes a file, unless it already exists
+     * @return True if the file was written
+     */
+    private static boolean write(Path path, byte[] content) throws IOException {
+        if (Files.exists(path)) {
+            return false;
+        }
+
+        // Write to a temporary file first, so a half written file can never be read under its name
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Written concurrently by someone else, and identical by definition
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    private Path getThumbnailPath(String hash, int size) {
+        return getPath(hash).resolveSibling(hash + "-" + size);
+    }
+
+    private Path getPath(String hash) {
+        // Hashes end up in file paths, so anything that isn't one is rejected rather than resolved
+        if (!HASH_PATTERN.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Not an image hash: " + hash);
+        }
+        return Paths.get(directory, hash.substring(0, 2), hash);
+    }
+
+    private static String hash(byte[] content) {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
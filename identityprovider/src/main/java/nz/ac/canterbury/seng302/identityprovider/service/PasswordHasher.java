@@ -0,0 +1,111 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Hashes and checks passwords with BCrypt on a few threads of its own. BCrypt is slow on purpose, so a burst of
+ * logins (e.g at the start of a lecture) would otherwise take every CPU from the rest of the identity provider. At
+ * most THREADS passwords are hashed at once and at most QUEUE_CAPACITY wait, anything more is rejected straight away
+ * with a RejectedExecutionException so the caller can tell the client to try again rather than leaving it waiting.
+ */
+@Service
+public class PasswordHasher {
+
+    public static final int DEFAULT_STRENGTH = 10;
+
+    static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final int QUEUE_CAPACITY = 50;
+
+    /** Description of the RESOURCE_EXHAUSTED status sent when a password can't be hashed because the queue is full */
+    public static final String BUSY_MESSAGE = "Too many passwords are being checked right now, try again shortly";
+
+    // BCrypt cost factor for new hashes. Passwords hashed with a lower cost are rehashed when their user logs in
+    @Value("${bcrypt.strength:" + DEFAULT_STRENGTH + "}")
+    private int strength = DEFAULT_STRENGTH;
+
+    private BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(DEFAULT_STRENGTH);
+
+    private final ThreadPoolExecutor executor =
+            BoundedExecutors.newFixedThreadPool("password-hashing", THREADS, QUEUE_CAPACITY);
+
+    @PostConstruct
+    public void init() {
+        encoder = new BCryptPasswordEncoder(strength);
+    }
+
+    /**
+     * Hashes a password on the hashing threads
+     * @param password The password
+     * @return The hash, once it's done
+     * @throws RejectedExecutionException If too many passwords are already waiting to be hashed
+     */
+    public CompletableFuture<String> encodeAsync(String password) {
+        return CompletableFuture.supplyAsync(() -> encoder.encode(password), executor);
+    }
+
+    /**
+     * Checks a password against a hash on the hashing threads
+     * @param password The password
+     * @param hash The stored hash
+     * @return If the password matches, once it's checked
+     * @throws RejectedExecutionException If too many passwords are already waiting to be hashed
+     */
+    public CompletableFuture<Boolean> matchesAsync(String password, String hash) {
+        return CompletableFuture.supplyAsync(() -> encoder.matches(password, hash), executor);
+    }
+
+    /**
+     * Hashes a password on the hashing threads, waiting for it to finish
+     * @throws RejectedExecutionException If too many passwords are already waiting to be hashed
+     */
+    public String encode(String password) {
+        return join(encodeAsync(password));
+    }
+
+    /**
+     * Checks a password against a hash on the hashing threads, waiting for it to finish
+     * @throws RejectedExecutionException If too many passwords are already waiting to be hashed
+     */
+    public boolean matches(String password, String hash) {
+        return join(matchesAsync(password, hash));
+    }
+
+    /**
+     * @param hash A stored hash
+     * @return True if the hash was made with a lower cost factor than the current one, so should be replaced the next
+     * time the password is known
+     */
+    public boolean needsRehash(String hash) {
+        return encoder.upgradeEncoding(hash);
+    }
+
+    /**
+     * @return The number of passwords waiting to be hashed or checked
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Makes square JPEG thumbnails of profile photos at a few fixed sizes, so an avatar shown at 50px doesn't need the
+ * full uploaded photo. Thumbnails are only ever made in the background, on a small pool of threads with a bounded
+ * queue, so neither uploads nor downloads wait for them. A thumbnail that is asked for before it has been made (or that
+ * was dropped because the queue was full) is queued again, and the original photo is sent in the meantime.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    /** Widths and heights in pixels of the thumbnails made for every photo, smallest first */
+    public static final int[] SIZES = {32, 96, 256};
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 100;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    /**
+     * Largest image, in pixels, that is decoded to make thumbnails. A small upload can be compressed from a huge
+     * image, which would take gigabytes to decode, so anything larger just has no thumbnails
+     */
+    static final long MAX_PIXELS = 40_000_000L;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    private final ThreadPoolExecutor executor = BoundedExecutors.newFixedThreadPool("thumbnails", THREADS, QUEUE_CAPACITY);
+
+    // Hashes of the images queued or being made into thumbnails, so that an image asked for many times at once is
+    // still only decoded once
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Queues a stored image to have all its thumbnails made in the background, unless it is already queued. If the
+     * queue is full the image is skipped, and is queued again when one of its thumbnails is asked for
+     * @param hash The image's hash
+     */
+    public void createThumbnailsLater(String hash) {
+        if (!pending.add(hash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    createThumbnails(hash);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Couldn't make thumbnails of image {}: {}", hash, e.getMessage());
+                } finally {
+                    pending.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(hash);
+            logger.warn("Thumbnail queue is full, thumbnails of image {} will be made when next asked for", hash);
+        }
+    }
+
+    /**
+     * Makes any thumbnails of a stored image that aren't stored yet. The image is only decoded once for all sizes
+     * @param hash The image's hash
+     * @throws IOException If the image couldn't be read or a thumbnail couldn't be written
+     */
+    public void createThumbnails(String hash) throws IOException {
+        BufferedImage image = null;
+        for (int size : SIZES) {
+            if (imageStore.containsThumbnail(hash, size)) continue;
+            if (image == null) {
+                image = read(hash);
+                if (image == null) return;
+            }
+            imageStore.saveThumbnail(hash, size, encode(scale(image, size)));
+        }
+    }
+
+    /**
+     * Checks if a thumbnail of a stored image has been made. If it hasn't, the image is queued to have its thumbnails
+     * made in the background, and the original should be sent instead for now
+     * @param hash The image's hash
+     * @param size One of SIZES
+     * @return True if the thumbnail is stored
+     */
+    public boolean isThumbnailReady(String hash, int size) {
+        if (imageStore.containsThumbnail(hash, size)) {
+            return true;
+        }
+        createThumbnailsLater(hash);
+        return false;
+    }
+
+    /**
+     * Chooses the thumbnail to send for an avatar shown at a given size
+     * @param requestedSize The size in pixels the avatar is shown at, or 0 for the original photo
+     * @return The smallest of SIZES that is at least requestedSize, or 0 if the original photo should be sent
+     */
+    public static int getThumbnailSize(int requestedSize) {
+        if (requestedSize <= 0) return 0;
+        for (int size : SIZES) {
+            if (size >= requestedSize) return size;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of images waiting to have their thumbnails made
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Decodes a stored image, reading its size from its header first so an image over MAX_PIXELS is never decoded
+     * @return The image, or null if it can't be decoded or is too large
+     */
+    private BufferedImage read(String hash) throws IOException {
+        try (InputStream stored = imageStore.open(hash);
+             ImageInputStream input = ImageIO.createImageInputStream(stored)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                logger.warn("Image {} isn't in a format that can be decoded, so has no thumbnails", hash);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    logger.warn("Image {} is {} pixels, which is too large to make thumbnails of", hash, pixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Crops the centre square out of an image and scales it down to a size. Large reductions are done by repeatedly
+     * halving, since a single bilinear step skips most of the source pixels and looks grainy
+     */
+    static BufferedImage scale(BufferedImage image, int size) {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        BufferedImage scaled = image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+        int current = side;
+        do {
+            current = Math.max(current / 2, size);
+            BufferedImage next = new BufferedImage(current, current, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no transparency, so transparent pixels are shown against white
+            graphics.drawImage(scaled, 0, 0, current, current, Color.WHITE, null);
+            graphics.dispose();
+            scaled = next;
+        } while (current != size);
+        return scaled;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -6,19 +6,29 @@ import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 import nz.ac.canterbury.seng302.identityprovider.model.Group;
 import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserPage;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
 import nz.ac.canterbury.seng302.shared.util.FileUploadStatus;
 import nz.ac.canterbury.seng302.shared.util.FileUploadStatusResponse;
+import nz.ac.canterbury.seng302.shared.util.PaginationRequestOptions;
 import nz.ac.canterbury.seng302.shared.util.PaginationResponseOptions;
 import nz.ac.canterbury.seng302.shared.util.ValidationError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 @GrpcService
 public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceImplBase {
@@ -28,9 +38,16 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
     private GroupService groupService;
     @Autowired
     private ErrorValidation errorValidation;
+    @Autowired
+    private DirectoryChangeService directoryChangeService;
+    @Autowired
+    private ThumbnailService thumbnailService;
 
     private static final Logger logger = LoggerFactory.getLogger(UserGRPCService.class);
     private static int userId = 0;
+    private static final int PHOTO_CHUNK_SIZE = 64 * 1024;
+    static final long MAX_PHOTO_SIZE = 1024 * 1024;
+    static final int BULK_REGISTER_BATCH_SIZE = 100;
 
     //rpc Register (UserRegisterRequest) returns (UserRegisterResponse);
     @Override
@@ -38,6 +55,13 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
         UserRegisterResponse.Builder reply = UserRegisterResponse.newBuilder();
         
         if (errorValidation.isAccountValid(request)) {
+            String passwordHash;
+            try {
+                passwordHash = userService.encrypt(request.getPassword());
+            } catch (RejectedExecutionException e) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(PasswordHasher.BUSY_MESSAGE).asRuntimeException());
+                return;
+            }
             userId = userId + 1;
             reply.setMessage(
                     String.format(
@@ -64,7 +88,7 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
 
             UserRegisterRequest finalRequest = UserRegisterRequest.newBuilder()
                     .setUsername(request.getUsername())
-                    .setPassword(userService.encrypt(request.getPassword()))
+                    .setPassword(passwordHash)
                     .setFirstName( request.getFirstName())
                     .setMiddleName(request.getMiddleName())
                     .setLastName(request.getLastName())
@@ -74,7 +98,9 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
                     .setEmail(request.getEmail())
                     .build();
 
-            userService.register(finalRequest);
+            User newUser = userService.register(finalRequest);
+            directoryChangeService.publishUserChanged(newUser.getUserId());
+            directoryChangeService.publishDefaultGroupsChanged();
         } else {
 
             reply.setMessage("Invalid inputs to create account.")
@@ -95,6 +121,113 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
         responseObserver.onCompleted();
     }
 
+    /**
+     * Registers a stream of new users, e.g a class list at the start of semester. Registrations are handled in
+     * batches: each batch is validated against one query for taken usernames and emails, its passwords are hashed in
+     * parallel and its users are inserted together. The result of each registration is sent once its batch is done
+     */
+    @Override
+    public StreamObserver<UserRegisterRequest> bulkRegister(StreamObserver<BulkRegisterResponse> responseObserver) {
+        return new StreamObserver<>() {
+            private final List<UserRegisterRequest> batch = new ArrayList<>();
+            private int index = 0;
+            private boolean failed = false;
+
+            @Override
+            public void onNext(UserRegisterRequest request) {
+                if (failed) return;
+                batch.add(request);
+                if (batch.size() >= BULK_REGISTER_BATCH_SIZE) {
+                    registerBatch();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                logger.warn("Bulk registration cancelled after {} registrations: {}", index, t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) return;
+                registerBatch();
+                if (failed) return;
+                logger.info("Bulk registered {} users", index);
+                directoryChangeService.publishDefaultGroupsChanged();
+                responseObserver.onCompleted();
+            }
+
+            private void registerBatch() {
+                if (batch.isEmpty()) return;
+                try {
+                    Set<String> usernames = new HashSet<>();
+                    Set<String> emails = new HashSet<>();
+                    for (UserRegisterRequest request : batch) {
+                        usernames.add(request.getUsername());
+                        emails.add(request.getEmail());
+                    }
+                    // Lower cased, since the database compares them ignoring case
+                    Set<String> takenUsernames = new HashSet<>();
+                    Set<String> takenEmails = new HashSet<>();
+                    for (UserSummary user : userService.getUsersByUsernamesOrEmails(usernames, emails)) {
+                        takenUsernames.add(user.username().toLowerCase(Locale.ROOT));
+                        takenEmails.add(user.email().toLowerCase(Locale.ROOT));
+                    }
+
+                    List<UserRegisterRequest> valid = new ArrayList<>();
+                    Map<Integer, UserRegisterResponse> results = new HashMap<>();
+                    for (int i = 0; i < batch.size(); i++) {
+                        UserRegisterRequest request = batch.get(i);
+                        String username = request.getUsername().toLowerCase(Locale.ROOT);
+                        String email = request.getEmail().toLowerCase(Locale.ROOT);
+                        List<ValidationError> errors = errorValidation.getRegisterErrors(request,
+                                takenUsernames.contains(username), takenEmails.contains(email));
+                        if (errors.stream().allMatch(error -> error.getErrorText().isEmpty())) {
+                            valid.add(request);
+                            // Also catches the same username or email twice in one batch
+                            takenUsernames.add(username);
+                            takenEmails.add(email);
+                        } else {
+                            results.put(i, UserRegisterResponse.newBuilder()
+                                    .setMessage("Invalid inputs to create account.")
+                                    .setIsSuccess(false)
+                                    .addAllValidationErrors(errors)
+                                    .build());
+                        }
+                    }
+
+                    List<User> newUsers = valid.isEmpty() ? List.of() : userService.registerAll(valid);
+                    int next = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        UserRegisterResponse result = results.get(i);
+                        if (result == null) {
+                            User newUser = newUsers.get(next++);
+                            directoryChangeService.publishUserChanged(newUser.getUserId());
+                            result = UserRegisterResponse.newBuilder()
+                                    .setIsSuccess(true)
+                                    .setNewUserId(newUser.getUserId())
+                                    .build();
+                        }
+                        responseObserver.onNext(BulkRegisterResponse.newBuilder().setIndex(index++).setResult(result).build());
+                    }
+                    batch.clear();
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Bulk registration stopped after {} registrations, password hashing is busy", index);
+                    failed = true;
+                    responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                            .withDescription(PasswordHasher.BUSY_MESSAGE + ", " + index + " users were registered")
+                            .asRuntimeException());
+                } catch (RuntimeException e) {
+                    logger.error("Bulk registration failed after {} registrations", index, e);
+                    failed = true;
+                    responseObserver.onError(Status.INTERNAL
+                            .withDescription("Registration failed after " + index + " users")
+                            .asRuntimeException());
+                }
+            }
+        };
+    }
+
     @Override
     public void editUser(EditUserRequest request, StreamObserver<EditUserResponse> responseObserver) {
         EditUserResponse.Builder reply = EditUserResponse.newBuilder();
@@ -119,6 +252,7 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
                     .addValidationErrors(errorValidation.getEmailError(request.getEmail(), request.getUserId()));
 
             userService.updateUser(request);
+            directoryChangeService.publishUserChanged(request.getUserId());
         } else {
             reply.setMessage("Invalid inputs to edit account.")
                     .setIsSuccess(false)
@@ -140,19 +274,32 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
 
         ValidationError.Builder error = ValidationError.newBuilder();
 
+        boolean currentPasswordCorrect;
+        try {
+            currentPasswordCorrect = userService.matchPassword(request.getCurrentPassword(), user.getPassword());
+        } catch (RejectedExecutionException e) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(PasswordHasher.BUSY_MESSAGE).asRuntimeException());
+            return;
+        }
+
         ChangePasswordResponse.Builder reply = ChangePasswordResponse.newBuilder();
-        if (errorValidation.isPasswordValid(request.getNewPassword()) && userService.matchPassword(request.getCurrentPassword(), user.getPassword())) {
+        if (errorValidation.isPasswordValid(request.getNewPassword()) && currentPasswordCorrect) {
             reply.setMessage("Success")
                     .setIsSuccess(true)
                     .addValidationErrors(errorValidation.getPasswordError(request.getNewPassword()))
                     .addValidationErrors(errorValidation.getOldPasswordErrorCorrect());
-            userService.updateUserPassword(request);
+            try {
+                userService.updateUserPassword(request);
+            } catch (RejectedExecutionException e) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(PasswordHasher.BUSY_MESSAGE).asRuntimeException());
+                return;
+            }
         } else {
             reply.setMessage("Invalid inputs to edit account.")
                     .setIsSuccess(false)
                     .addValidationErrors(errorValidation.getPasswordError(request.getNewPassword()));
 
-            if (!userService.matchPassword(request.getCurrentPassword(), user.getPassword())) {
+            if (!currentPasswordCorrect) {
                 reply.addValidationErrors(errorValidation.getOldPasswordErrorIncorrect());
             } else {
                 reply.addValidationErrors(errorValidation.getOldPasswordErrorCorrect());
@@ -168,36 +315,49 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
         logger.info("getting user account: " + request.getId());
         User user = userService.getUserById(request.getId());
         logger.info("Got user account: " + user.getUserId());
-        String roles = user.getRoles();
-        List<Integer> roleInts = new ArrayList<>();
-        for (int i = 0; i < roles.length(); i++) {
-            roleInts.add(Integer.parseInt(roles.substring(i, i+1)));
-        }
+        UserResponse reply = userService.getUserResponse(UserSummary.of(user), UserView.FULL);
 
-        UserResponse.Builder reply = UserResponse.newBuilder()
-        .setUsername(user.getUsername())
-        .setFirstName(user.getFirstName())
-        .setMiddleName(user.getMiddleName())
-        .setLastName(user.getLastName())
-        .setNickname(user.getNickname())
-        .setBio(user.getBio())
-        .setEmail(user.getEmail())
-        .setId(request.getId())
-        .setPersonalPronouns(user.getPronouns())
-        .addAllRolesValue(roleInts)
-        .setProfileImagePath(userService.getImage(user.getUserId(), "jpg"));
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+    /**
+     * Gets many user accounts in one call, so clients don't need a round trip per user
+     */
+    @Override
+    public void getUsersByIds(GetUsersByIdsRequest request, StreamObserver<UsersByIdsResponse> responseObserver) {
+        List<UserSummary> users = userService.getUsersByIds(request.getIdsList());
 
-        responseObserver.onNext(reply.build());
+        responseObserver.onNext(UsersByIdsResponse.newBuilder()
+                .addAllUsers(userService.getSummaryResponses(users))
+                .build());
         responseObserver.onCompleted();
     }
+
     @Override
     public void getPaginatedUsers(GetPaginatedUsersRequest request, StreamObserver<PaginatedUsersResponse> responseObserver) {
-        List<User> users = userService.getAllPaginated(request.getPaginationRequestOptions().getOffset(), request.getPaginationRequestOptions().getLimit(), request.getPaginationRequestOptions().getOrderBy(), request.getPaginationRequestOptions().getIsAscendingOrder());
-        List<UserResponse> allResponses = userService.getUserResponses(users);
+        PaginationRequestOptions options = request.getPaginationRequestOptions();
+        List<UserRole> roles = request.getRolesList();
+        long count = userService.getCount(roles);
+        UserPage page;
+        try {
+            if (options.getCursor().isEmpty()) {
+                List<UserSummary> users = userService.getAllPaginated(options.getOffset(), options.getLimit(), options.getOrderBy(), options.getIsAscendingOrder(), roles);
+                boolean hasNext = (long) (options.getOffset() + 1) * options.getLimit() < count;
+                page = userService.getPageCursors(users, options.getOrderBy(), options.getIsAscendingOrder(), options.getOffset() > 0, hasNext);
+            } else {
+                page = userService.getPageFromCursor(options.getCursor(), options.getLimit(), options.getOrderBy(), options.getIsAscendingOrder(), roles);
+            }
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        List<UserResponse> allResponses = userService.getSummaryResponses(page.users(), request.getView());
 
         PaginatedUsersResponse.Builder reply =  PaginatedUsersResponse.newBuilder().addAllUsers(allResponses)
                 .setPaginationResponseOptions(PaginationResponseOptions.newBuilder()
-                        .setResultSetSize((int) userService.getCount())
+                        .setResultSetSize((int) count)
+                        .setNextCursor(page.nextCursor())
+                        .setPreviousCursor(page.previousCursor())
                         .build());
 
         responseObserver.onNext(reply.build());
@@ -207,6 +367,8 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
     @Override
     public void removeRoleFromUser(ModifyRoleOfUserRequest request, StreamObserver<UserRoleChangeResponse> responseObserver) {
         boolean b = userService.removeUserRole(request);
+        directoryChangeService.publishRolesChanged(request.getUserId());
+        directoryChangeService.publishDefaultGroupsChanged();
 
         UserRoleChangeResponse.Builder reply = UserRoleChangeResponse.newBuilder().setIsSuccess(b);
 
@@ -217,12 +379,26 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
 
     @Override
     public void getPaginatedUsersFilteredByName(GetPaginatedUsersFilteredRequest request, StreamObserver<PaginatedUsersResponse> responseObserver) {
-        List<User> users = userService.getAllFilteredPaginated(request.getFilteringOptions().getFilterText(), request.getPaginationRequestOptions().getOffset(), request.getPaginationRequestOptions().getLimit(), request.getPaginationRequestOptions().getOrderBy(), request.getPaginationRequestOptions().getIsAscendingOrder());
-        List<UserResponse> allResponses = userService.getUserResponses(users);
+        PaginationRequestOptions options = request.getPaginationRequestOptions();
+        String query = request.getFilteringOptions().getFilterText();
+        UserPage page;
+        try {
+            if (options.getCursor().isEmpty()) {
+                page = userService.getFilteredPage(query, options.getOffset(), options.getLimit(), options.getOrderBy(), options.getIsAscendingOrder());
+            } else {
+                page = userService.getFilteredPageFromCursor(query, options.getCursor(), options.getLimit(), options.getOrderBy(), options.getIsAscendingOrder());
+            }
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        List<UserResponse> allResponses = userService.getSummaryResponses(page.users(), request.getView());
 
         PaginatedUsersResponse.Builder reply =  PaginatedUsersResponse.newBuilder().addAllUsers(allResponses)
                 .setPaginationResponseOptions(PaginationResponseOptions.newBuilder()
-                        .setResultSetSize(userService.getNumUsersFilteredPaginated(request.getFilteringOptions().getFilterText()))
+                        .setResultSetSize(userService.getNumUsersFilteredPaginated(query))
+                        .setNextCursor(page.nextCursor())
+                        .setPreviousCursor(page.previousCursor())
                         .build());
 
         responseObserver.onNext(reply.build());
@@ -240,6 +416,8 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
                 groupService.addGroupUsers(teacherGroup.get(0).getGroupId(), List.of(request.getUserId()));
             }
         }
+        directoryChangeService.publishRolesChanged(request.getUserId());
+        directoryChangeService.publishDefaultGroupsChanged();
 
         UserRoleChangeResponse.Builder reply = UserRoleChangeResponse.newBuilder().setIsSuccess(b);
 
@@ -249,53 +427,84 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
 
     //https://www.youtube.com/watch?v=rEmFMPv3TsA&ab_channel=TECHSCHOOL
     //rpc UploadUserProfilePhoto (stream UploadUserProfilePhotoRequest) returns (stream FileUploadStatusResponse);
+    /**
+     * Receives a profile photo in chunks, after its metadata. Chunks are written straight to the image store rather
+     * than collected in memory, and the upload is rejected as soon as it is known to be over MAX_PHOTO_SIZE
+     */
     @Override
     public StreamObserver<UploadUserProfilePhotoRequest> uploadUserProfilePhoto(StreamObserver<FileUploadStatusResponse> responseObserver) {
         return new StreamObserver<>() {
             private int user;
-            private String imageType;
-            private ByteArrayOutputStream image;
+            private ImageStore.Upload upload;
+            private boolean failed = false;
 
             @Override
             public void onNext(UploadUserProfilePhotoRequest value) {
+                if (failed) {
+                    return;
+                }
+
                 if (value.getUploadDataCase() == UploadUserProfilePhotoRequest.UploadDataCase.METADATA) {
                     ProfilePhotoUploadMetadata metadata = value.getMetaData();
-                    logger.info("Received request from user " + metadata.getUserId() + " to upload profile picture of type " + metadata.getFileType());
+                    logger.info("Received request from user " + metadata.getUserId() + " to upload profile picture of type " + metadata.getFileType() + " (" + metadata.getSize() + " bytes)");
 
+                    if (metadata.getSize() > MAX_PHOTO_SIZE) {
+                        fail(Status.INVALID_ARGUMENT.withDescription("Photo is larger than " + MAX_PHOTO_SIZE + " bytes"));
+                        return;
+                    }
                     user = metadata.getUserId();
-                    imageType = metadata.getFileType();
-                    image = new ByteArrayOutputStream();
+                    try {
+                        closeUpload();
+                        upload = userService.startImageUpload();
+                    } catch (IOException e) {
+                        fail(Status.INTERNAL.withDescription("Can't save image file to server: " + e.getMessage()));
+                    }
                     return;
                 }
 
-                ByteString fileContent = value.getFileContent();
-                logger.info("Received partial image data with size " + fileContent.size());
-
-                if (image == null) {
+                if (upload == null) {
                     logger.info("Tried to upload image data, but the image meta data wasn't sent before the stream");
-                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Image meta data hasn't been sent").asRuntimeException());
+                    fail(Status.INVALID_ARGUMENT.withDescription("Image meta data hasn't been sent"));
                     return;
                 }
 
+                ByteString fileContent = value.getFileContent();
+                if (upload.size() + fileContent.size() > MAX_PHOTO_SIZE) {
+                    fail(Status.INVALID_ARGUMENT.withDescription("Photo is larger than " + MAX_PHOTO_SIZE + " bytes"));
+                    return;
+                }
                 try {
-                    fileContent.writeTo(image);
+                    fileContent.writeTo(upload.getOutputStream());
                 } catch (IOException e) {
-                    logger.info("Tried to write image data, but the information couldn't be found. \r\n" + e.getMessage());
-                    responseObserver.onError(Status.INTERNAL.withDescription("Can't get image information: " + e.getMessage()).asRuntimeException());
+                    logger.info("Tried to write image data, but it couldn't be saved. \r\n" + e.getMessage());
+                    fail(Status.INTERNAL.withDescription("Can't save image file to server: " + e.getMessage()));
                 }
             }
 
             @Override
             public void onError(Throwable t) {
                 logger.error(t.getMessage());
+                closeUpload();
             }
 
             @Override
             public void onCompleted() {
+                if (failed) {
+                    return;
+                }
+                if (upload == null) {
+                    fail(Status.INVALID_ARGUMENT.withDescription("Image meta data hasn't been sent"));
+                    return;
+                }
+
                 try {
-                    userService.saveImage(user, imageType, image);
+                    userService.saveImage(user, upload);
+                    directoryChangeService.publishUserChanged(user);
                 } catch (IOException e) {
-                    responseObserver.onError(Status.INTERNAL.withDescription("Can't save image file to server: " + e.getMessage()).asRuntimeException());
+                    fail(Status.INTERNAL.withDescription("Can't save image file to server: " + e.getMessage()));
+                    return;
+                } finally {
+                    closeUpload();
                 }
 
                 FileUploadStatusResponse response = FileUploadStatusResponse.newBuilder()
@@ -305,15 +514,78 @@ public class UserGRPCService extends UserAccountServiceGrpc.UserAccountServiceIm
                 responseObserver.onNext(response);
                 responseObserver.onCompleted();
             }
+
+            private void fail(Status status) {
+                failed = true;
+                closeUpload();
+                responseObserver.onError(status.asRuntimeException());
+            }
+
+            private void closeUpload() {
+                if (upload == null) {
+                    return;
+                }
+                try {
+                    upload.close();
+                } catch (IOException e) {
+                    logger.warn("Couldn't discard unfinished image upload: " + e.getMessage());
+                }
+                upload = null;
+            }
         };
     }
 
+    /**
+     * Sends a user's profile photo in chunks, preceded by its metadata. If a size is asked for, the smallest thumbnail
+     * at least that big is sent instead of the original, once it has been made. Responds NOT_FOUND if the user
+     * doesn't exist or doesn't have a photo
+     */
+    @Override
+    public void getUserProfilePhoto(GetUserProfilePhotoRequest request, StreamObserver<GetUserProfilePhotoResponse> responseObserver) {
+        String imageHash = userService.getImageHash(request.getUserId());
+        if (imageHash == null || imageHash.isEmpty()) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("No profile photo for user " + request.getUserId())
+                    .asRuntimeException());
+            return;
+        }
+
+        try {
+            int thumbnailSize = ThumbnailService.getThumbnailSize(request.getSize());
+            if (thumbnailSize > 0 && !thumbnailService.isThumbnailReady(imageHash, thumbnailSize)) {
+                thumbnailSize = 0;
+            }
+            try (InputStream image = thumbnailSize > 0 ? userService.openThumbnail(imageHash, thumbnailSize) : userService.openImage(imageHash)) {
+                responseObserver.onNext(GetUserProfilePhotoResponse.newBuilder()
+                        .setMetaData(ProfilePhotoDownloadMetadata.newBuilder()
+                                .setFileType("jpg")
+                                .setImageHash(imageHash)
+                                .setSize(thumbnailSize > 0 ? userService.getThumbnailFileSize(imageHash, thumbnailSize) : userService.getImageSize(imageHash))
+                                .setThumbnailSize(thumbnailSize))
+                        .build());
+                byte[] buffer = new byte[PHOTO_CHUNK_SIZE];
+                int n;
+                while ((n = image.read(buffer)) > 0) {
+                    responseObserver.onNext(GetUserProfilePhotoResponse.newBuilder()
+                            .setFileContent(ByteString.copyFrom(buffer, 0, n))
+                            .build());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Couldn't read profile photo {} for user {}: {}", imageHash, request.getUserId(), e.getMessage());
+            responseObserver.onError(Status.INTERNAL.withDescription("Can't read image: " + e.getMessage()).asRuntimeException());
+            return;
+        }
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void deleteUserProfilePhoto(DeleteUserProfilePhotoRequest request, StreamObserver<DeleteUserProfilePhotoResponse> responseObserver) {
         logger.info ("Deleting user profile picture for user " + request.getUserId());
         DeleteUserProfilePhotoResponse.Builder reply;
         if (userService.deleteImage(request.getUserId(), "jpg")) {
             logger.info("Successfully deleted user image for user " + request.getUserId());
+            directoryChangeService.publishUserChanged(request.getUserId());
             reply = DeleteUserProfilePhotoResponse.newBuilder().setIsSuccess(true).setMessage("Success!");
         } else {
             logger.info ("Couldn't delete user image for user " + request.getUserId());
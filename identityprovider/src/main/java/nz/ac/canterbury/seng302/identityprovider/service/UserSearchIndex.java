@@ -0,0 +1,261 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index for searching users by name. A user matches a query if it appears anywhere in
+ * "username firstName lastName" (ignoring case), the same as the old LIKE '%query%' search, but without scanning
+ * every user: every 1, 2 and 3 character substring of a user's text maps to the users that contain it, so a query is
+ * answered from its rarest 3 character substrings and only those users are checked.
+ *
+ * The index is built from the database at startup and kept up to date by UserService whenever a user is saved.
+ */
+@Service
+public class UserSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    private static final int GRAM_LENGTH = 3;
+
+    @Autowired
+    private UserRepository users;
+
+    /**
+     * The fields of a user that are searched and sorted on
+     */
+    private record Entry(int userId, String text, String username, String firstName, String middleName,
+                         String lastName, String nickname, int roles) {}
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+    private final Map<String, Set<Integer>> grams = new HashMap<>();
+
+    private boolean loaded = false;
+
+    /**
+     * Reads every user from the database into the index, replacing anything already in it
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            grams.clear();
+            for (UserSummary user : users.findAllSummaries()) {
+                add(new Entry(user.userId(), text(user.username(), user.firstName(), user.lastName()), user.username(),
+                        user.firstName(), user.middleName(), user.lastName(), user.nickname(), user.roles()));
+            }
+            loaded = true;
+            logger.info("Indexed {} users for searching", entries.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a user to the index, or updates them if their name, nickname or role has changed. Must be called after
+     * every save of a user
+     * @param user The saved user
+     */
+    public void update(User user) {
+        if (user == null) return;
+        put(new Entry(user.getUserId(), text(user.getUsername(), user.getFirstName(), user.getLastName()),
+                user.getUsername(), user.getFirstName(), user.getMiddleName(), user.getLastName(), user.getNickname(),
+                user.getRoles()));
+    }
+
+    /**
+     * Adds a user to the index, or updates them, from a summary. For users changed by a bulk update, which doesn't
+     * go through a User
+     * @param user Summary of the user, read after the update
+     */
+    public void update(UserSummary user) {
+        if (user == null) return;
+        put(new Entry(user.userId(), text(user.username(), user.firstName(), user.lastName()), user.username(),
+                user.firstName(), user.middleName(), user.lastName(), user.nickname(), user.roles()));
+    }
+
+    private void put(Entry entry) {
+        lock.writeLock().lock();
+        try {
+            // Anything saved before the index is first built is read from the database then
+            if (!loaded) return;
+            Entry previous = entries.get(entry.userId());
+            if (entry.equals(previous)) return;
+            if (previous != null) remove(previous);
+            add(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the users that match a query. Users with a word (username, first or last name) that starts with the query
+     * come first, then users that only contain it elsewhere, and each of those is in the requested order
+     * @param query Text to search for
+     * @param sortBy "username", "name", "nickname" or "role". Anything else sorts by name
+     * @param ascending If the users should be in ascending order rather than descending
+     * @return IDs of the matching users, best first
+     */
+    public List<Integer> search(String query, String sortBy, boolean ascending) {
+        String normalised = normalise(query);
+        Comparator<Entry> order = comparator(sortBy);
+        if (!ascending) order = order.reversed();
+        Comparator<Entry> ranked = Comparator.<Entry>comparingInt(entry -> isPrefixMatch(entry, normalised) ? 0 : 1)
+                .thenComparing(order)
+                .thenComparingInt(Entry::userId);
+
+        List<Entry> matches;
+        lock.readLock().lock();
+        try {
+            matches = findMatches(normalised);
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(ranked);
+
+        List<Integer> ids = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            ids.add(entry.userId());
+        }
+        return ids;
+    }
+
+    /**
+     * @param query Text to search for
+     * @return The number of users that match the query
+     */
+    public int count(String query) {
+        String normalised = normalise(query);
+        lock.readLock().lock();
+        try {
+            return findMatches(normalised).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called with the read or write lock held
+     */
+    private List<Entry> findMatches(String query) {
+        if (!loaded) {
+            // Only happens if searched before the application is ready. Building needs the write lock, which can't
+            // be taken while holding the read lock, so read straight from the database this once
+            return findMatchesUnindexed(query);
+        }
+        if (query.isEmpty()) {
+            return new ArrayList<>(entries.values());
+        }
+        if (query.length() <= GRAM_LENGTH) {
+            // Every substring this short is in the index, so its users all match without checking
+            List<Entry> matches = new ArrayList<>();
+            for (int userId : grams.getOrDefault(query, Collections.emptySet())) {
+                matches.add(entries.get(userId));
+            }
+            return matches;
+        }
+
+        Set<Integer> candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+            Set<Integer> users = grams.get(query.substring(i, i + GRAM_LENGTH));
+            if (users == null) return new ArrayList<>();
+            if (candidates == null || users.size() < candidates.size()) candidates = users;
+        }
+        List<Entry> matches = new ArrayList<>();
+        for (int userId : candidates) {
+            Entry entry = entries.get(userId);
+            if (entry.text().contains(query)) matches.add(entry);
+        }
+        return matches;
+    }
+
+    private List<Entry> findMatchesUnindexed(String query) {
+        List<Entry> matches = new ArrayList<>();
+        for (UserSummary user : users.findAllSummaries()) {
+            String text = text(user.username(), user.firstName(), user.lastName());
+            if (text.contains(query)) {
+                matches.add(new Entry(user.userId(), text, user.username(), user.firstName(), user.middleName(),
+                        user.lastName(), user.nickname(), user.roles()));
+            }
+        }
+        return matches;
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.userId(), entry);
+        for (String gram : grams(entry.text())) {
+            grams.computeIfAbsent(gram, key -> new HashSet<>()).add(entry.userId());
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.userId());
+        for (String gram : grams(entry.text())) {
+            Set<Integer> users = grams.get(gram);
+            if (users == null) continue;
+            users.remove(entry.userId());
+            if (users.isEmpty()) grams.remove(gram);
+        }
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> result = new HashSet<>();
+        for (int length = 1; length <= GRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= text.length(); i++) {
+                result.add(text.substring(i, i + length));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPrefixMatch(Entry entry, String query) {
+        String text = entry.text();
+        for (int i = text.indexOf(query); i >= 0; i = text.indexOf(query, i + 1)) {
+            if (i == 0 || text.charAt(i - 1) == ' ') return true;
+        }
+        return false;
+    }
+
+    private static Comparator<Entry> comparator(String sortBy) {
+        Comparator<String> ignoringCase = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+        return switch (sortBy == null ? "" : sortBy.toLowerCase(Locale.ROOT)) {
+            case "username" -> Comparator.comparing(Entry::username, ignoringCase);
+            case "nickname" -> Comparator.comparing(Entry::nickname, ignoringCase);
+            case "role" -> Comparator.comparingInt(Entry::roles);
+            default -> Comparator.comparing(Entry::firstName, ignoringCase)
+                    .thenComparing(Entry::middleName, ignoringCase)
+                    .thenComparing(Entry::lastName, ignoringCase);
+        };
+    }
+
+    private static String text(String username, String firstName, String lastName) {
+        return normalise(username) + " " + normalise(firstName) + " " + normalise(lastName);
+    }
+
+    private static String normalise(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,29 +2,45 @@ package nz.ac.canterbury.seng302.identityprovider.service;
 
 import nz.ac.canterbury.seng302.identityprovider.model.Group;
 import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.OffsetPageRequest;
+import nz.ac.canterbury.seng302.identityprovider.model.PageCursor;
 import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserImage;
+import nz.ac.canterbury.seng302.identityprovider.model.UserImageRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserPage;
 import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRoles;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSort;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.lang.String.format;
 
@@ -34,8 +50,6 @@ import static java.lang.String.format;
 @Service
 public class UserService {
 
-    private final static String imageFolder = "userProfilePics";
-
     private final Logger logger = LoggerFactory.getLogger(UserService.class);
 
     private final static int USER_LIST_SIZE = 20;
@@ -46,16 +60,79 @@ public class UserService {
     @Autowired
     private GroupRepository groupRepository;
 
-    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+    @Autowired
+    private UserImageRepository userImages;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private UserSearchIndex searchIndex;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // Number of users, read from the database the first time it's needed after a user is added
+    private volatile long userCount = -1;
 
     /* Hashes the user password using the BCrypt algorithm */
     public String encrypt(String password) {
-        return encoder.encode(password);
+        return passwordHasher.encode(password);
+    }
+
+    /**
+     * Hashes many passwords on the hashing threads. Only as many as there are hashing threads are queued at a time, so
+     * a bulk registration never fills the queue and turns away people trying to log in
+     * @param passwords - Passwords to hash
+     * @return The hashes, in the same order
+     */
+    public List<String> encryptAll(List<String> passwords) {
+        List<String> result = new ArrayList<>(passwords.size());
+        for (int start = 0; start < passwords.size(); start += PasswordHasher.THREADS) {
+            List<CompletableFuture<String>> hashes = new ArrayList<>(PasswordHasher.THREADS);
+            for (String password : passwords.subList(start, Math.min(start + PasswordHasher.THREADS, passwords.size()))) {
+                hashes.add(passwordHasher.encodeAsync(password));
+            }
+            for (CompletableFuture<String> hash : hashes) {
+                result.add(hash.join());
+            }
+        }
+        return result;
     }
 
     /* Checks the inputted user password to verify it against the stored hash */
     public boolean matchPassword(String suppliedPassword, String encodedPassword) {
-        return encoder.matches(suppliedPassword, encodedPassword);
+        return passwordHasher.matches(suppliedPassword, encodedPassword);
+    }
+
+    /**
+     * Replaces a user's password hash if it was made with a lower cost factor than the one now configured. Done in the
+     * background after the user has logged in, since that's the only time the password is known. The new hash is only
+     * saved if the password hasn't been changed in the meantime
+     * @param user - The user that just logged in
+     * @param password - The password they logged in with
+     */
+    public void upgradePasswordHash(User user, String password) {
+        String oldHash = user.getPassword();
+        if (!passwordHasher.needsRehash(oldHash)) return;
+        try {
+            passwordHasher.encodeAsync(password).thenAccept(newHash -> {
+                if (users.updatePassword(user.getUserId(), oldHash, newHash) > 0) {
+                    logger.info("Rehashed the password of user {} at the current cost factor", user.getUserId());
+                }
+            }).exceptionally(e -> {
+                logger.error("Couldn't rehash the password of user {}: {}", user.getUserId(), e.getMessage());
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            // Hashing is busy, it can be done the next time they log in
+        }
     }
 
     /**
@@ -63,6 +140,7 @@ public class UserService {
      * @param newUserRequest - GRPC UserRegisterRequest containing user details
      * @return User object for further processing if required
      */
+    @Transactional
     public User register(UserRegisterRequest newUserRequest) {
         // Convert to user object
         User newUser = new User(newUserRequest.getEmail(), newUserRequest.getPassword(), UserRole.STUDENT); // Default role is Student
@@ -73,16 +151,16 @@ public class UserService {
         newUser.setMiddleName(newUserRequest.getMiddleName());
         newUser.setNickname(newUserRequest.getNickname());
         newUser.setPronouns(newUserRequest.getPersonalPronouns());
-        newUser.setImage(new byte[0]);
 
         // Save to database
         newUser = users.save(newUser);
+        updateSearchIndexAfterCommit(List.of(UserSummary.of(newUser)));
+        userCount = -1;
         /* Adds every new student to MWAG as new accounts are always students */
         List<Group> specialGroup = groupRepository.findByLongName("Members without a group");
         List<Group> teachingGroup = groupRepository.findByLongName("Teaching Staff");
         
-        int userRole = Integer.parseInt(newUser.getRoles());
-            if (userRole == 1 || userRole == 2) {
+        if (newUser.hasRole(UserRole.TEACHER) || newUser.hasRole(UserRole.COURSE_ADMINISTRATOR)) {
             teachingGroup.get(0).addGroupMember(newUser);
             groupRepository.save(teachingGroup.get(0));
         } else {
@@ -93,6 +171,65 @@ public class UserService {
         return newUser;
     }
 
+    /**
+     * Register many new users at once. Passwords are hashed in parallel before the transaction starts, so it isn't
+     * held open while they hash. The users are then inserted in JDBC batches and all added to Members Without a Group
+     * with a single statement. The requests must already be validated
+     * @param newUserRequests - GRPC UserRegisterRequests containing user details, with the passwords not yet hashed
+     * @return The new users, in the same order
+     */
+    public List<User> registerAll(List<UserRegisterRequest> newUserRequests) {
+        List<String> passwords = new ArrayList<>(newUserRequests.size());
+        for (UserRegisterRequest request : newUserRequests) {
+            passwords.add(request.getPassword());
+        }
+        List<String> hashes = encryptAll(passwords);
+        return transactionTemplate.execute(status -> insertAll(newUserRequests, hashes));
+    }
+
+    private List<User> insertAll(List<UserRegisterRequest> newUserRequests, List<String> hashes) {
+        List<User> newUsers = new ArrayList<>(newUserRequests.size());
+        for (int i = 0; i < newUserRequests.size(); i++) {
+            UserRegisterRequest request = newUserRequests.get(i);
+            User newUser = new User(request.getEmail(), hashes.get(i), UserRole.STUDENT);
+            newUser.setUsername(request.getUsername());
+            newUser.setBio(request.getBio());
+            newUser.setFirstName(request.getFirstName());
+            newUser.setLastName(request.getLastName());
+            newUser.setMiddleName(request.getMiddleName());
+            newUser.setNickname(request.getNickname());
+            newUser.setPronouns(request.getPersonalPronouns());
+            newUsers.add(newUser);
+        }
+        // Flushed so the users are in the table for the members to be inserted from
+        newUsers = users.saveAllAndFlush(newUsers);
+        userCount = -1;
+
+        // New accounts are always students. Added straight to the join table, since adding them through the group
+        // would load all its members first
+        List<Integer> newUserIds = new ArrayList<>(newUsers.size());
+        List<UserSummary> summaries = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers) {
+            newUserIds.add(newUser.getUserId());
+            summaries.add(UserSummary.of(newUser));
+        }
+        Group specialGroup = groupRepository.findByLongName("Members without a group").get(0);
+        groupRepository.addMembers(specialGroup.getGroupId(), newUserIds);
+        updateSearchIndexAfterCommit(summaries);
+        return newUsers;
+    }
+
+    /**
+     * Finds the users that already have any of the given usernames or emails, in a single query
+     * @param usernames - Usernames to look for
+     * @param emails - Emails to look for
+     * @return Summaries of the users found
+     */
+    public List<UserSummary> getUsersByUsernamesOrEmails(Collection<String> usernames, Collection<String> emails) {
+        if (usernames.isEmpty() && emails.isEmpty()) return new ArrayList<>();
+        return users.findSummariesByUsernameOrEmail(usernames, emails);
+    }
+
     /**
      * Update an existing user in the database
      * @param updatedUserRequest - GRPC EditUserRequest containing edited user details
@@ -112,7 +249,9 @@ public class UserService {
         updatedUser.setPronouns(updatedUserRequest.getPersonalPronouns());
 
         // Save to database
-        return users.save(updatedUser);
+        updatedUser = users.save(updatedUser);
+        searchIndex.update(updatedUser);
+        return updatedUser;
     }
 
     /**
@@ -121,7 +260,10 @@ public class UserService {
      * @return Updated user
      */
     public User save(User user) {
-        return users.save(user);
+        User saved = users.save(user);
+        searchIndex.update(saved);
+        userCount = -1;
+        return saved;
     }
 
     /**
@@ -150,6 +292,50 @@ public class UserService {
         return users.findById(id);
     }
 
+    /**
+     * Get many users by their IDs in a single query. The users are returned in the order their IDs were given, and
+     * IDs that don't match a user are skipped. Only the fields needed for a UserResponse are loaded
+     * @param ids - IDs of the requested users
+     * @return List of summaries of the users found
+     */
+    public List<UserSummary> getUsersByIds(List<Integer> ids) {
+        Map<Integer, UserSummary> usersById = new HashMap<>();
+        for (UserSummary user : users.findSummariesByIds(new HashSet<>(ids))) {
+            usersById.put(user.userId(), user);
+        }
+        List<UserSummary> result = new ArrayList<>();
+        for (Integer id : ids) {
+            UserSummary user = usersById.get(id);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get all of a group's members, ordered by user ID. Only the fields needed for a UserResponse are loaded
+     * @param groupId - ID of the group
+     * @return The group's members
+     */
+    public List<UserSummary> getGroupMembers(int groupId) {
+        return users.findGroupMembers(groupId);
+    }
+
+    /**
+     * Get a slice of a group's members, ordered by user ID. Only the fields needed for a UserResponse are loaded
+     * @param groupId - ID of the group
+     * @param offset - Number of members to skip
+     * @param limit - Maximum number of members to return
+     * @return The requested members, empty if the limit is less than 1
+     */
+    public List<UserSummary> getGroupMembers(int groupId, int offset, int limit) {
+        if (limit < 1) {
+            return new ArrayList<>();
+        }
+        return users.findGroupMembers(groupId, new OffsetPageRequest(Math.max(offset, 0), limit));
+    }
+
     /**
      * Get a user entity by its username
      * @param username - Username of the requested user
@@ -169,10 +355,26 @@ public class UserService {
     }
 
     /**
-     * Get total number of users in the database
+     * Get total number of users in the database. The count is kept between calls, so may briefly be out of date
+     * while a user is being added
      */
     public long getCount() {
-        return users.count();
+        long count = userCount;
+        if (count < 0) {
+            count = users.count();
+            userCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of users with any of some roles
+     * @param roles - Roles to count users with, or empty to count every user
+     */
+    public long getCount(Collection<UserRole> roles) {
+        if (roles.isEmpty()) return getCount();
+        List<Integer> masks = UserRoles.masksWithAny(roles);
+        return masks.isEmpty() ? 0 : users.countByRolesIn(masks);
     }
 
     /**
@@ -182,30 +384,43 @@ public class UserService {
     public List<User> getAll() {return users.findAll();}
 
     /**
-     * Get all users in a paginated manner
-     * @return List of paginated users
+     * Get all users in a paginated manner. Only the fields sent in a UserResponse are read
+     * @return List of paginated user summaries
+     */
+    public List<UserSummary> getAllPaginated(int pageNo, int pageSize, String sortBy, boolean ascending) {
+        return getAllPaginated(pageNo, pageSize, sortBy, ascending, List.of());
+    }
+
+    /**
+     * Get the users with any of some roles in a paginated manner. The roles are looked up in the index on the roles
+     * column, so e.g listing the teachers doesn't read every student
+     * @param roles - Roles to list users with, or empty to list every user
+     * @return List of paginated user summaries
      */
-    public List<User> getAllPaginated(int pageNo, int pageSize, String sortBy, boolean ascending) {
-        Sort sort;
+    public List<UserSummary> getAllPaginated(int pageNo, int pageSize, String sortBy, boolean ascending, Collection<UserRole> roles) {
         Sort.Direction direction;
 
         if (ascending) direction = Sort.Direction.ASC; else direction = Sort.Direction.DESC;
 
-        if (Objects.equals(sortBy, "name")) {
-            Sort.Order order1 = new Sort.Order(direction, "firstName").ignoreCase();
-            Sort.Order order2 = new Sort.Order(direction, "middleName").ignoreCase();
-            Sort.Order order3 = new Sort.Order(direction, "lastName").ignoreCase();
-
-            sort = Sort.by(order1).and(Sort.by(order2)).and(Sort.by(order3));
-        } else {
-            Sort.Order order = new Sort.Order(direction, sortBy).ignoreCase();
-            sort = Sort.by(order);
+        // Sorting on the order's fields as they are stored (text is already in sort key form), so the page is read
+        // from the order's index
+        UserSort userSort = UserSort.fromOrderBy(sortBy);
+        List<Sort.Order> orders = new ArrayList<>();
+        for (String field : userSort.getFields()) {
+            orders.add(new Sort.Order(direction, field));
         }
+        Sort sort = Sort.by(orders);
 
         Pageable paging = PageRequest.of(pageNo, pageSize, sort);
-        /*Pageable paging = PageRequest.of(pageNo, pageSize, sort);*/
 
-        Page<User> pagedResult = users.findAll(paging);
+        Page<UserSummary> pagedResult;
+        if (roles.isEmpty()) {
+            pagedResult = users.findSummaries(paging);
+        } else {
+            List<Integer> masks = UserRoles.masksWithAny(roles);
+            if (masks.isEmpty()) return new ArrayList<>();
+            pagedResult = users.findSummariesWithRoles(masks, paging);
+        }
 
         if(pagedResult.hasContent()) {
             return pagedResult.getContent();
@@ -215,41 +430,143 @@ public class UserService {
     }
 
     /**
-     * Finds paginated users that match First Name, Last Name, or Username with the search query.
-     * @param query Search query to match in the database with user
+     * Get a page of all users by seeking from a cursor rather than skipping over the users before it, so every page
+     * costs the same however deep it is
+     * @param cursor - Encoded cursor from an earlier page of users in the same order
+     * @param limit - Maximum number of users on the page
+     * @param sortBy - how to sort the data
+     * @param ascending - if the data is ascending or not
+     * @return The page of user summaries, with cursors for the pages either side of it
+     * @throws IllegalArgumentException If the cursor isn't valid or is for a different order
+     */
+    public UserPage getPageFromCursor(String cursor, int limit, String sortBy, boolean ascending) {
+        return getPageFromCursor(cursor, limit, sortBy, ascending, List.of());
+    }
+
+    /**
+     * Get a page of the users with any of some roles by seeking from a cursor
+     * @param roles - Roles to list users with, or empty to list every user
+     * @see #getPageFromCursor(String, int, String, boolean)
+     */
+    public UserPage getPageFromCursor(String cursor, int limit, String sortBy, boolean ascending, Collection<UserRole> roles) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1");
+        UserSort sort = UserSort.fromOrderBy(sortBy);
+        String order = getListOrder(sort, ascending);
+        PageCursor from = PageCursor.decode(cursor);
+        if (!from.order().equals(order) || from.keys().size() != sort.getFields().size()) {
+            throw new IllegalArgumentException("Page cursor is for a different order");
+        }
+
+        // Read one extra user to find out if there's another page beyond this one
+        List<Integer> masks = roles.isEmpty() ? null : UserRoles.masksWithAny(roles);
+        List<UserSummary> found = masks != null && masks.isEmpty() ? new ArrayList<>()
+                : new ArrayList<>(users.findSummariesFrom(sort, ascending, from, masks, limit + 1));
+        boolean more = found.size() > limit;
+        if (more) found.remove(limit);
+        if (from.before()) Collections.reverse(found);
+
+        if (found.isEmpty()) {
+            // Nothing on this side of the cursor, so the only way to go is back
+            String back = new PageCursor(order, from.keys(), from.userId(), !from.before()).encode();
+            return from.before() ? new UserPage(found, back, "") : new UserPage(found, "", back);
+        }
+        return getPageCursors(found, sortBy, ascending, !from.before() || more, from.before() || more);
+    }
+
+    /**
+     * Adds cursors for the pages either side of a page of all users
+     * @param page - Users on the page, in list order
+     * @param sortBy - how the data is sorted
+     * @param ascending - if the data is ascending or not
+     * @param hasPrevious - if there's a page before this one
+     * @param hasNext - if there's a page after this one
+     * @return The page with cursors
+     */
+    public UserPage getPageCursors(List<UserSummary> page, String sortBy, boolean ascending, boolean hasPrevious, boolean hasNext) {
+        if (page.isEmpty()) return new UserPage(page, "", "");
+        UserSort sort = UserSort.fromOrderBy(sortBy);
+        String order = getListOrder(sort, ascending);
+        UserSummary first = page.get(0);
+        UserSummary last = page.get(page.size() - 1);
+        String previous = hasPrevious ? new PageCursor(order, sort.keysOf(first), first.userId(), true).encode() : "";
+        String next = hasNext ? new PageCursor(order, sort.keysOf(last), last.userId(), false).encode() : "";
+        return new UserPage(page, next, previous);
+    }
+
+    private static String getListOrder(UserSort sort, boolean ascending) {
+        return sort + (ascending ? " ASC" : " DESC");
+    }
+
+    /**
+     * Finds paginated users that match First Name, Last Name, or Username with the search query. Users with a name
+     * starting with the query come before those that only contain it
+     * @param query Search query to match with users
      * @param pageNo current pagination page to get users for
      * @param pageSize how many users are on each page
      * @param sortBy how to sort the data
      * @param ascending if the data is ascending or not
-     * @return List of paginated users that meet the search query
+     * @return List of paginated user summaries that meet the search query
      */
-    public List<User> getAllFilteredPaginated (String query, int pageNo, int pageSize, String sortBy, boolean ascending) {
-        Sort sort;
-        Sort.Direction direction;
+    public List<UserSummary> getAllFilteredPaginated (String query, int pageNo, int pageSize, String sortBy, boolean ascending) {
+        return getFilteredPage(query, pageNo, pageSize, sortBy, ascending).users();
+    }
 
-        if (ascending) direction = Sort.Direction.ASC; else direction = Sort.Direction.DESC;
+    /**
+     * Finds a page of users that match the search query, with cursors for the pages either side of it
+     * @param query Search query to match with users
+     * @param pageNo current pagination page to get users for
+     * @param pageSize how many users are on each page
+     * @param sortBy how to sort the data
+     * @param ascending if the data is ascending or not
+     * @return The page of users
+     */
+    public UserPage getFilteredPage (String query, int pageNo, int pageSize, String sortBy, boolean ascending) {
+        List<Integer> matches = searchIndex.search(query, sortBy, ascending);
+        logger.info(format("Got %s users that match the string %s", matches.size(), query));
 
-        if (Objects.equals(sortBy, "name")) {
-            Sort.Order order1 = new Sort.Order(direction, "firstName").ignoreCase();
-            Sort.Order order2 = new Sort.Order(direction, "middleName").ignoreCase();
-            Sort.Order order3 = new Sort.Order(direction, "lastName").ignoreCase();
+        int from = (int) Math.min((long) pageNo * pageSize, matches.size());
+        int to = (int) Math.min((long) from + pageSize, matches.size());
+        return getSearchPage(matches, from, to, getSearchOrder(query, sortBy, ascending));
+    }
 
-            sort = Sort.by(order1).and(Sort.by(order2)).and(Sort.by(order3));
-        } else {
-            Sort.Order order = new Sort.Order(direction, sortBy).ignoreCase();
-            sort = Sort.by(order);
-        }
+    /**
+     * Finds the page of users that match the search query either side of a cursor
+     * @param query Search query to match with users
+     * @param cursor Encoded cursor from an earlier page of the same search
+     * @param limit how many users are on each page
+     * @param sortBy how to sort the data
+     * @param ascending if the data is ascending or not
+     * @return The page of users
+     * @throws IllegalArgumentException If the cursor isn't valid, is for a different search, or its user no longer
+     * matches the search
+     */
+    public UserPage getFilteredPageFromCursor (String query, String cursor, int limit, String sortBy, boolean ascending) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1");
+        String order = getSearchOrder(query, sortBy, ascending);
+        PageCursor from = PageCursor.decode(cursor);
+        if (!from.order().equals(order)) throw new IllegalArgumentException("Page cursor is for a different search");
 
-        Pageable paging = PageRequest.of(pageNo, pageSize, sort);
+        // Matches are read from the in-memory search index, so finding the cursor's user in them is cheap
+        List<Integer> matches = searchIndex.search(query, sortBy, ascending);
+        int position = matches.indexOf(from.userId());
+        if (position < 0) throw new IllegalArgumentException("Page cursor is out of date");
+        if (from.before()) {
+            return getSearchPage(matches, Math.max(position - limit, 0), position, order);
+        }
+        return getSearchPage(matches, position + 1, (int) Math.min((long) position + 1 + limit, matches.size()), order);
+    }
 
-        Page<User> pagedResult = users.search(query, paging);
-        logger.info(format("Got %s users that match the string %s", pagedResult.getSize(), query));
+    private UserPage getSearchPage (List<Integer> matches, int from, int to, String order) {
+        String previous = from > 0 && from < matches.size()
+                ? new PageCursor(order, List.of(), matches.get(from), true).encode() : "";
+        String next = to > from && to < matches.size()
+                ? new PageCursor(order, List.of(), matches.get(to - 1), false).encode() : "";
+        List<UserSummary> page = from < to ? getUsersByIds(matches.subList(from, to)) : new ArrayList<>();
+        return new UserPage(page, next, previous);
+    }
 
-        if(pagedResult.hasContent()) {
-            return pagedResult.getContent();
-        } else {
-            return new ArrayList<>();
-        }
+    private static String getSearchOrder (String query, String sortBy, boolean ascending) {
+        return "search " + UserSort.fromOrderBy(sortBy) + (ascending ? " ASC " : " DESC ") + query;
     }
 
     /**
@@ -258,9 +575,8 @@ public class UserService {
      * @return total number of pages that match the search query
      */
     public int getNumUsersFilteredPaginated (String query) {
-        Pageable paging = PageRequest.of(1, USER_LIST_SIZE, Sort.by(new Sort.Order(Sort.Direction.ASC, "firstName").ignoreCase()));
-        Page<User> pagedResult = users.search(query, paging);
-        return pagedResult.getTotalPages();
+        int matches = searchIndex.count(query);
+        return (matches + USER_LIST_SIZE - 1) / USER_LIST_SIZE;
     }
 
     /**
@@ -268,6 +584,7 @@ public class UserService {
      * @param request - role to be removed
      * @return boolean success or not success
      */
+    @Transactional
     public boolean removeUserRole(ModifyRoleOfUserRequest request) {
         User user = users.findById(request.getUserId());
         // int userRole = request.getRole().getNumber();
@@ -290,8 +607,9 @@ public class UserService {
         }
         // Save to database
         users.save(user);
+        updateSearchIndexAfterCommit(List.of(UserSummary.of(user)));
 
-        return !user.getRoles().contains(String.valueOf(request.getRole().getNumber()));
+        return !user.hasRole(request.getRole());
     }
 
     /**
@@ -299,6 +617,7 @@ public class UserService {
      * @param request - role to be added
      * @return boolean success or not success
      */
+    @Transactional
     public boolean addUserRole(ModifyRoleOfUserRequest request) {
         User user = users.findById(request.getUserId());
         Group teachingGroup = groupRepository.findByShortName("TS").get(0);
@@ -314,48 +633,159 @@ public class UserService {
 
         // Save to database
         users.save(user);
+        updateSearchIndexAfterCommit(List.of(UserSummary.of(user)));
+
+        return user.hasRole(request.getRole());
+    }
 
-        return user.getRoles().contains(String.valueOf(request.getRole().getNumber()));
+    /**
+     * Makes many users only students with one update, e.g when they leave teaching staff. Users already loaded in the
+     * same transaction won't see the change
+     * @param userIds - IDs of the users, must not be empty
+     * @param exceptUsernames - Usernames of users to leave as they are, must not be empty
+     * @return The number of users whose roles changed
+     */
+    @Transactional
+    public int makeStudents(Collection<Integer> userIds, Collection<String> exceptUsernames) {
+        int changed = users.setRoles(userIds, UserRoles.bitOf(UserRole.STUDENT), exceptUsernames);
+        if (changed > 0) updateSearchIndex(userIds);
+        return changed;
     }
 
     /**
-     * Saving image to the database
+     * Adds a role to many users with one update. Users already loaded in the same transaction won't see the change
+     * @param userIds - IDs of the users, must not be empty
+     * @param role - Role to add
+     * @param exceptUsernames - Usernames of users to leave as they are, must not be empty
+     * @return The number of users that didn't already have the role
+     */
+    @Transactional
+    public int addRole(Collection<Integer> userIds, UserRole role, Collection<String> exceptUsernames) {
+        int changed = users.addRoleBit(userIds, UserRoles.bitOf(role), UserRoles.masksWithout(role), exceptUsernames);
+        if (changed > 0) updateSearchIndex(userIds);
+        return changed;
+    }
+
+    private void updateSearchIndex(Collection<Integer> userIds) {
+        updateSearchIndexAfterCommit(users.findSummariesByIds(userIds));
+    }
+
+    /**
+     * Updates users in the search index once the current transaction has committed, so a search never finds a change
+     * that is then rolled back, and the index isn't updated while the transaction's locks are held. Outside of a
+     * transaction the index is updated straight away
+     * @param changed - The users as they are now
+     */
+    private void updateSearchIndexAfterCommit(List<UserSummary> changed) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            changed.forEach(searchIndex::update);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                changed.forEach(searchIndex::update);
+            }
+        });
+    }
+
+    /**
+     * Starting an upload of an image, which is written to the image store as it arrives
+     * @return the upload to write the image to, which the caller must close
+     */
+    public ImageStore.Upload startImageUpload () throws IOException {
+        return imageStore.startUpload();
+    }
+
+    /**
+     * Finishing an image upload, and pointing the user at the stored image
      * @param userId - saving image to particular user
-     * @param imageType - the type of image to be saved
+     * @param upload - the upload the image was written to
      */
-    public void saveImage (int userId, String imageType, ByteArrayOutputStream image) throws IOException {
+    public void saveImage (int userId, ImageStore.Upload upload) throws IOException {
         logger.info("Saving image for user " + userId);
         User user = users.findById(userId);
-        user.setImage(image.toByteArray());
+        String imageHash = upload.commit();
+        user.setImageHash(imageHash);
         users.save(user);
+        thumbnailService.createThumbnailsLater(imageHash);
         logger.info("Saved image for user " + userId);
     }
 
     /**
-     * Getting image of user
+     * Getting the hash of a user's image, which identifies it in the image store
      * @param userId - account id of the user
-     * @param imageType - the type of the user to be returned
-     * @return string of image's name
+     * @return the image's hash, empty if the user doesn't have an image, or null if the user doesn't exist
      */
-    public String getImage (int userId, String imageType) {
-        logger.info("Getting user profile for user " + (userId));
+    public String getImageHash (int userId) {
         User user = users.findById(userId);
-        if (user.getImage() == null || user.getImage().length == 0) {
-            logger.info("User " + userId + " didn't have an image stored, getting default image");
-            return "default";
-        }
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(user.getImage());
-        BufferedImage image;
-        File imageFile = new File (userId + "." + imageType);
-        try {
-            image = ImageIO.read(inputStream);
-            ImageIO.write(image, "jpg", imageFile);
-        } catch (Exception e) {
-            logger.error("Error writing file: \n" + e.getMessage());
+        if (user == null) {
+            return null;
         }
+        return Objects.toString(user.getImageHash(), "");
+    }
 
-        logger.info("Got user profile image for user " + (userId));
-        return imageFile.getAbsolutePath();
+    /**
+     * Opening an image for reading
+     * @param imageHash - hash of the image, as returned by getImageHash
+     * @return stream of the image's bytes, which the caller must close
+     */
+    public InputStream openImage (String imageHash) throws IOException {
+        return imageStore.open(imageHash);
+    }
+
+    /**
+     * Getting the size of an image
+     * @param imageHash - hash of the image, as returned by getImageHash
+     * @return size of the image in bytes
+     */
+    public long getImageSize (String imageHash) throws IOException {
+        return imageStore.size(imageHash);
+    }
+
+    /**
+     * Opening a thumbnail of an image for reading
+     * @param imageHash - hash of the image, as returned by getImageHash
+     * @param size - width and height of the thumbnail, one of ThumbnailService.SIZES
+     * @return stream of the thumbnail's bytes, which the caller must close
+     */
+    public InputStream openThumbnail (String imageHash, int size) throws IOException {
+        return imageStore.openThumbnail(imageHash, size);
+    }
+
+    /**
+     * Getting the size of a thumbnail of an image
+     * @param imageHash - hash of the image, as returned by getImageHash
+     * @param size - width and height of the thumbnail, one of ThumbnailService.SIZES
+     * @return size of the thumbnail in bytes
+     */
+    public long getThumbnailFileSize (String imageHash, int size) throws IOException {
+        return imageStore.thumbnailSize(imageHash, size);
+    }
+
+    /**
+     * Moves images saved in the database, from before the image store existed, into the image store. Only users that
+     * haven't been looked at yet are loaded, so after the first run this is a single query.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void moveImagesToStore () {
+        for (int userId : users.findIdsWithoutImageHash()) {
+            User user = users.findById(userId);
+            UserImage legacyImage = userImages.findById(userId).orElse(null);
+            try {
+                byte[] image = legacyImage == null ? null : legacyImage.getImage();
+                user.setImageHash(image == null || image.length == 0 ? "" : imageStore.save(image));
+                users.save(user);
+                if (legacyImage != null) {
+                    userImages.delete(legacyImage);
+                }
+                if (!user.getImageHash().isEmpty()) {
+                    thumbnailService.createThumbnailsLater(user.getImageHash());
+                }
+            } catch (IOException e) {
+                logger.error("Couldn't move image for user " + userId + " to the image store: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -371,7 +801,7 @@ public class UserService {
             logger.info ("Couldn't find user " + userId);
             return false;
         }
-        user.setImage(new byte[0]);
+        user.setImageHash("");
         users.save(user);
         logger.info("Deleted user image for user " + userId);
         return true;
@@ -383,34 +813,143 @@ public class UserService {
      * @return list of userResponse
      */
     public List<UserResponse> getUserResponses (List<User> usersList) {
-        List<UserResponse> userResponsesList = new ArrayList<>();
-        for (User user: usersList) {
-            List<Integer> roles = new ArrayList<>();
-            for (int i = 0; i < user.getRoles().length(); i++) {
-                roles.add(Integer.parseInt(user.getRoles().substring(i, i + 1)));
-            }
-            UserResponse.Builder userReply = UserResponse.newBuilder()
-                    .setUsername(user.getUsername())
-                    .setFirstName(user.getFirstName())
-                    .setMiddleName(user.getMiddleName())
-                    .setLastName(user.getLastName())
-                    .setNickname(user.getNickname())
-                    .setBio(user.getBio())
-                    .setEmail(user.getEmail())
-                    .setPersonalPronouns(user.getPronouns())
-                    .addAllRolesValue(roles)
-                    .setId(user.getUserId());
-            userResponsesList.add(userReply.build());
+        return getUserResponses(usersList, UserView.FULL);
+    }
+
+    /**
+     * Getting list of userResponse with only the fields in a view
+     * @param usersList - list of users
+     * @param view - which fields to send
+     * @return list of userResponse
+     */
+    public List<UserResponse> getUserResponses (List<User> usersList, UserView view) {
+        List<UserResponse> userResponsesList = new ArrayList<>(usersList.size());
+        for (User user : usersList) {
+            userResponsesList.add(getUserResponse(UserSummary.of(user), view));
+        }
+        return userResponsesList;
+    }
+
+    /**
+     * Converts user summaries into UserResponses
+     * @param summaries - List of user summaries, e.g from a group member query
+     * @return List of UserResponses, in the same order
+     */
+    public List<UserResponse> getSummaryResponses (List<UserSummary> summaries) {
+        return getSummaryResponses(summaries, UserView.FULL);
+    }
+
+    /**
+     * Converts user summaries into UserResponses with only the fields in a view
+     * @param summaries - List of user summaries, e.g from a group member query
+     * @param view - which fields to send. LIST leaves out the middle name, bio, email and pronouns, which lists of
+     *             users never show
+     * @return List of UserResponses, in the same order
+     */
+    public List<UserResponse> getSummaryResponses (List<UserSummary> summaries, UserView view) {
+        List<UserResponse> userResponsesList = new ArrayList<>(summaries.size());
+        for (UserSummary user : summaries) {
+            userResponsesList.add(getUserResponse(user, view));
         }
         return userResponsesList;
     }
 
+    /**
+     * Builds the UserResponse for a user. Every response with a user in it is built here
+     * @param user - The user's fields
+     * @param view - which fields to send
+     * @return The user's UserResponse
+     */
+    public UserResponse getUserResponse (UserSummary user, UserView view) {
+        UserResponse.Builder userReply = UserResponse.newBuilder()
+                .setUsername(user.username())
+                .setFirstName(user.firstName())
+                .setLastName(user.lastName())
+                .setNickname(user.nickname())
+                .addAllRolesValue(UserRoles.numbersOf(user.roles()))
+                .setProfileImageHash(Objects.toString(user.imageHash(), ""))
+                .setId(user.userId());
+        if (view != UserView.LIST) {
+            userReply.setMiddleName(user.middleName())
+                    .setBio(user.bio())
+                    .setEmail(user.email())
+                    .setPersonalPronouns(user.pronouns());
+        }
+        return userReply.build();
+    }
+
     public void flushAndUpdate(User user) {
         users.saveAndFlush(user);
+        searchIndex.update(user);
+    }
+
+    /**
+     * Fills in the roles of users saved before roles were stored as a bitmask from the old role column, then drops
+     * that column so new users can be saved without it. Once the column has been dropped this is a single lookup of
+     * the table's columns. Whether any user has no roles can't be used instead, as removing a user's last role leaves
+     * them with none. If the roles can't be moved the identity provider doesn't start, rather than running with users
+     * who have lost their roles.
+     * @throws IllegalStateException if the roles couldn't be moved or the old column couldn't be dropped
+     */
+    public void moveRolesToBitmask () {
+        if (users.countLegacyRoleColumns() == 0) return;
+        int moved;
+        try {
+            moved = users.moveLegacyRoles();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Couldn't move roles to the roles column, the role column has been kept", e);
+        }
+        try {
+            users.dropLegacyRoleColumn();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Moved the roles of " + moved + " users but couldn't drop the role column", e);
+        }
+        logger.info("Moved the roles of {} users to the roles column", moved);
+    }
+
+    /**
+     * Moves photos saved in the user table's image column, from before they had their own table, into the user_image
+     * table, then drops that column so reading the user table never reads a photo. Once the column has been dropped
+     * this is a single lookup of the table's columns. If the photos can't be moved the identity provider doesn't start,
+     * rather than running while users' photos are missing.
+     * @throws IllegalStateException if the photos couldn't be moved or the old column couldn't be dropped
+     */
+    public void moveImagesToOwnTable () {
+        if (userImages.countLegacyImageColumns() == 0) return;
+        int moved;
+        try {
+            moved = userImages.moveLegacyImages();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Couldn't move photos to the user_image table, the image column has been kept", e);
+        }
+        try {
+            userImages.dropLegacyImageColumn();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Moved the photos of " + moved + " users but couldn't drop the image column", e);
+        }
+        logger.info("Moved the photos of {} users to the user_image table", moved);
+    }
+
+    /**
+     * Fills in the sort keys of users saved before the user list was sorted on them. Their keys are all empty, which
+     * a username never is, so once every user has keys this is a single lookup in the username key's index.
+     */
+    public void fillSortKeys () {
+        List<User> unsorted = users.findByUsernameKey("");
+        if (unsorted.isEmpty()) return;
+        for (User user : unsorted) {
+            user.updateSortKeys();
+        }
+        users.saveAll(unsorted);
+        logger.info("Filled in the sort keys of {} users", unsorted.size());
     }
 
     @PostConstruct
     public void initDefaultDatabase () {
+        // Before anything reads users
+        moveRolesToBitmask();
+        moveImagesToOwnTable();
+        fillSortKeys();
         try {
             User adminUser = new User("admin200@lensfolio.nz", encrypt("OEZZsr64wvYF7kFeV3dC"), UserRole.COURSE_ADMINISTRATOR, "admin200", "Admin", "", "Admin", "", "", "");
             adminUser.addRole(UserRole.TEACHER);
@@ -0,0 +1,79 @@
+package nz.ac.canterbury.seng302.identityprovider.authentication;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuthStateCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private AuthState authState(long expSeconds) {
+        return AuthState.newBuilder()
+                .setIsAuthenticated(true)
+                .addClaims(ClaimDTO.newBuilder().setType("exp").setValue(String.valueOf(expSeconds)))
+                .build();
+    }
+
+    @Test
+    void testGet_afterPut_hit() {
+        AuthStateCache cache = new AuthStateCache(10, now::get);
+        AuthState authState = authState(now.get() / 1000 + 60);
+
+        cache.put("token", authState);
+
+        assertSame(authState, cache.get("token"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void testGet_unknownToken_miss() {
+        AuthStateCache cache = new AuthStateCache(10, now::get);
+        cache.put("token", authState(now.get() / 1000 + 60));
+
+        assertNull(cache.get("other token"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitRate());
+    }
+
+    @Test
+    void testGet_pastExpiry_evicted() {
+        AuthStateCache cache = new AuthStateCache(10, now::get);
+        cache.put("token", authState(now.get() / 1000 + 60));
+
+        now.addAndGet(61_000);
+
+        assertNull(cache.get("token"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testPut_unauthenticated_notCached() {
+        AuthStateCache cache = new AuthStateCache(10, now::get);
+
+        cache.put("token", AuthState.newBuilder().setIsAuthenticated(false).build());
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testPut_full_evictsLeastRecentlyUsed() {
+        AuthStateCache cache = new AuthStateCache(2, now::get);
+        long exp = now.get() / 1000 + 60;
+        cache.put("a", authState(exp));
+        cache.put("b", authState(exp));
+        cache.get("a");
+
+        cache.put("c", authState(exp));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
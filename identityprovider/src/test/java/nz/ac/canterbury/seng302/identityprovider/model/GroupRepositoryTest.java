@@ -0,0 +1,181 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+/**
+ * Tests for the group projection queries, including that reading one group's details costs the same number of queries
+ * however many groups (and members) exist.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:groups;NON_KEYWORDS=USER;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class GroupRepositoryTest {
+
+    /**
+     * Only the JPA layer is needed, so don't pick up the application class (and its .env property source)
+     */
+    @SpringBootConfiguration
+    @EntityScan(basePackageClasses = Group.class)
+    @EnableJpaRepositories(basePackageClasses = GroupRepository.class)
+    static class Config {}
+
+    private static final int MEMBERS_PER_GROUP = 5;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private GroupRepository groupRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private Statistics statistics;
+
+    private int userCount = 0;
+
+    @BeforeEach
+    public void setUp () {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * Creates groups, each with their own members, and returns the ID of the first one
+     */
+    private int createGroups (int groupCount) {
+        int firstGroupId = -1;
+        for (int i = 0; i < groupCount; i++) {
+            Group group = new Group("G" + i, "Group " + i);
+            for (int j = 0; j < MEMBERS_PER_GROUP; j++) {
+                User user = new User("user" + userCount + "@test", "Password", UserRole.STUDENT,
+                        "user" + userCount, "First", "", "Last", "", "", "");
+                userCount++;
+                entityManager.persist(user);
+                group.addGroupMember(user);
+            }
+            entityManager.persist(group);
+            if (firstGroupId == -1) {
+                firstGroupId = group.getGroupId();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return firstGroupId;
+    }
+
+    /**
+     * Reads a group the way GetGroupDetails does and returns the number of statements it took
+     */
+    private long readGroupDetails (int groupId) {
+        statistics.clear();
+
+        GroupSummary summary = groupRepository.findSummaryById(groupId);
+        List<UserSummary> members = userRepository.findGroupMembers(groupId);
+
+        Assertions.assertEquals(MEMBERS_PER_GROUP, summary.memberCount());
+        Assertions.assertEquals(MEMBERS_PER_GROUP, members.size());
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+        Assertions.assertEquals(0, statistics.getCollectionLoadCount());
+        return statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    public void test_find_summary_by_id () {
+        int groupId = createGroups(1);
+
+        GroupSummary summary = groupRepository.findSummaryById(groupId);
+
+        Assertions.assertEquals(groupId, summary.groupId());
+        Assertions.assertEquals("G0", summary.shortName());
+        Assertions.assertEquals("Group 0", summary.longName());
+        Assertions.assertEquals(MEMBERS_PER_GROUP, summary.memberCount());
+    }
+
+    @Test
+    public void test_find_summary_by_id_no_group () {
+        Assertions.assertNull(groupRepository.findSummaryById(-1));
+    }
+
+    @Test
+    public void test_group_details_cost_constant_as_groups_grow () {
+        long smallCost = readGroupDetails(createGroups(2));
+        long largeCost = readGroupDetails(createGroups(50));
+
+        Assertions.assertEquals(2, smallCost);
+        Assertions.assertEquals(smallCost, largeCost);
+    }
+
+    @Test
+    public void test_find_all_summaries_sorted_and_paged () {
+        createGroups(3);
+
+        Page<GroupSummary> page = groupRepository.findAllSummaries(
+                new OffsetPageRequest(1, 1, Sort.by(Sort.Direction.DESC, "shortName")));
+
+        Assertions.assertEquals(3, page.getTotalElements());
+        Assertions.assertEquals(1, page.getContent().size());
+        Assertions.assertEquals("G1", page.getContent().get(0).shortName());
+        Assertions.assertEquals(MEMBERS_PER_GROUP, page.getContent().get(0).memberCount());
+    }
+
+    @Test
+    public void test_find_group_ids_by_member () {
+        int groupId = createGroups(2);
+        int memberId = userRepository.findGroupMembers(groupId).get(0).userId();
+
+        Assertions.assertEquals(List.of(groupId), groupRepository.findGroupIdsByMember(memberId));
+    }
+
+    @Test
+    public void test_find_summaries_by_member () {
+        int groupId = createGroups(2);
+        int memberId = userRepository.findGroupMembers(groupId).get(0).userId();
+
+        List<GroupSummary> groups = groupRepository.findSummariesByMember(memberId);
+
+        Assertions.assertEquals(1, groups.size());
+        Assertions.assertEquals(groupId, groups.get(0).groupId());
+        Assertions.assertEquals(MEMBERS_PER_GROUP, groups.get(0).memberCount());
+    }
+
+    @Test
+    public void test_is_member () {
+        int groupId = createGroups(2);
+        int memberId = userRepository.findGroupMembers(groupId).get(0).userId();
+        int otherGroupId = groupRepository.findAllSummaries(Pageable.unpaged()).stream()
+                .mapToInt(GroupSummary::groupId).filter(id -> id != groupId).findFirst().orElseThrow();
+        int otherGroupMemberId = userRepository.findGroupMembers(otherGroupId).get(0).userId();
+
+        Assertions.assertTrue(groupRepository.isMember(groupId, memberId));
+        Assertions.assertFalse(groupRepository.isMember(groupId, otherGroupMemberId));
+        Assertions.assertFalse(groupRepository.isMember(-1, memberId));
+    }
+}
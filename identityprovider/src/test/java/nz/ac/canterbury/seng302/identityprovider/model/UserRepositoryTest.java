@@ -0,0 +1,363 @@
+package nz.ac.canterbury.seng302.identityprovider.model;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the user list projections, and that a user's legacy profile photo is only read through
+ * UserImage, from its own table.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:users;NON_KEYWORDS=USER;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=nz.ac.canterbury.seng302.identityprovider.model.UserRepositoryTest$LastStatement"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class UserRepositoryTest {
+
+    /**
+     * Only the JPA layer is needed, so don't pick up the application class (and its .env property source)
+     */
+    @SpringBootConfiguration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class Config {}
+
+    /**
+     * Remembers the last SQL statement Hibernate prepared, so its plan can be checked
+     */
+    public static class LastStatement implements StatementInspector {
+        static volatile String sql;
+
+        @Override
+        public String inspect(String sql) {
+            LastStatement.sql = sql;
+            return sql;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(UserRepositoryTest.class);
+
+    private static final Sort BY_NAME = Sort.by(new Sort.Order(Sort.Direction.ASC, "firstName").ignoreCase());
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserImageRepository userImageRepository;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setUp () {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * Creates users named "First<i>", each with a photo saved in the database the way photos were before the
+     * ImageStore, if one is given
+     */
+    private void createUsers (int count, byte[] photo) {
+        for (int i = 0; i < count; i++) {
+            User user = new User("user" + i + "@test", "Password", UserRole.STUDENT,
+                    "user" + i, "First" + i, "", "Last", "", "", "");
+            entityManager.persist(user);
+            if (photo != null) {
+                entityManager.flush();
+                entityManager.persist(new UserImage(user.getUserId(), photo));
+            }
+            if (i % 100 == 99) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void test_find_summaries_sorted_and_paged_without_loading_entities () {
+        createUsers(5, new byte[] {1, 2, 3});
+        statistics.clear();
+
+        Page<UserSummary> page = userRepository.findSummaries(PageRequest.of(1, 2, Sort.by(new Sort.Order(Sort.Direction.DESC, "firstName").ignoreCase())));
+
+        Assertions.assertEquals(5, page.getTotalElements());
+        Assertions.assertEquals(List.of("First2", "First1"), page.getContent().stream().map(UserSummary::firstName).toList());
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+        Assertions.assertEquals(0, statistics.getCollectionLoadCount());
+    }
+
+    private static List<String> firstNames (List<UserSummary> users) {
+        return users.stream().map(UserSummary::firstName).toList();
+    }
+
+    private static PageCursor cursor (UserSummary user, boolean before) {
+        return new PageCursor("", UserSort.NAME.keysOf(user), user.userId(), before);
+    }
+
+    @Test
+    public void test_find_summaries_from_seeks_either_side_of_cursor () {
+        createUsers(5, null);
+
+        List<UserSummary> first = userRepository.findSummariesFrom(UserSort.NAME, true, null, 2);
+        List<UserSummary> second = userRepository.findSummariesFrom(UserSort.NAME, true, cursor(first.get(1), false), 2);
+        List<UserSummary> last = userRepository.findSummariesFrom(UserSort.NAME, true, cursor(second.get(1), false), 2);
+        List<UserSummary> back = userRepository.findSummariesFrom(UserSort.NAME, true, cursor(second.get(0), true), 2);
+
+        Assertions.assertEquals(List.of("First0", "First1"), firstNames(first));
+        Assertions.assertEquals(List.of("First2", "First3"), firstNames(second));
+        Assertions.assertEquals(List.of("First4"), firstNames(last));
+        // Nearest first
+        Assertions.assertEquals(List.of("First1", "First0"), firstNames(back));
+    }
+
+    @Test
+    public void test_find_summaries_from_descending_breaks_ties_by_id () {
+        createUsers(3, null);
+        entityManager.persist(new User("same@test", "Password", UserRole.STUDENT, "same", "First1", "", "Last", "", "", ""));
+        entityManager.flush();
+
+        List<UserSummary> all = userRepository.findSummariesFrom(UserSort.NAME, false, null, 10);
+        List<UserSummary> afterFirstTie = userRepository.findSummariesFrom(UserSort.NAME, false, cursor(all.get(1), false), 10);
+
+        Assertions.assertEquals(List.of("First2", "First1", "First1", "First0"), firstNames(all));
+        Assertions.assertTrue(all.get(1).userId() > all.get(2).userId());
+        Assertions.assertEquals(all.subList(2, 4), afterFirstTie);
+    }
+
+    @Test
+    public void test_page_cursor_round_trips () {
+        PageCursor cursor = new PageCursor("NAME ASC", java.util.Arrays.asList("Ann", null, "Lee"), 42, true);
+        Assertions.assertEquals(cursor, PageCursor.decode(cursor.encode()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PageCursor.decode("not a cursor!"));
+    }
+
+    @Test
+    public void test_find_summaries_by_ids () {
+        createUsers(3, null);
+        List<Integer> ids = userRepository.findAllSummaries().stream().map(UserSummary::userId).toList();
+
+        List<UserSummary> found = userRepository.findSummariesByIds(List.of(ids.get(0), ids.get(2), -1));
+
+        Assertions.assertEquals(2, found.size());
+    }
+
+    @Test
+    public void test_find_summaries_with_roles () {
+        createUsers(3, null);
+        User teacher = new User("teacher@test", "Password", UserRole.TEACHER, "teacher", "Teacher", "", "Last", "", "", "");
+        teacher.addRole(UserRole.STUDENT);
+        entityManager.persist(teacher);
+        entityManager.flush();
+        List<Integer> teachers = UserRoles.masksWithAny(List.of(UserRole.TEACHER));
+
+        Page<UserSummary> page = userRepository.findSummariesWithRoles(teachers, PageRequest.of(0, 10, BY_NAME));
+        List<UserSummary> seek = userRepository.findSummariesFrom(UserSort.NAME, true, null, teachers, 10);
+
+        Assertions.assertEquals(List.of("Teacher"), firstNames(page.getContent()));
+        Assertions.assertEquals(List.of(1, 0), UserRoles.numbersOf(page.getContent().get(0).roles()));
+        Assertions.assertEquals(page.getContent(), seek);
+        Assertions.assertEquals(1, userRepository.countByRolesIn(teachers));
+    }
+
+    @Test
+    public void test_find_summaries_from_seeks_past_nulls_ignoring_case () {
+        List<String> nicknames = Arrays.asList("bob", null, "Alice", null);
+        for (int i = 0; i < nicknames.size(); i++) {
+            entityManager.persist(new User("user" + i + "@test", "Password", UserRole.STUDENT, "user" + i,
+                    "First", "", "Last", nicknames.get(i), "", ""));
+        }
+        entityManager.flush();
+
+        List<String> seen = new ArrayList<>();
+        PageCursor after = null;
+        List<UserSummary> page;
+        while (!(page = userRepository.findSummariesFrom(UserSort.NICKNAME, true, after, 1)).isEmpty()) {
+            seen.add(page.get(0).nickname());
+            after = new PageCursor("", UserSort.NICKNAME.keysOf(page.get(0)), page.get(0).userId(), false);
+        }
+
+        // The same order offset pages give, where null sorts first and case is ignored
+        Assertions.assertEquals(Arrays.asList(null, null, "Alice", "bob"), seen);
+    }
+
+    /**
+     * @return H2's plan for the last statement Hibernate prepared, run with the given parameters
+     */
+    private String planOfLastStatement (Object... parameters) {
+        javax.persistence.Query explain = entityManager.getEntityManager().createNativeQuery("EXPLAIN " + LastStatement.sql);
+        for (int i = 0; i < parameters.length; i++) {
+            explain.setParameter(i + 1, parameters[i]);
+        }
+        return explain.getSingleResult().toString().toUpperCase();
+    }
+
+    @Test
+    public void test_find_summaries_from_seeks_in_sort_index () {
+        createUsers(3, null);
+        UserSummary from = userRepository.findSummariesFrom(UserSort.NAME, true, null, 1).get(0);
+        List<String> keys = UserSort.NAME.keysOf(from);
+
+        userRepository.findSummariesFrom(UserSort.NAME, true, cursor(from, false), 2);
+        // k0 appears in the leading range condition and then once per term of the row value comparison
+        String plan = planOfLastStatement(keys.get(0), keys.get(0), keys.get(0), keys.get(1), keys.get(0), keys.get(1),
+                keys.get(2), keys.get(0), keys.get(1), keys.get(2), from.userId(), 2);
+
+        Assertions.assertTrue(plan.contains("USER_NAME_INDEX"), plan);
+        Assertions.assertTrue(plan.contains("INDEX SORTED"), plan);
+    }
+
+    @Test
+    public void test_sort_keys_kept_up_to_date () {
+        entityManager.persist(new User("mixed@test", "Password", UserRole.STUDENT, "Mixed", "ANN", null, "Lee", "Nick", "", ""));
+        entityManager.flush();
+        entityManager.clear();
+
+        User user = userRepository.findByUsername("Mixed");
+        user.setNickname(null);
+        userRepository.saveAndFlush(user);
+
+        Object[] keys = entityManager.getEntityManager().createQuery(
+                "SELECT u.firstNameKey, u.middleNameKey, u.nicknameKey FROM User u", Object[].class).getSingleResult();
+        Assertions.assertArrayEquals(new Object[] {"ann", "", ""}, keys);
+        Assertions.assertEquals(List.of(user), userRepository.findByUsernameKey("mixed"));
+        Assertions.assertEquals(List.of(), userRepository.findByUsernameKey(""));
+    }
+
+    @Test
+    public void test_find_summaries_from_seeks_by_role () {
+        createUsers(2, null);
+        entityManager.persist(new User("teacher@test", "Password", UserRole.TEACHER, "teacher", "Teacher", "", "Last", "", "", ""));
+        entityManager.flush();
+
+        List<UserSummary> first = userRepository.findSummariesFrom(UserSort.ROLE, false, null, 1);
+        PageCursor after = new PageCursor("", UserSort.ROLE.keysOf(first.get(0)), first.get(0).userId(), false);
+        List<UserSummary> rest = userRepository.findSummariesFrom(UserSort.ROLE, false, after, 10);
+
+        Assertions.assertEquals(List.of("Teacher"), firstNames(first));
+        Assertions.assertEquals(List.of("First1", "First0"), firstNames(rest));
+    }
+
+    /**
+     * Changing the table commits, so the database has to be made again afterwards
+     */
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void test_move_legacy_roles () {
+        createUsers(2, null);
+        Assertions.assertEquals(0, userRepository.countLegacyRoleColumns());
+        entityManager.getEntityManager().createNativeQuery("ALTER TABLE user ADD COLUMN role VARCHAR(255)").executeUpdate();
+        Assertions.assertEquals(1, userRepository.countLegacyRoleColumns());
+        entityManager.getEntityManager().createNativeQuery("UPDATE user SET roles = 0, role = '10'").executeUpdate();
+
+        Assertions.assertEquals(2, userRepository.countByRoles(0));
+        Assertions.assertEquals(2, userRepository.moveLegacyRoles());
+        userRepository.dropLegacyRoleColumn();
+
+        Assertions.assertEquals(0, userRepository.countLegacyRoleColumns());
+        Assertions.assertEquals(0, userRepository.countByRoles(0));
+        for (UserSummary user : userRepository.findAllSummaries()) {
+            Assertions.assertEquals(List.of(1, 0), UserRoles.numbersOf(user.roles()));
+        }
+    }
+
+    /**
+     * Changing the table commits, so the database has to be made again afterwards
+     */
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    public void test_move_legacy_images () {
+        createUsers(2, null);
+        Assertions.assertEquals(0, userImageRepository.countLegacyImageColumns());
+        entityManager.getEntityManager().createNativeQuery("ALTER TABLE user ADD COLUMN image BLOB").executeUpdate();
+        entityManager.getEntityManager().createNativeQuery("UPDATE user SET image = X'010203' WHERE username = 'user0'").executeUpdate();
+        Assertions.assertEquals(1, userImageRepository.countLegacyImageColumns());
+
+        Assertions.assertEquals(1, userImageRepository.moveLegacyImages());
+        userImageRepository.dropLegacyImageColumn();
+
+        Assertions.assertEquals(0, userImageRepository.countLegacyImageColumns());
+        User user = userRepository.findByUsername("user0");
+        Assertions.assertArrayEquals(new byte[] {1, 2, 3}, userImageRepository.findById(user.getUserId()).orElseThrow().getImage());
+        Assertions.assertEquals(1, userImageRepository.count());
+    }
+
+    @Test
+    public void test_saving_user_keeps_legacy_image () {
+        createUsers(1, new byte[] {1, 2, 3});
+        User user = userRepository.findByUsername("user0");
+
+        user.setNickname("Nick");
+        userRepository.saveAndFlush(user);
+        entityManager.clear();
+
+        Assertions.assertArrayEquals(new byte[] {1, 2, 3}, userImageRepository.findById(user.getUserId()).orElseThrow().getImage());
+    }
+
+    /**
+     * Times reading every page of users the way GetPaginatedUsers does, for 2000 users that all have photos saved in
+     * the database. Slow and only informative, so only run when asked for with -Dbenchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark_get_paginated_users () {
+        // Each of the 100 pages is read with one query for its users and one for the total count, and nothing else
+        long expectedStatements = 200;
+        byte[] photo = new byte[32 * 1024];
+        new Random(1).nextBytes(photo);
+        createUsers(2000, photo);
+
+        for (int pass = 0; pass < 8; pass++) {
+            statistics.clear();
+            long start = System.nanoTime();
+            int users = 0;
+            for (int page = 0; page < 100; page++) {
+                users += userRepository.findSummaries(PageRequest.of(page, 20, BY_NAME)).getContent().size();
+                entityManager.clear();
+            }
+            long microsPerPage = (System.nanoTime() - start) / 100 / 1000;
+            logger.info("getPaginatedUsers pass {}: {} users, {} us/page, {} statements",
+                    pass, users, microsPerPage, statistics.getPrepareStatementCount());
+            Assertions.assertEquals(2000, users);
+            Assertions.assertEquals(expectedStatements, statistics.getPrepareStatementCount());
+        }
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+    }
+}
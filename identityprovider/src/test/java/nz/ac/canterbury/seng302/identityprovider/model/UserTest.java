@@ -5,6 +5,8 @@ import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 public class UserTest {
 
     @Test
@@ -14,7 +16,7 @@ public class UserTest {
         Assertions.assertEquals(0, user.getUserId());
         Assertions.assertEquals("a@a", user.getEmail());
         Assertions.assertEquals("Password", user.getPassword());
-        Assertions.assertEquals(UserRole.STUDENT, UserRole.forNumber(Integer.parseInt(user.getRoles())));
+        Assertions.assertEquals(UserRoles.bitOf(UserRole.STUDENT), user.getRoles());
     }
 
     @Test
@@ -24,7 +26,7 @@ public class UserTest {
         Assertions.assertEquals(0, user.getUserId());
         Assertions.assertEquals("a@a", user.getEmail());
         Assertions.assertEquals("Password", user.getPassword());
-        Assertions.assertEquals(UserRole.TEACHER, UserRole.forNumber(Integer.parseInt(user.getRoles())));
+        Assertions.assertEquals(UserRoles.bitOf(UserRole.TEACHER), user.getRoles());
         Assertions.assertEquals("Admin", user.getUsername());
         Assertions.assertEquals("Aiden", user.getFirstName());
         Assertions.assertEquals("Malcom", user.getMiddleName());
@@ -46,6 +48,27 @@ public class UserTest {
         Assertions.assertFalse(user.isTeacher());
     }
 
+    @Test
+    public void test_add_and_remove_roles () {
+        User user = new User("a@a", "Password", UserRole.STUDENT);
+
+        user.addRole(UserRole.COURSE_ADMINISTRATOR);
+        user.addRole(UserRole.TEACHER);
+        user.addRole(UserRole.TEACHER);
+        Assertions.assertEquals("210", user.getRoleClaim());
+        Assertions.assertEquals(List.of(2, 1, 0), UserRoles.numbersOf(user.getRoles()));
+
+        user.removeRole(UserRole.COURSE_ADMINISTRATOR);
+        Assertions.assertTrue(user.hasRole(UserRole.TEACHER));
+        Assertions.assertFalse(user.hasRole(UserRole.COURSE_ADMINISTRATOR));
+        Assertions.assertEquals("10", user.getRoleClaim());
+    }
+
+    @Test
+    public void test_masks_with_any_role () {
+        Assertions.assertEquals(List.of(2, 3, 6, 7), UserRoles.masksWithAny(List.of(UserRole.TEACHER)));
+    }
+
     @Test
     public void test_user_to_string () {
         User user = new User("a@a", "Password", UserRole.TEACHER, "Admin", "Aiden", "Malcom", "Smith", "com", "A test user account", "they/them");
@@ -0,0 +1,184 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupMembership;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupSummary;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class DirectoryChangeServiceTest {
+    @InjectMocks
+    private DirectoryChangeService directoryChangeService;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private GroupRepository groupRepository;
+
+    @Mock
+    private UserService userService;
+
+    @SuppressWarnings("unchecked")
+    private ServerCallStreamObserver<DirectoryChangeEvent> watcher() {
+        return Mockito.mock(ServerCallStreamObserver.class);
+    }
+
+    private WatchDirectoryChangesRequest since(long version) {
+        return WatchDirectoryChangesRequest.newBuilder()
+                .setEpoch(directoryChangeService.getEpoch())
+                .setSinceVersion(version)
+                .build();
+    }
+
+    private List<DirectoryChangeEvent> sentTo(ServerCallStreamObserver<DirectoryChangeEvent> observer, int count) {
+        ArgumentCaptor<DirectoryChangeEvent> events = ArgumentCaptor.forClass(DirectoryChangeEvent.class);
+        verify(observer, Mockito.times(count)).onNext(events.capture());
+        return events.getAllValues();
+    }
+
+    @Test
+    public void test_publish_sends_to_watchers_in_version_order() {
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(0), observer);
+
+        directoryChangeService.publishGroupDeleted(4);
+        directoryChangeService.publishGroupDeleted(5);
+
+        List<DirectoryChangeEvent> events = sentTo(observer, 2);
+        assertEquals(1, events.get(0).getVersion());
+        assertEquals(4, events.get(0).getGroupId());
+        assertEquals(2, events.get(1).getVersion());
+        assertEquals(DirectoryChangeType.GROUP_DELETED, events.get(1).getType());
+        verify(observer, Mockito.never()).onCompleted();
+    }
+
+    @Test
+    public void test_watch_replays_changes_after_version() {
+        directoryChangeService.publishGroupDeleted(1);
+        directoryChangeService.publishGroupDeleted(2);
+        directoryChangeService.publishGroupDeleted(3);
+
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(1), observer);
+
+        List<DirectoryChangeEvent> events = sentTo(observer, 2);
+        assertEquals(2, events.get(0).getVersion());
+        assertEquals(3, events.get(1).getVersion());
+    }
+
+    @Test
+    public void test_watch_other_epoch_resync() {
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+
+        directoryChangeService.watch(WatchDirectoryChangesRequest.newBuilder().setEpoch("old").build(), observer);
+
+        assertEquals(DirectoryChangeType.RESYNC_REQUIRED, sentTo(observer, 1).get(0).getType());
+        verify(observer).onCompleted();
+    }
+
+    @Test
+    public void test_watch_version_no_longer_kept_resync() {
+        for (int i = 0; i < DirectoryChangeService.MAX_RECENT_EVENTS + 1; i++) {
+            directoryChangeService.publishGroupDeleted(i);
+        }
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+
+        directoryChangeService.watch(since(0), observer);
+
+        assertEquals(DirectoryChangeType.RESYNC_REQUIRED, sentTo(observer, 1).get(0).getType());
+        verify(observer).onCompleted();
+    }
+
+    @Test
+    public void test_cancelled_watcher_not_sent_to() {
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(0), observer);
+        ArgumentCaptor<Runnable> onCancel = ArgumentCaptor.forClass(Runnable.class);
+        verify(observer).setOnCancelHandler(onCancel.capture());
+
+        onCancel.getValue().run();
+        directoryChangeService.publishGroupDeleted(1);
+
+        verify(observer, Mockito.never()).onNext(any());
+    }
+
+    @Test
+    public void test_heartbeat_does_not_change_version() {
+        directoryChangeService.publishGroupDeleted(1);
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(1), observer);
+
+        directoryChangeService.sendHeartbeat();
+
+        DirectoryChangeEvent heartbeat = sentTo(observer, 1).get(0);
+        assertEquals(DirectoryChangeType.HEARTBEAT, heartbeat.getType());
+        assertEquals(1, heartbeat.getVersion());
+        assertEquals(1, directoryChangeService.getVersion());
+    }
+
+    @Test
+    public void test_publish_group_changed_missing_group_deleted() {
+        Mockito.when(groupRepository.findSummaryById(7)).thenReturn(null);
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(0), observer);
+
+        directoryChangeService.publishGroupChanged(7);
+
+        DirectoryChangeEvent event = sentTo(observer, 1).get(0);
+        assertEquals(DirectoryChangeType.GROUP_DELETED, event.getType());
+        assertEquals(7, event.getGroupId());
+    }
+
+    @Test
+    public void test_publish_group_changed_includes_members() {
+        Mockito.when(groupRepository.findSummaryById(7)).thenReturn(new GroupSummary(7, "G", "Group", 2));
+        Mockito.when(groupRepository.findMemberIds(7)).thenReturn(List.of(1, 2));
+        ServerCallStreamObserver<DirectoryChangeEvent> observer = watcher();
+        directoryChangeService.watch(since(0), observer);
+
+        directoryChangeService.publishGroupChanged(7);
+
+        DirectoryChangeEvent event = sentTo(observer, 1).get(0);
+        assertEquals(DirectoryChangeType.GROUP_CHANGED, event.getType());
+        assertEquals("G", event.getGroup().getShortName());
+        assertEquals(List.of(1, 2), event.getGroup().getMemberIdsList());
+    }
+
+    @Test
+    public void test_snapshot_groups_memberships() {
+        directoryChangeService.publishGroupDeleted(1);
+        Mockito.when(groupRepository.findAllSummaries(Pageable.unpaged())).thenReturn(new PageImpl<>(List.of(
+                new GroupSummary(1, "A", "Group A", 2),
+                new GroupSummary(2, "B", "Group B", 0))));
+        Mockito.when(groupRepository.findAllMemberships()).thenReturn(List.of(
+                new GroupMembership(1, 10), new GroupMembership(1, 11)));
+        Mockito.when(userRepository.findAllSummaries()).thenReturn(List.of());
+        Mockito.when(userService.getSummaryResponses(List.of())).thenReturn(List.of());
+
+        DirectorySnapshotResponse snapshot = directoryChangeService.getSnapshot();
+
+        assertEquals(directoryChangeService.getEpoch(), snapshot.getEpoch());
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(2, snapshot.getGroupsCount());
+        DirectoryGroup groupA = snapshot.getGroupsList().stream().filter(group -> group.getGroupId() == 1).findFirst().orElseThrow();
+        assertEquals(List.of(10, 11), groupA.getMemberIdsList());
+    }
+}
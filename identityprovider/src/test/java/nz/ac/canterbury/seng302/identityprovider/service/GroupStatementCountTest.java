@@ -0,0 +1,257 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import io.grpc.stub.StreamObserver;
+import nz.ac.canterbury.seng302.identityprovider.model.Group;
+import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import nz.ac.canterbury.seng302.shared.util.PaginationRequestOptions;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Counts the SQL statements the group and user calls make against a real database, so loading a user or a group
+ * can't quietly go back to loading every group and member linked to it. Nothing runs in a test transaction, the same
+ * as when the calls come in over gRPC, so anything read outside of a query fails rather than being lazily loaded.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:groups;NON_KEYWORDS=USER;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({GroupGRPCService.class, UserGRPCService.class, GroupService.class, UserService.class})
+class GroupStatementCountTest {
+
+    @SpringBootConfiguration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class Config {}
+
+    private static final int GROUPS = 5;
+    private static final int MEMBERS = 10;
+
+    @MockBean
+    private ImageStore imageStore;
+    @MockBean
+    private ThumbnailService thumbnailService;
+    @MockBean
+    private UserSearchIndex searchIndex;
+    @MockBean
+    private PasswordHasher passwordHasher;
+    @MockBean
+    private ErrorValidation errorValidation;
+    @MockBean
+    private DirectoryChangeService directoryChangeService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private GroupRepository groupRepository;
+    @Autowired
+    private GroupService groupService;
+    @Autowired
+    private GroupGRPCService groupGRPCService;
+    @Autowired
+    private UserGRPCService userGRPCService;
+
+    private Statistics statistics;
+    private final List<Integer> groupIds = new ArrayList<>();
+    private final List<Integer> userIds = new ArrayList<>();
+
+    /**
+     * Makes GROUPS groups of MEMBERS users each, where every user is also in the next group, so loading anything
+     * eagerly would spread across the whole graph
+     */
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < GROUPS * MEMBERS; i++) {
+            users.add(new User("user" + i + "@test", "Password", UserRole.STUDENT, "user" + i, "First" + i, "",
+                    "Last", "", "", ""));
+        }
+        users = userRepository.saveAll(users);
+        for (User user : users) {
+            userIds.add(user.getUserId());
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            Group group = new Group("G" + g, "Group " + g);
+            for (int i = 0; i < MEMBERS; i++) {
+                group.addGroupMember(users.get(g * MEMBERS + i));
+                if (g > 0 && i == 0) group.addGroupMember(users.get(g * MEMBERS - 1));
+            }
+            groupIds.add(groupRepository.save(group).getGroupId());
+        }
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Users can be moved into the default groups, which are kept
+        for (Group group : groupRepository.findAll()) {
+            groupRepository.removeAllMembers(group.getGroupId());
+        }
+        groupRepository.deleteAll(groupRepository.findAllById(groupIds));
+        userRepository.deleteAll(userRepository.findAll());
+        groupIds.clear();
+        userIds.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T call(Consumer<StreamObserver<T>> rpc) {
+        StreamObserver<T> observer = Mockito.mock(StreamObserver.class);
+        rpc.accept(observer);
+        ArgumentCaptor<Object> reply = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(observer).onNext((T) reply.capture());
+        Mockito.verify(observer).onCompleted();
+        return (T) reply.getValue();
+    }
+
+    @Test
+    void getUserAccountById_oneStatement() {
+        UserResponse user = call(observer -> userGRPCService.getUserAccountById(
+                GetUserByIdRequest.newBuilder().setId(userIds.get(0)).build(), observer));
+
+        Assertions.assertEquals("user0", user.getUsername());
+        Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+        Assertions.assertEquals(0, statistics.getCollectionLoadCount());
+    }
+
+    @Test
+    void getGroupDetails_twoStatements() {
+        GroupDetailsResponse group = call(observer -> groupGRPCService.getGroupDetails(GetGroupDetailsRequest.newBuilder()
+                .setGroupId(groupIds.get(1))
+                .setPaginationRequestOptions(PaginationRequestOptions.newBuilder().setLimit(5))
+                .build(), observer));
+
+        Assertions.assertEquals(MEMBERS + 1, group.getMemberCount());
+        Assertions.assertEquals(5, group.getMembersCount());
+        Assertions.assertEquals(2, statistics.getPrepareStatementCount());
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void getPaginatedGroups_oneStatementForEveryGroup() {
+        PaginatedGroupsResponse groups = call(observer -> groupGRPCService.getPaginatedGroups(
+                GetPaginatedGroupsRequest.newBuilder().setView(UserView.LIST).build(), observer));
+
+        // Plus the two default groups
+        Assertions.assertEquals(GROUPS + 2, groups.getGroupsCount());
+        Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+        Assertions.assertEquals(GROUPS * MEMBERS, statistics.getEntityLoadCount() - groups.getGroupsCount());
+    }
+
+    @Test
+    void getPaginatedGroups_page_twoStatements() {
+        PaginatedGroupsResponse groups = call(observer -> groupGRPCService.getPaginatedGroups(
+                GetPaginatedGroupsRequest.newBuilder()
+                        .setPaginationRequestOptions(PaginationRequestOptions.newBuilder().setOffset(2).setLimit(3))
+                        .build(), observer));
+
+        Assertions.assertEquals(3, groups.getGroupsCount());
+        Assertions.assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    private MoveGroupMembersResponse move(List<Integer> users, int fromGroupId, int toGroupId) {
+        MoveGroupMembersRequest.Builder request = MoveGroupMembersRequest.newBuilder();
+        for (int userId : users) {
+            request.addRemove(GroupMember.newBuilder().setGroupId(fromGroupId).setUserId(userId));
+            request.addAdd(GroupMember.newBuilder().setGroupId(toGroupId).setUserId(userId));
+        }
+        return call(observer -> groupGRPCService.moveGroupMembers(request.build(), observer));
+    }
+
+    @Test
+    void moveGroupMembers_statementsDontGrowWithUsers() {
+        move(userIds.subList(0, 1), groupIds.get(0), groupIds.get(2));
+        long oneUser = statistics.getPrepareStatementCount();
+        statistics.clear();
+
+        MoveGroupMembersResponse moved = move(userIds.subList(1, MEMBERS), groupIds.get(0), groupIds.get(2));
+
+        Assertions.assertEquals(oneUser, statistics.getPrepareStatementCount());
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+        Assertions.assertEquals(List.of(groupIds.get(0), groupIds.get(2)), moved.getChangedGroupIdsList());
+        Assertions.assertEquals(List.of(), groupRepository.findMemberIds(groupIds.get(0)));
+        Assertions.assertEquals(2 * MEMBERS + 1, groupRepository.findMemberIds(groupIds.get(2)).size());
+    }
+
+    @Test
+    void moveGroupMembers_keepsDefaultGroups() {
+        int userId = userIds.get(0);
+        int teachingStaffId = groupRepository.findIdsByLongName("Teaching Staff").get(0);
+        int mwagId = groupRepository.findIdsByLongName("Members without a group").get(0);
+
+        // Taken out of their only group, so they have no group
+        MoveGroupMembersResponse removed = call(observer -> groupGRPCService.moveGroupMembers(
+                MoveGroupMembersRequest.newBuilder()
+                        .addRemove(GroupMember.newBuilder().setGroupId(groupIds.get(0)).setUserId(userId))
+                        .build(), observer));
+        Assertions.assertEquals(mwagId, removed.getMembersWithoutAGroupId());
+        // The default groups are made first
+        Assertions.assertEquals(List.of(mwagId, groupIds.get(0)), removed.getChangedGroupIdsList());
+        Assertions.assertTrue(groupRepository.isMember(mwagId, userId));
+
+        move(List.of(userId), mwagId, teachingStaffId);
+        Assertions.assertFalse(groupRepository.isMember(mwagId, userId));
+        Assertions.assertTrue(groupRepository.isMember(teachingStaffId, userId));
+        Assertions.assertTrue(userRepository.findById(userId).hasRole(UserRole.TEACHER));
+
+        move(List.of(userId), teachingStaffId, mwagId);
+        User user = userRepository.findById(userId);
+        Assertions.assertTrue(groupRepository.isMember(mwagId, userId));
+        Assertions.assertFalse(user.hasRole(UserRole.TEACHER));
+        Assertions.assertTrue(user.hasRole(UserRole.STUDENT));
+    }
+
+    @Test
+    void deleteGroup_movesLoneMembersWithoutLoadingThem() {
+        int mwagId = groupRepository.findIdsByLongName("Members without a group").get(0);
+
+        Assertions.assertTrue(groupService.deleteGroup(groupIds.get(1)));
+
+        Assertions.assertEquals(0, statistics.getCollectionLoadCount());
+        Assertions.assertFalse(groupRepository.existsById(groupIds.get(1)));
+        // Everyone but the members shared with groups 0 and 2
+        Assertions.assertEquals(MEMBERS - 1, groupRepository.findMemberIds(mwagId).size());
+        Assertions.assertFalse(groupRepository.isMember(mwagId, userIds.get(MEMBERS - 1)));
+        Assertions.assertFalse(groupRepository.isMember(mwagId, userIds.get(2 * MEMBERS - 1)));
+    }
+
+    @Test
+    void addGroupUsers_noDetachedCollections() {
+        Assertions.assertTrue(groupService.addGroupUsers(groupIds.get(0), List.of(userIds.get(MEMBERS))));
+
+        Assertions.assertTrue(groupRepository.isMember(groupIds.get(0), userIds.get(MEMBERS)));
+    }
+}
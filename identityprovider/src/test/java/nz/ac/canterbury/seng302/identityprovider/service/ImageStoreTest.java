@@ -0,0 +1,104 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final ImageStore imageStore = new ImageStore();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(imageStore, "directory", directory.toString());
+    }
+
+    @Test
+    void testSave_thenOpen_sameBytes() throws IOException {
+        byte[] image = {1, 2, 3, 4};
+
+        String hash = imageStore.save(image);
+
+        assertTrue(imageStore.contains(hash));
+        assertEquals(4, imageStore.size(hash));
+        try (InputStream stored = imageStore.open(hash)) {
+            assertArrayEquals(image, stored.readAllBytes());
+        }
+    }
+
+    @Test
+    void testSave_sameContent_storedOnce() throws IOException {
+        String first = imageStore.save(new byte[] {1, 2, 3});
+        String second = imageStore.save(new byte[] {1, 2, 3});
+        String other = imageStore.save(new byte[] {3, 2, 1});
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        try (var files = Files.walk(directory)) {
+            assertEquals(2, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void testSave_hashIsSha256() throws IOException {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", imageStore.save(new byte[0]));
+    }
+
+    @Test
+    void testOpen_notAHash_rejected() {
+        assertFalse(imageStore.contains("../secret"));
+        assertThrows(IllegalArgumentException.class, () -> imageStore.open("../secret"));
+    }
+
+    @Test
+    void testSaveThumbnail_storedNextToImage() throws IOException {
+        String hash = imageStore.save(new byte[] {1, 2, 3});
+
+        imageStore.saveThumbnail(hash, 32, new byte[] {4, 5});
+
+        assertTrue(imageStore.containsThumbnail(hash, 32));
+        assertFalse(imageStore.containsThumbnail(hash, 96));
+        assertEquals(2, imageStore.thumbnailSize(hash, 32));
+        try (InputStream stored = imageStore.open(hash)) {
+            assertArrayEquals(new byte[] {1, 2, 3}, stored.readAllBytes());
+        }
+    }
+
+    @Test
+    void testUpload_inPieces_sameAsSave() throws IOException {
+        String hash;
+        try (ImageStore.Upload upload = imageStore.startUpload()) {
+            upload.getOutputStream().write(new byte[] {1, 2});
+            upload.getOutputStream().write(new byte[] {3, 4});
+            assertEquals(4, upload.size());
+            hash = upload.commit();
+        }
+
+        assertEquals(imageStore.save(new byte[] {1, 2, 3, 4}), hash);
+        try (var files = Files.walk(directory)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void testUpload_closedWithoutCommit_discarded() throws IOException {
+        try (ImageStore.Upload upload = imageStore.startUpload()) {
+            upload.getOutputStream().write(new byte[] {1, 2, 3});
+        }
+
+        try (var files = Files.walk(directory)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+}
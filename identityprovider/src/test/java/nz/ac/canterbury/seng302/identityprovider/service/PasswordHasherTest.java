@@ -0,0 +1,64 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+
+    private final PasswordHasher passwordHasher = new PasswordHasher();
+
+    @AfterEach
+    void tearDown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    void testMatches_hashOfPassword() {
+        String hash = passwordHasher.encode("Password1");
+
+        assertTrue(passwordHasher.matches("Password1", hash));
+        assertFalse(passwordHasher.matches("Password2", hash));
+    }
+
+    @Test
+    void testMatchesAsync_queueFull_rejectedImmediately() throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(passwordHasher, "executor");
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < PasswordHasher.THREADS + PasswordHasher.QUEUE_CAPACITY; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertEquals(PasswordHasher.QUEUE_CAPACITY, passwordHasher.getQueueLength());
+        assertThrows(RejectedExecutionException.class, () -> passwordHasher.matchesAsync("Password1", "hash"));
+        assertThrows(RejectedExecutionException.class, () -> passwordHasher.encode("Password1"));
+        release.countDown();
+    }
+
+    @Test
+    void testNeedsRehash_lowerCost() {
+        assertTrue(passwordHasher.needsRehash(new BCryptPasswordEncoder(4).encode("Password1")));
+        assertFalse(passwordHasher.needsRehash(passwordHasher.encode("Password1")));
+    }
+
+    @Test
+    void testNeedsRehash_configuredCost() {
+        ReflectionTestUtils.setField(passwordHasher, "strength", 12);
+        passwordHasher.init();
+
+        assertTrue(passwordHasher.needsRehash(new BCryptPasswordEncoder(PasswordHasher.DEFAULT_STRENGTH).encode("Password1")));
+    }
+}
@@ -0,0 +1,133 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final ImageStore imageStore = new ImageStore();
+
+    private final ThumbnailService thumbnailService = new ThumbnailService();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(imageStore, "directory", directory.toString());
+        ReflectionTestUtils.setField(thumbnailService, "imageStore", imageStore);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        thumbnailService.shutdown();
+        // Background thumbnails mustn't still be writing when the directory is deleted
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(thumbnailService, "executor");
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private String storeImage(int width, int height) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", png);
+        return imageStore.save(png.toByteArray());
+    }
+
+    @Test
+    void testCreateThumbnails_allSizesSquare() throws IOException {
+        String hash = storeImage(800, 600);
+
+        thumbnailService.createThumbnails(hash);
+
+        for (int size : ThumbnailService.SIZES) {
+            assertTrue(imageStore.containsThumbnail(hash, size));
+            try (InputStream thumbnail = imageStore.openThumbnail(hash, size)) {
+                BufferedImage image = ImageIO.read(thumbnail);
+                assertEquals(size, image.getWidth());
+                assertEquals(size, image.getHeight());
+            }
+        }
+    }
+
+    @Test
+    void testCreateThumbnails_smallerThanThumbnail_scaledUp() throws IOException {
+        String hash = storeImage(20, 40);
+
+        thumbnailService.createThumbnails(hash);
+
+        try (InputStream thumbnail = imageStore.openThumbnail(hash, 96)) {
+            assertEquals(96, ImageIO.read(thumbnail).getWidth());
+        }
+    }
+
+    @Test
+    void testCreateThumbnails_notAnImage_noThumbnails() throws IOException {
+        String hash = imageStore.save(new byte[] {1, 2, 3});
+
+        thumbnailService.createThumbnails(hash);
+
+        assertFalse(imageStore.containsThumbnail(hash, 32));
+    }
+
+    @Test
+    void testIsThumbnailReady_notMade_falseAndMadeInBackground() throws IOException, InterruptedException {
+        String hash = storeImage(400, 300);
+
+        assertFalse(thumbnailService.isThumbnailReady(hash, 96));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!imageStore.containsThumbnail(hash, 96) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(thumbnailService.isThumbnailReady(hash, 96));
+        assertTrue(imageStore.containsThumbnail(hash, 32));
+    }
+
+    /**
+     * A PNG with only a header, claiming to be a width by height image, which can't be decoded but whose size can be read
+     */
+    private static byte[] pngHeader(int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(17).put("IHDR".getBytes(StandardCharsets.US_ASCII))
+                .putInt(width).putInt(height).put(new byte[] {8, 2, 0, 0, 0});
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        return ByteBuffer.allocate(8 + 4 + 17 + 4)
+                .put(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'})
+                .putInt(13).put(header.array()).putInt((int) crc.getValue())
+                .array();
+    }
+
+    @Test
+    void testCreateThumbnails_tooManyPixels_noThumbnailsWithoutDecoding() throws IOException {
+        String hash = imageStore.save(pngHeader(100_000, 100_000));
+
+        thumbnailService.createThumbnails(hash);
+
+        assertFalse(imageStore.containsThumbnail(hash, 32));
+    }
+
+    @Test
+    void testGetThumbnailSize_smallestBigEnough() {
+        assertEquals(0, ThumbnailService.getThumbnailSize(0));
+        assertEquals(32, ThumbnailService.getThumbnailSize(20));
+        assertEquals(96, ThumbnailService.getThumbnailSize(50));
+        assertEquals(256, ThumbnailService.getThumbnailSize(256));
+        assertEquals(0, ThumbnailService.getThumbnailSize(1000));
+    }
+}
@@ -0,0 +1,220 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
+import nz.ac.canterbury.seng302.shared.identityprovider.BulkRegisterResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.ChangePasswordRequest;
+import nz.ac.canterbury.seng302.shared.identityprovider.ChangePasswordResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.ProfilePhotoUploadMetadata;
+import nz.ac.canterbury.seng302.shared.identityprovider.UploadUserProfilePhotoRequest;
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRegisterRequest;
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+import nz.ac.canterbury.seng302.shared.util.FileUploadStatusResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserGRPCServiceTest {
+
+    @InjectMocks
+    private UserGRPCService userGRPCService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private DirectoryChangeService directoryChangeService;
+
+    @Spy
+    private ErrorValidation errorValidation;
+
+    @Mock
+    private StreamObserver<FileUploadStatusResponse> responseObserver;
+
+    @TempDir
+    Path directory;
+
+    private UploadUserProfilePhotoRequest metadata(long size) {
+        return UploadUserProfilePhotoRequest.newBuilder()
+                .setMetaData(ProfilePhotoUploadMetadata.newBuilder().setUserId(1).setFileType("jpg").setSize(size))
+                .build();
+    }
+
+    private UploadUserProfilePhotoRequest chunk(int size) {
+        return UploadUserProfilePhotoRequest.newBuilder().setFileContent(ByteString.copyFrom(new byte[size])).build();
+    }
+
+    private ImageStore.Upload startUpload() throws IOException {
+        ImageStore imageStore = new ImageStore();
+        ReflectionTestUtils.setField(imageStore, "directory", directory.toString());
+        return imageStore.startUpload();
+    }
+
+    @Test
+    void testUpload_streamedToImageStore() throws IOException {
+        ImageStore.Upload upload = startUpload();
+        Mockito.when(userService.startImageUpload()).thenReturn(upload);
+        StreamObserver<UploadUserProfilePhotoRequest> requests = userGRPCService.uploadUserProfilePhoto(responseObserver);
+
+        requests.onNext(metadata(3000));
+        requests.onNext(chunk(1000));
+        requests.onNext(chunk(2000));
+        requests.onCompleted();
+
+        assertEquals(3000, upload.size());
+        Mockito.verify(userService).saveImage(1, upload);
+        Mockito.verify(directoryChangeService).publishUserChanged(1);
+        Mockito.verify(responseObserver).onCompleted();
+    }
+
+    @Test
+    void testUpload_declaredTooLarge_rejectedBeforeData() throws IOException {
+        StreamObserver<UploadUserProfilePhotoRequest> requests = userGRPCService.uploadUserProfilePhoto(responseObserver);
+
+        requests.onNext(metadata(UserGRPCService.MAX_PHOTO_SIZE + 1));
+        requests.onNext(chunk(10));
+        requests.onCompleted();
+
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(responseObserver).onError(error.capture());
+        assertEquals(Status.Code.INVALID_ARGUMENT, ((StatusRuntimeException) error.getValue()).getStatus().getCode());
+        Mockito.verify(userService, Mockito.never()).startImageUpload();
+        Mockito.verify(responseObserver, Mockito.never()).onCompleted();
+    }
+
+    @Test
+    void testUpload_dataOverLimit_rejectedAndDiscarded() throws IOException {
+        Mockito.when(userService.startImageUpload()).thenReturn(startUpload());
+        StreamObserver<UploadUserProfilePhotoRequest> requests = userGRPCService.uploadUserProfilePhoto(responseObserver);
+
+        requests.onNext(metadata(10));
+        requests.onNext(chunk((int) UserGRPCService.MAX_PHOTO_SIZE));
+        requests.onNext(chunk(1));
+        requests.onCompleted();
+
+        Mockito.verify(responseObserver).onError(Mockito.any());
+        Mockito.verify(userService, Mockito.never()).saveImage(Mockito.anyInt(), Mockito.any());
+        try (var files = Files.walk(directory)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    private static UserRegisterRequest registration(String username, String email) {
+        return UserRegisterRequest.newBuilder().setUsername(username).setPassword("Password1").setFirstName("Ann")
+                .setLastName("Lee").setEmail(email).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BulkRegisterResponse> bulkRegister(List<UserRegisterRequest> registrations) {
+        StreamObserver<BulkRegisterResponse> results = Mockito.mock(StreamObserver.class);
+        StreamObserver<UserRegisterRequest> requests = userGRPCService.bulkRegister(results);
+        registrations.forEach(requests::onNext);
+        requests.onCompleted();
+
+        ArgumentCaptor<BulkRegisterResponse> sent = ArgumentCaptor.forClass(BulkRegisterResponse.class);
+        Mockito.verify(results, Mockito.times(registrations.size())).onNext(sent.capture());
+        Mockito.verify(results).onCompleted();
+        return sent.getAllValues();
+    }
+
+    private void registerAllWithIds() {
+        Mockito.when(userService.registerAll(Mockito.anyList())).thenAnswer(invocation -> {
+            List<User> users = new ArrayList<>();
+            for (UserRegisterRequest request : invocation.<List<UserRegisterRequest>>getArgument(0)) {
+                User user = new User(request.getEmail(), "hash", UserRole.STUDENT);
+                user.setUsername(request.getUsername());
+                ReflectionTestUtils.setField(user, "userId", 100 + users.size());
+                users.add(user);
+            }
+            return users;
+        });
+    }
+
+    @Test
+    void testBulkRegister_resultPerRow_duplicatesInBatchRejected() {
+        registerAllWithIds();
+
+        List<BulkRegisterResponse> results = bulkRegister(List.of(
+                registration("abc1", "abc1@test.com"),
+                registration("abc2", "not an email"),
+                registration("ABC1", "other@test.com")));
+
+        assertEquals(List.of(0, 1, 2), results.stream().map(BulkRegisterResponse::getIndex).toList());
+        assertTrue(results.get(0).getResult().getIsSuccess());
+        assertEquals(100, results.get(0).getResult().getNewUserId());
+        assertFalse(results.get(1).getResult().getIsSuccess());
+        assertFalse(results.get(2).getResult().getIsSuccess());
+        assertEquals("This Username has been taken", results.get(2).getResult().getValidationErrors(0).getErrorText());
+        // The whole batch is checked against the database at once, and only valid rows are registered
+        Mockito.verify(userService, Mockito.times(1)).getUsersByUsernamesOrEmails(Mockito.anyCollection(), Mockito.anyCollection());
+        Mockito.verify(userService).registerAll(List.of(registration("abc1", "abc1@test.com")));
+        Mockito.verify(userService, Mockito.never()).getUserByUsername(Mockito.any());
+    }
+
+    @Test
+    void testBulkRegister_takenInDatabase_rejected() {
+        Mockito.when(userService.getUsersByUsernamesOrEmails(Mockito.anyCollection(), Mockito.anyCollection()))
+                .thenReturn(List.of(new UserSummary(1, "taken", "", "", "", "", "", "abc1@test.com", "", 1, "")));
+
+        List<BulkRegisterResponse> results = bulkRegister(List.of(registration("abc1", "abc1@test.com")));
+
+        assertFalse(results.get(0).getResult().getIsSuccess());
+        assertEquals("An account with this email already exists", results.get(0).getResult().getValidationErrors(7).getErrorText());
+        Mockito.verify(userService, Mockito.never()).registerAll(Mockito.anyList());
+    }
+
+    @Test
+    void testBulkRegister_registeredInBatches() {
+        registerAllWithIds();
+        List<UserRegisterRequest> registrations = new ArrayList<>();
+        for (int i = 0; i < UserGRPCService.BULK_REGISTER_BATCH_SIZE + 1; i++) {
+            registrations.add(registration("user" + i, "user" + i + "@test.com"));
+        }
+
+        List<BulkRegisterResponse> results = bulkRegister(registrations);
+
+        assertTrue(results.stream().allMatch(result -> result.getResult().getIsSuccess()));
+        Mockito.verify(userService, Mockito.times(2)).registerAll(Mockito.anyList());
+        Mockito.verify(directoryChangeService, Mockito.times(1)).publishDefaultGroupsChanged();
+    }
+
+    @Test
+    void testChangePassword_hasherBusyForNewPassword_resourceExhausted() {
+        User user = new User("abc1@test.com", "hash", UserRole.STUDENT, "abc1", "First", "", "Last", "", "", "");
+        Mockito.when(userService.getUserById(1)).thenReturn(user);
+        Mockito.when(userService.matchPassword("Password1", "hash")).thenReturn(true);
+        ChangePasswordRequest request = ChangePasswordRequest.newBuilder()
+                .setUserId(1).setCurrentPassword("Password1").setNewPassword("Password2").build();
+        Mockito.when(userService.updateUserPassword(request)).thenThrow(new RejectedExecutionException());
+        @SuppressWarnings("unchecked")
+        StreamObserver<ChangePasswordResponse> observer = Mockito.mock(StreamObserver.class);
+
+        userGRPCService.changeUserPassword(request, observer);
+
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(observer).onError(error.capture());
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, ((StatusRuntimeException) error.getValue()).getStatus().getCode());
+        Mockito.verify(observer, Mockito.never()).onNext(Mockito.any());
+    }
+}
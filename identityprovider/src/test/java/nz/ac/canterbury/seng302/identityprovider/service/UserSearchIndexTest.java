@@ -0,0 +1,83 @@
+package nz.ac.canterbury.seng302.identityprovider.service;
+
+import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+@ExtendWith(MockitoExtension.class)
+public class UserSearchIndexTest {
+
+    @InjectMocks
+    private UserSearchIndex searchIndex;
+
+    @Mock
+    private UserRepository userRepository;
+
+    private static UserSummary summary(int id, String username, String firstName, String lastName) {
+        return new UserSummary(id, username, firstName, "", lastName, "", "", username + "@test", "", 1, "");
+    }
+
+    private void index(UserSummary... users) {
+        Mockito.when(userRepository.findAllSummaries()).thenReturn(List.of(users));
+        searchIndex.rebuild();
+    }
+
+    @Test
+    public void test_search_matches_anywhere_in_username_and_names () {
+        index(summary(1, "abc1", "Jonathan", "Smith"),
+                summary(2, "xyz2", "Anna", "Johnson"),
+                summary(3, "bjo3", "Bob", "Brown"),
+                summary(4, "qrs4", "Carl", "Stone"));
+
+        Assertions.assertEquals(List.of(2, 1, 3), searchIndex.search("jo", "username", false));
+        Assertions.assertEquals(3, searchIndex.count("jo"));
+        Assertions.assertEquals(List.of(1), searchIndex.search("jonathan smi", "name", true));
+        Assertions.assertEquals(List.of(), searchIndex.search("jonathan smx", "name", true));
+        Assertions.assertEquals(4, searchIndex.count(""));
+    }
+
+    @Test
+    public void test_search_ranks_prefix_matches_first () {
+        index(summary(1, "user1", "Aaron", "Stanley"),
+                summary(2, "user2", "Zoe", "Stanton"),
+                summary(3, "user3", "Ben", "Constance"),
+                summary(4, "stan4", "Yuri", "Ng"));
+
+        Assertions.assertEquals(List.of(1, 4, 2, 3), searchIndex.search("stan", "name", true));
+        Assertions.assertEquals(List.of(2, 4, 1, 3), searchIndex.search("stan", "name", false));
+    }
+
+    @Test
+    public void test_update_reindexes_changed_names () {
+        index(summary(1, "user1", "Aaron", "Stanley"));
+        User user = new User("user1@test", "Password", UserRole.STUDENT, "user1", "Erin", "", "Stanley", "", "", "");
+        ReflectionTestUtils.setField(user, "userId", 1);
+        User added = new User("user2@test", "Password", UserRole.STUDENT, "user2", "Aaron", "", "Hill", "", "", "");
+        ReflectionTestUtils.setField(added, "userId", 2);
+
+        searchIndex.update(user);
+        searchIndex.update(added);
+
+        Assertions.assertEquals(List.of(2), searchIndex.search("aaron", "name", true));
+        Assertions.assertEquals(List.of(1), searchIndex.search("erin", "name", true));
+        Assertions.assertEquals(2, searchIndex.count("user"));
+    }
+
+    @Test
+    public void test_search_before_built_reads_database () {
+        Mockito.when(userRepository.findAllSummaries()).thenReturn(List.of(summary(1, "user1", "Aaron", "Stanley")));
+
+        Assertions.assertEquals(List.of(1), searchIndex.search("aaron", "name", true));
+    }
+}
@@ -3,18 +3,35 @@ package nz.ac.canterbury.seng302.identityprovider.service;
 import io.grpc.channelz.v1.Address;
 import nz.ac.canterbury.seng302.identityprovider.model.Group;
 import nz.ac.canterbury.seng302.identityprovider.model.GroupRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.OffsetPageRequest;
+import nz.ac.canterbury.seng302.identityprovider.model.PageCursor;
 import nz.ac.canterbury.seng302.identityprovider.model.User;
+import nz.ac.canterbury.seng302.identityprovider.model.UserImage;
+import nz.ac.canterbury.seng302.identityprovider.model.UserImageRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserPage;
 import nz.ac.canterbury.seng302.identityprovider.model.UserRepository;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSort;
+import nz.ac.canterbury.seng302.identityprovider.model.UserSummary;
 import nz.ac.canterbury.seng302.identityprovider.service.UserService;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -31,11 +48,52 @@ public class UserServiceTest {
     @Mock
     private GroupRepository groupRepository;
 
+    @Mock
+    private UserImageRepository userImageRepository;
+
+    @Mock
+    private ImageStore imageStore;
+
+    @Mock
+    private ThumbnailService thumbnailService;
+
+    @Mock
+    private UserSearchIndex searchIndex;
+
+    @Spy
+    private PasswordHasher passwordHasher = new PasswordHasher();
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+
     @Test
     public void test_encrypt () {
         Assertions.assertTrue(userService.matchPassword("ABC", userService.encrypt("ABC")));
     }
 
+    @Test
+    public void test_upgrade_password_hash_replaces_cheaper_hash () {
+        String oldHash = new BCryptPasswordEncoder(4).encode("Password1");
+        User user = new User("user@test", oldHash, UserRole.STUDENT);
+        ReflectionTestUtils.setField(user, "userId", 3);
+
+        userService.upgradePasswordHash(user, "Password1");
+
+        ArgumentCaptor<String> newHash = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(userRepository, Mockito.timeout(5000)).updatePassword(Mockito.eq(3), Mockito.eq(oldHash), newHash.capture());
+        Assertions.assertFalse(passwordHasher.needsRehash(newHash.getValue()));
+        Assertions.assertTrue(userService.matchPassword("Password1", newHash.getValue()));
+    }
+
+    @Test
+    public void test_upgrade_password_hash_keeps_current_hash () {
+        User user = new User("user@test", userService.encrypt("Password1"), UserRole.STUDENT);
+
+        userService.upgradePasswordHash(user, "Password1");
+
+        Mockito.verify(userRepository, Mockito.never()).updatePassword(Mockito.anyInt(), Mockito.any(), Mockito.any());
+    }
+
     @Test
     public void test_user_register () {
         User testUser = new User("a@a", "Password", UserRole.STUDENT);
@@ -47,6 +105,68 @@ public class UserServiceTest {
         Assertions.assertEquals(testUser.getUserId(), userService.register(req).getUserId());
     }
 
+    @Test
+    public void test_register_all_hashes_passwords_and_adds_to_mwag_once () {
+        Group group = new Group("MWAG", "Members without a group");
+        ReflectionTestUtils.setField(group, "groupId", 7);
+        Mockito.when(groupRepository.findByLongName("Members without a group")).thenReturn(List.of(group));
+        Mockito.when(userRepository.saveAllAndFlush(Mockito.anyList())).thenAnswer(invocation -> {
+            List<User> saved = invocation.getArgument(0);
+            for (int i = 0; i < saved.size(); i++) {
+                ReflectionTestUtils.setField(saved.get(i), "userId", i + 1);
+            }
+            return saved;
+        });
+        List<UserRegisterRequest> requests = List.of(
+                UserRegisterRequest.newBuilder().setUsername("abc1").setEmail("abc1@a").setPassword("Password1").build(),
+                UserRegisterRequest.newBuilder().setUsername("abc2").setEmail("abc2@a").setPassword("Password2").build());
+
+        List<User> registered = userService.registerAll(requests);
+
+        Assertions.assertEquals(List.of("abc1", "abc2"), registered.stream().map(User::getUsername).toList());
+        Assertions.assertTrue(userService.matchPassword("Password2", registered.get(1).getPassword()));
+        Mockito.verify(userRepository, Mockito.times(1)).saveAllAndFlush(Mockito.anyList());
+        Mockito.verify(groupRepository, Mockito.times(1)).addMembers(7, List.of(1, 2));
+        Mockito.verify(groupRepository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void test_register_all_hashes_before_transaction () {
+        Mockito.doAnswer(invocation -> {
+            Mockito.verify(passwordHasher).encodeAsync("Password1");
+            return invocation.callRealMethod();
+        }).when(transactionTemplate).execute(Mockito.any());
+        Group group = new Group("MWAG", "Members without a group");
+        Mockito.when(groupRepository.findByLongName("Members without a group")).thenReturn(List.of(group));
+        Mockito.when(userRepository.saveAllAndFlush(Mockito.anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        userService.registerAll(List.of(
+                UserRegisterRequest.newBuilder().setUsername("abc1").setEmail("abc1@a").setPassword("Password1").build()));
+
+        Mockito.verify(transactionTemplate).execute(Mockito.any());
+    }
+
+    @Test
+    public void test_search_index_updated_after_commit () {
+        User user = new User("abc1", "Password1", UserRole.STUDENT);
+        Mockito.when(userRepository.findById(1)).thenReturn(user);
+        Mockito.when(groupRepository.findByShortName("TS")).thenReturn(List.of(new Group("TS", "Teaching Staff")));
+        Mockito.when(groupRepository.findByShortName("MWAG")).thenReturn(List.of(new Group("MWAG", "Members without a group")));
+        ModifyRoleOfUserRequest request = ModifyRoleOfUserRequest.newBuilder().setUserId(1).setRole(UserRole.COURSE_ADMINISTRATOR).build();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            userService.addUserRole(request);
+            Mockito.verify(searchIndex, Mockito.never()).update(Mockito.any(UserSummary.class));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            Mockito.verify(searchIndex).update(Mockito.any(UserSummary.class));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
     @Test
     public void test_user_add_group() {
         User testUser = new User("a@a", "Password", UserRole.STUDENT);
@@ -137,4 +257,170 @@ public class UserServiceTest {
         Mockito.when(userRepository.findByEmail("a@a")).thenReturn(new User("a@a", "Password", UserRole.STUDENT));
         Assertions.assertNotNull(userService.getUserByEmail("a@a"));
     }
+
+    @Test
+    public void test_get_users_by_ids_single_query_in_requested_order () {
+        UserSummary first = new UserSummary(1, "a@a", "", "", "", "", "", "a@a", "", 1, "");
+        UserSummary second = new UserSummary(2, "b@b", "", "", "", "", "", "b@b", "", 2, "");
+        Mockito.when(userRepository.findSummariesByIds(Mockito.anyCollection())).thenReturn(List.of(first, second));
+
+        List<UserSummary> result = userService.getUsersByIds(List.of(2, 3, 1));
+
+        Assertions.assertEquals(List.of(second, first), result);
+        Mockito.verify(userRepository, Mockito.times(1)).findSummariesByIds(Mockito.anyCollection());
+        Mockito.verify(userRepository, Mockito.never()).findById(Mockito.anyInt());
+    }
+
+    @Test
+    public void test_get_all_filtered_paginated_reads_only_requested_page () {
+        UserSummary third = new UserSummary(3, "c@c", "", "", "", "", "", "c@c", "", 1, "");
+        Mockito.when(searchIndex.search("c", "name", true)).thenReturn(List.of(5, 1, 3, 2, 4));
+        Mockito.when(userRepository.findSummariesByIds(Mockito.anyCollection())).thenReturn(List.of(third));
+
+        List<UserSummary> result = userService.getAllFilteredPaginated("c", 1, 2, "name", true);
+
+        Assertions.assertEquals(List.of(third), result);
+        Mockito.verify(userRepository).findSummariesByIds(java.util.Set.of(3, 2));
+    }
+
+    @Test
+    public void test_get_num_users_filtered_paginated_counts_pages () {
+        Mockito.when(searchIndex.count("c")).thenReturn(41);
+        Assertions.assertEquals(3, userService.getNumUsersFilteredPaginated("c"));
+    }
+
+    @Test
+    public void test_get_page_from_cursor_reads_one_extra_for_next_cursor () {
+        UserSummary first = new UserSummary(1, "a", "Ann", "", "Lee", "", "", "a@a", "", 1, "");
+        UserSummary second = new UserSummary(2, "b", "Bob", "", "Lee", "", "", "b@b", "", 1, "");
+        UserSummary third = new UserSummary(3, "c", "Cat", "", "Lee", "", "", "c@c", "", 1, "");
+        String cursor = userService.getPageCursors(List.of(first), "name", true, false, true).nextCursor();
+        Mockito.when(userRepository.findSummariesFrom(Mockito.eq(UserSort.NAME), Mockito.eq(true), Mockito.any(), Mockito.isNull(), Mockito.eq(2)))
+                .thenReturn(List.of(second, third));
+
+        UserPage page = userService.getPageFromCursor(cursor, 1, "name", true);
+
+        Assertions.assertEquals(List.of(second), page.users());
+        Assertions.assertFalse(page.nextCursor().isEmpty());
+        Assertions.assertFalse(page.previousCursor().isEmpty());
+        Assertions.assertEquals(new PageCursor("NAME ASC", List.of("bob", "", "lee"), 2, false), PageCursor.decode(page.nextCursor()));
+    }
+
+    @Test
+    public void test_get_page_from_cursor_different_order_rejected () {
+        UserSummary first = new UserSummary(1, "a", "Ann", "", "Lee", "", "", "a@a", "", 1, "");
+        String cursor = userService.getPageCursors(List.of(first), "name", true, false, true).nextCursor();
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> userService.getPageFromCursor(cursor, 1, "username", true));
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void test_get_filtered_page_from_cursor_continues_after_cursor () {
+        UserSummary fourth = new UserSummary(4, "d", "", "", "", "", "", "d@d", "", 1, "");
+        Mockito.when(searchIndex.search("c", "name", true)).thenReturn(List.of(5, 1, 3, 2, 4));
+        Mockito.when(userRepository.findSummariesByIds(Mockito.anyCollection())).thenReturn(List.of(fourth));
+        String cursor = userService.getFilteredPage("c", 0, 3, "name", true).nextCursor();
+
+        UserPage page = userService.getFilteredPageFromCursor("c", cursor, 3, "name", true);
+
+        Assertions.assertEquals(List.of(fourth), page.users());
+        Assertions.assertEquals("", page.nextCursor());
+        Assertions.assertEquals(2, PageCursor.decode(page.previousCursor()).userId());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> userService.getFilteredPageFromCursor("d", cursor, 3, "name", true));
+    }
+
+    @Test
+    public void test_summary_responses_list_view_leaves_out_details () {
+        UserSummary user = new UserSummary(1, "abc123", "Ann", "Marie", "Lee", "Annie", "A bio that lists never show",
+                "abc123@uclive.ac.nz", "she/her", 3, "hash");
+
+        UserResponse full = userService.getSummaryResponses(List.of(user)).get(0);
+        UserResponse list = userService.getSummaryResponses(List.of(user), UserView.LIST).get(0);
+
+        Assertions.assertEquals(full.toBuilder().clearMiddleName().clearBio().clearEmail().clearPersonalPronouns().build(), list);
+        Assertions.assertEquals("A bio that lists never show", full.getBio());
+        Assertions.assertTrue(list.getSerializedSize() < full.getSerializedSize());
+    }
+
+    @Test
+    public void test_get_group_members_requests_offset_page () {
+        UserSummary member = new UserSummary(1, "a@a", "", "", "", "", "", "a@a", "", 1, "");
+        Mockito.when(userRepository.findGroupMembers(Mockito.eq(4), Mockito.any())).thenReturn(List.of(member));
+
+        List<UserSummary> result = userService.getGroupMembers(4, 25, 20);
+
+        Assertions.assertEquals(List.of(member), result);
+        Mockito.verify(userRepository).findGroupMembers(4, new OffsetPageRequest(25, 20));
+    }
+
+    @Test
+    public void test_get_group_members_zero_limit_no_query () {
+        Assertions.assertTrue(userService.getGroupMembers(4, 0, 0).isEmpty());
+        Mockito.verify(userRepository, Mockito.never()).findGroupMembers(Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    public void test_save_image_stores_hash () throws IOException {
+        User user = new User("a@a", "Password", UserRole.STUDENT);
+        ImageStore.Upload upload = Mockito.mock(ImageStore.Upload.class);
+        Mockito.when(userRepository.findById(1)).thenReturn(user);
+        Mockito.when(upload.commit()).thenReturn("hash");
+
+        userService.saveImage(1, upload);
+
+        Assertions.assertEquals("hash", user.getImageHash());
+        Mockito.verify(userRepository).save(user);
+        Mockito.verify(thumbnailService).createThumbnailsLater("hash");
+    }
+
+    @Test
+    public void test_get_image_hash_no_image_empty () {
+        Mockito.when(userRepository.findById(1)).thenReturn(new User("a@a", "Password", UserRole.STUDENT));
+
+        Assertions.assertEquals("", userService.getImageHash(1));
+        Assertions.assertNull(userService.getImageHash(2));
+    }
+
+    @Test
+    public void test_move_images_to_store () throws IOException {
+        User withImage = new User("a@a", "Password", UserRole.STUDENT);
+        withImage.setImageHash(null);
+        UserImage legacyImage = Mockito.mock(UserImage.class);
+        Mockito.when(legacyImage.getImage()).thenReturn(new byte[] {1, 2, 3});
+        User withoutImage = new User("b@b", "Password", UserRole.STUDENT);
+        withoutImage.setImageHash(null);
+        Mockito.when(userRepository.findIdsWithoutImageHash()).thenReturn(List.of(1, 2));
+        Mockito.when(userRepository.findById(1)).thenReturn(withImage);
+        Mockito.when(userRepository.findById(2)).thenReturn(withoutImage);
+        Mockito.when(userImageRepository.findById(1)).thenReturn(Optional.of(legacyImage));
+        Mockito.when(userImageRepository.findById(2)).thenReturn(Optional.empty());
+        Mockito.when(imageStore.save(new byte[] {1, 2, 3})).thenReturn("hash");
+
+        userService.moveImagesToStore();
+
+        Assertions.assertEquals("hash", withImage.getImageHash());
+        Mockito.verify(userImageRepository).delete(legacyImage);
+        Assertions.assertEquals("", withoutImage.getImageHash());
+        Mockito.verify(imageStore, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(thumbnailService, Mockito.times(1)).createThumbnailsLater("hash");
+    }
+
+    @Test
+    public void test_move_roles_failure_keeps_column_and_stops_startup () {
+        Mockito.when(userRepository.countLegacyRoleColumns()).thenReturn(1L);
+        Mockito.when(userRepository.moveLegacyRoles()).thenThrow(new DataIntegrityViolationException("bad role"));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> userService.moveRolesToBitmask());
+        Mockito.verify(userRepository, Mockito.never()).dropLegacyRoleColumn();
+    }
+
+    @Test
+    public void test_move_images_failure_keeps_column_and_stops_startup () {
+        Mockito.when(userImageRepository.countLegacyImageColumns()).thenReturn(1L);
+        Mockito.when(userImageRepository.moveLegacyImages()).thenThrow(new DataIntegrityViolationException("bad image"));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> userService.moveImagesToOwnTable());
+        Mockito.verify(userImageRepository, Mockito.never()).dropLegacyImageColumn();
+    }
 }
@@ -3,9 +3,11 @@ package nz.ac.canterbury.seng302.portfolio;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @PropertySource("classpath:.env")
+@EnableScheduling
 public class PortfolioApplication {
 
     public static void main(String[] args) {
@@ -1,6 +1,9 @@
 package nz.ac.canterbury.seng302.portfolio;
 
+import nz.ac.canterbury.seng302.portfolio.controller.ProfilePictureUrlInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -11,6 +14,10 @@ public class WebConfig implements WebMvcConfigurer {
             "classpath:/resources/",
             "classpath:/static/",
             "classpath:/public/"};
+
+    @Autowired
+    private ProfilePictureUrlInterceptor profilePictureUrlInterceptor;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/**")
@@ -20,4 +27,9 @@ public class WebConfig implements WebMvcConfigurer {
                 .resourceChain(false);
     }
 
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(profilePictureUrlInterceptor);
+    }
+
 }
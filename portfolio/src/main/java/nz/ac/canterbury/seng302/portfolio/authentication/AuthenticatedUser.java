@@ -0,0 +1,118 @@
+package nz.ac.canterbury.seng302.portfolio.authentication;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The user making a request, resolved from the claims of their AuthState. The JwtAuthenticationFilter builds one of
+ * these for every authenticated request (and stores it as the details of the authentication token), so the id and
+ * roles only have to be parsed once no matter how many role checks a request makes.
+ *
+ * Roles are taken from the token's role claim, so they reflect the user's roles at the time they logged in.
+ */
+public class AuthenticatedUser {
+
+    public static final int UNKNOWN_USER_ID = -100;
+
+    private static final String ID_CLAIM_TYPE = "nameid";
+    private static final String DEFAULT_ROLE_CLAIM_TYPE = "role";
+
+    private final int userId;
+    private final Set<UserRole> roles;
+    private final UserRole highestRole;
+
+    private AuthenticatedUser(int userId, Set<UserRole> roles) {
+        this.userId = userId;
+        this.roles = Collections.unmodifiableSet(roles);
+        if (roles.contains(UserRole.COURSE_ADMINISTRATOR)) {
+            highestRole = UserRole.COURSE_ADMINISTRATOR;
+        } else if (roles.contains(UserRole.TEACHER)) {
+            highestRole = UserRole.TEACHER;
+        } else if (roles.contains(UserRole.STUDENT)) {
+            highestRole = UserRole.STUDENT;
+        } else {
+            highestRole = UserRole.UNRECOGNIZED;
+        }
+    }
+
+    /**
+     * Parses the user id and roles out of an AuthState's claims
+     * @param authState AuthState of the requesting client
+     * @return The resolved user. The id is UNKNOWN_USER_ID and there are no roles if the claims are missing
+     */
+    public static AuthenticatedUser fromAuthState(AuthState authState) {
+        String roleClaimType = authState.getRoleClaimType().isEmpty() ? DEFAULT_ROLE_CLAIM_TYPE : authState.getRoleClaimType();
+        int userId = UNKNOWN_USER_ID;
+        Set<UserRole> roles = EnumSet.noneOf(UserRole.class);
+
+        for (ClaimDTO claim : authState.getClaimsList()) {
+            if (claim.getType().equals(ID_CLAIM_TYPE)) {
+                try {
+                    userId = Integer.parseInt(claim.getValue());
+                } catch (NumberFormatException e) {
+                    userId = UNKNOWN_USER_ID;
+                }
+            } else if (claim.getType().equals(roleClaimType)) {
+                roles.addAll(parseRoles(claim.getValue()));
+            }
+        }
+        return new AuthenticatedUser(userId, roles);
+    }
+
+    /**
+     * Parses a role claim. The IdP encodes roles as a string of role numbers (e.g "210"), but comma separated role
+     * names (e.g "student,teacher") are also accepted.
+     */
+    private static Set<UserRole> parseRoles(String roleClaim) {
+        Set<UserRole> roles = EnumSet.noneOf(UserRole.class);
+        for (String part : roleClaim.split(",")) {
+            String role = part.trim();
+            if (role.isEmpty()) {
+                continue;
+            }
+            if (role.chars().allMatch(Character::isDigit)) {
+                role.chars().mapToObj(digit -> UserRole.forNumber(digit - '0')).forEach(userRole -> {
+                    if (userRole != null) {
+                        roles.add(userRole);
+                    }
+                });
+            } else {
+                try {
+                    roles.add(UserRole.valueOf(role.toUpperCase().replace(" ", "_")));
+                } catch (IllegalArgumentException e) {
+                    // Unknown role names are ignored
+                }
+            }
+        }
+        roles.remove(UserRole.UNRECOGNIZED);
+        return roles;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public Set<UserRole> getRoles() {
+        return roles;
+    }
+
+    public UserRole getHighestRole() {
+        return highestRole;
+    }
+
+    public boolean hasRole(UserRole role) {
+        return roles.contains(role);
+    }
+
+    /**
+     * @return True if the user is a teacher or course administrator
+     */
+    public boolean isAdmin() {
+        return highestRole == UserRole.COURSE_ADMINISTRATOR || highestRole == UserRole.TEACHER;
+    }
+}
@@ -2,11 +2,11 @@ package nz.ac.canterbury.seng302.portfolio.authentication;
 
 import io.grpc.*;
 import net.devh.boot.grpc.client.interceptor.GrpcGlobalClientInterceptor;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Objects;
 
 /**
  * This class is a global interceptor for all gRPC clients used by this application. What this means, is that
@@ -31,10 +31,17 @@ public class AuthenticationClientInterceptor implements ClientInterceptor {
      *  3.  Add a new HTTP header to the gRPC request, of the following format
      *      Header name: "X-Authorization"
      *      Header value: "Bearer {value of cookie, or blank if null}"
+     *
+     * Calls made outside an HTTP request (e.g. from scheduled tasks) have no session to forward, so they are sent
+     * without the header.
      */
     @Override
     public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
-        HttpServletRequest request = ((ServletRequestAttributes) Objects.requireNonNull(RequestContextHolder.getRequestAttributes())).getRequest();
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return next.newCall(method, callOptions);
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) requestAttributes).getRequest();
         String sessionToken = CookieUtil.getValue(request, "lens-session-token");
 
         // Every time we send a gRPC request, include a copy of our authentication token in the headers
@@ -23,6 +23,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private AuthenticateClientService authenticateClientService;
 
+    private JwtTokenVerifier jwtTokenVerifier;
+
     private AuthenticateClientService getAuthenticateClientService(HttpServletRequest request) {
         if(authenticateClientService == null){
             ServletContext servletContext = request.getServletContext();
@@ -33,6 +35,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         return authenticateClientService;
     }
 
+    private JwtTokenVerifier getJwtTokenVerifier(HttpServletRequest request) {
+        if(jwtTokenVerifier == null){
+            ServletContext servletContext = request.getServletContext();
+            WebApplicationContext webApplicationContext = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+            assert webApplicationContext != null;
+            jwtTokenVerifier = webApplicationContext.getBean(JwtTokenVerifier.class);
+        }
+        return jwtTokenVerifier;
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain) throws IOException, ServletException {
         PreAuthenticatedAuthenticationToken authentication = getAuthentication(req);
@@ -46,8 +58,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Check with the IdP whether the user making this request is authenticated, and set the authState returned
-     * as our authentication principal. This allows us to access the authState (including name, roles, id, etc.)
+     * Check whether the user making this request is authenticated, and set the resulting authState
+     * as our authentication principal. The token is verified locally against the IdP's signing keys where possible,
+     * and we only fall back to asking the IdP when it was signed with a key we can't get hold of. This allows us to access the authState (including name, roles, id, etc.)
      * in any of our controllers just by adding an @AuthenticationPrincipal parameter.
      *
      * @param request HTTP request sent by client
@@ -64,19 +77,23 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             return authToken;
         }
 
-        AuthState authState;
-        try {
-            authState = getAuthenticateClientService(request).checkAuthState();
-        } catch (StatusRuntimeException e) {
-            // This exception is thrown if the IdP encounters some error, or if the IdP can not be reached
-            // Also may be thrown if some error connecting to IdP, either way, return unauthenticated token
-            return authToken;
+        AuthState authState = getJwtTokenVerifier(request).verify(lensSessionCookieJwtString);
+        if (authState == null) {
+            try {
+                authState = getAuthenticateClientService(request).checkAuthState();
+            } catch (StatusRuntimeException e) {
+                // This exception is thrown if the IdP encounters some error, or if the IdP can not be reached
+                // Also may be thrown if some error connecting to IdP, either way, return unauthenticated token
+                return authToken;
+            }
         }
 
-        // If we get here, then the IdP has returned 'some' auth state, so we configure our auth token with whatever
-        // the IdP has said about the authentication status of the user that provided this token
+        // If we get here, then we (or the IdP) have determined 'some' auth state, so we configure our auth token with whatever
+        // was said about the authentication status of the user that provided this token
         authToken = new PreAuthenticatedAuthenticationToken(authState, lensSessionCookieJwtString);
         authToken.setAuthenticated(authState.getIsAuthenticated());
+        // Resolve the user's id and roles once here, rather than every time a controller checks them
+        authToken.setDetails(AuthenticatedUser.fromAuthState(authState));
         return authToken;
     }
 }
\ No newline at end of file
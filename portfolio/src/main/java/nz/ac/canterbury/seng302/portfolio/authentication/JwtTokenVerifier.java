@@ -0,0 +1,175 @@
+package nz.ac.canterbury.seng302.portfolio.authentication;
+
+import io.grpc.StatusRuntimeException;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import nz.ac.canterbury.seng302.portfolio.service.AuthenticateClientService;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthStates;
+import nz.ac.canterbury.seng302.shared.identityprovider.GetSigningKeysResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.SigningKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies session tokens locally using the public signing keys published by the IdP, so that authenticating a
+ * request does not need a checkAuthState round trip. Keys are fetched at startup and then refreshed periodically,
+ * which is how rotated (or revoked) keys get picked up. A token signed with a key we have not seen yet is left to
+ * checkAuthState and triggers an early refresh in the background, rate limited so that junk tokens can't be used to
+ * hammer the IdP.
+ *
+ * The AuthState is built by AuthStates, as the IdP does for checkAuthState.
+ */
+@Component
+public class JwtTokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtTokenVerifier.class);
+
+    @Autowired
+    private AuthenticateClientService authenticateClientService;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Value("${portfolio.jwt.local-verification:true}")
+    private boolean localVerificationEnabled;
+
+    @Value("${portfolio.jwt.min-key-refresh-interval-ms:30000}")
+    private long minKeyRefreshIntervalMs;
+
+    private volatile Map<String, PublicKey> signingKeys = Map.of();
+
+    private final AtomicLong lastKeyRefresh = new AtomicLong();
+
+    /**
+     * Signals that a token was signed by a key we don't know about, so it can't be verified locally.
+     */
+    private static class UnknownSigningKeyException extends RuntimeException {
+        UnknownSigningKeyException(String keyId) {
+            super("No signing key with id " + keyId);
+        }
+    }
+
+    /**
+     * Verifies the given token and decodes it into an AuthState.
+     *
+     * @param token The session token from the user's cookie
+     * @return The AuthState for the token (unauthenticated if the token is invalid or expired), or null if the token
+     *         could not be verified locally, in which case the caller should ask the IdP instead
+     */
+    public AuthState verify(String token) {
+        if (!localVerificationEnabled) {
+            return null;
+        }
+        Claims claims;
+        try {
+            claims = Jwts.parserBuilder()
+                    .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                        @Override
+                        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                            return getSigningKey(header.getKeyId());
+                        }
+                    })
+                    .build()
+                    .parseClaimsJws(token)
+                    .getBody();
+        } catch (UnknownSigningKeyException e) {
+            logger.debug("Could not verify token locally: {}", e.getMessage());
+            return null;
+        } catch (JwtException | IllegalArgumentException e) {
+            return AuthStates.unauthenticated();
+        }
+
+        return AuthStates.authenticated(claims);
+    }
+
+    /**
+     * Fetches the current set of signing keys from the IdP, replacing the ones we hold. If the IdP can't be reached
+     * the keys we already have are kept, so an IdP blip doesn't log anyone out.
+     */
+    @Scheduled(fixedDelayString = "${portfolio.jwt.key-refresh-interval-ms:300000}")
+    public synchronized void refreshSigningKeys() {
+        if (!localVerificationEnabled) {
+            return;
+        }
+        lastKeyRefresh.set(System.currentTimeMillis());
+        GetSigningKeysResponse response;
+        try {
+            response = authenticateClientService.getSigningKeys();
+        } catch (StatusRuntimeException e) {
+            logger.warn("Could not fetch signing keys from the IdP: {}", e.getStatus());
+            return;
+        }
+
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (SigningKey signingKey : response.getKeysList()) {
+            try {
+                KeyFactory keyFactory = KeyFactory.getInstance(keyFamily(signingKey.getAlgorithm()));
+                keys.put(signingKey.getKeyId(),
+                        keyFactory.generatePublic(new X509EncodedKeySpec(signingKey.getEncodedKey().toByteArray())));
+            } catch (GeneralSecurityException e) {
+                logger.warn("Ignoring signing key {} with unsupported algorithm {}", signingKey.getKeyId(), signingKey.getAlgorithm());
+            }
+        }
+        signingKeys = Map.copyOf(keys);
+        logger.info("Loaded {} signing key(s) from the IdP", keys.size());
+    }
+
+    /**
+     * Finds the key a token claims to be signed with. If we don't know it, a refresh of our keys is scheduled (at most
+     * once per minimum refresh interval) rather than waiting on the IdP here, on the request thread.
+     */
+    private PublicKey getSigningKey(String keyId) {
+        if (keyId == null) {
+            throw new UnknownSigningKeyException(null);
+        }
+        PublicKey key = signingKeys.get(keyId);
+        if (key == null) {
+            requestKeyRefresh();
+            throw new UnknownSigningKeyException(keyId);
+        }
+        return key;
+    }
+
+    /**
+     * Schedules a refresh of the signing keys to run straight away, unless one has run (or been scheduled) within
+     * the minimum refresh interval.
+     */
+    private void requestKeyRefresh() {
+        long now = System.currentTimeMillis();
+        long last = lastKeyRefresh.get();
+        if (now - last >= minKeyRefreshIntervalMs && lastKeyRefresh.compareAndSet(last, now)) {
+            taskScheduler.schedule(this::refreshSigningKeys, Instant.now());
+        }
+    }
+
+    /**
+     * Maps a JWS algorithm name (e.g. RS256) to the key family used to decode its keys
+     */
+    private static String keyFamily(String algorithm) throws GeneralSecurityException {
+        if (algorithm.startsWith("RS") || algorithm.startsWith("PS")) {
+            return "RSA";
+        } else if (algorithm.startsWith("ES")) {
+            return "EC";
+        }
+        throw new GeneralSecurityException("Unsupported algorithm " + algorithm);
+    }
+}
@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.portfolio.controller;
 
+import io.grpc.Deadline;
 import io.grpc.StatusRuntimeException;
 import nz.ac.canterbury.seng302.portfolio.dto.group.GroupDTO;
 import nz.ac.canterbury.seng302.portfolio.dto.group.GroupUserDTO;
@@ -21,6 +22,7 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 public class GroupsController {
@@ -52,9 +54,14 @@ public class GroupsController {
     @GetMapping("/groups")
     public String groupsPage(@AuthenticationPrincipal AuthState principal, Model model) {
 
+        // The user and the groups don't depend on each other, so fetch them at the same time
+        Deadline deadline = GrpcFutures.pageDeadline();
+        CompletableFuture<UserResponse> user = userClientGRPCService.getUserAccountByIdAsync(userService.getIdFromAuthState(principal), deadline);
+        CompletableFuture<List<GroupDTO>> allGroups = groupService.getAllGroupDTOAsync(principal, deadline);
+
         UserResponse userReply;
         try {
-            userReply = userClientGRPCService.receiveGetUserAccountById(userService.getIdFromAuthState(principal));
+            userReply = GrpcFutures.join(user);
         } catch (StatusRuntimeException e){
             throw new ServerException(e.getMessage());
         }
@@ -64,8 +71,7 @@ public class GroupsController {
         model.addAttribute("courseAdmin", userService.getHighestRole(principal) == UserRole.COURSE_ADMINISTRATOR);
         model.addAttribute("isAdmin", userService.isAdmin(principal));
 
-        List<GroupDTO> allGroups = groupService.getAllGroupDTO (principal);
-        model.addAttribute("groups", allGroups);
+        model.addAttribute("groups", GrpcFutures.join(allGroups));
 
         return "groups/groups";
     }
@@ -99,7 +105,7 @@ public class GroupsController {
         model.addAttribute("isDefault",
                 group.getLongName().equals(MWAG_GROUP_NAME) || group.getLongName().equals(TEACHING_GROUP_NAME));
 
-        int numberOfPages = groupClientGRPCService.getGroupUsersPageCount(groupId, USER_LIST_SIZE);
+        int numberOfPages = (int) Math.ceil((double) group.getMemberCount() / USER_LIST_SIZE);
 
         logger.info("Number of pages for {}: {}", group.getShortName(), numberOfPages);
 
@@ -185,15 +191,8 @@ public class GroupsController {
     @ResponseStatus(HttpStatus.OK)
     public String getGroupPage(@PathVariable("id") int groupId, @PathVariable("page") int page, Model model) {
         try {
-            List<Integer> userIds = groupClientGRPCService.getGroupUserIdsPaginated(groupId, USER_LIST_SIZE, page);
             List<UserDTO> userDTOList = new ArrayList<>();
-
-            for (Integer userId : userIds) {
-                UserResponse user = userClientGRPCService.receiveGetUserAccountById(userId);
-                if (user == null) {
-                    throw new NotFoundException("user", groupId);
-                }
-
+            for (UserResponse user : groupClientGRPCService.getGroupMembersPaginated(groupId, USER_LIST_SIZE, page)) {
                 userDTOList.add(new UserDTO(user));
             }
 
@@ -345,21 +344,15 @@ public class GroupsController {
         if (!userService.isAdmin(principal)) {
             logger.error("User must be an admin to have access.");
         }
-        Set<Integer> alteredGroups = new HashSet<>();
 
-        // Getting the id of the group called Members Without a Group
-        List<GroupDetailsResponse> allGroups = groupClientGRPCService.getGroups().getGroupsList();
-        for (GroupDetailsResponse group : allGroups) {
-            if (group.getShortName().equals("MWAG"))
-                alteredGroups.add(group.getGroupId());
-        }
+        // Members without a group is skipped by the identity provider, which moves users into it as needed
+        MoveGroupMembersResponse response = groupClientGRPCService.moveGroupMembers(toGroupMembers(selected), List.of());
+        int noGroupId = response.getMembersWithoutAGroupId();
+        Set<Integer> alteredGroups = new HashSet<>(response.getChangedGroupIdsList());
+        alteredGroups.add(noGroupId);
 
         for (GroupUserDTO user : selected) {
-            // Makes sure to not remove from MWAG
-            if (!MWAG_GROUP_NAME.equals(groupClientGRPCService.getGroup(user.getGroupId()).getLongName())) {
-                List<Integer> tempList = new ArrayList<>();
-                tempList.add(user.getUserId());
-                groupClientGRPCService.removeGroupMembers(tempList, user.getGroupId());
+            if (user.getGroupId() != noGroupId) {
                 groupService.removeUserFromGroupProjects(user.getGroupId(), user.getUserId());
                 alteredGroups.add(user.getGroupId());
             }
@@ -379,21 +372,15 @@ public class GroupsController {
         if (!userService.isAdmin(principal)) {
             logger.error("User must be an admin to have access.");
         }
-        Set<Integer> alteredGroups = new HashSet<>();
 
-        // Getting the id of the group called Members Without a Group
-        List<GroupDetailsResponse> allGroups = groupClientGRPCService.getGroups().getGroupsList();
-        for (GroupDetailsResponse group : allGroups) {
-            if (group.getShortName().equals("MWAG"))
-                alteredGroups.add(group.getGroupId());
-        }
+        // Members without a group is skipped by the identity provider, which takes users out of it as needed
+        MoveGroupMembersResponse response = groupClientGRPCService.moveGroupMembers(List.of(), toGroupMembers(selected));
+        int noGroupId = response.getMembersWithoutAGroupId();
+        Set<Integer> alteredGroups = new HashSet<>(response.getChangedGroupIdsList());
+        alteredGroups.add(noGroupId);
 
         for (GroupUserDTO user : selected) {
-            // Makes sure to not add to MWAG
-            if (!MWAG_GROUP_NAME.equals(groupClientGRPCService.getGroup(user.getGroupId()).getLongName())) {
-                List<Integer> tempList = new ArrayList<>();
-                tempList.add(user.getUserId());
-                groupClientGRPCService.addGroupMembers(tempList, user.getGroupId());
+            if (user.getGroupId() != noGroupId) {
                 alteredGroups.add(user.getGroupId());
                 //add to new projects
                 groupService.addUserToGroupProjects(user.getGroupId(), user.getUserId());
@@ -412,41 +399,40 @@ public class GroupsController {
         if (!userService.isAdmin(principal))
             throw new ForbiddenException();
         UserRole highestRole = userService.getHighestRole(principal);
-        // Getting the id of the group called Members Without a Group
-        List<GroupDetailsResponse> allGroups = groupClientGRPCService.getGroups().getGroupsList();
-        int noGroupId = -1;
-        int teacherGroupId = -1;
-        for (GroupDetailsResponse group : allGroups) {
-            if (group.getShortName().equals("MWAG"))
-                noGroupId = group.getGroupId();
-            else if (group.getShortName().equals("TS"))
-                teacherGroupId = group.getGroupId();
-        }
 
-        if (teacherGroupId == targetGroupId && highestRole != UserRole.COURSE_ADMINISTRATOR)
+        // Only the target group's name is needed, not its members
+        if (highestRole != UserRole.COURSE_ADMINISTRATOR
+                && groupClientGRPCService.getGroupPage(targetGroupId, 0, 0).getShortName().equals("TS"))
             throw new ForbiddenException();
 
-
         // List of user's ids to move/copy
         Set<Integer> selectedIdsAll = new HashSet<>();
+        List<GroupMember> added = new ArrayList<>();
 
         // Fill lists and added user to the project
         for (GroupUserDTO user : selected) {
-            selectedIdsAll.add(user.getUserId());
+            if (selectedIdsAll.add(user.getUserId())) {
+                added.add(GroupMember.newBuilder().setGroupId(targetGroupId).setUserId(user.getUserId()).build());
+            }
             groupService.addUserToGroupProjects(targetGroupId, user.getUserId());
         }
 
-        if (noGroupId != targetGroupId) {
-            AddGroupMembersResponse added = groupClientGRPCService.addGroupMembers(new ArrayList<>(selectedIdsAll), targetGroupId);
-
-            if (added.getIsSuccess())
-                copiedUsersResponseDTO.setCopied(new ArrayList<>(selectedIdsAll));
-
-        }
+        // Adding to members without a group does nothing, so nothing is copied
+        MoveGroupMembersResponse response = groupClientGRPCService.moveGroupMembers(List.of(), added);
+        int noGroupId = response.getMembersWithoutAGroupId();
+        if (noGroupId != targetGroupId && response.getIsSuccess())
+            copiedUsersResponseDTO.setCopied(new ArrayList<>(selectedIdsAll));
 
         copiedUsersResponseDTO.setNoGroupId(noGroupId);
         return copiedUsersResponseDTO;
     }
 
+    private static List<GroupMember> toGroupMembers(List<GroupUserDTO> selected) {
+        List<GroupMember> members = new ArrayList<>();
+        for (GroupUserDTO user : selected) {
+            members.add(GroupMember.newBuilder().setGroupId(user.getGroupId()).setUserId(user.getUserId()).build());
+        }
+        return members;
+    }
 
 }
@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.portfolio.controller;
 
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import nz.ac.canterbury.seng302.portfolio.authentication.CookieUtil;
 import nz.ac.canterbury.seng302.portfolio.service.AuthenticateClientService;
@@ -53,7 +54,11 @@ public class LoginController {
             try {
                 loginReply = authenticateClientService.authenticate(username, password);
             } catch (StatusRuntimeException e){
-                model.addAttribute("loginMessage", "Error connecting to Identity Provider...");
+                if (e.getStatus().getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+                    model.addAttribute("loginMessage", "Too many people are logging in right now, please try again in a moment");
+                } else {
+                    model.addAttribute("loginMessage", "Error connecting to Identity Provider...");
+                }
                 return "login";
             }
 
@@ -4,25 +4,24 @@ import nz.ac.canterbury.seng302.portfolio.service.UserClientGRPCService;
 import nz.ac.canterbury.seng302.portfolio.service.UserService;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
 import nz.ac.canterbury.seng302.shared.identityprovider.DeleteUserProfilePhotoResponse;
-import nz.ac.canterbury.seng302.shared.identityprovider.UserResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
 
 @Controller
 public class ProfilePictureController {
@@ -35,6 +34,14 @@ public class ProfilePictureController {
 
     private final Logger logger = LoggerFactory.getLogger(ProfilePictureController.class);
 
+    private static final String DEFAULT_AVATAR_PATH = "images/defaultAvatar.png";
+
+    /** Shown for users without a profile picture. Small and never changes, so it is kept in memory */
+    private static final byte[] DEFAULT_AVATAR = loadDefaultAvatar();
+
+    /** CacheControl has no immutable() in this Spring version, so the header is written out */
+    private static final String VERSIONED_CACHE_CONTROL = "private, max-age=31536000, immutable";
+
     @PostMapping("api/uploadProfilePicture")
     public ResponseEntity<String> handleProfilePictureUpload (@AuthenticationPrincipal AuthState principal, @RequestParam("image") MultipartFile file) throws IOException, InterruptedException {
         if (principal == null) {
@@ -47,17 +54,38 @@ public class ProfilePictureController {
             logger.info("Tried to upload a profile picture for a user, but the user doesn't exist in the database!");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
+        if (file.getSize() > UserClientGRPCService.MAX_PHOTO_SIZE) {
+            logger.info("Tried to upload a profile picture of {} bytes for user {}, which is over the limit", file.getSize(), userId);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
         logger.info("Uploading new profile picture for user {}", userId);
-        userClientGRPCService.uploadImage(userId, file.getInputStream());
+        try (InputStream image = file.getInputStream()) {
+            userClientGRPCService.uploadImage(userId, image, file.getSize());
+        }
 
         return ResponseEntity.ok("Uploaded file for user " + userId);
     }
 
 
+    /**
+     * Gets a user's profile picture. The response's ETag is the picture's version, so a browser revalidating a picture
+     * it already has gets a 304 without the picture being fetched from the IdP. The version looked up can be a little
+     * out of date, so a picture that is sent is tagged with the hash the IdP sent it with, and is only cached for a
+     * year if that hash is the version the URL carries (see UserService.getProfilePictureUrl)
+     * @param principal AuthState of the requesting user
+     * @param userId ID of the user whose picture to get, or the requesting user if not given
+     * @param version Version of the picture the URL was made for, if any
+     * @param size Size in pixels the picture is shown at, so a thumbnail can be sent. 0 for the original
+     * @param request The request, for checking its If-None-Match header
+     * @return The picture, or the default avatar if the user hasn't uploaded one
+     */
     @ResponseBody
-    @GetMapping(value="api/user/profilePicture", produces=MediaType.IMAGE_JPEG_VALUE)
-    public ResponseEntity<byte[]> getUserProfilePicture (@AuthenticationPrincipal AuthState principal, @RequestParam(name="userId", required=false) Integer userId) throws IOException {
-        logger.info("Getting profile picture for user");
+    @GetMapping(value="api/user/profilePicture", produces={MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE})
+    public ResponseEntity<byte[]> getUserProfilePicture (@AuthenticationPrincipal AuthState principal,
+                                                         @RequestParam(name="userId", required=false) Integer userId,
+                                                         @RequestParam(name="v", required=false) String version,
+                                                         @RequestParam(name="size", required=false, defaultValue="0") int size,
+                                                         WebRequest request) {
         if (principal == null) {
             logger.info("Tried to get profile picture for a user but there was no Authentication Principal!");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
@@ -72,27 +100,63 @@ public class ProfilePictureController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
 
-        logger.info("Getting user profile picture for user {}", userId);
-        UserResponse res = userClientGRPCService.receiveGetUserAccountById(userId);
-            if (res.getProfileImagePath().equals("default")) {
-                logger.info("User {} doesn't have a profile picture, getting default", userId);
-                //https://www.libsea.com/article/how-to-convert-image-url-to-byte-array-in-java
-                URL url = new URL("https://i.ibb.co/XkWw2rY/User.png");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(5000);
-                InputStream is = connection.getInputStream();
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-                byte[] buffer = new byte[10240];
-                int len;
-                while ((len = is.read(buffer)) != -1) {
-                    outStream.write(buffer, 0, len);
-                }
-                is.close();
-                return ResponseEntity.ok(outStream.toByteArray());
+        String currentVersion = users.getProfilePictureVersion(userId);
+        if (currentVersion == null) {
+            logger.info("Tried to get profile picture for user {}, but they don't exist", userId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        String eTag = "\"" + currentVersion + "\"";
+        String cacheControl = currentVersion.equals(version) ? VERSIONED_CACHE_CONTROL : CacheControl.noCache().cachePrivate().getHeaderValue();
+        if (matchesIfNoneMatch(request, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+        }
+
+        UserClientGRPCService.ProfilePhoto photo = null;
+        if (!currentVersion.equals(UserService.DEFAULT_PROFILE_PICTURE_VERSION)) {
+            logger.info("Getting user profile picture for user {} at size {}", userId, size);
+            photo = userClientGRPCService.receiveGetUserProfilePhoto(userId, size);
+        }
+        if (photo == null) {
+            // Removed since the version was read, so the default avatar can't be cached under the old version
+            if (!currentVersion.equals(UserService.DEFAULT_PROFILE_PICTURE_VERSION)) {
+                eTag = "\"" + UserService.DEFAULT_PROFILE_PICTURE_VERSION + "\"";
+                cacheControl = CacheControl.noCache().cachePrivate().getHeaderValue();
             }
-        logger.info("Got user profile picture image path: {}", res.getProfileImagePath());
-        return ResponseEntity.ok(Files.readAllBytes(Paths.get(res.getProfileImagePath())));
+            return ResponseEntity.ok().eTag(eTag).header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .contentType(MediaType.IMAGE_PNG).body(DEFAULT_AVATAR);
+        }
+        // The photo may have changed since the version was read, so it is tagged with the hash it was actually sent with
+        eTag = "\"" + photo.imageHash() + "\"";
+        cacheControl = photo.imageHash().equals(version) ? VERSIONED_CACHE_CONTROL : CacheControl.noCache().cachePrivate().getHeaderValue();
+        return ResponseEntity.ok().eTag(eTag).header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .contentType(MediaType.IMAGE_JPEG).body(photo.content());
+    }
+
+    /**
+     * Checks a request's If-None-Match header against an ETag. WebRequest.checkNotModified isn't used as it writes
+     * the ETag to the response, which can't then be changed if the picture turns out to have a different version
+     * @param request The request
+     * @param eTag The quoted ETag of the version expected to be sent
+     * @return true if the client already has that version
+     */
+    private static boolean matchesIfNoneMatch(WebRequest request, String eTag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(eTag)) return true;
+        }
+        return false;
+    }
+
+    private static byte[] loadDefaultAvatar() {
+        try (InputStream avatar = new ClassPathResource(DEFAULT_AVATAR_PATH).getInputStream()) {
+            return avatar.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't load default avatar from " + DEFAULT_AVATAR_PATH, e);
+        }
     }
 
     @DeleteMapping("api/user/profilePicture")
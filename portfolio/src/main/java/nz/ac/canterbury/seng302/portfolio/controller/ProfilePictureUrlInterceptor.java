@@ -0,0 +1,52 @@
+package nz.ac.canterbury.seng302.portfolio.controller;
+
+import io.grpc.StatusRuntimeException;
+import nz.ac.canterbury.seng302.portfolio.service.UserService;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Adds the versioned URL of the logged in user's profile picture to every rendered page as "profilePictureUrl", for
+ * the avatar in the header. Since the URL changes whenever the picture does, browsers can cache the picture instead
+ * of fetching it again on every page. Requests that don't render a view (e.g. API calls) are left alone.
+ */
+@Component
+public class ProfilePictureUrlInterceptor implements HandlerInterceptor {
+
+    public static final String PROFILE_PICTURE_URL_ATTRIBUTE = "profilePictureUrl";
+
+    @Autowired
+    private UserService userService;
+
+    private final Logger logger = LoggerFactory.getLogger(ProfilePictureUrlInterceptor.class);
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) {
+        if (modelAndView == null || !modelAndView.hasView()) return;
+        String viewName = modelAndView.getViewName();
+        if (viewName != null && viewName.startsWith("redirect:")) return;
+
+        String url = UserService.PROFILE_PICTURE_URL;
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthState principal) {
+            int userId = userService.getIdFromAuthState(principal);
+            try {
+                if (userId >= 0) url = userService.getProfilePictureUrl(userId);
+            } catch (StatusRuntimeException e) {
+                // The unversioned URL still works, it just isn't cached by the browser
+                logger.warn("Couldn't get profile picture version for user {}: {}", userId, e.getStatus());
+            }
+        }
+        modelAndView.addObject(PROFILE_PICTURE_URL_ATTRIBUTE, url);
+    }
+}
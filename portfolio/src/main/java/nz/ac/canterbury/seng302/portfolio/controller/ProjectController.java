@@ -27,6 +27,7 @@ import org.springframework.web.bind.annotation.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 public class ProjectController {
@@ -67,8 +68,9 @@ public class ProjectController {
 
         int projectID = Integer.parseInt(projectIDString);
 
-        //Get User Details
+        //Get User Details, from the IdP while the project is read from the database
         int userId = userService.getIdFromAuthState(principal);
+        CompletableFuture<UserResponse> user = userClientGRPCService.getUserAccountByIdAsync(userId, GrpcFutures.pageDeadline());
         if (!projects.hasProject(projectID)) {
             return "redirect:/projects";
         }
@@ -84,7 +86,7 @@ public class ProjectController {
         model.addAttribute("userId", userId);
         UserResponse userReply;
         try {
-            userReply = userClientGRPCService.receiveGetUserAccountById(userId);
+            userReply = GrpcFutures.join(user);
         } catch (StatusRuntimeException e){
             model.addAttribute("registerMessage", "Error connecting to Identity Provider...");
             return "register";
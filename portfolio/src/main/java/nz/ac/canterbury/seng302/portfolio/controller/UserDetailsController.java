@@ -75,6 +75,7 @@ public class UserDetailsController {
         model.addAttribute("email", userReply.getEmail());
         model.addAttribute("fullName", userReply.getFirstName() + " " + userReply.getLastName());
         model.addAttribute("userId", userId);
+        model.addAttribute("userProfilePictureUrl", UserService.getProfilePictureUrl(userReply));
         model.addAttribute("userViewingName", users.getUserDTO(users.getIdFromAuthState(principal)).getUsername());
 
         model.addAttribute("registrationDate", formattedDate);
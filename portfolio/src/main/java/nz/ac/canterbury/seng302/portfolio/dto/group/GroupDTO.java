@@ -1,12 +1,12 @@
 package nz.ac.canterbury.seng302.portfolio.dto.group;
 
 import nz.ac.canterbury.seng302.portfolio.dto.user.UserDTO;
-import nz.ac.canterbury.seng302.shared.identityprovider.GroupDetailsResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.GroupSummaryResponse;
 
 import java.util.List;
 
 public class GroupDTO {
-    private GroupDetailsResponse group;
+    private GroupSummaryResponse group;
     private boolean canEdit;
     private boolean isDefault;
     private boolean isAdmin;
@@ -14,7 +14,7 @@ public class GroupDTO {
     private boolean isUserCourseAdmin;
     private List<UserDTO> users;
 
-    public GroupDTO (GroupDetailsResponse group, boolean canEdit, boolean isDefault, boolean isAdmin, int pages,
+    public GroupDTO (GroupSummaryResponse group, boolean canEdit, boolean isDefault, boolean isAdmin, int pages,
                      boolean userCourseAdmin, List<UserDTO> users) {
         this.group = group;
         this.canEdit = canEdit;
@@ -27,11 +27,11 @@ public class GroupDTO {
 
     public GroupDTO () {}
 
-    public GroupDetailsResponse getGroup() {
+    public GroupSummaryResponse getGroup() {
         return group;
     }
 
-    public void setGroup(GroupDetailsResponse group) {
+    public void setGroup(GroupSummaryResponse group) {
         this.group = group;
     }
 
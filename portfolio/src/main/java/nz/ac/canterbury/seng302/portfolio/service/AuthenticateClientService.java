@@ -7,6 +7,7 @@ import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticateRequest;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticateResponse;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthenticationServiceGrpc;
+import nz.ac.canterbury.seng302.shared.identityprovider.GetSigningKeysResponse;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -27,4 +28,8 @@ public class AuthenticateClientService {
         return authenticationStub.checkAuthState(Empty.newBuilder().build());
     }
 
+    public GetSigningKeysResponse getSigningKeys() throws StatusRuntimeException {
+        return authenticationStub.getSigningKeys(Empty.newBuilder().build());
+    }
+
 }
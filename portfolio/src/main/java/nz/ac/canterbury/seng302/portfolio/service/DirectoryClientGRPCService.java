@@ -0,0 +1,36 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+import net.devh.boot.grpc.client.inject.GrpcClient;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import org.springframework.stereotype.Service;
+
+@Service
+public class DirectoryClientGRPCService {
+    @GrpcClient(value = "identity-provider-grpc-server")
+    private DirectoryServiceGrpc.DirectoryServiceBlockingStub directoryStub;
+    @GrpcClient("identity-provider-grpc-server")
+    private DirectoryServiceGrpc.DirectoryServiceStub directoryStubStream;
+
+    /**
+     * Gets every user and group from the IdP, along with the version of the directory they are from
+     * @return A snapshot of the directory
+     */
+    public DirectorySnapshotResponse getDirectorySnapshot() {
+        return directoryStub.getDirectorySnapshot(Empty.getDefaultInstance());
+    }
+
+    /**
+     * Starts receiving changes made to the directory after the given version
+     * @param epoch Epoch of the snapshot the version is from
+     * @param sinceVersion Version the caller is up to
+     * @param responseObserver Observer that receives each change. The stream stays open until either side cancels it
+     */
+    public void watchDirectoryChanges(String epoch, long sinceVersion, StreamObserver<DirectoryChangeEvent> responseObserver) {
+        directoryStubStream.watchDirectoryChanges(WatchDirectoryChangesRequest.newBuilder()
+                .setEpoch(epoch)
+                .setSinceVersion(sinceVersion)
+                .build(), responseObserver);
+    }
+}
@@ -0,0 +1,436 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import nz.ac.canterbury.seng302.shared.util.PaginationResponseOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A local copy of the IdP's users and groups, kept up to date by watching the IdP's directory changes. It lets the
+ * user and group lookups most pages make be answered without a round trip to the IdP.
+ *
+ * The replica is seeded from a snapshot and then applies each change in version order. Whenever it can't be sure it is
+ * up to date (it hasn't heard from the IdP recently, a change was missed, or the IdP asked for a resync) every getter
+ * returns null, and callers fall back to asking the IdP directly until the next scheduled check reseeds it.
+ *
+ * Callers that change the directory should take getVersion() before the change and pass it to fenceAfter() once it is
+ * made, so that the caller's next read doesn't miss its own change while the event is still on its way.
+ *
+ * Readers take no locks. The replica's contents are never modified once published: each change is applied to a copy,
+ * which then replaces the contents in a single write, so a reader sees either all of a change or none of it.
+ */
+@Service
+public class DirectoryReplica {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryReplica.class);
+
+    @Autowired
+    private DirectoryClientGRPCService directoryClientGRPCService;
+
+    @Value("${portfolio.directory-replica.enabled:true}")
+    private boolean enabled;
+
+    @Value("${portfolio.directory-replica.stale-after-ms:30000}")
+    private long staleAfterMs;
+
+    @Value("${portfolio.directory-replica.write-fence-ms:2000}")
+    private long writeFenceMs;
+
+    LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * The users and groups held by the replica, along with the IDs of the groups each user is in
+     */
+    private record Contents(Map<Integer, UserResponse> users,
+                            Map<Integer, DirectoryGroup> groups,
+                            Map<Integer, Set<Integer>> groupIdsByUser) {
+
+        static final Contents EMPTY = new Contents(Map.of(), Map.of(), Map.of());
+
+        Contents withUser(UserResponse user) {
+            Map<Integer, UserResponse> newUsers = new HashMap<>(users);
+            newUsers.put(user.getId(), user);
+            return new Contents(newUsers, groups, groupIdsByUser);
+        }
+
+        Contents withGroup(DirectoryGroup group) {
+            Contents copy = copyGroups();
+            copy.putGroup(group);
+            return copy;
+        }
+
+        Contents withoutGroup(int groupId) {
+            Contents copy = copyGroups();
+            copy.removeGroup(groupId);
+            return copy;
+        }
+
+        private Contents copyGroups() {
+            return new Contents(users, new HashMap<>(groups), new HashMap<>(groupIdsByUser));
+        }
+
+        // Only for use on a copy that hasn't been published yet. The sets of group IDs may be shared with older
+        // contents, so they are replaced rather than modified
+        private void putGroup(DirectoryGroup group) {
+            removeGroup(group.getGroupId());
+            DirectoryGroup sorted = group.toBuilder()
+                    .clearMemberIds()
+                    .addAllMemberIds(group.getMemberIdsList().stream().sorted().toList())
+                    .build();
+            groups.put(sorted.getGroupId(), sorted);
+            for (int userId : sorted.getMemberIdsList()) {
+                Set<Integer> userGroups = new HashSet<>(groupIdsByUser.getOrDefault(userId, Set.of()));
+                userGroups.add(sorted.getGroupId());
+                groupIdsByUser.put(userId, userGroups);
+            }
+        }
+
+        private void removeGroup(int groupId) {
+            DirectoryGroup old = groups.remove(groupId);
+            if (old != null) {
+                for (int userId : old.getMemberIdsList()) {
+                    Set<Integer> userGroups = new HashSet<>(groupIdsByUser.getOrDefault(userId, Set.of()));
+                    userGroups.remove(groupId);
+                    groupIdsByUser.put(userId, userGroups);
+                }
+            }
+        }
+    }
+
+    private volatile Contents contents = Contents.EMPTY;
+
+    private volatile String epoch = "";
+
+    private volatile long version = 0;
+
+    private volatile boolean streaming = false;
+
+    private volatile long lastMessageAt = 0;
+
+    private volatile long fenceVersion = 0;
+
+    private volatile long fenceUntil = 0;
+
+    // Incremented for every new stream, so that anything still arriving on a cancelled stream is ignored
+    private int generation = 0;
+
+    private ClientCallStreamObserver<WatchDirectoryChangesRequest> call;
+
+    /**
+     * Reseeds the replica and starts watching again if it isn't being kept up to date
+     */
+    @Scheduled(fixedDelayString = "${portfolio.directory-replica.check-interval-ms:5000}")
+    public void maintain() {
+        if (!enabled || (streaming && clock.getAsLong() - lastMessageAt <= staleAfterMs)) {
+            return;
+        }
+        resync();
+    }
+
+    /**
+     * Replaces the replica's contents with a fresh snapshot and watches for changes made after it. If the IdP can't be
+     * reached, the replica stays stale until the next attempt.
+     */
+    synchronized void resync() {
+        cancelWatch();
+        DirectorySnapshotResponse snapshot;
+        try {
+            snapshot = directoryClientGRPCService.getDirectorySnapshot();
+        } catch (StatusRuntimeException e) {
+            logger.warn("Could not get a directory snapshot from the IdP: {}", e.getStatus());
+            return;
+        }
+
+        Contents seeded = new Contents(new HashMap<>(), new HashMap<>(), new HashMap<>());
+        for (UserResponse user : snapshot.getUsersList()) {
+            seeded.users().put(user.getId(), user);
+        }
+        for (DirectoryGroup group : snapshot.getGroupsList()) {
+            seeded.putGroup(group);
+        }
+        contents = seeded;
+        epoch = snapshot.getEpoch();
+        version = snapshot.getVersion();
+        logger.info("Seeded directory replica with {} users and {} groups at version {}",
+                seeded.users().size(), seeded.groups().size(), version);
+
+        watch();
+    }
+
+    private void watch() {
+        int watchGeneration = ++generation;
+        streaming = true;
+        lastMessageAt = clock.getAsLong();
+        directoryClientGRPCService.watchDirectoryChanges(epoch, version,
+                new ClientResponseObserver<WatchDirectoryChangesRequest, DirectoryChangeEvent>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<WatchDirectoryChangesRequest> requestStream) {
+                        call = requestStream;
+                    }
+
+                    @Override
+                    public void onNext(DirectoryChangeEvent event) {
+                        handleEvent(watchGeneration, event);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        streamClosed(watchGeneration, t.getMessage());
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        streamClosed(watchGeneration, "completed by the IdP");
+                    }
+                });
+    }
+
+    private void cancelWatch() {
+        generation++;
+        streaming = false;
+        if (call != null) {
+            call.cancel("Directory replica resyncing", null);
+            call = null;
+        }
+    }
+
+    private synchronized void streamClosed(int watchGeneration, String reason) {
+        if (watchGeneration == generation) {
+            logger.warn("Directory change stream closed: {}", reason);
+            streaming = false;
+        }
+    }
+
+    synchronized void handleEvent(int watchGeneration, DirectoryChangeEvent event) {
+        if (watchGeneration != generation) {
+            return;
+        }
+        lastMessageAt = clock.getAsLong();
+
+        switch (event.getType()) {
+            case HEARTBEAT -> {
+                if (event.getVersion() > version) {
+                    markStale("missed changes up to version " + event.getVersion());
+                }
+                return;
+            }
+            case RESYNC_REQUIRED -> {
+                markStale("the IdP asked for a resync");
+                return;
+            }
+            default -> {
+                // Changes already included in the snapshot are sent again, and don't need applying twice
+                if (event.getVersion() <= version) {
+                    return;
+                }
+                if (event.getVersion() != version + 1) {
+                    markStale("expected version " + (version + 1) + " but got " + event.getVersion());
+                    return;
+                }
+            }
+        }
+
+        switch (event.getType()) {
+            case USER_CHANGED, ROLES_CHANGED -> contents = contents.withUser(event.getUser());
+            case GROUP_CHANGED -> contents = contents.withGroup(event.getGroup());
+            case GROUP_DELETED -> contents = contents.withoutGroup(event.getGroupId());
+            default -> logger.warn("Ignoring unknown directory change {}", event.getType());
+        }
+        version = event.getVersion();
+    }
+
+    private void markStale(String reason) {
+        logger.info("Directory replica is stale: {}", reason);
+        cancelWatch();
+    }
+
+    /**
+     * @return True if the replica can be read from
+     */
+    public boolean isFresh() {
+        if (!enabled || !streaming) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        if (now - lastMessageAt > staleAfterMs) {
+            return false;
+        }
+        return version >= fenceVersion || now >= fenceUntil;
+    }
+
+    /**
+     * @return The version of the last change applied, to pass to fenceAfter once a change has been made
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stops the replica being read from until it has applied a change made after the given version, or until the
+     * write fence times out (e.g. because the change was rejected, so no event will come)
+     * @param versionBeforeWrite Result of getVersion() from before the change was made
+     */
+    public void fenceAfter(long versionBeforeWrite) {
+        fenceVersion = Math.max(fenceVersion, versionBeforeWrite + 1);
+        fenceUntil = clock.getAsLong() + writeFenceMs;
+    }
+
+    /**
+     * Gets a user's details
+     * @param userId ID of the user
+     * @return The user, or null if the replica is stale or doesn't have them
+     */
+    public UserResponse getUser(int userId) {
+        return isFresh() ? contents.users().get(userId) : null;
+    }
+
+    /**
+     * Gets many users' details
+     * @param userIds IDs of the users
+     * @return The users in the order their IDs were given, or null if the replica is stale or is missing any of them
+     */
+    public List<UserResponse> getUsers(List<Integer> userIds) {
+        if (!isFresh()) {
+            return null;
+        }
+        return getUsers(contents, userIds);
+    }
+
+    private static List<UserResponse> getUsers(Contents current, List<Integer> userIds) {
+        List<UserResponse> found = new ArrayList<>();
+        for (int userId : userIds) {
+            UserResponse user = current.users().get(userId);
+            if (user == null) {
+                return null;
+            }
+            found.add(user);
+        }
+        return found;
+    }
+
+    /**
+     * Gets a group's details along with all of its members, ordered by user ID
+     * @param groupId ID of the group
+     * @return The group, or null if the replica is stale or doesn't have it
+     */
+    public GroupDetailsResponse getGroup(int groupId) {
+        return getGroupPage(groupId, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets a group's details along with a single page of its members, ordered by user ID
+     * @param groupId ID of the group
+     * @param offset Number of members to skip
+     * @param limit Maximum number of members to return
+     * @return The group, with MemberCount set to the total number of members, or null if the replica is stale or
+     *         doesn't have the group or any of the members on the page
+     */
+    public GroupDetailsResponse getGroupPage(int groupId, int offset, int limit) {
+        if (!isFresh()) {
+            return null;
+        }
+        Contents current = contents;
+        DirectoryGroup group = current.groups().get(groupId);
+        if (group == null) {
+            return null;
+        }
+        List<Integer> memberIds = group.getMemberIdsList();
+        int from = Math.min(Math.max(offset, 0), memberIds.size());
+        int to = (int) Math.min((long) from + Math.max(limit, 0), memberIds.size());
+        List<UserResponse> members = getUsers(current, memberIds.subList(from, to));
+        if (members == null) {
+            return null;
+        }
+        return GroupDetailsResponse.newBuilder()
+                .setGroupId(group.getGroupId())
+                .setShortName(group.getShortName())
+                .setLongName(group.getLongName())
+                .setMemberCount(memberIds.size())
+                .addAllMembers(members)
+                .build();
+    }
+
+    /**
+     * Gets the details and member count of every group
+     * @param userId ID of a user to check membership for, each summary's ContainsUser says whether they are in it
+     * @return Summaries of every group ordered by group ID, or null if the replica is stale
+     */
+    public GroupSummariesResponse getGroupSummaries(int userId) {
+        if (!isFresh()) {
+            return null;
+        }
+        Contents current = contents;
+        Set<Integer> userGroupIds = current.groupIdsByUser().getOrDefault(userId, Set.of());
+        GroupSummariesResponse.Builder summaries = GroupSummariesResponse.newBuilder();
+        for (DirectoryGroup group : new TreeMap<>(current.groups()).values()) {
+            summaries.addGroups(getSummary(group, userGroupIds.contains(group.getGroupId())));
+        }
+        return summaries
+                .setPaginationResponseOptions(PaginationResponseOptions.newBuilder()
+                        .setResultSetSize(summaries.getGroupsCount()))
+                .build();
+    }
+
+    /**
+     * Gets summaries of the groups a user is a member of
+     * @param userId ID of the user
+     * @return The user's groups ordered by group ID, or null if the replica is stale
+     */
+    public List<GroupSummaryResponse> getGroupsForUser(int userId) {
+        if (!isFresh()) {
+            return null;
+        }
+        Contents current = contents;
+        List<GroupSummaryResponse> summaries = new ArrayList<>();
+        for (int groupId : current.groupIdsByUser().getOrDefault(userId, Set.of()).stream().sorted().toList()) {
+            DirectoryGroup group = current.groups().get(groupId);
+            if (group != null) {
+                summaries.add(getSummary(group, true));
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Checks if a user is a member of a group
+     * @param userId ID of the user
+     * @param groupId ID of the group
+     * @return Whether they are a member, or null if the replica is stale or doesn't have the group
+     */
+    public Boolean isUserInGroup(int userId, int groupId) {
+        if (!isFresh()) {
+            return null;
+        }
+        Contents current = contents;
+        if (!current.groups().containsKey(groupId)) {
+            return null;
+        }
+        return current.groupIdsByUser().getOrDefault(userId, Set.of()).contains(groupId);
+    }
+
+    private GroupSummaryResponse getSummary(DirectoryGroup group, boolean containsUser) {
+        return GroupSummaryResponse.newBuilder()
+                .setGroupId(group.getGroupId())
+                .setShortName(group.getShortName())
+                .setLongName(group.getLongName())
+                .setMemberCount(group.getMemberIdsCount())
+                .setContainsUser(containsUser)
+                .build();
+    }
+}
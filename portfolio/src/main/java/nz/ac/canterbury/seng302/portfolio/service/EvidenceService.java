@@ -193,7 +193,7 @@ public class EvidenceService {
                 newEvidence.setUserId(focus);
                 //Remove the current user and add the original user
                 List<EvidenceUser> ogLinkedUsers = new ArrayList<>(newEvidence.getLinkedUsers());
-                ogLinkedUsers.remove(new EvidenceUser(focus, userService.getUserDTO(focus).getName()));
+                ogLinkedUsers.removeIf(linkedUser -> linkedUser.getEvidenceUserId() == focus);
                 newEvidence.setLinkedUsers(ogLinkedUsers);
                 save(newEvidence);
             }
@@ -225,8 +225,7 @@ public class EvidenceService {
      */
     public List<EvidenceUser> getEvidenceUsers (List<Integer> userIds) {
         ArrayList<EvidenceUser> evidenceUsers = new ArrayList<>();
-        for (Integer userId : userIds) {
-            UserDTO user = userService.getUserDTO(userId);
+        for (UserDTO user : userService.getUserDTOs(userIds)) {
             EvidenceUser evidenceUser = new EvidenceUser(user.getId(), user.getName());
             evidenceUsers.add(evidenceUser);
         }
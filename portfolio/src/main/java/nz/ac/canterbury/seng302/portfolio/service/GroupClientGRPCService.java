@@ -1,70 +1,244 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
+import io.grpc.Deadline;
 import net.devh.boot.grpc.client.inject.GrpcClient;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import nz.ac.canterbury.seng302.shared.util.PaginationRequestOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class GroupClientGRPCService {
     @GrpcClient(value = "identity-provider-grpc-server")
     private GroupsServiceGrpc.GroupsServiceBlockingStub groupStub;
+    @GrpcClient(value = "identity-provider-grpc-server")
+    private GroupsServiceGrpc.GroupsServiceStub groupStubStream;
+
+    @Autowired
+    private DirectoryReplica directoryReplica;
+
+    @Autowired
+    private UserClientGRPCService userClientGRPCService;
+
+    @Autowired
+    private IdpCallMemo memo;
 
     private final Logger logger = LoggerFactory.getLogger(GroupClientGRPCService.class);
 
     public CreateGroupResponse createGroup(String shortName, String longName) {
-        CreateGroupResponse response = groupStub.createGroup(CreateGroupRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        CreateGroupResponse response = memo.change(() -> groupStub.createGroup(CreateGroupRequest.newBuilder()
                         .setShortName(shortName)
-                        .setLongName(longName).build());
+                        .setLongName(longName).build()));
+        directoryReplica.fenceAfter(version);
 
         return response;
     }
 
     public GroupDetailsResponse getGroup(int id) {
-        GroupDetailsResponse response = groupStub.getGroupDetails(GetGroupDetailsRequest.newBuilder().setGroupId(id).build());
-        return response;
+        GroupDetailsResponse replicated = directoryReplica.getGroup(id);
+        if (replicated != null) {
+            return replicated;
+        }
+        GetGroupDetailsRequest request = GetGroupDetailsRequest.newBuilder().setGroupId(id).build();
+        return memo.get("getGroupDetails", request, () -> groupStub.getGroupDetails(request));
+    }
+
+    /**
+     * Gets a group with its members without blocking, from the directory replica if it's up to date
+     * @param id ID of the group
+     * @param deadline When to give up on the IdP, usually shared by every call made for a page
+     * @return The group, once it arrives
+     */
+    public CompletableFuture<GroupDetailsResponse> getGroupAsync(int id, Deadline deadline) {
+        GroupDetailsResponse replicated = directoryReplica.getGroup(id);
+        if (replicated != null) {
+            return CompletableFuture.completedFuture(replicated);
+        }
+        GetGroupDetailsRequest request = GetGroupDetailsRequest.newBuilder().setGroupId(id).build();
+        return memo.getAsync("getGroupDetails", request, () -> GrpcFutures.unary(observer ->
+                groupStubStream.withDeadline(deadline).getGroupDetails(request, observer)));
     }
 
     public PaginatedGroupsResponse getGroups() {
         // Can be updated to add pagination when required.
-        PaginatedGroupsResponse response = groupStub.getPaginatedGroups(GetPaginatedGroupsRequest.newBuilder()
-                .build());
+        GetPaginatedGroupsRequest request = GetPaginatedGroupsRequest.newBuilder()
+                .setView(UserView.LIST)
+                .build();
+        return memo.get("getPaginatedGroups", request, () -> groupStub.getPaginatedGroups(request));
+    }
 
-        return response;
+    /**
+     * Gets the details and member count of every group, without any member details
+     * @param userId ID of a user to check membership for, each summary's ContainsUser says whether they are in it
+     * @return Summaries of every group, ordered by group ID
+     */
+    public GroupSummariesResponse getGroupSummaries(int userId) {
+        GroupSummariesResponse replicated = directoryReplica.getGroupSummaries(userId);
+        if (replicated != null) {
+            return replicated;
+        }
+        GetGroupSummariesRequest request = GetGroupSummariesRequest.newBuilder()
+                .setUserId(userId)
+                .build();
+        return memo.get("getGroupSummaries", request, () -> groupStub.getGroupSummaries(request));
+    }
+
+    /**
+     * Gets the details and member count of every group without blocking, see getGroupSummaries
+     * @param userId ID of a user to check membership for
+     * @param deadline When to give up on the IdP, usually shared by every call made for a page
+     * @return Summaries of every group, once they arrive
+     */
+    public CompletableFuture<GroupSummariesResponse> getGroupSummariesAsync(int userId, Deadline deadline) {
+        GroupSummariesResponse replicated = directoryReplica.getGroupSummaries(userId);
+        if (replicated != null) {
+            return CompletableFuture.completedFuture(replicated);
+        }
+        GetGroupSummariesRequest request = GetGroupSummariesRequest.newBuilder().setUserId(userId).build();
+        return memo.getAsync("getGroupSummaries", request, () -> GrpcFutures.unary(observer ->
+                groupStubStream.withDeadline(deadline).getGroupSummaries(request, observer)));
+    }
+
+    /**
+     * Gets summaries of the groups a user is a member of
+     * @param userId ID of the user
+     * @return The user's groups, ordered by group ID
+     */
+    public List<GroupSummaryResponse> getGroupsForUser(int userId) {
+        List<GroupSummaryResponse> replicated = directoryReplica.getGroupsForUser(userId);
+        if (replicated != null) {
+            return replicated;
+        }
+        GetGroupsForUserRequest request = GetGroupsForUserRequest.newBuilder()
+                .setUserId(userId)
+                .build();
+        return memo.get("getGroupsForUser", request, () -> groupStub.getGroupsForUser(request)).getGroupsList();
+    }
+
+    /**
+     * Gets summaries of the groups a user is a member of without blocking
+     * @param userId ID of the user
+     * @param deadline When to give up on the IdP, usually shared by every call made for a page
+     * @return The user's groups ordered by group ID, once they arrive
+     */
+    public CompletableFuture<List<GroupSummaryResponse>> getGroupsForUserAsync(int userId, Deadline deadline) {
+        List<GroupSummaryResponse> replicated = directoryReplica.getGroupsForUser(userId);
+        if (replicated != null) {
+            return CompletableFuture.completedFuture(replicated);
+        }
+        GetGroupsForUserRequest request = GetGroupsForUserRequest.newBuilder().setUserId(userId).build();
+        return memo.<GroupsForUserResponse>getAsync("getGroupsForUser", request, () -> GrpcFutures.unary(observer ->
+                        groupStubStream.withDeadline(deadline).getGroupsForUser(request, observer)))
+                .thenApply(GroupsForUserResponse::getGroupsList);
+    }
+
+    /**
+     * Checks if a user is a member of a group, without fetching the group's members
+     * @param userId ID of the user
+     * @param groupId ID of the group
+     * @return true if the user is in the group, false otherwise
+     */
+    public boolean isUserInGroup(int userId, int groupId) {
+        Boolean replicated = directoryReplica.isUserInGroup(userId, groupId);
+        if (replicated != null) {
+            return replicated;
+        }
+        IsUserInGroupRequest request = IsUserInGroupRequest.newBuilder()
+                .setUserId(userId)
+                .setGroupId(groupId)
+                .build();
+        return memo.get("isUserInGroup", request, () -> groupStub.isUserInGroup(request)).getIsMember();
     }
 
     public RemoveGroupMembersResponse removeGroupMembers(List<Integer> selectedMembers, int groupId) {
-        RemoveGroupMembersResponse response = groupStub.removeGroupMembers(RemoveGroupMembersRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        RemoveGroupMembersResponse response = memo.change(() -> groupStub.removeGroupMembers(RemoveGroupMembersRequest.newBuilder()
                         .setGroupId(groupId)
                         .addAllUserIds(selectedMembers)
-                .build());
+                .build()));
+        directoryReplica.fenceAfter(version);
+        userClientGRPCService.invalidateCachedUsers(selectedMembers);
 
         return response;
     }
 
     public DeleteGroupResponse deleteGroup(int groupId) {
-        DeleteGroupResponse response = groupStub.deleteGroup(DeleteGroupRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        DeleteGroupResponse response = memo.change(() -> groupStub.deleteGroup(DeleteGroupRequest.newBuilder()
                 .setGroupId(groupId)
-                .build());
+                .build()));
+        directoryReplica.fenceAfter(version);
+
+        return response;
+    }
+
+    /**
+     * Moves users between groups in one call and one transaction on the identity provider. Every removal is made
+     * before any addition, and memberships of members without a group are ignored as the identity provider keeps it
+     * up to date itself
+     * @param remove Memberships to remove
+     * @param add Memberships to add
+     * @return The response, with the IDs of every group whose members changed
+     */
+    public MoveGroupMembersResponse moveGroupMembers(List<GroupMember> remove, List<GroupMember> add) {
+        long version = directoryReplica.getVersion();
+        MoveGroupMembersResponse response = memo.change(() -> groupStub.moveGroupMembers(MoveGroupMembersRequest.newBuilder()
+                .addAllRemove(remove)
+                .addAllAdd(add)
+                .build()));
+        directoryReplica.fenceAfter(version);
+        Set<Integer> userIds = new HashSet<>();
+        remove.forEach(member -> userIds.add(member.getUserId()));
+        add.forEach(member -> userIds.add(member.getUserId()));
+        userClientGRPCService.invalidateCachedUsers(userIds);
 
         return response;
     }
 
     public AddGroupMembersResponse addGroupMembers(List<Integer> selectedMembers, int groupId) {
-        AddGroupMembersResponse response = groupStub.addGroupMembers(AddGroupMembersRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        AddGroupMembersResponse response = memo.change(() -> groupStub.addGroupMembers(AddGroupMembersRequest.newBuilder()
                 .setGroupId(groupId)
                 .addAllUserIds(selectedMembers)
-                .build());
+                .build()));
+        directoryReplica.fenceAfter(version);
+        userClientGRPCService.invalidateCachedUsers(selectedMembers);
 
         return response;
     }
 
+    /**
+     * Gets a group's details along with a single page of its members, ordered by user ID
+     * @param groupId ID of the group
+     * @param offset Number of members to skip
+     * @param limit Maximum number of members to return. If 0 no members are returned, only the member count
+     * @return The group details, with MemberCount set to the total number of members in the group
+     */
+    public GroupDetailsResponse getGroupPage(int groupId, int offset, int limit) {
+        GroupDetailsResponse replicated = directoryReplica.getGroupPage(groupId, offset, limit);
+        if (replicated != null) {
+            return replicated;
+        }
+        GetGroupDetailsRequest request = GetGroupDetailsRequest.newBuilder()
+                .setGroupId(groupId)
+                .setPaginationRequestOptions(PaginationRequestOptions.newBuilder()
+                        .setOffset(offset)
+                        .setLimit(limit))
+                .setView(UserView.LIST)
+                .build();
+        return memo.get("getGroupDetails", request, () -> groupStub.getGroupDetails(request));
+    }
+
     public int getGroupUsersTotalCount(int groupId) {
-        return getGroup(groupId).getMembersCount();
+        return getGroupPage(groupId, 0, 0).getMemberCount();
     }
 
     public int getGroupUsersPageCount(int groupId, int limit) {
@@ -72,40 +246,37 @@ public class GroupClientGRPCService {
         return (int) Math.ceil((double)totalUsers / (double)limit);
     }
 
-    public List<Integer> getGroupUserIdsPaginated(int groupId, int limit, int page) {
-        List<UserResponse> users = getGroup(groupId).getMembersList();
-
-        // Return empty list if none
-        if (users.isEmpty()) {
-            return new ArrayList<>();
-        }
-
-        // Convert to List<Integer>
-        List<Integer> userIds = new ArrayList<>();
-        for (UserResponse user : users) {
-            userIds.add(user.getId());
-        }
-
-        // Sort list so that results are consistent
-        Collections.sort(userIds);
-
-        // Get a range
-        int start = Math.max( (page - 1) * limit, 0);
-        int end = Math.min( start + limit, userIds.size());
+    /**
+     * Gets one page of a group's members, ordered by user ID
+     * @param groupId ID of the group
+     * @param limit Number of members per page
+     * @param page Page number, starting at 1. -1 gets the last limit members
+     * @return The members on the page
+     */
+    public List<UserResponse> getGroupMembersPaginated(int groupId, int limit, int page) {
+        int offset = Math.max((page - 1) * limit, 0);
 
         // If we are wanting the last page
         if (page == -1) {
-            end = userIds.size();
-            start = Math.max(end - limit, 0);
+            offset = Math.max(getGroupUsersTotalCount(groupId) - limit, 0);
         }
 
-        List<Integer> result = userIds.subList(start, end);
+        return getGroupPage(groupId, offset, limit).getMembersList();
+    }
 
-        return result;
+    public List<Integer> getGroupUserIdsPaginated(int groupId, int limit, int page) {
+        List<Integer> userIds = new ArrayList<>();
+        for (UserResponse user : getGroupMembersPaginated(groupId, limit, page)) {
+            userIds.add(user.getId());
+        }
+        return userIds;
     }
 
     public ModifyGroupDetailsResponse modifyGroupDetails(int groupId, String longName, String shortName) {
-        return groupStub.modifyGroupDetails(ModifyGroupDetailsRequest.newBuilder()
-                .setGroupId(groupId).setLongName(longName).setShortName(shortName).build());
+        long version = directoryReplica.getVersion();
+        ModifyGroupDetailsResponse response = memo.change(() -> groupStub.modifyGroupDetails(ModifyGroupDetailsRequest.newBuilder()
+                .setGroupId(groupId).setLongName(longName).setShortName(shortName).build()));
+        directoryReplica.fenceAfter(version);
+        return response;
     }
 }
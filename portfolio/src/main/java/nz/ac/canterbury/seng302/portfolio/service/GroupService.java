@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
+import io.grpc.Deadline;
 import nz.ac.canterbury.seng302.portfolio.dto.group.GroupDTO;
 import nz.ac.canterbury.seng302.portfolio.dto.group.MinimalGroupDTO;
 import nz.ac.canterbury.seng302.portfolio.dto.user.UserDTO;
@@ -9,6 +10,7 @@ import nz.ac.canterbury.seng302.portfolio.model.repositories.ProjectGroupReposit
 import nz.ac.canterbury.seng302.portfolio.model.repositories.ProjectUserRepository;
 import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
 import nz.ac.canterbury.seng302.shared.identityprovider.GroupDetailsResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.GroupSummaryResponse;
 import nz.ac.canterbury.seng302.shared.identityprovider.UserResponse;
 import nz.ac.canterbury.seng302.shared.identityprovider.UserRole;
 import org.slf4j.Logger;
@@ -18,6 +20,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.String.format;
 
@@ -60,15 +63,7 @@ public class GroupService {
      * @return true if user is in the group, false otherwise
      */
     public boolean userIdInGroup(int userId, int groupId) {
-        GroupDetailsResponse groupResponse = groupClientGRPCService.getGroup(groupId);
-        if (groupResponse == null) {
-            return false;
-        }
-        List<UserResponse> usersInGroup = groupResponse.getMembersList();
-        for (UserResponse user : usersInGroup) {
-            if (user.getId() == userId) return true;
-        }
-        return false;
+        return groupClientGRPCService.isUserInGroup(userId, groupId);
     }
 
     /**
@@ -82,12 +77,12 @@ public class GroupService {
         if (groupResponse == null) {
             return null;
         }
-        List<UserResponse> usersInGroup = groupResponse.getMembersList();
-        ArrayList<UserDTO> usersDTOInGroup = new ArrayList<>();
-        for (UserResponse user : usersInGroup) {
-            usersDTOInGroup.add(users.getUserDTO(user.getId()));
+        // The group's members already come with everything a UserDTO needs
+        List<UserDTO> userDTOs = new ArrayList<>();
+        for (UserResponse user : groupResponse.getMembersList()) {
+            userDTOs.add(UserService.getUserDTO(user));
         }
-        return usersDTOInGroup;
+        return userDTOs;
     }
 
     /**
@@ -100,14 +95,13 @@ public class GroupService {
      * @return true if the user can edit, false otherwise
      */
     public boolean userCanEditGroup(AuthState principal, int groupId) {
-        GroupDetailsResponse groupResponse = groupClientGRPCService.getGroup(groupId);
+        // Only the group's names are needed, so don't fetch any members
+        GroupDetailsResponse groupResponse = groupClientGRPCService.getGroupPage(groupId, 0, 0);
         if (groupResponse.getShortName().equals("MWAG")) return false;
         if (users.getHighestRole(principal) == UserRole.COURSE_ADMINISTRATOR) return true;
-        if (groupResponse.getShortName().equals("TS")) {
-            UserRole highestRole = users.getHighestRole(principal);
-            return highestRole == UserRole.COURSE_ADMINISTRATOR;
-        }
-        return userInGroup(principal, groupId);
+        if (groupResponse.getShortName().equals("TS")) return false;
+        // Already known not to be a course administrator, so only membership is left to check
+        return userIdInGroup(users.getIdFromAuthState(principal), groupId);
     }
 
     /**
@@ -135,10 +129,9 @@ public class GroupService {
      * @return list of paginated UserDTO that belong in the initial thymeleaf paginated user view
      */
     public List<UserDTO> getUserDTOListFormat(int groupId) {
-        List<Integer> userIDResponses = groupClientGRPCService.getGroupUserIdsPaginated(groupId, 5, 1);
         List<UserDTO> userDTOs = new ArrayList<>();
-        for (Integer userId : userIDResponses) {
-            userDTOs.add(users.getCompleteUserDTO(userClientGRPCService.receiveGetUserAccountById(userId)));
+        for (UserResponse user : groupClientGRPCService.getGroupMembersPaginated(groupId, 5, 1)) {
+            userDTOs.add(users.getCompleteUserDTO(user));
         }
         return userDTOs;
     }
@@ -150,26 +143,69 @@ public class GroupService {
      * @return List of all groups in the application in the form of a GroupDTO
      */
     public List<GroupDTO> getAllGroupDTO(AuthState principal) {
+        int userId = users.getIdFromAuthState(principal);
+        return toGroupDTOs(principal, groupClientGRPCService.getGroupSummaries(userId).getGroupsList());
+    }
+
+    /**
+     * Gets all the groups in the application in a GroupDTO format without blocking, so a page can fetch other things
+     * from the IdP at the same time
+     *
+     * @param principal Authentication Principal of user making request
+     * @param deadline  When to give up on the IdP
+     * @return List of all groups in the application in the form of a GroupDTO, once they arrive
+     */
+    public CompletableFuture<List<GroupDTO>> getAllGroupDTOAsync(AuthState principal, Deadline deadline) {
+        int userId = users.getIdFromAuthState(principal);
+        return groupClientGRPCService.getGroupSummariesAsync(userId, deadline)
+                .thenApply(response -> toGroupDTOs(principal, response.getGroupsList()));
+    }
+
+    private List<GroupDTO> toGroupDTOs(AuthState principal, List<GroupSummaryResponse> allGroups) {
         ArrayList<GroupDTO> allGroupDTO = new ArrayList<>();
-        List<GroupDetailsResponse> allGroups = groupClientGRPCService.getGroups().getGroupsList();
-        for (GroupDetailsResponse groupResponse : allGroups) {
-            boolean canEdit = userCanEditGroup(principal, groupResponse.getGroupId());
+        boolean isAdmin = users.isAdmin(principal);
+        boolean userCourseAdmin = users.getHighestRole(principal) == UserRole.COURSE_ADMINISTRATOR;
+        for (GroupSummaryResponse groupResponse : allGroups) {
+            boolean canEdit = canEditGroup(groupResponse.getShortName(), userCourseAdmin, groupResponse.getContainsUser());
             boolean isDefault = groupResponse.getLongName().equals("Members without a group") || groupResponse.getLongName().equals("Teaching Staff");
-            boolean isAdmin = users.isAdmin(principal);
-            int numPages = groupClientGRPCService.getGroupUsersPageCount(groupResponse.getGroupId(), 5);
-            boolean userCourseAdmin = users.getHighestRole(principal) == UserRole.COURSE_ADMINISTRATOR;
+            int numPages = (int) Math.ceil(groupResponse.getMemberCount() / 5.0);
             allGroupDTO.add(new GroupDTO(groupResponse, canEdit, isDefault, isAdmin, numPages, userCourseAdmin, new ArrayList<>()));
         }
         return allGroupDTO;
     }
 
+    /**
+     * The rules of userCanEditGroup, for when the group's short name and the user's membership are already known
+     *
+     * @param shortName   short name of the group
+     * @param courseAdmin whether the user is a course administrator
+     * @param inGroup     whether the user is a member of the group
+     * @return true if the user can edit, false otherwise
+     */
+    private boolean canEditGroup(String shortName, boolean courseAdmin, boolean inGroup) {
+        if (shortName.equals("MWAG")) return false;
+        if (courseAdmin) return true;
+        if (shortName.equals("TS")) return false;
+        return inGroup;
+    }
+
+    /**
+     * Gets the groups a user is in. Course administrators are treated as being in every group
+     *
+     * @param principal Authentication Principal of user making request
+     * @return The user's groups in the form of a MinimalGroupDTO
+     */
     public List<MinimalGroupDTO> getGroupsForUser (AuthState principal) {
-        List<GroupDTO> allGroups = getAllGroupDTO(principal);
+        int userId = users.getIdFromAuthState(principal);
+        List<GroupSummaryResponse> groups;
+        if (users.getHighestRole(principal) == UserRole.COURSE_ADMINISTRATOR) {
+            groups = groupClientGRPCService.getGroupSummaries(userId).getGroupsList();
+        } else {
+            groups = groupClientGRPCService.getGroupsForUser(userId);
+        }
         List<MinimalGroupDTO> userGroups = new ArrayList<>();
-        for (GroupDTO group : allGroups) {
-            if (userInGroup(principal, group.getGroup().getGroupId())) {
-                userGroups.add(new MinimalGroupDTO(group.getGroup().getShortName(), group.getGroup().getGroupId()));
-            }
+        for (GroupSummaryResponse group : groups) {
+            userGroups.add(new MinimalGroupDTO(group.getShortName(), group.getGroupId()));
         }
         return userGroups;
     }
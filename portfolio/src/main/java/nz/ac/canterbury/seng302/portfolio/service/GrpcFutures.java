@@ -0,0 +1,76 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Helpers for calling the IdP on the async stubs, so a page that needs several independent answers can start every
+ * call at once and then wait for them together. The page then takes as long as its slowest call rather than the sum
+ * of them all.
+ *
+ * The calls a page makes share one deadline, from pageDeadline(), so a page gives up on the IdP after at most
+ * PAGE_DEADLINE_MS however many calls it makes.
+ */
+public final class GrpcFutures {
+
+    /** Longest a page waits for the IdP, across all of the calls it makes */
+    public static final long PAGE_DEADLINE_MS = 5000;
+
+    private GrpcFutures() {}
+
+    /**
+     * @return A deadline for the IdP calls made while handling one request
+     */
+    public static Deadline pageDeadline() {
+        return Deadline.after(PAGE_DEADLINE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes a unary call on an async stub
+     * @param call Starts the call, sending its response to the given observer
+     * @return The response, once it arrives. Completes with a StatusRuntimeException if the call fails
+     */
+    static <T> CompletableFuture<T> unary(Consumer<StreamObserver<T>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(new StreamObserver<>() {
+            @Override
+            public void onNext(T value) {
+                future.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                // Does nothing if onNext already completed it
+                future.completeExceptionally(Status.INTERNAL.withDescription("No response from the IdP").asRuntimeException());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for a call started with one of the async client methods, throwing what the blocking stub would have
+     * @param future The call's response
+     * @return The response
+     * @throws StatusRuntimeException If the call failed or ran out of time
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw Status.fromThrowable(e.getCause()).asRuntimeException();
+        }
+    }
+}
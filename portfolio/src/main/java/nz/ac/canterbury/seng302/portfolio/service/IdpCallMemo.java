@@ -0,0 +1,163 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the IdP's answers for the length of one HTTP request, so asking the same question more than once while
+ * handling a request only calls the IdP once. A call that's still in flight is shared as well, so a blocking call
+ * made while the same async call is running waits for that one rather than making another. Failed calls aren't
+ * remembered. Anything that changes the IdP forgets every answer remembered for the request, as they may have changed.
+ *
+ * Every call made to the IdP during a request is counted, and the count is logged when the request finishes, so a
+ * page that starts making more calls than it used to shows up in the logs. Outside of a request (e.g scheduled tasks
+ * or threads the IdP's answers arrive on) calls are made as they are, without being remembered or counted.
+ */
+@Service
+public class IdpCallMemo {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdpCallMemo.class);
+
+    private static final String ATTRIBUTE = IdpCallMemo.class.getName();
+
+    /**
+     * What has been asked of the IdP during one request
+     */
+    private static class RequestCalls {
+        private final Map<List<Object>, CompletableFuture<?>> answers = new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+    /**
+     * Makes a call that reads from the IdP, or gets its answer if the same call was already made during this request
+     * @param method Name of the RPC
+     * @param request The request sent, which must implement equals (as every protobuf message does)
+     * @param call Makes the call
+     * @return The answer
+     */
+    public <T> T get(String method, Object request, Supplier<T> call) {
+        RequestCalls calls = current();
+        if (calls == null) {
+            return call.get();
+        }
+        List<Object> key = List.of(method, request);
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> existing = (CompletableFuture<T>) calls.answers.putIfAbsent(key, answer);
+        if (existing != null) {
+            return GrpcFutures.join(existing);
+        }
+        calls.count.incrementAndGet();
+        try {
+            T value = call.get();
+            answer.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            calls.answers.remove(key, answer);
+            answer.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a call that reads from the IdP, or gets its answer if the same call was already made (or is still being
+     * made) during this request
+     * @param method Name of the RPC
+     * @param request The request sent, which must implement equals (as every protobuf message does)
+     * @param call Starts the call
+     * @return The answer, once it arrives
+     */
+    public <T> CompletableFuture<T> getAsync(String method, Object request, Supplier<CompletableFuture<T>> call) {
+        RequestCalls calls = current();
+        if (calls == null) {
+            return call.get();
+        }
+        List<Object> key = List.of(method, request);
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> existing = (CompletableFuture<T>) calls.answers.putIfAbsent(key, answer);
+        if (existing != null) {
+            return existing;
+        }
+        calls.count.incrementAndGet();
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((value, error) -> {
+            if (error != null) {
+                calls.answers.remove(key, answer);
+                answer.completeExceptionally(error);
+            } else {
+                answer.complete(value);
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Makes a call that changes something on the IdP, then forgets everything remembered during this request
+     * @param call Makes the call
+     * @return The IdP's response
+     */
+    public <T> T change(Supplier<T> call) {
+        RequestCalls calls = current();
+        if (calls == null) {
+            return call.get();
+        }
+        calls.count.incrementAndGet();
+        try {
+            return call.get();
+        } finally {
+            calls.answers.clear();
+        }
+    }
+
+    /**
+     * @return The number of calls made to the IdP so far during this request, or 0 outside of a request
+     */
+    public int getCallCount() {
+        RequestCalls calls = current();
+        return calls == null ? 0 : calls.count.get();
+    }
+
+    private RequestCalls current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        synchronized (attributes) {
+            RequestCalls calls = (RequestCalls) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            if (calls == null) {
+                calls = new RequestCalls();
+                attributes.setAttribute(ATTRIBUTE, calls, RequestAttributes.SCOPE_REQUEST);
+                RequestCalls started = calls;
+                String description = describe(attributes);
+                attributes.registerDestructionCallback(ATTRIBUTE,
+                        () -> logger.info("{} made {} IdP calls", description, started.count.get()),
+                        RequestAttributes.SCOPE_REQUEST);
+            }
+            return calls;
+        }
+    }
+
+    private static String describe(RequestAttributes attributes) {
+        if (attributes instanceof ServletRequestAttributes servlet) {
+            return servlet.getRequest().getMethod() + " " + servlet.getRequest().getRequestURI();
+        }
+        return "Request";
+    }
+}
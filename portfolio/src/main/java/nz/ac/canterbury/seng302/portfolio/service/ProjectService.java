@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
+import io.grpc.Deadline;
 import nz.ac.canterbury.seng302.portfolio.dto.RangeDTO;
 import nz.ac.canterbury.seng302.portfolio.model.UserError;
 import nz.ac.canterbury.seng302.portfolio.model.entities.Project;
@@ -19,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ProjectService {
@@ -217,9 +219,15 @@ public class ProjectService {
      */
     public List<GroupDetailsResponse> getGroupsForProject(int projectId) {
         List<ProjectGroup> li = projectGroups.findProjectGroupsByProjectId(projectId);
-        List<GroupDetailsResponse> groupDetails = new ArrayList<>();
+        // Ask for every group before waiting for any, so this takes as long as the slowest group rather than the sum
+        Deadline deadline = GrpcFutures.pageDeadline();
+        List<CompletableFuture<GroupDetailsResponse>> pending = new ArrayList<>();
         for (ProjectGroup p : li) {
-            groupDetails.add(groups.getGroup(p.getGroupId()));
+            pending.add(groups.getGroupAsync(p.getGroupId(), deadline));
+        }
+        List<GroupDetailsResponse> groupDetails = new ArrayList<>();
+        for (CompletableFuture<GroupDetailsResponse> group : pending) {
+            groupDetails.add(GrpcFutures.join(group));
         }
 
         return groupDetails;
@@ -1,8 +1,12 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Deadline;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import io.grpc.stub.StreamObserver;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import net.devh.boot.grpc.client.inject.GrpcClient;
 import nz.ac.canterbury.seng302.shared.identityprovider.*;
 import nz.ac.canterbury.seng302.shared.util.BasicStringFilteringOptions;
@@ -10,11 +14,17 @@ import nz.ac.canterbury.seng302.shared.util.FileUploadStatusResponse;
 import nz.ac.canterbury.seng302.shared.util.PaginationRequestOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.String.format;
 
@@ -23,11 +33,27 @@ public class UserClientGRPCService {
 
     private static final Logger logger = LoggerFactory.getLogger(UserClientGRPCService.class);
 
+    private static final int USER_CACHE_SIZE = 1000;
+    private static final long USER_CACHE_TIME_TO_LIVE_MS = 30000;
+
+    private static final int PHOTO_CHUNK_SIZE = 64 * 1024;
+    private static final long READY_WAIT_MS = 100;
+    /** Largest profile photo the IdP accepts, in bytes */
+    public static final long MAX_PHOTO_SIZE = 1024 * 1024;
+
+    private final UserResponseCache userCache = new UserResponseCache(USER_CACHE_SIZE, USER_CACHE_TIME_TO_LIVE_MS);
+
     @GrpcClient(value = "identity-provider-grpc-server")
     private UserAccountServiceGrpc.UserAccountServiceBlockingStub userStub;
     @GrpcClient("identity-provider-grpc-server")
     private UserAccountServiceGrpc.UserAccountServiceStub userStubStream;
 
+    @Autowired
+    private DirectoryReplica directoryReplica;
+
+    @Autowired
+    private IdpCallMemo memo;
+
     public UserRegisterResponse receiveUserRegistration(final String username,
      final String password,
      final String firstName,
@@ -38,7 +64,8 @@ public class UserClientGRPCService {
      final String personalPronouns,
      final String email) throws StatusRuntimeException {
 
-        UserRegisterResponse response = userStub.register(UserRegisterRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        UserRegisterResponse response = memo.change(() -> userStub.register(UserRegisterRequest.newBuilder()
         .setUsername(username)
         .setPassword(password)
         .setFirstName(firstName)
@@ -48,7 +75,8 @@ public class UserClientGRPCService {
         .setBio(bio)
         .setPersonalPronouns(personalPronouns)
         .setEmail(email)
-        .build());
+        .build()));
+        directoryReplica.fenceAfter(version);
         
         return response;
     }
@@ -61,7 +89,8 @@ public class UserClientGRPCService {
                                                    final String bio,
                                                    final String personalPronouns,
                                                    final String email) {
-        EditUserResponse response = userStub.editUser(EditUserRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        EditUserResponse response = memo.change(() -> userStub.editUser(EditUserRequest.newBuilder()
                 .setUserId(userId)
                 .setFirstName(firstName)
                 .setMiddleName(middleName)
@@ -69,7 +98,9 @@ public class UserClientGRPCService {
                 .setNickname(nickName)
                 .setBio(bio)
                 .setPersonalPronouns(personalPronouns)
-                .setEmail(email).build());
+                .setEmail(email).build()));
+        directoryReplica.fenceAfter(version);
+        userCache.invalidate(userId);
 
         return response;
     }
@@ -77,21 +108,70 @@ public class UserClientGRPCService {
     public ChangePasswordResponse receiveChangePasswordRequest(final int userId,
         final String currentPassword,
         final String newPassword) {
-            ChangePasswordResponse response = userStub.changeUserPassword(ChangePasswordRequest.newBuilder()
+            ChangePasswordResponse response = memo.change(() -> userStub.changeUserPassword(ChangePasswordRequest.newBuilder()
             .setUserId(userId)
             .setCurrentPassword(currentPassword)
             .setNewPassword(newPassword)
-            .build());
+            .build()));
         return response;
     }   
 
+    /**
+     * Gets a user account, from the cache if it was fetched recently
+     * @param Id ID of the user
+     * @return The user
+     */
     public UserResponse receiveGetUserAccountById(final int Id) {
+        UserResponse cached = userCache.get(Id);
+        if (cached != null) {
+            return cached;
+        }
         logger.info("Getting user account " + Id);
-        UserResponse response = userStub.getUserAccountById(GetUserByIdRequest.newBuilder()
-                .setId(Id).build());
+        long generation = userCache.generation(Id);
+        GetUserByIdRequest request = GetUserByIdRequest.newBuilder().setId(Id).build();
+        UserResponse response = memo.get("getUserAccountById", request, () -> userStub.getUserAccountById(request));
+        userCache.put(response, generation);
 
         return response;
     }
+    /**
+     * Gets a user account without blocking, from the cache if it was fetched recently
+     * @param id ID of the user
+     * @param deadline When to give up on the IdP, usually shared by every call made for a page
+     * @return The user, once it arrives
+     */
+    public CompletableFuture<UserResponse> getUserAccountByIdAsync(final int id, Deadline deadline) {
+        UserResponse cached = userCache.get(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        logger.info("Getting user account " + id);
+        long generation = userCache.generation(id);
+        GetUserByIdRequest request = GetUserByIdRequest.newBuilder().setId(id).build();
+        return memo.<UserResponse>getAsync("getUserAccountById", request, () -> GrpcFutures.unary(observer ->
+                        userStubStream.withDeadline(deadline).getUserAccountById(request, observer)))
+                .thenApply(response -> {
+                    userCache.put(response, generation);
+                    return response;
+                });
+    }
+
+    /**
+     * Gets many user accounts in a single call to the IdP
+     * @param ids IDs of the users to get
+     * @return The users found, in the order their IDs were given. IDs that don't match a user are skipped
+     */
+    public List<UserResponse> receiveGetUsersByIds(final List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        logger.info("Getting {} user accounts", ids.size());
+        GetUsersByIdsRequest request = GetUsersByIdsRequest.newBuilder().addAllIds(ids).build();
+        UsersByIdsResponse response = memo.get("getUsersByIds", request, () -> userStub.getUsersByIds(request));
+
+        return response.getUsersList();
+    }
+
     public PaginatedUsersResponse receiveGetPaginatedUsers(int offset, int limit, String orderBy, boolean ascending) {
         GetPaginatedUsersRequest request = GetPaginatedUsersRequest.newBuilder()
                 .setPaginationRequestOptions(PaginationRequestOptions.newBuilder()
@@ -100,42 +180,72 @@ public class UserClientGRPCService {
                         .setOrderBy(orderBy)
                         .setIsAscendingOrder(ascending)
                         .build())
+                // Lists only show names and roles, so don't send the rest of each user
+                .setView(UserView.LIST)
                 .build();
 
-        PaginatedUsersResponse response = userStub.getPaginatedUsers(request);
+        PaginatedUsersResponse response = memo.get("getPaginatedUsers", request, () -> userStub.getPaginatedUsers(request));
         return response;
     }
 
     public PaginatedUsersResponse receiveGetFilteredPaginatedUsers (String query, int offset, int limit, String orderBy, boolean ascending) {
         GetPaginatedUsersFilteredRequest request = GetPaginatedUsersFilteredRequest.newBuilder().setFilteringOptions(BasicStringFilteringOptions.newBuilder().setFilterText(query).build())
-                .setPaginationRequestOptions(PaginationRequestOptions.newBuilder().setOffset(offset).setLimit(limit).setOrderBy(orderBy).setIsAscendingOrder(ascending).build()).build();
-        PaginatedUsersResponse response = userStub.getPaginatedUsersFilteredByName(request);
+                .setPaginationRequestOptions(PaginationRequestOptions.newBuilder().setOffset(offset).setLimit(limit).setOrderBy(orderBy).setIsAscendingOrder(ascending).build())
+                .setView(UserView.LIST).build();
+        PaginatedUsersResponse response = memo.get("getPaginatedUsersFilteredByName", request,
+                () -> userStub.getPaginatedUsersFilteredByName(request));
         logger.info(format("Got %s users that matched query %s for page %s", response.getUsersCount(), query, offset));
         return response;
     }
 
     public UserRoleChangeResponse receiveRemoveRoleFromUser(final int id, final UserRole role) {
-        UserRoleChangeResponse response = userStub.removeRoleFromUser(ModifyRoleOfUserRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        UserRoleChangeResponse response = memo.change(() -> userStub.removeRoleFromUser(ModifyRoleOfUserRequest.newBuilder()
                 .setUserId(id)
                 .setRole(role)
-                .build());
+                .build()));
+        directoryReplica.fenceAfter(version);
+        userCache.invalidate(id);
 
         return response;
     }
 
     public UserRoleChangeResponse receiveAddRoleToUser(final int id, final UserRole role) {
-        UserRoleChangeResponse response = userStub.addRoleToUser(ModifyRoleOfUserRequest.newBuilder()
+        long version = directoryReplica.getVersion();
+        UserRoleChangeResponse response = memo.change(() -> userStub.addRoleToUser(ModifyRoleOfUserRequest.newBuilder()
                 .setUserId(id)
                 .setRole(role)
-                .build());
+                .build()));
+        directoryReplica.fenceAfter(version);
+        userCache.invalidate(id);
 
         return response;
     }
 
-    public void uploadImage (int userId, InputStream imgInfo) throws InterruptedException {
+    /**
+     * Uploads a profile photo to the IdP, streaming it in chunks of PHOTO_CHUNK_SIZE. A chunk is only sent once the
+     * IdP is ready for it, so at most a few chunks of the photo are held in memory at a time
+     * @param userId ID of the user the photo is for
+     * @param imgInfo The photo's bytes
+     * @param size The photo's size in bytes, which must not be over MAX_PHOTO_SIZE
+     */
+    public void uploadImage (int userId, InputStream imgInfo, long size) throws InterruptedException {
         final CountDownLatch finishLatch = new CountDownLatch(1);
-        StreamObserver<UploadUserProfilePhotoRequest> requestObserver = userStubStream.withDeadlineAfter(5, TimeUnit.SECONDS)
-                .uploadUserProfilePhoto(new StreamObserver<>() {
+        final Object readyLock = new Object();
+        long version = directoryReplica.getVersion();
+        AtomicReference<ClientCallStreamObserver<UploadUserProfilePhotoRequest>> requestStream = new AtomicReference<>();
+        ClientResponseObserver<UploadUserProfilePhotoRequest, FileUploadStatusResponse> responseObserver =
+                new ClientResponseObserver<>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<UploadUserProfilePhotoRequest> stream) {
+                        requestStream.set(stream);
+                        stream.setOnReadyHandler(() -> {
+                            synchronized (readyLock) {
+                                readyLock.notifyAll();
+                            }
+                        });
+                    }
+
                     @Override
                     public void onNext(FileUploadStatusResponse value) {
                         logger.info("Received message: \n" + value);
@@ -144,54 +254,134 @@ public class UserClientGRPCService {
                     @Override
                     public void onError(Throwable t) {
                         logger.error("Image upload failed! \r\n" + t);
+                        userCache.invalidate(userId);
                         finishLatch.countDown();
                     }
 
                     @Override
                     public void onCompleted() {
                         logger.info("Profile picture uploaded!");
+                        userCache.invalidate(userId);
                         finishLatch.countDown();
                     }
-                });
+                };
+        // beforeStart is given the call's request stream before the call returns
+        ClientCallStreamObserver<UploadUserProfilePhotoRequest> requestObserver = memo.change(() -> {
+            userStubStream.withDeadlineAfter(5, TimeUnit.SECONDS).uploadUserProfilePhoto(responseObserver);
+            return requestStream.get();
+        });
 
-        ProfilePhotoUploadMetadata imageMetadata = ProfilePhotoUploadMetadata.newBuilder().setUserId(userId).setFileType("jpg").build();
+        ProfilePhotoUploadMetadata imageMetadata = ProfilePhotoUploadMetadata.newBuilder().setUserId(userId).setFileType("jpg").setSize(size).build();
         UploadUserProfilePhotoRequest request = UploadUserProfilePhotoRequest.newBuilder().setMetaData(imageMetadata).build();
 
+        // However the upload ends, the photo may have changed on the IdP
         try {
-            requestObserver.onNext(request);
-            logger.info("Sent image metadata: \r\n" + imageMetadata);
-            byte[] imageBuffer = new byte[1024];
-            while (true) {
-                int n = imgInfo.read(imageBuffer);
-                if (n <= 0) {
-                    break;
-                }
+            try {
+                requestObserver.onNext(request);
+                logger.info("Sent image metadata: \r\n" + imageMetadata);
+                long sent = 0;
+                while (true) {
+                    // A new buffer for every chunk, so it can be wrapped rather than copied
+                    byte[] imageBuffer = new byte[PHOTO_CHUNK_SIZE];
+                    int n = imgInfo.readNBytes(imageBuffer, 0, PHOTO_CHUNK_SIZE);
+                    if (n <= 0) {
+                        break;
+                    }
 
-                if (finishLatch.getCount() == 0) {
-                    return;
+                    synchronized (readyLock) {
+                        while (!requestObserver.isReady() && finishLatch.getCount() > 0) {
+                            readyLock.wait(READY_WAIT_MS);
+                        }
+                    }
+                    if (finishLatch.getCount() == 0) {
+                        return;
+                    }
+
+                    request = UploadUserProfilePhotoRequest.newBuilder().setFileContent(UnsafeByteOperations.unsafeWrap(imageBuffer, 0, n)).build();
+                    requestObserver.onNext(request);
+                    sent += n;
                 }
+                logger.info("Sent " + sent + " bytes of image data");
+            } catch (InterruptedException e) {
+                requestObserver.onError(e);
+                throw e;
+            } catch (Exception e) {
+                logger.error("Unexpected error: " + e.getMessage());
+                requestObserver.onError(e);
+                return;
+            }
 
-                request = UploadUserProfilePhotoRequest.newBuilder().setFileContent(ByteString.copyFrom(imageBuffer, 0, n)).build();
-                requestObserver.onNext(request);
-                logger.info("Sent " + n + " bytes of image data");
+            requestObserver.onCompleted();
+
+            if (!finishLatch.await(30, TimeUnit.SECONDS)) {
+                logger.warn("Profile picture couldn't be uploaded in 30 seconds!");
             }
-        } catch (Exception e) {
-            logger.error("Unexpected error: " + e.getMessage());
-            requestObserver.onError(e);
-            return;
+        } finally {
+            directoryReplica.fenceAfter(version);
         }
+    }
 
-        requestObserver.onCompleted();
+    /**
+     * A profile photo as downloaded from the IdP
+     * @param imageHash Hash of the photo that was sent, which is its version
+     * @param content The photo's bytes
+     */
+    public record ProfilePhoto(String imageHash, byte[] content) {}
 
-        if (!finishLatch.await(30, TimeUnit.SECONDS)) {
-            logger.warn("Profile picture couldn't be uploaded in 30 seconds!");
+    /**
+     * Downloads a user's profile photo, which the IdP streams in chunks after its metadata
+     * @param userId ID of the user
+     * @param size Size in pixels the photo will be shown at, so a thumbnail can be sent instead. 0 for the original
+     * @return The photo along with the hash of the version sent, or null if the user doesn't have a photo
+     */
+    public ProfilePhoto receiveGetUserProfilePhoto (int userId, int size) {
+        GetUserProfilePhotoRequest request = GetUserProfilePhotoRequest.newBuilder()
+                .setUserId(userId)
+                .setSize(size)
+                .build();
+        try {
+            return memo.get("getUserProfilePhoto", request, () -> {
+                String imageHash = "";
+                ByteString received = ByteString.EMPTY;
+                Iterator<GetUserProfilePhotoResponse> chunks = userStub.getUserProfilePhoto(request);
+                while (chunks.hasNext()) {
+                    GetUserProfilePhotoResponse chunk = chunks.next();
+                    if (chunk.getDownloadDataCase() == GetUserProfilePhotoResponse.DownloadDataCase.METADATA) {
+                        imageHash = chunk.getMetaData().getImageHash();
+                    } else if (chunk.getDownloadDataCase() == GetUserProfilePhotoResponse.DownloadDataCase.FILECONTENT) {
+                        received = received.concat(chunk.getFileContent());
+                    }
+                }
+                return new ProfilePhoto(imageHash, received.toByteArray());
+            });
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                return null;
+            }
+            throw e;
         }
     }
 
     public DeleteUserProfilePhotoResponse deleteImage (int userId) {
-        return userStub.deleteUserProfilePhoto(DeleteUserProfilePhotoRequest.newBuilder()
-                                                                            .setUserId(userId)
-                                                                            .build());
+        long version = directoryReplica.getVersion();
+        DeleteUserProfilePhotoResponse response = memo.change(() -> userStub.deleteUserProfilePhoto(
+                DeleteUserProfilePhotoRequest.newBuilder().setUserId(userId).build()));
+        directoryReplica.fenceAfter(version);
+        userCache.invalidate(userId);
+        return response;
+    }
+
+    /**
+     * Drops users from the user cache, for changes made through other services (e.g. moving users in or out of the
+     * teaching staff group changes their roles)
+     * @param userIds IDs of the users that changed
+     */
+    public void invalidateCachedUsers(Collection<Integer> userIds) {
+        userIds.forEach(userCache::invalidate);
+    }
+
+    public UserResponseCache getUserCache() {
+        return userCache;
     }
 
 }
@@ -0,0 +1,172 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.UserResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of user accounts fetched from the IdP, so a page that looks up the same user several times only
+ * asks the IdP once. Entries are dropped after a fixed time to live, which bounds how stale a user can be when they
+ * are changed by something other than this portfolio instance. When full, the least recently used entry is evicted.
+ *
+ * A fetch that started before a user was invalidated can finish after it, so callers note the user's generation
+ * before fetching and pass it to put, which skips the user if they have been invalidated since.
+ */
+public class UserResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserResponseCache.class);
+
+    private static final int STATS_LOG_INTERVAL = 10000;
+
+    private record Entry(UserResponse user, long expiresAtMillis) {}
+
+    private final Map<Integer, Entry> entries;
+
+    /** Number of invalidations so far, as of each user's latest one. Only the most recent are kept */
+    private final Map<Integer, Long> invalidatedAt;
+
+    private long invalidations = 0;
+
+    /** The latest invalidation no longer kept in invalidatedAt, which is the generation of every user not in it */
+    private long forgottenInvalidations = 0;
+
+    private final long timeToLiveMillis;
+
+    private final LongSupplier clock;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public UserResponseCache(int maxEntries, long timeToLiveMillis) {
+        this(maxEntries, timeToLiveMillis, System::currentTimeMillis);
+    }
+
+    UserResponseCache(int maxEntries, long timeToLiveMillis, LongSupplier clock) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.invalidatedAt = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                if (size() > maxEntries) {
+                    forgottenInvalidations = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a previously cached user
+     * @param userId ID of the user
+     * @return The cached user, or null if there isn't one (or it has expired)
+     */
+    public UserResponse get(int userId) {
+        UserResponse user = null;
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                if (entry.expiresAtMillis() > clock.getAsLong()) {
+                    user = entry.user();
+                } else {
+                    entries.remove(userId);
+                }
+            }
+        }
+
+        long lookups;
+        if (user != null) {
+            lookups = hits.incrementAndGet() + misses.get();
+        } else {
+            lookups = misses.incrementAndGet() + hits.get();
+        }
+        if (lookups % STATS_LOG_INTERVAL == 0) {
+            logger.info("User cache: {} hits, {} misses ({}% hit rate), {} entries",
+                    getHitCount(), getMissCount(), Math.round(getHitRate() * 100), size());
+        }
+        return user;
+    }
+
+    /**
+     * Caches a user for the time to live
+     * @param user The user, as returned by the IdP
+     */
+    public void put(UserResponse user) {
+        synchronized (entries) {
+            entries.put(user.getId(), new Entry(user, clock.getAsLong() + timeToLiveMillis));
+        }
+    }
+
+    /**
+     * Caches a user for the time to live, unless they have been invalidated since they were fetched
+     * @param user The user, as returned by the IdP
+     * @param generation The user's generation from before they were fetched
+     */
+    public void put(UserResponse user, long generation) {
+        synchronized (entries) {
+            if (generation(user.getId()) != generation) {
+                return;
+            }
+            put(user);
+        }
+    }
+
+    /**
+     * Gets a user's generation, which changes every time they are invalidated. Noted before fetching a user, so put
+     * can tell if the fetched user is already out of date
+     * @param userId ID of the user
+     * @return The user's generation
+     */
+    public long generation(int userId) {
+        synchronized (entries) {
+            return invalidatedAt.getOrDefault(userId, forgottenInvalidations);
+        }
+    }
+
+    /**
+     * Drops a user from the cache, so the next lookup fetches them from the IdP again
+     * @param userId ID of the user that changed
+     */
+    public void invalidate(int userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+            // Removed first so the most recently invalidated users are the ones kept
+            invalidatedAt.remove(userId);
+            invalidatedAt.put(userId, ++invalidations);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The fraction of lookups that were answered from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
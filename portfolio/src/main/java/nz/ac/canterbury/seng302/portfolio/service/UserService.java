@@ -1,5 +1,6 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
+import nz.ac.canterbury.seng302.portfolio.authentication.AuthenticatedUser;
 import nz.ac.canterbury.seng302.portfolio.dto.user.UserDTO;
 import nz.ac.canterbury.seng302.portfolio.exceptions.BadRequest;
 import nz.ac.canterbury.seng302.portfolio.model.entities.UserState;
@@ -8,6 +9,8 @@ import nz.ac.canterbury.seng302.shared.identityprovider.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
@@ -26,10 +29,17 @@ public class UserService {
     @Autowired
     private UserClientGRPCService userClientGRPCService;
 
+    @Autowired
+    private DirectoryReplica directoryReplica;
+
     private final Logger logger = LoggerFactory.getLogger(UserService.class);
 
     public static final int USER_LIST_SIZE = 20;
 
+    public static final String PROFILE_PICTURE_URL = "api/user/profilePicture";
+
+    public static final String DEFAULT_PROFILE_PICTURE_VERSION = "default";
+
     /**
      * Save/update the UserState to the database
      * @param state - UserState to update
@@ -63,23 +73,31 @@ public class UserService {
     }
 
     /**
-     * Get highest power user Role from AuthState principle
+     * Get the user making the request, resolved from the claims of their AuthState. If the principal is the one
+     * authenticating the current request, the user resolved once by the JwtAuthenticationFilter is reused.
+     * @param principal - AuthState from requesting client
+     * @return - AuthenticatedUser with the id and roles of the user
+     */
+    public AuthenticatedUser getAuthenticatedUser(AuthState principal) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() == principal
+                && authentication.getDetails() instanceof AuthenticatedUser authenticatedUser) {
+            return authenticatedUser;
+        }
+        return AuthenticatedUser.fromAuthState(principal);
+    }
+
+    /**
+     * Get highest power user Role from AuthState principle. Roles are read from the token's role claim, so this
+     * doesn't need to ask the IdP
      * @param principal - AuthState from requesting client
      * @return - Highest power UserRole for user. Urecognized, if not found
      */
     public UserRole getHighestRole(AuthState principal) {
-        int userId = getIdFromAuthState(principal);
-        if (userId < 0) return UserRole.UNRECOGNIZED;
-
-        UserResponse user = userClientGRPCService.receiveGetUserAccountById(userId);
-        List<UserRole> roles = user.getRolesList();
-
-        logger.info("User Roles: " + roles);
+        AuthenticatedUser user = getAuthenticatedUser(principal);
+        if (user.getUserId() < 0) return UserRole.UNRECOGNIZED;
 
-        if (roles.contains(UserRole.COURSE_ADMINISTRATOR)) return UserRole.COURSE_ADMINISTRATOR;
-        if (roles.contains(UserRole.TEACHER)) return UserRole.TEACHER;
-        if (roles.contains(UserRole.STUDENT)) return UserRole.STUDENT;
-        return UserRole.UNRECOGNIZED;
+        return user.getHighestRole();
     }
 
     /**
@@ -88,11 +106,7 @@ public class UserService {
      * @return - int, userId
      */
     public int getIdFromAuthState(AuthState principal) {
-        return Integer.parseInt(principal.getClaimsList().stream()
-                .filter(claim -> claim.getType().equals("nameid"))
-                .findFirst()
-                .map(ClaimDTO::getValue)
-                .orElse("-100"));
+        return getAuthenticatedUser(principal).getUserId();
     }
 
     /**
@@ -136,23 +150,99 @@ public class UserService {
 
 
     /**
-     * Getting a userDTO by creating a new userDTO
+     * Getting a userDTO by creating a new userDTO. Read from the directory replica when it is up to date
      * @param userId - the request from user
      * @return new UserDTO with name and list of user's role
      */
     public UserDTO getUserDTO (int userId) {
-        UserResponse user = userClientGRPCService.receiveGetUserAccountById(userId);
+        UserResponse user = directoryReplica.getUser(userId);
+        if (user == null) {
+            user = userClientGRPCService.receiveGetUserAccountById(userId);
+        }
         if (user == null) return null;
 
-        UserDTO userDto = new UserDTO();
+        UserDTO userDto = getUserDTO(user);
         userDto.setId(userId);
+        return userDto;
+    }
+
+    /**
+     * Converts a UserResponse into a UserDTO with the user's name and list of roles
+     * @param user - UserResponse of the user
+     * @return new UserDTO for the user
+     */
+    public static UserDTO getUserDTO (UserResponse user) {
+        UserDTO userDto = new UserDTO();
+        userDto.setId(user.getId());
         userDto.addRoles(user.getRolesList());
         userDto.setName(user.getFirstName() + " " + user.getLastName());
         userDto.setUsername(user.getUsername());
-
         return userDto;
     }
 
+    /**
+     * Gets UserDTOs for many users at once, from the directory replica or otherwise using a single call to the IdP
+     * @param userIds - IDs of the users to get
+     * @return UserDTOs (as in getUserDTO) in the order their IDs were given. IDs that don't match a user are skipped
+     */
+    public List<UserDTO> getUserDTOs (List<Integer> userIds) {
+        List<UserResponse> users = directoryReplica.getUsers(userIds);
+        if (users == null) {
+            users = userClientGRPCService.receiveGetUsersByIds(userIds);
+        }
+        List<UserDTO> userDTOs = new ArrayList<>();
+        for (UserResponse user : users) {
+            userDTOs.add(getUserDTO(user));
+        }
+        return userDTOs;
+    }
+
+    /**
+     * Get the version of a user's profile picture, which changes whenever the picture does. Uploaded pictures are
+     * versioned by the hash of their content, so the version can be put in the picture's URL and cached indefinitely
+     * @param user - UserResponse of the user
+     * @return The hash of the user's picture, or DEFAULT_PROFILE_PICTURE_VERSION if they haven't uploaded one
+     */
+    public static String getProfilePictureVersion(UserResponse user) {
+        return user.getProfileImageHash().isEmpty() ? DEFAULT_PROFILE_PICTURE_VERSION : user.getProfileImageHash();
+    }
+
+    /**
+     * Get the version of a user's profile picture, from the directory replica or otherwise the IdP
+     * @param userId - ID of the user
+     * @return The version of the user's picture (see getProfilePictureVersion(UserResponse)), or null if there is no
+     *         such user
+     */
+    public String getProfilePictureVersion(int userId) {
+        UserResponse user = directoryReplica.getUser(userId);
+        if (user == null) {
+            user = userClientGRPCService.receiveGetUserAccountById(userId);
+        }
+        if (user == null || user.getId() != userId) return null;
+
+        return getProfilePictureVersion(user);
+    }
+
+    /**
+     * Get the URL of a user's profile picture, versioned so browsers can cache it until the picture changes
+     * @param user - UserResponse of the user
+     * @return Relative URL of the picture
+     */
+    public static String getProfilePictureUrl(UserResponse user) {
+        return PROFILE_PICTURE_URL + "?userId=" + user.getId() + "&v=" + getProfilePictureVersion(user);
+    }
+
+    /**
+     * Get the URL of a user's profile picture, versioned so browsers can cache it until the picture changes
+     * @param userId - ID of the user
+     * @return Relative URL of the picture. Unversioned if the user couldn't be found
+     */
+    public String getProfilePictureUrl(int userId) {
+        String version = getProfilePictureVersion(userId);
+        if (version == null) return PROFILE_PICTURE_URL;
+
+        return PROFILE_PICTURE_URL + "?userId=" + userId + "&v=" + version;
+    }
 
     /**
      * Converts a UserResponse object into a UserDTO
@@ -0,0 +1,193 @@
+package nz.ac.canterbury.seng302.portfolio.authentication;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import nz.ac.canterbury.seng302.portfolio.service.AuthenticateClientService;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import nz.ac.canterbury.seng302.shared.identityprovider.GetSigningKeysResponse;
+import nz.ac.canterbury.seng302.shared.identityprovider.SigningKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JwtTokenVerifierTest {
+
+    @InjectMocks
+    private JwtTokenVerifier jwtTokenVerifier;
+
+    @Mock
+    private AuthenticateClientService authenticateClientService;
+
+    @Mock
+    private TaskScheduler taskScheduler;
+
+    private final KeyPair keyPair = Keys.keyPairFor(SignatureAlgorithm.RS256);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(jwtTokenVerifier, "localVerificationEnabled", true);
+        ReflectionTestUtils.setField(jwtTokenVerifier, "minKeyRefreshIntervalMs", 30000L);
+    }
+
+    private GetSigningKeysResponse signingKeys(String keyId, KeyPair keys) {
+        return GetSigningKeysResponse.newBuilder()
+                .addKeys(SigningKey.newBuilder()
+                        .setKeyId(keyId)
+                        .setAlgorithm("RS256")
+                        .setEncodedKey(ByteString.copyFrom(keys.getPublic().getEncoded())))
+                .build();
+    }
+
+    private String createToken(String keyId, KeyPair keys, long validityMillis) {
+        return Jwts.builder()
+                .setHeaderParam("kid", keyId)
+                .setClaims(Map.of("unique_name", "abc123", "nameid", 7, "name", "John Smith", "role", "10"))
+                .setSubject("abc123")
+                .setIssuer("LOCAL AUTHORITY")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + validityMillis))
+                .signWith(keys.getPrivate(), SignatureAlgorithm.RS256)
+                .compact();
+    }
+
+    private String getClaim(AuthState authState, String type) {
+        return authState.getClaimsList().stream()
+                .filter(claim -> claim.getType().equals(type))
+                .map(ClaimDTO::getValue)
+                .findFirst().orElse(null);
+    }
+
+    @Test
+    void testVerify_validToken_buildsAuthStateFromClaims() {
+        when(authenticateClientService.getSigningKeys()).thenReturn(signingKeys("key-1", keyPair));
+        jwtTokenVerifier.refreshSigningKeys();
+
+        AuthState authState = jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000));
+
+        assertNotNull(authState);
+        assertTrue(authState.getIsAuthenticated());
+        assertEquals("John Smith", authState.getName());
+        assertEquals("7", getClaim(authState, "nameid"));
+        assertEquals("10", getClaim(authState, "role"));
+        assertEquals("role", authState.getRoleClaimType());
+    }
+
+    @Test
+    void testVerify_knownKey_noCallsToIdp() {
+        when(authenticateClientService.getSigningKeys()).thenReturn(signingKeys("key-1", keyPair));
+        jwtTokenVerifier.refreshSigningKeys();
+
+        jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000));
+        jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000));
+
+        verify(authenticateClientService, times(1)).getSigningKeys();
+        verify(authenticateClientService, never()).checkAuthState();
+        verifyNoInteractions(taskScheduler);
+    }
+
+    @Test
+    void testVerify_expiredToken_unauthenticated() {
+        when(authenticateClientService.getSigningKeys()).thenReturn(signingKeys("key-1", keyPair));
+        jwtTokenVerifier.refreshSigningKeys();
+
+        AuthState authState = jwtTokenVerifier.verify(createToken("key-1", keyPair, -60000));
+
+        assertNotNull(authState);
+        assertFalse(authState.getIsAuthenticated());
+    }
+
+    @Test
+    void testVerify_tamperedSignature_unauthenticated() {
+        KeyPair otherKeys = Keys.keyPairFor(SignatureAlgorithm.RS256);
+        when(authenticateClientService.getSigningKeys()).thenReturn(signingKeys("key-1", keyPair));
+        jwtTokenVerifier.refreshSigningKeys();
+
+        AuthState authState = jwtTokenVerifier.verify(createToken("key-1", otherKeys, 60000));
+
+        assertNotNull(authState);
+        assertFalse(authState.getIsAuthenticated());
+    }
+
+    @Test
+    void testVerify_unknownKey_returnsNullAndSchedulesRefresh() {
+        AuthState authState = jwtTokenVerifier.verify(createToken("key-2", keyPair, 60000));
+
+        assertNull(authState);
+        verify(taskScheduler).schedule(any(Runnable.class), any(Instant.class));
+        verifyNoInteractions(authenticateClientService);
+    }
+
+    @Test
+    void testVerify_unknownKeyRepeatedly_refreshRateLimited() {
+        jwtTokenVerifier.verify(createToken("key-2", keyPair, 60000));
+        jwtTokenVerifier.verify(createToken("key-3", keyPair, 60000));
+
+        verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    @Test
+    void testVerify_unknownKey_scheduledRefreshPicksUpKey() {
+        when(authenticateClientService.getSigningKeys()).thenReturn(signingKeys("key-2", keyPair));
+        when(taskScheduler.schedule(any(Runnable.class), any(Instant.class))).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        });
+        String token = createToken("key-2", keyPair, 60000);
+
+        assertNull(jwtTokenVerifier.verify(token));
+
+        assertTrue(jwtTokenVerifier.verify(token).getIsAuthenticated());
+    }
+
+    @Test
+    void testVerify_rotatedKey_pickedUpOnRefresh() {
+        KeyPair rotatedKeys = Keys.keyPairFor(SignatureAlgorithm.RS256);
+        when(authenticateClientService.getSigningKeys())
+                .thenReturn(signingKeys("key-1", keyPair))
+                .thenReturn(signingKeys("key-2", rotatedKeys));
+        jwtTokenVerifier.refreshSigningKeys();
+
+        jwtTokenVerifier.refreshSigningKeys();
+
+        assertNull(jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000)));
+        assertTrue(jwtTokenVerifier.verify(createToken("key-2", rotatedKeys, 60000)).getIsAuthenticated());
+    }
+
+    @Test
+    void testRefreshSigningKeys_idpUnavailable_keepsExistingKeys() {
+        when(authenticateClientService.getSigningKeys())
+                .thenReturn(signingKeys("key-1", keyPair))
+                .thenThrow(Status.UNAVAILABLE.asRuntimeException());
+        jwtTokenVerifier.refreshSigningKeys();
+
+        jwtTokenVerifier.refreshSigningKeys();
+
+        assertTrue(jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000)).getIsAuthenticated());
+    }
+
+    @Test
+    void testVerify_localVerificationDisabled_returnsNull() {
+        ReflectionTestUtils.setField(jwtTokenVerifier, "localVerificationEnabled", false);
+
+        assertNull(jwtTokenVerifier.verify(createToken("key-1", keyPair, 60000)));
+        verifyNoInteractions(authenticateClientService);
+    }
+}
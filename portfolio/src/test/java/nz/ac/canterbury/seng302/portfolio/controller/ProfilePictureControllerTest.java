@@ -0,0 +1,140 @@
+package nz.ac.canterbury.seng302.portfolio.controller;
+
+import nz.ac.canterbury.seng302.portfolio.service.UserClientGRPCService;
+import nz.ac.canterbury.seng302.portfolio.service.UserService;
+import nz.ac.canterbury.seng302.shared.identityprovider.AuthState;
+import nz.ac.canterbury.seng302.shared.identityprovider.ClaimDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.MockBeans;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@MockBeans({@MockBean(UserClientGRPCService.class), @MockBean(UserService.class)})
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(controllers = ProfilePictureController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@ContextConfiguration(classes = {ProfilePictureController.class, UserClientGRPCService.class, UserService.class})
+class ProfilePictureControllerTest {
+
+    private static final String HASH = "ab".repeat(32);
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private UserService users;
+
+    @Autowired
+    private UserClientGRPCService userClientGRPCService;
+
+    @BeforeEach
+    void init() {
+        AuthState authState = AuthState.newBuilder()
+                .setIsAuthenticated(true)
+                .setNameClaimType("name")
+                .setRoleClaimType("role")
+                .addClaims(ClaimDTO.newBuilder().setType("role").setValue("STUDENT").build())
+                .addClaims(ClaimDTO.newBuilder().setType("nameid").setValue("1").build())
+                .build();
+        SecurityContext mockedSecurityContext = Mockito.mock(SecurityContext.class);
+        when(mockedSecurityContext.getAuthentication()).thenReturn(new PreAuthenticatedAuthenticationToken(authState, ""));
+        SecurityContextHolder.setContext(mockedSecurityContext);
+        when(users.getIdFromAuthState(any())).thenReturn(1);
+    }
+
+    @Test
+    void getProfilePicture_currentVersion_cachedImmutably() throws Exception {
+        when(users.getProfilePictureVersion(1)).thenReturn(HASH);
+        when(userClientGRPCService.receiveGetUserProfilePhoto(1, 0)).thenReturn(new UserClientGRPCService.ProfilePhoto(HASH, new byte[] {1, 2, 3}));
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=1&v=" + HASH))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + HASH + "\""))
+                .andExpect(header().string("Cache-Control", containsString("immutable")))
+                .andExpect(content().bytes(new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    void getProfilePicture_unversioned_revalidated() throws Exception {
+        when(users.getProfilePictureVersion(1)).thenReturn(HASH);
+        when(userClientGRPCService.receiveGetUserProfilePhoto(1, 0)).thenReturn(new UserClientGRPCService.ProfilePhoto(HASH, new byte[] {1, 2, 3}));
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", not(containsString("immutable"))))
+                .andExpect(header().string("Cache-Control", containsString("no-cache")));
+    }
+
+    @Test
+    void getProfilePicture_changedSinceVersionRead_notCachedUnderOldVersion() throws Exception {
+        String newHash = "cd".repeat(32);
+        when(users.getProfilePictureVersion(1)).thenReturn(HASH);
+        when(userClientGRPCService.receiveGetUserProfilePhoto(1, 0)).thenReturn(new UserClientGRPCService.ProfilePhoto(newHash, new byte[] {5}));
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=1&v=" + HASH))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + newHash + "\""))
+                .andExpect(header().string("Cache-Control", not(containsString("immutable"))))
+                .andExpect(content().bytes(new byte[] {5}));
+    }
+
+    @Test
+    void getProfilePicture_size_thumbnailRequested() throws Exception {
+        when(users.getProfilePictureVersion(1)).thenReturn(HASH);
+        when(userClientGRPCService.receiveGetUserProfilePhoto(1, 96)).thenReturn(new UserClientGRPCService.ProfilePhoto(HASH, new byte[] {4}));
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=1&size=96"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(new byte[] {4}));
+    }
+
+    @Test
+    void getProfilePicture_matchingETag_notModifiedWithoutFetching() throws Exception {
+        when(users.getProfilePictureVersion(1)).thenReturn(HASH);
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=1")
+                        .header("If-None-Match", "\"" + HASH + "\""))
+                .andExpect(status().isNotModified());
+
+        verify(userClientGRPCService, never()).receiveGetUserProfilePhoto(anyInt(), anyInt());
+    }
+
+    @Test
+    void getProfilePicture_noPhoto_defaultAvatarWithoutFetching() throws Exception {
+        when(users.getProfilePictureVersion(1)).thenReturn(UserService.DEFAULT_PROFILE_PICTURE_VERSION);
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=1"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(header().string("ETag", "\"default\""));
+
+        verify(userClientGRPCService, never()).receiveGetUserProfilePhoto(anyInt(), anyInt());
+    }
+
+    @Test
+    void getProfilePicture_unknownUser_notFound() throws Exception {
+        when(users.getProfilePictureVersion(5)).thenReturn(null);
+
+        mvc.perform(MockMvcRequestBuilders.get("/api/user/profilePicture?userId=5"))
+                .andExpect(status().isNotFound());
+    }
+}
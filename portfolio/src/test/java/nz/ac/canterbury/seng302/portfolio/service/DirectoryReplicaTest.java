@@ -0,0 +1,290 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import nz.ac.canterbury.seng302.shared.identityprovider.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+@ExtendWith(MockitoExtension.class)
+class DirectoryReplicaTest {
+
+    @Mock
+    private DirectoryClientGRPCService directoryClientGRPCService;
+
+    @InjectMocks
+    private DirectoryReplica replica;
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private static UserResponse user(int id, String firstName) {
+        return UserResponse.newBuilder().setId(id).setFirstName(firstName).addRoles(UserRole.STUDENT).build();
+    }
+
+    private static DirectoryGroup group(int id, String shortName, Integer... memberIds) {
+        return DirectoryGroup.newBuilder()
+                .setGroupId(id)
+                .setShortName(shortName)
+                .setLongName(shortName + " long")
+                .addAllMemberIds(List.of(memberIds))
+                .build();
+    }
+
+    private static DirectoryChangeEvent event(long version, DirectoryChangeType type) {
+        return DirectoryChangeEvent.newBuilder().setVersion(version).setType(type).build();
+    }
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(replica, "enabled", true);
+        ReflectionTestUtils.setField(replica, "staleAfterMs", 30_000L);
+        ReflectionTestUtils.setField(replica, "writeFenceMs", 2_000L);
+        replica.clock = now::get;
+    }
+
+    /**
+     * Seeds the replica with three users, a group holding two of them, and another holding the third
+     * @return The observer receiving the replica's change stream
+     */
+    @SuppressWarnings("unchecked")
+    private StreamObserver<DirectoryChangeEvent> seed() {
+        Mockito.when(directoryClientGRPCService.getDirectorySnapshot()).thenReturn(DirectorySnapshotResponse.newBuilder()
+                .setEpoch("epoch")
+                .setVersion(5)
+                .addUsers(user(1, "Ann"))
+                .addUsers(user(2, "Bob"))
+                .addUsers(user(3, "Cat"))
+                .addGroups(group(10, "G1", 2, 1))
+                .addGroups(group(11, "G2", 3))
+                .build());
+        ArgumentCaptor<StreamObserver<DirectoryChangeEvent>> observer = ArgumentCaptor.forClass(StreamObserver.class);
+
+        replica.maintain();
+
+        Mockito.verify(directoryClientGRPCService, Mockito.atLeastOnce())
+                .watchDirectoryChanges(eq("epoch"), anyLong(), observer.capture());
+        return observer.getValue();
+    }
+
+    @Test
+    void testMaintain_notSeeded_readsSnapshotAndWatchesFromItsVersion() {
+        seed();
+
+        Mockito.verify(directoryClientGRPCService).watchDirectoryChanges(eq("epoch"), eq(5L), any());
+        Assertions.assertTrue(replica.isFresh());
+        Assertions.assertEquals(5, replica.getVersion());
+    }
+
+    @Test
+    void testGetGroupPage_fresh_membersOrderedById() {
+        seed();
+
+        GroupDetailsResponse group = replica.getGroupPage(10, 1, 5);
+
+        Assertions.assertEquals(2, group.getMemberCount());
+        Assertions.assertEquals(1, group.getMembersCount());
+        Assertions.assertEquals(2, group.getMembers(0).getId());
+        Assertions.assertEquals(0, replica.getGroupPage(10, 0, 0).getMembersCount());
+    }
+
+    @Test
+    void testGetGroupSummaries_fresh_marksUsersGroups() {
+        seed();
+
+        GroupSummariesResponse summaries = replica.getGroupSummaries(3);
+
+        Assertions.assertEquals(2, summaries.getPaginationResponseOptions().getResultSetSize());
+        Assertions.assertFalse(summaries.getGroups(0).getContainsUser());
+        Assertions.assertTrue(summaries.getGroups(1).getContainsUser());
+        Assertions.assertEquals(2, summaries.getGroups(0).getMemberCount());
+    }
+
+    @Test
+    void testMembership_fresh_answeredLocally() {
+        seed();
+
+        Assertions.assertTrue(replica.isUserInGroup(1, 10));
+        Assertions.assertFalse(replica.isUserInGroup(3, 10));
+        Assertions.assertNull(replica.isUserInGroup(1, 99));
+        Assertions.assertEquals(List.of(11), replica.getGroupsForUser(3).stream().map(GroupSummaryResponse::getGroupId).toList());
+    }
+
+    @Test
+    void testGetUsers_missingUser_null() {
+        seed();
+
+        Assertions.assertEquals(2, replica.getUsers(List.of(2, 1)).size());
+        Assertions.assertNull(replica.getUsers(List.of(1, 4)));
+    }
+
+    @Test
+    void testEvents_inOrder_applied() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(6, DirectoryChangeType.USER_CHANGED).toBuilder().setUser(user(1, "Anne")).build());
+        stream.onNext(event(7, DirectoryChangeType.GROUP_CHANGED).toBuilder().setGroup(group(10, "G1", 2)).build());
+        stream.onNext(event(8, DirectoryChangeType.GROUP_CHANGED).toBuilder().setGroup(group(11, "G2", 1, 3)).build());
+
+        Assertions.assertEquals(8, replica.getVersion());
+        Assertions.assertEquals("Anne", replica.getUser(1).getFirstName());
+        Assertions.assertFalse(replica.isUserInGroup(1, 10));
+        Assertions.assertTrue(replica.isUserInGroup(1, 11));
+    }
+
+    @Test
+    void testEvents_alreadyInSnapshot_ignored() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(5, DirectoryChangeType.GROUP_DELETED).toBuilder().setGroupId(10).build());
+
+        Assertions.assertTrue(replica.isFresh());
+        Assertions.assertNotNull(replica.getGroup(10));
+    }
+
+    @Test
+    void testGroupDeleted_removesMemberships() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(6, DirectoryChangeType.GROUP_DELETED).toBuilder().setGroupId(10).build());
+
+        Assertions.assertNull(replica.getGroup(10));
+        Assertions.assertTrue(replica.getGroupsForUser(1).isEmpty());
+    }
+
+    @Test
+    void testGroupChanged_concurrentReads_neverMissMembers() throws InterruptedException {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger missed = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                if (!Boolean.TRUE.equals(replica.isUserInGroup(1, 10))) {
+                    missed.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+
+        // Only the group's name changes, so user 1 is a member the whole time
+        for (int version = 6; version < 20_000; version++) {
+            stream.onNext(event(version, DirectoryChangeType.GROUP_CHANGED).toBuilder()
+                    .setGroup(group(10, "G" + version, 1, 2)).build());
+        }
+        writing.set(false);
+        reader.join();
+
+        Assertions.assertEquals(0, missed.get());
+        Assertions.assertEquals(19_999, replica.getVersion());
+    }
+
+    @Test
+    void testEvents_versionGap_stale() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(7, DirectoryChangeType.USER_CHANGED).toBuilder().setUser(user(1, "Anne")).build());
+
+        Assertions.assertFalse(replica.isFresh());
+        Assertions.assertNull(replica.getUser(1));
+    }
+
+    @Test
+    void testHeartbeat_aheadOfReplica_stale() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(6, DirectoryChangeType.HEARTBEAT));
+
+        Assertions.assertFalse(replica.isFresh());
+    }
+
+    @Test
+    void testResyncRequired_reseededOnNextCheck() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onNext(event(5, DirectoryChangeType.RESYNC_REQUIRED));
+        Assertions.assertFalse(replica.isFresh());
+        replica.maintain();
+
+        Mockito.verify(directoryClientGRPCService, Mockito.times(2)).getDirectorySnapshot();
+        Assertions.assertTrue(replica.isFresh());
+    }
+
+    @Test
+    void testNoMessages_staleAfterTimeout() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        now.addAndGet(20_000);
+        stream.onNext(event(5, DirectoryChangeType.HEARTBEAT));
+        now.addAndGet(20_000);
+        Assertions.assertTrue(replica.isFresh());
+
+        now.addAndGet(20_000);
+        Assertions.assertFalse(replica.isFresh());
+    }
+
+    @Test
+    void testStreamError_stale() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        stream.onError(Status.UNAVAILABLE.asRuntimeException());
+
+        Assertions.assertFalse(replica.isFresh());
+    }
+
+    @Test
+    void testFenceAfter_readsFallBackUntilChangeArrives() {
+        StreamObserver<DirectoryChangeEvent> stream = seed();
+
+        replica.fenceAfter(replica.getVersion());
+        Assertions.assertNull(replica.getUser(1));
+
+        stream.onNext(event(6, DirectoryChangeType.USER_CHANGED).toBuilder().setUser(user(1, "Anne")).build());
+        Assertions.assertEquals("Anne", replica.getUser(1).getFirstName());
+    }
+
+    @Test
+    void testFenceAfter_noChangeArrives_timesOut() {
+        seed();
+
+        replica.fenceAfter(replica.getVersion());
+        now.addAndGet(2_001);
+
+        Assertions.assertNotNull(replica.getUser(1));
+    }
+
+    @Test
+    void testMaintain_snapshotFails_staysStale() {
+        Mockito.when(directoryClientGRPCService.getDirectorySnapshot()).thenThrow(Status.UNAVAILABLE.asRuntimeException());
+
+        replica.maintain();
+
+        Assertions.assertFalse(replica.isFresh());
+        Mockito.verify(directoryClientGRPCService, Mockito.never()).watchDirectoryChanges(any(), anyLong(), any());
+    }
+
+    @Test
+    void testDisabled_neverRead() {
+        ReflectionTestUtils.setField(replica, "enabled", false);
+
+        replica.maintain();
+
+        Assertions.assertNull(replica.getUser(1));
+        Mockito.verifyNoInteractions(directoryClientGRPCService);
+    }
+}
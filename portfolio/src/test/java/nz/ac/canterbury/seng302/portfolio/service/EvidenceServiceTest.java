@@ -115,7 +115,7 @@ class EvidenceServiceTest {
         Mockito.when(projectService.getProjectById(anyInt())).thenReturn(newProject);
         Mockito.when(evidenceRepository.save(any())).then(returnsFirstArg());
         Mockito.when(evidenceService.existsById(anyInt())).thenReturn(true);
-        Mockito.when(userService.getUserDTO(anyInt())).thenReturn(new UserDTO());
+        Mockito.when(userService.getUserDTOs(anyList())).thenReturn(List.of(new UserDTO()));
         Mockito.when(evidenceService.getEvidenceById(anyInt())).thenReturn(new Evidence("My Evidence", new Date(), "Evidence Description", 1, "username"));
         EvidenceDTO evidence = new EvidenceDTO("Evidence Name", "2022-05-05", "Evidence Description");
         evidence.setCommits(new ArrayList<>());
@@ -148,7 +148,7 @@ class EvidenceServiceTest {
         Mockito.when(projectService.getProjectById(anyInt())).thenReturn(newProject);
         Mockito.when(evidenceRepository.save(any())).then(returnsFirstArg());
         Mockito.when(evidenceService.existsById(anyInt())).thenReturn(true);
-        Mockito.when(userService.getUserDTO(anyInt())).thenReturn(new UserDTO());
+        Mockito.when(userService.getUserDTOs(anyList())).thenReturn(List.of(new UserDTO()));
         Mockito.when(evidenceService.getEvidenceById(anyInt())).thenReturn(new Evidence("My Evidence", new Date(), "Evidence Description", 1, "username"));
         EvidenceDTO evidence = new EvidenceDTO("Evidence Name", "2022-01-22", "Evidence Description");
         evidence.setLinkedUsers(new ArrayList<>());
@@ -163,7 +163,7 @@ class EvidenceServiceTest {
         Mockito.when(projectService.getProjectById(anyInt())).thenReturn(newProject);
         Mockito.when(evidenceRepository.save(any())).then(returnsFirstArg());
         Mockito.when(evidenceService.existsById(anyInt())).thenReturn(true);
-        Mockito.when(userService.getUserDTO(anyInt())).thenReturn(new UserDTO());
+        Mockito.when(userService.getUserDTOs(anyList())).thenReturn(List.of(new UserDTO()));
         Mockito.when(evidenceService.getEvidenceById(anyInt())).thenReturn(new Evidence("My Evidence", new Date(), "Evidence Description", 1, "username"));
         EvidenceDTO evidence = new EvidenceDTO("Evidence Name", "2022-07-29", "Evidence Description");
         evidence.setCommits(new ArrayList<>());
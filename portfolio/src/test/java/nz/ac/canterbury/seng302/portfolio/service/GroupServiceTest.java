@@ -1,5 +1,7 @@
 package nz.ac.canterbury.seng302.portfolio.service;
 
+import nz.ac.canterbury.seng302.portfolio.dto.group.GroupDTO;
+import nz.ac.canterbury.seng302.portfolio.dto.group.MinimalGroupDTO;
 import nz.ac.canterbury.seng302.portfolio.dto.user.UserDTO;
 import nz.ac.canterbury.seng302.portfolio.model.entities.Project;
 import nz.ac.canterbury.seng302.portfolio.model.entities.ProjectGroup;
@@ -18,9 +20,11 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -70,15 +74,16 @@ class GroupServiceTest {
 
     @Test
     void testUserInGroup_groupExists_userExists () {
-        when(groupClientGRPCService.getGroup(1)).thenReturn(groupResponseContainingUsers);
+        when(groupClientGRPCService.isUserInGroup(1, 1)).thenReturn(true);
         when(users.getHighestRole(any())).thenReturn(UserRole.STUDENT);
         when(users.getIdFromAuthState(any())).thenReturn(1);
         assertTrue(groupService.userInGroup(createAuthState("1"), 1));
+        Mockito.verify(groupClientGRPCService, Mockito.never()).getGroup(anyInt());
     }
 
     @Test
     void testUserInGroup_groupExists_userDoesntExists () {
-        when(groupClientGRPCService.getGroup(1)).thenReturn(groupResponseContainingUsers);
+        when(groupClientGRPCService.isUserInGroup(4, 1)).thenReturn(false);
         when(users.getHighestRole(any())).thenReturn(null);
         when(users.getIdFromAuthState(any())).thenReturn(4);
         assertFalse(groupService.userInGroup(createAuthState("4"), 1));
@@ -86,16 +91,55 @@ class GroupServiceTest {
 
     @Test
     void testUserInGroup_groupDoesntExist () {
-        when(groupClientGRPCService.getGroup(1)).thenReturn(null);
+        when(groupClientGRPCService.isUserInGroup(1, 1)).thenReturn(false);
         when(users.getHighestRole(any())).thenReturn(UserRole.STUDENT);
         when(users.getIdFromAuthState(any())).thenReturn(1);
         assertFalse(groupService.userInGroup(createAuthState("1"), 1));
     }
 
+    @Test
+    void testUserInGroup_courseAdmin_noIdpCall () {
+        when(users.getHighestRole(any())).thenReturn(UserRole.COURSE_ADMINISTRATOR);
+        assertTrue(groupService.userInGroup(createAuthState("1"), 1));
+        Mockito.verifyNoInteractions(groupClientGRPCService);
+    }
+
+    @Test
+    void testGetGroupsForUser_student_onlyTheirGroups () {
+        AuthState principal = createAuthState("1");
+        when(users.getIdFromAuthState(principal)).thenReturn(1);
+        when(users.getHighestRole(principal)).thenReturn(UserRole.STUDENT);
+        when(groupClientGRPCService.getGroupsForUser(1)).thenReturn(List.of(
+                GroupSummaryResponse.newBuilder().setGroupId(3).setShortName("Team 3").build()));
+
+        List<MinimalGroupDTO> groups = groupService.getGroupsForUser(principal);
+
+        assertEquals(1, groups.size());
+        assertEquals(3, groups.get(0).getGroupId());
+        Mockito.verify(groupClientGRPCService, Mockito.never()).getGroup(anyInt());
+    }
+
+    @Test
+    void testGetGroupsForUser_courseAdmin_allGroups () {
+        AuthState principal = createAuthState("1");
+        when(users.getIdFromAuthState(principal)).thenReturn(1);
+        when(users.getHighestRole(principal)).thenReturn(UserRole.COURSE_ADMINISTRATOR);
+        when(groupClientGRPCService.getGroupSummaries(1)).thenReturn(GroupSummariesResponse.newBuilder()
+                .addGroups(GroupSummaryResponse.newBuilder().setGroupId(1).setShortName("TS"))
+                .addGroups(GroupSummaryResponse.newBuilder().setGroupId(2).setShortName("MWAG"))
+                .build());
+
+        assertEquals(2, groupService.getGroupsForUser(principal).size());
+    }
+
     @Test
     void testGetUserDTOInGroup_groupExists_containingUsers () {
         when(groupClientGRPCService.getGroup(1)).thenReturn(groupResponseContainingUsers);
-        assertEquals(3, groupService.getUserDTOInGroup(1).size());
+        List<UserDTO> userDTOs = groupService.getUserDTOInGroup(1);
+        assertEquals(3, userDTOs.size());
+        assertEquals(2, userDTOs.get(1).getId());
+        Mockito.verify(users, Mockito.never()).getUserDTO(Mockito.anyInt());
+        Mockito.verify(users, Mockito.never()).getUserDTOs(Mockito.anyList());
     }
 
     @Test
@@ -162,57 +206,83 @@ class GroupServiceTest {
 
     @Test
     void testGetUserDTOListFormat_noUsers () {
-        when(groupClientGRPCService.getGroupUserIdsPaginated(1, 5, 1)).thenReturn(new ArrayList<>());
+        when(groupClientGRPCService.getGroupMembersPaginated(1, 5, 1)).thenReturn(new ArrayList<>());
         assertEquals(0, groupService.getUserDTOListFormat(1).size());
     }
 
     @Test
     void testGetUserDTOListFormat_containingUsers () {
-        ArrayList<Integer> userIds = new ArrayList<>();
-        userIds.add(1);
-        UserResponse response = UserResponse.newBuilder().build();
-        when(groupClientGRPCService.getGroupUserIdsPaginated(1, 5, 1)).thenReturn(userIds);
-        when(userClientGRPCService.receiveGetUserAccountById(1)).thenReturn(response);
+        UserResponse response = UserResponse.newBuilder().setId(1).build();
+        when(groupClientGRPCService.getGroupMembersPaginated(1, 5, 1)).thenReturn(List.of(response));
         when(users.getCompleteUserDTO(response)).thenReturn(new UserDTO("Test Test", List.of("teacher")));
         assertEquals(1, groupService.getUserDTOListFormat(1).size());
+        Mockito.verifyNoInteractions(userClientGRPCService);
     }
 
     @Test
     void testGetAllGroupDTO_noGroups () {
-        PaginatedGroupsResponse response = PaginatedGroupsResponse.newBuilder().build();
-        when(groupClientGRPCService.getGroups()).thenReturn(response);
+        GroupSummariesResponse response = GroupSummariesResponse.newBuilder().build();
+        when(groupClientGRPCService.getGroupSummaries(anyInt())).thenReturn(response);
         assertEquals(0, groupService.getAllGroupDTO(createAuthState("1")).size());
     }
 
     @Test
     void testGetAllGroupDTO_containingDefaultGroup () {
         AuthState principal = createAuthState("1");
-        GroupDetailsResponse singleGroup = GroupDetailsResponse.newBuilder().setGroupId(1).setLongName("Members without a group").setShortName("MWAG").build();
-        PaginatedGroupsResponse response = PaginatedGroupsResponse.newBuilder().addGroups(singleGroup).build();
-        when(groupClientGRPCService.getGroups()).thenReturn(response);
-        when(groupClientGRPCService.getGroup(1)).thenReturn(singleGroup);
+        GroupSummaryResponse singleGroup = GroupSummaryResponse.newBuilder().setGroupId(1).setLongName("Members without a group").setShortName("MWAG").setMemberCount(6).build();
+        GroupSummariesResponse response = GroupSummariesResponse.newBuilder().addGroups(singleGroup).build();
+        when(groupClientGRPCService.getGroupSummaries(anyInt())).thenReturn(response);
         when(users.isAdmin(principal)).thenReturn(false);
-        when(groupClientGRPCService.getGroupUsersPageCount(1, 5)).thenReturn(1);
         when(users.getHighestRole(principal)).thenReturn(UserRole.STUDENT);
-        ArrayList<Integer> userIds = new ArrayList<>();
-        userIds.add(1);
-        UserResponse userResponse = UserResponse.newBuilder().build();
-        assertEquals(1, groupService.getAllGroupDTO(principal).size());
+        List<GroupDTO> groups = groupService.getAllGroupDTO(principal);
+        assertEquals(1, groups.size());
+        assertTrue(groups.get(0).isDefault());
+        assertFalse(groups.get(0).isCanEdit());
+        assertEquals(2, groups.get(0).getPages());
     }
 
     @Test
     void testGetAllGroupDTO_containingNormalGroup () {
         AuthState principal = createAuthState("1");
-        GroupDetailsResponse singleGroup = GroupDetailsResponse.newBuilder().setGroupId(1).setLongName("Test Group").setShortName("Test").build();
-        PaginatedGroupsResponse response = PaginatedGroupsResponse.newBuilder().addGroups(singleGroup).build();
-        when(groupClientGRPCService.getGroups()).thenReturn(response);
-        when(groupClientGRPCService.getGroup(1)).thenReturn(singleGroup);
+        GroupSummaryResponse singleGroup = GroupSummaryResponse.newBuilder().setGroupId(1).setLongName("Test Group").setShortName("Test").setContainsUser(true).build();
+        GroupSummariesResponse response = GroupSummariesResponse.newBuilder().addGroups(singleGroup).build();
+        when(groupClientGRPCService.getGroupSummaries(anyInt())).thenReturn(response);
         when(users.isAdmin(principal)).thenReturn(false);
-        when(groupClientGRPCService.getGroupUsersPageCount(1, 5)).thenReturn(1);
         when(users.getHighestRole(principal)).thenReturn(UserRole.STUDENT);
-        ArrayList<Integer> userIds = new ArrayList<>();
-        userIds.add(1);
-        UserResponse userResponse = UserResponse.newBuilder().build();
-        assertEquals(1, groupService.getAllGroupDTO(principal).size());
+        List<GroupDTO> groups = groupService.getAllGroupDTO(principal);
+        assertEquals(1, groups.size());
+        assertFalse(groups.get(0).isDefault());
+        assertTrue(groups.get(0).isCanEdit());
+    }
+
+    @Test
+    void testGetAllGroupDTOAsync_sameAsBlocking () {
+        AuthState principal = createAuthState("1");
+        GroupSummaryResponse singleGroup = GroupSummaryResponse.newBuilder().setGroupId(1).setLongName("Test Group").setShortName("Test").setContainsUser(true).build();
+        GroupSummariesResponse response = GroupSummariesResponse.newBuilder().addGroups(singleGroup).build();
+        when(groupClientGRPCService.getGroupSummariesAsync(anyInt(), any())).thenReturn(CompletableFuture.completedFuture(response));
+        when(users.getHighestRole(principal)).thenReturn(UserRole.STUDENT);
+
+        List<GroupDTO> groups = groupService.getAllGroupDTOAsync(principal, GrpcFutures.pageDeadline()).join();
+
+        assertEquals(1, groups.size());
+        assertTrue(groups.get(0).isCanEdit());
+        Mockito.verify(groupClientGRPCService, Mockito.never()).getGroupSummaries(anyInt());
+    }
+
+    @Test
+    void testGetAllGroupDTO_manyGroups_singleIdpCall () {
+        AuthState principal = createAuthState("1");
+        GroupSummariesResponse.Builder response = GroupSummariesResponse.newBuilder();
+        for (int i = 1; i <= 50; i++) {
+            response.addGroups(GroupSummaryResponse.newBuilder().setGroupId(i).setLongName("Group " + i).setShortName("G" + i));
+        }
+        when(groupClientGRPCService.getGroupSummaries(anyInt())).thenReturn(response.build());
+        when(users.getHighestRole(principal)).thenReturn(UserRole.STUDENT);
+
+        assertEquals(50, groupService.getAllGroupDTO(principal).size());
+        Mockito.verify(groupClientGRPCService, Mockito.times(1)).getGroupSummaries(anyInt());
+        Mockito.verifyNoMoreInteractions(groupClientGRPCService);
+        Mockito.verifyNoInteractions(userClientGRPCService);
     }
 }
@@ -0,0 +1,47 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class GrpcFuturesTest {
+
+    @Test
+    void unary_completesWithResponse() {
+        CompletableFuture<String> future = GrpcFutures.unary(observer -> {
+            observer.onNext("response");
+            observer.onCompleted();
+        });
+
+        Assertions.assertEquals("response", GrpcFutures.join(future));
+    }
+
+    @Test
+    void join_throwsStatusOfFailedCall() {
+        CompletableFuture<String> future = GrpcFutures.unary(observer ->
+                observer.onError(Status.DEADLINE_EXCEEDED.asRuntimeException()));
+
+        StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class, () -> GrpcFutures.join(future));
+        Assertions.assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+    }
+
+    @Test
+    void unary_noResponse_fails() {
+        CompletableFuture<String> future = GrpcFutures.unary(observer -> observer.onCompleted());
+
+        StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class, () -> GrpcFutures.join(future));
+        Assertions.assertEquals(Status.Code.INTERNAL, e.getStatus().getCode());
+    }
+
+    @Test
+    void pageDeadline_withinPageLimit() {
+        long remaining = GrpcFutures.pageDeadline().timeRemaining(TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(remaining > 0);
+        Assertions.assertTrue(remaining <= GrpcFutures.PAGE_DEADLINE_MS);
+    }
+}
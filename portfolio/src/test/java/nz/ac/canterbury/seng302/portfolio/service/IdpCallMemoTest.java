@@ -0,0 +1,107 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IdpCallMemoTest {
+
+    private final IdpCallMemo memo = new IdpCallMemo();
+    private final AtomicInteger calls = new AtomicInteger();
+    private ServletRequestAttributes attributes;
+
+    @BeforeEach
+    void setUp() {
+        attributes = new ServletRequestAttributes(new MockHttpServletRequest("GET", "/groups"));
+        RequestContextHolder.setRequestAttributes(attributes);
+    }
+
+    @AfterEach
+    void tearDown() {
+        attributes.requestCompleted();
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private String answer() {
+        return "answer " + calls.incrementAndGet();
+    }
+
+    @Test
+    void get_sameCall_callsOnce() {
+        Assertions.assertEquals("answer 1", memo.get("getGroupDetails", 1, this::answer));
+        Assertions.assertEquals("answer 1", memo.get("getGroupDetails", 1, this::answer));
+
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(1, memo.getCallCount());
+    }
+
+    @Test
+    void get_differentCalls_callsEach() {
+        memo.get("getGroupDetails", 1, this::answer);
+        memo.get("getGroupDetails", 2, this::answer);
+        memo.get("isUserInGroup", 1, this::answer);
+
+        Assertions.assertEquals(3, calls.get());
+        Assertions.assertEquals(3, memo.getCallCount());
+    }
+
+    @Test
+    void get_callInFlight_waitsForIt() {
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+        CompletableFuture<String> started = memo.getAsync("getGroupDetails", 1, () -> inFlight);
+        inFlight.complete("async answer");
+
+        Assertions.assertEquals("async answer", memo.get("getGroupDetails", 1, this::answer));
+        Assertions.assertEquals("async answer", started.join());
+        Assertions.assertEquals(0, calls.get());
+        Assertions.assertEquals(1, memo.getCallCount());
+    }
+
+    @Test
+    void get_failedCall_notRemembered() {
+        Assertions.assertThrows(StatusRuntimeException.class, () -> memo.get("getGroupDetails", 1, () -> {
+            throw Status.UNAVAILABLE.asRuntimeException();
+        }));
+
+        Assertions.assertEquals("answer 1", memo.get("getGroupDetails", 1, this::answer));
+        Assertions.assertEquals(2, memo.getCallCount());
+    }
+
+    @Test
+    void getAsync_failedCall_notRemembered() {
+        CompletableFuture<String> failed = memo.getAsync("getGroupDetails", 1,
+                () -> CompletableFuture.failedFuture(Status.DEADLINE_EXCEEDED.asRuntimeException()));
+        Assertions.assertThrows(StatusRuntimeException.class, () -> GrpcFutures.join(failed));
+
+        Assertions.assertEquals("answer 1", memo.get("getGroupDetails", 1, this::answer));
+    }
+
+    @Test
+    void change_forgetsAnswers() {
+        memo.get("getGroupDetails", 1, this::answer);
+        memo.change(() -> "changed");
+
+        Assertions.assertEquals("answer 2", memo.get("getGroupDetails", 1, this::answer));
+        Assertions.assertEquals(3, memo.getCallCount());
+    }
+
+    @Test
+    void outsideRequest_callsEveryTime() {
+        RequestContextHolder.resetRequestAttributes();
+
+        memo.get("getGroupDetails", 1, this::answer);
+        memo.get("getGroupDetails", 1, this::answer);
+
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(0, memo.getCallCount());
+    }
+}
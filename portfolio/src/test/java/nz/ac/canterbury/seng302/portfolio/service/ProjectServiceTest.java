@@ -21,6 +21,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.ArgumentMatchers.any;
@@ -187,7 +188,8 @@ public class ProjectServiceTest {
         List<ProjectGroup> pGS = new ArrayList<>();
         pGS.add(new ProjectGroup(project.getId(), 1));
         Mockito.when(projectGroupRepository.findProjectGroupsByProjectId(0)).thenReturn(pGS);
-        Mockito.when(groupClientGRPCService.getGroup(1)).thenReturn(GroupDetailsResponse.newBuilder().setGroupId(1).setLongName("Test Group").setShortName("TG").build());
+        Mockito.when(groupClientGRPCService.getGroupAsync(Mockito.eq(1), any())).thenReturn(CompletableFuture.completedFuture(
+                GroupDetailsResponse.newBuilder().setGroupId(1).setLongName("Test Group").setShortName("TG").build()));
 
         // Run
         List<GroupDetailsResponse> ret = projectService.getGroupsForProject(0);
@@ -196,6 +198,23 @@ public class ProjectServiceTest {
         Assertions.assertEquals("Test Group", ret.get(0).getLongName());
     }
 
+    @Test
+    public void test_getGroupsForProject_asksForEveryGroupBeforeWaiting() {
+        Mockito.when(projectGroupRepository.findProjectGroupsByProjectId(0)).thenReturn(List.of(
+                new ProjectGroup(0, 1), new ProjectGroup(0, 2)));
+        CompletableFuture<GroupDetailsResponse> first = new CompletableFuture<>();
+        Mockito.when(groupClientGRPCService.getGroupAsync(Mockito.eq(1), any())).thenReturn(first);
+        // The first group only arrives once the second has been asked for
+        Mockito.when(groupClientGRPCService.getGroupAsync(Mockito.eq(2), any())).thenAnswer(invocation -> {
+            first.complete(GroupDetailsResponse.newBuilder().setGroupId(1).build());
+            return CompletableFuture.completedFuture(GroupDetailsResponse.newBuilder().setGroupId(2).build());
+        });
+
+        List<GroupDetailsResponse> ret = projectService.getGroupsForProject(0);
+
+        Assertions.assertEquals(List.of(1, 2), ret.stream().map(GroupDetailsResponse::getGroupId).toList());
+    }
+
     @Test
     public void test_linkProjectAndGroup() {
         // Setup
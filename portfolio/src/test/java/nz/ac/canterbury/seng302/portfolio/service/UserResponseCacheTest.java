@@ -0,0 +1,103 @@
+package nz.ac.canterbury.seng302.portfolio.service;
+
+import nz.ac.canterbury.seng302.shared.identityprovider.UserResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserResponseCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private UserResponse user(int id) {
+        return UserResponse.newBuilder().setId(id).setUsername("user" + id).build();
+    }
+
+    @Test
+    void testGet_afterPut_hit() {
+        UserResponseCache cache = new UserResponseCache(10, 1000, now::get);
+        UserResponse user = user(1);
+
+        cache.put(user);
+
+        assertSame(user, cache.get(1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void testGet_unknownUser_miss() {
+        UserResponseCache cache = new UserResponseCache(10, 1000, now::get);
+        cache.put(user(1));
+
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitRate());
+    }
+
+    @Test
+    void testGet_pastTimeToLive_evicted() {
+        UserResponseCache cache = new UserResponseCache(10, 1000, now::get);
+        cache.put(user(1));
+
+        now.addAndGet(1000);
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testInvalidate_removesUser() {
+        UserResponseCache cache = new UserResponseCache(10, 1000, now::get);
+        cache.put(user(1));
+        cache.put(user(2));
+
+        cache.invalidate(1);
+
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    @Test
+    void testPut_full_evictsLeastRecentlyUsed() {
+        UserResponseCache cache = new UserResponseCache(2, 1000, now::get);
+        cache.put(user(1));
+        cache.put(user(2));
+        cache.get(1);
+
+        cache.put(user(3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    void testPut_invalidatedDuringFetch_skipped() {
+        UserResponseCache cache = new UserResponseCache(10, 1000, now::get);
+        long generation = cache.generation(1);
+
+        cache.invalidate(1);
+        cache.put(user(1), generation);
+
+        assertNull(cache.get(1));
+        cache.put(user(1), cache.generation(1));
+        assertNotNull(cache.get(1));
+    }
+
+    @Test
+    void testPut_invalidationForgotten_stillSkipped() {
+        UserResponseCache cache = new UserResponseCache(2, 1000, now::get);
+        long generation = cache.generation(1);
+
+        cache.invalidate(1);
+        cache.invalidate(2);
+        cache.invalidate(3);
+        cache.put(user(1), generation);
+
+        assertNull(cache.get(1));
+    }
+}
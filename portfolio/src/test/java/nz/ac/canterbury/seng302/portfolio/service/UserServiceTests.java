@@ -30,6 +30,9 @@ class UserServiceTests {
     @Mock
     private UserClientGRPCService grpcService;
 
+    @Mock
+    private DirectoryReplica directoryReplica;
+
     @Spy
     @InjectMocks
     private UserService userService;
@@ -84,70 +87,85 @@ class UserServiceTests {
         Assertions.assertEquals(result, userState);
     }
 
+    /**
+     * Helper function to create an AuthState with the given id and role claims, as issued by the IdP
+     */
+    private AuthState createAuthState(String id, String roles) {
+        return AuthState.newBuilder()
+                .setIsAuthenticated(true)
+                .setRoleClaimType("role")
+                .addClaims(ClaimDTO.newBuilder().setType("nameid").setValue(id).build())
+                .addClaims(ClaimDTO.newBuilder().setType("role").setValue(roles).build())
+                .build();
+    }
+
     @Test
     void test_getHighestRole_student() {
         // Setup
-        int userId = 0;
-        AuthState principal = AuthState.getDefaultInstance();
-        UserResponse userDetails = UserResponse.newBuilder().addRoles(UserRole.STUDENT).build();
-
-        // Mock
-        Mockito.when(userService.getIdFromAuthState(principal)).thenReturn(userId);
-        Mockito.when(grpcService.receiveGetUserAccountById(userId)).thenReturn(userDetails);
+        AuthState principal = createAuthState("1", "0");
 
         // Run
         UserRole role = userService.getHighestRole(principal);
 
         // Assert
         Assertions.assertEquals(role, UserRole.STUDENT);
+        Mockito.verifyNoInteractions(grpcService);
     }
 
     @Test
     void test_getHighestRole_teacher() {
         // Setup
-        int userId = 0;
-        AuthState principal = AuthState.getDefaultInstance();
-        UserResponse userDetails = UserResponse.newBuilder().addRoles(UserRole.STUDENT).addRoles(UserRole.TEACHER).build();
-
-        // Mock
-        Mockito.when(userService.getIdFromAuthState(principal)).thenReturn(userId);
-        Mockito.when(grpcService.receiveGetUserAccountById(userId)).thenReturn(userDetails);
+        AuthState principal = createAuthState("1", "10");
 
         // Run
         UserRole role = userService.getHighestRole(principal);
 
         // Assert
         Assertions.assertEquals(role, UserRole.TEACHER);
+        Mockito.verifyNoInteractions(grpcService);
     }
 
     @Test
     void test_getHighestRole_courseAdmin() {
         // Setup
-        int userId = 0;
-        AuthState principal = AuthState.getDefaultInstance();
-        UserResponse userDetails = UserResponse.newBuilder().addRoles(UserRole.STUDENT).addRoles(UserRole.TEACHER).addRoles(UserRole.COURSE_ADMINISTRATOR).build();
-
-        // Mock
-        Mockito.when(userService.getIdFromAuthState(principal)).thenReturn(userId);
-        Mockito.when(grpcService.receiveGetUserAccountById(userId)).thenReturn(userDetails);
+        AuthState principal = createAuthState("1", "210");
 
         // Run
         UserRole role = userService.getHighestRole(principal);
 
         // Assert
         Assertions.assertEquals(role, UserRole.COURSE_ADMINISTRATOR);
+        Mockito.verifyNoInteractions(grpcService);
+    }
+
+    @Test
+    void test_getHighestRole_roleNames() {
+        // Setup
+        AuthState principal = createAuthState("1", "student,teacher");
+
+        // Run
+        UserRole role = userService.getHighestRole(principal);
+
+        // Assert
+        Assertions.assertEquals(role, UserRole.TEACHER);
     }
 
     @Test
     void test_getHighestRole_unrecognized() {
         // Setup
-        int userId = 0;
-        AuthState principal = AuthState.getDefaultInstance();
-        UserResponse userDetails = UserResponse.newBuilder().build();
+        AuthState principal = createAuthState("1", "");
 
-        // Mock
-        Mockito.when(userService.getIdFromAuthState(principal)).thenReturn(userId);
-        Mockito.when(grpcService.receiveGetUserAccountById(userId)).thenReturn(userDetails);
+        // Run
+        UserRole role = userService.getHighestRole(principal);
+
+        // Assert
+        Assertions.assertEquals(role, UserRole.UNRECOGNIZED);
+    }
+
+    @Test
+    void test_getHighestRole_noUserId_unrecognized() {
+        // Setup
+        AuthState principal = AuthState.getDefaultInstance();
 
         // Run
         UserRole role = userService.getHighestRole(principal);
@@ -260,6 +278,16 @@ class UserServiceTests {
         Assertions.assertNull(userService.getUserDTO(1));
     }
 
+    @Test
+    void testGetUserDTO_replicaFresh_noIdpCall () {
+        UserResponse expected = UserResponse.newBuilder().setId(1).setFirstName("Steve").setLastName("Jobs").addRoles(UserRole.TEACHER).build();
+        Mockito.when(directoryReplica.getUser(1)).thenReturn(expected);
+        UserDTO result = userService.getUserDTO(1);
+        Assertions.assertEquals("Steve Jobs", result.getName());
+        Assertions.assertEquals(UserRole.TEACHER, result.getRoles().get(0));
+        Mockito.verify(grpcService, Mockito.never()).receiveGetUserAccountById(Mockito.anyInt());
+    }
+
     @Test
     void testGetCompleteUserDTO_validData () {
         UserResponse user = UserResponse.newBuilder().setFirstName("Steve").setLastName("Jobs").setUsername("AppleMan").setId(1).addRoles(UserRole.STUDENT).build();
@@ -469,4 +497,42 @@ class UserServiceTests {
 
         Assertions.assertThrows(BadRequest.class, () -> userService.getFilteredPaginatedUsers("😀😀", state));
     }
+
+    @Test
+    void test_getUserDTOs_singleCall() {
+        // Setup
+        List<Integer> ids = List.of(2, 1);
+        UserResponse first = UserResponse.newBuilder().setId(2).setFirstName("Jane").setLastName("Doe").addRoles(UserRole.TEACHER).build();
+        UserResponse second = UserResponse.newBuilder().setId(1).setFirstName("John").setLastName("Smith").build();
+
+        // Mock
+        Mockito.when(directoryReplica.getUsers(ids)).thenReturn(null);
+        Mockito.when(grpcService.receiveGetUsersByIds(ids)).thenReturn(List.of(first, second));
+
+        // Run
+        List<UserDTO> result = userService.getUserDTOs(ids);
+
+        // Assert
+        Assertions.assertEquals(2, result.size());
+        Assertions.assertEquals(2, result.get(0).getId());
+        Assertions.assertEquals("Jane Doe", result.get(0).getName());
+        Assertions.assertEquals(List.of(UserRole.TEACHER), result.get(0).getRoles());
+        Mockito.verify(grpcService, Mockito.never()).receiveGetUserAccountById(Mockito.anyInt());
+    }
+
+    @Test
+    void test_getProfilePictureUrl_versionedByHash() {
+        UserResponse user = UserResponse.newBuilder().setId(3).setProfileImageHash("abc").build();
+        Mockito.when(directoryReplica.getUser(3)).thenReturn(user);
+
+        Assertions.assertEquals("api/user/profilePicture?userId=3&v=abc", userService.getProfilePictureUrl(3));
+        Mockito.verifyNoInteractions(grpcService);
+    }
+
+    @Test
+    void test_getProfilePictureUrl_noPhoto_defaultVersion() {
+        Mockito.when(grpcService.receiveGetUserAccountById(3)).thenReturn(UserResponse.newBuilder().setId(3).build());
+
+        Assertions.assertEquals("api/user/profilePicture?userId=3&v=default", userService.getProfilePictureUrl(3));
+    }
 }
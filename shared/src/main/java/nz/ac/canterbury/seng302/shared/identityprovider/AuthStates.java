@@ -0,0 +1,76 @@
+package nz.ac.canterbury.seng302.shared.identityprovider;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds AuthStates from the claims of a verified session token. Shared so that the IdP's checkAuthState and the
+ * portfolio's local token verification produce exactly the same AuthState for the same token.
+ */
+public final class AuthStates {
+
+    public static final String ROLE_CLAIM_TYPE = "role";
+    public static final String NAME_CLAIM_TYPE = "name";
+    public static final String AUTHENTICATION_TYPE = "AuthenticationTypes.Federation";
+
+    private static final String ISSUER_CLAIM = "iss";
+
+    private static final Map<Class<?>, String> jwtValueTypesForJavaClasses = Map.of(
+            String.class, "http://www.w3.org/2001/XMLSchema#string",
+            Integer.class, "http://www.w3.org/2001/XMLSchema#integer"
+    );
+
+    private AuthStates() {}
+
+    /**
+     * @return The AuthState for a missing, invalid or expired token
+     */
+    public static AuthState unauthenticated() {
+        return AuthState.newBuilder().setIsAuthenticated(false).build();
+    }
+
+    /**
+     * Builds the AuthState for a token that has already been verified.
+     *
+     * @param claims The claims in the body of the token (e.g. a jjwt Claims object)
+     * @return An authenticated AuthState carrying the claims LENS expects
+     */
+    public static AuthState authenticated(Map<String, ?> claims) {
+        return AuthState.newBuilder()
+                .addAllClaims(getClaimDTOs(claims))
+                .setIsAuthenticated(true)
+                .setNameClaimType(NAME_CLAIM_TYPE)
+                .setRoleClaimType(ROLE_CLAIM_TYPE)
+                .setAuthenticationType(AUTHENTICATION_TYPE)
+                .setName(Objects.toString(claims.get(NAME_CLAIM_TYPE), ""))
+                .build();
+    }
+
+    /**
+     * Pulls certain expected claims out to form a list of ClaimDTOs. These DTOs allow for serializing the claims for
+     * use in any other system. This format also corresponds with the authentication scheme expected by LENS.
+     */
+    private static List<ClaimDTO> getClaimDTOs(Map<String, ?> claims) {
+        String issuer = Objects.toString(claims.get(ISSUER_CLAIM), "");
+        return Stream.of("unique_name", "sub", "nameid", NAME_CLAIM_TYPE, ROLE_CLAIM_TYPE, "nbf", "exp", "iat")
+                .map(type -> getClaimAsDTO(type, claims.get(type), issuer))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static ClaimDTO getClaimAsDTO(String type, Object value, String issuer) {
+        if (value == null) {
+            return null;
+        }
+        return ClaimDTO.newBuilder()
+                .setIssuer(issuer)
+                .setOriginalIssuer(issuer)
+                .setType(type)
+                .setValue(value.toString())
+                .setValueType(jwtValueTypesForJavaClasses.getOrDefault(value.getClass(), ""))
+                .build();
+    }
+}